@@ -50,9 +50,14 @@ public class Aggregate extends Operator {
         this.noGrouping = (gbFieldNum == Aggregator.NO_GROUPING);
         TupleDesc desc = inputIter.getTupleDesc();
         Type gbFieldType = noGrouping ? null : desc.getFieldType(gbFieldNum);
-        if (desc.getFieldType(operandNum) == Type.INT_TYPE) {
+        Type operandType = desc.getFieldType(operandNum);
+        if (operandType == Type.INT_TYPE) {
             aggregator = new IntegerAggregator(gbFieldNum, gbFieldType,
                     operandNum, op);
+        } else if (operandType == Type.LONG_TYPE || operandType == Type.DOUBLE_TYPE
+                || operandType == Type.DATE_TYPE) {
+            aggregator = new NumericAggregator(gbFieldNum, gbFieldType,
+                    operandNum, operandType, op);
         } else {
             aggregator = new StringAggregator(gbFieldNum, gbFieldType,
                     operandNum, op);
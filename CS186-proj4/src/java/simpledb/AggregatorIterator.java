@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
@@ -13,23 +14,43 @@ public class AggregatorIterator implements DbIterator {
     private int end;
     private TupleDesc tupleDesc;
 
-    private Map<Field, Integer> map;
+    private Map<Field, Field> map;
     private boolean noGrouping;
 
     public AggregatorIterator(Map<Field, Integer> map, Type fieldType, boolean noGrouping) {
+        this(toFields(map), fieldType, Type.INT_TYPE, noGrouping);
+    }
+
+    /**
+     * Iterates over aggregate values of any type, e.g. those of a
+     * NumericAggregator.
+     *
+     * @param valueType
+     *            the type of the aggregate values
+     */
+    public AggregatorIterator(Map<Field, Field> map, Type fieldType, Type valueType,
+            boolean noGrouping) {
         this.isOpen = false;
         this.keys = map.keySet().toArray(new Field[map.size()]);
         this.cursor = 0;
         this.end = map.size();
         if (!noGrouping) {
-            this.tupleDesc = new TupleDesc(new Type[] { fieldType, Type.INT_TYPE });
+            this.tupleDesc = new TupleDesc(new Type[] { fieldType, valueType });
         } else {
-            this.tupleDesc = new TupleDesc(new Type[] { Type.INT_TYPE });
+            this.tupleDesc = new TupleDesc(new Type[] { valueType });
         }
         this.map = map;
         this.noGrouping = noGrouping;
     }
 
+    private static Map<Field, Field> toFields(Map<Field, Integer> map) {
+        Map<Field, Field> fields = new LinkedHashMap<Field, Field>();
+        for (Map.Entry<Field, Integer> e : map.entrySet()) {
+            fields.put(e.getKey(), new IntField(e.getValue()));
+        }
+        return fields;
+    }
+
     @Override
     public void open() throws DbException, TransactionAbortedException {
         this.isOpen = true;
@@ -55,7 +76,7 @@ public class AggregatorIterator implements DbIterator {
         }
 
         Field keyField = keys[cursor];
-        Field valueField = new IntField((int) map.get(keyField));
+        Field valueField = map.get(keyField);
         cursor++;
         Field[] fields;
         if (!noGrouping) {
@@ -0,0 +1,407 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is an IndexFile that keeps the entries of an index on one field
+ * of a HeapFile in a B+ tree of BTreePages. Page 0 of the file points to the
+ * root; the leaves hold the entries in key order and are chained from left to
+ * right, so a range of keys is read by descending to the leaf of the first
+ * key and following the chain.
+ * <p>
+ * Pages are read through the buffer pool and locked like the pages of
+ * tables: lookups lock the pages on their path READ_ONLY, and an insert or
+ * delete locks the leaf it changes READ_WRITE, as well as the parents a split
+ * adds separators to. A full page is split in two, and a full root gets a new
+ * root above it. Pages are never merged: a delete only removes the entry from
+ * its leaf, so leaves emptied by deletes stay in the tree until the index is
+ * rebuilt.
+ *
+ * @see BTreePage
+ * @see IndexScan
+ */
+public class BTreeFile extends PagedIndexFile<BTreePage> {
+
+    private static final long serialVersionUID = 1L;
+
+    // the share of a page rebuild() fills, so that inserts after a rebuild
+    // don't split every page at once
+    private static final double BUILD_FILL = 0.75;
+
+    // the fields of a separator key, the key alone, named as in the table
+    private final TupleDesc keyDesc;
+
+    /**
+     * Constructs a B+ tree index backed by the specified file. A file that
+     * is empty, doesn't exist yet or is out of date, see PagedIndexFile,
+     * has to be filled with {@link #rebuild} before the index is used;
+     * {@link Catalog#addIndex} does that.
+     *
+     * @param f
+     *            the file that stores the pages of the index
+     * @param table
+     *            the file of the indexed table
+     * @param keyField
+     *            the index of the field of the table the index is on
+     * @throws IllegalArgumentException
+     *             if the table has no such field, it is of a variable length
+     *             type, or too few of its values fit on a page
+     */
+    public BTreeFile(File f, HeapFile table, int keyField) {
+        this(f, table, keyField, new int[0]);
+    }
+
+    /**
+     * Constructs a B+ tree index whose entries also carry the values of the
+     * given fields of the table, so that it covers queries that need only
+     * those fields and the key.
+     *
+     * @param includedFields
+     *            the indexes of the fields of the table to include, none of
+     *            which may be the key
+     * @throws IllegalArgumentException
+     *             if the table has no such key field, it or an included field
+     *             is of a variable length type or included twice, or too few
+     *             entries fit on a page
+     * @see #BTreeFile(File, HeapFile, int)
+     */
+    public BTreeFile(File f, HeapFile table, int keyField, int[] includedFields) {
+        super(f, table, keyField, includedFields);
+        TupleDesc td = table.getTupleDesc();
+        this.keyDesc = new TupleDesc(new Type[] { td.getFieldType(keyField) },
+                new String[] { td.getFieldName(keyField) });
+        if (BTreePage.getMaxEntries(entryDesc) < 2
+                || BTreePage.getMaxSeparators(keyDesc) < 2) {
+            throw new IllegalArgumentException("pages are too small to index "
+                    + td.getFieldName(keyField));
+        }
+    }
+
+    // see IndexFile.java for javadocs
+    public boolean isOrdered() {
+        return true;
+    }
+
+    /**
+     * Returns the TupleDesc of the separator keys of internal pages.
+     */
+    TupleDesc getKeyDesc() {
+        return keyDesc;
+    }
+
+    // see PagedIndexFile.java for javadocs
+    protected BTreePageId pageId(int pageNo) {
+        return new BTreePageId(getId(), pageNo);
+    }
+
+    // see PagedIndexFile.java for javadocs
+    protected BTreePage createPage(PageId pid, byte[] data) {
+        return new BTreePage((BTreePageId) pid, data, this);
+    }
+
+    // see PagedIndexFile.java for javadocs
+    protected BTreePage createPage(PageId pid, int kind) {
+        return new BTreePage((BTreePageId) pid, kind, this);
+    }
+
+    /**
+     * Returns the separator that splits the entries before entry from entry
+     * and those after it.
+     */
+    private Tuple separatorOf(Tuple entry) {
+        Tuple separator = new Tuple(keyDesc, new Field[] { entry.getField(0) });
+        separator.setRecordId(entry.getRecordId());
+        return separator;
+    }
+
+    /**
+     * Descends from the root to the leaf entry belongs in, locking the
+     * internal pages on the way READ_ONLY and the leaf READ_WRITE.
+     *
+     * @param path
+     *            filled with the root pointer page and the internal pages on
+     *            the way, from the top down
+     */
+    private BTreePage findLeaf(TransactionId tid, Tuple entry, List<BTreePage> path)
+            throws TransactionAbortedException, DbException {
+        BTreePage rootPointer = getPage(tid, 0, Permissions.READ_ONLY);
+        path.add(rootPointer);
+        int pageNo = rootPointer.getLink();
+        for (int level = rootPointer.getHeight(); level > 1; level--) {
+            BTreePage page = getPage(tid, pageNo, Permissions.READ_ONLY);
+            path.add(page);
+            pageNo = page.getChildren().get(page.indexAfter(entry));
+        }
+        return getPage(tid, pageNo, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Adds the entry of t, a tuple of the indexed table with its RecordId
+     * set, splitting pages that overflow.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Tuple entry = entryOf(t);
+        ArrayList<BTreePage> path = new ArrayList<BTreePage>();
+        BTreePage leaf = findLeaf(tid, entry, path);
+        leaf.getEntries().add(leaf.indexAfter(entry), entry);
+        leaf.markDirty(true, tid);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        dirtied.add(leaf);
+
+        BTreePage page = leaf;
+        int level = path.size();
+        while (page.isOverfull()) {
+            BTreePage right = allocatePage(tid, page.isLeaf() ? BTreePage.LEAF
+                    : BTreePage.INTERNAL);
+            Tuple separator = split(page, right);
+            dirtied.add(right);
+
+            BTreePage parent = getPage(tid, path.get(--level).getId().pageNumber(),
+                    Permissions.READ_WRITE);
+            if (level == 0) {
+                // the root was split; a new root goes above it
+                BTreePage root = allocatePage(tid, BTreePage.INTERNAL);
+                root.getChildren().add(page.getId().pageNumber());
+                root.getChildren().add(right.getId().pageNumber());
+                root.getEntries().add(separator);
+                parent.setLink(root.getId().pageNumber());
+                parent.setHeight(parent.getHeight() + 1);
+                parent.markDirty(true, tid);
+                dirtied.add(root);
+                dirtied.add(parent);
+                break;
+            }
+            int at = parent.indexAfter(separator);
+            parent.getEntries().add(at, separator);
+            parent.getChildren().add(at + 1, right.getId().pageNumber());
+            parent.markDirty(true, tid);
+            dirtied.add(parent);
+            page = parent;
+        }
+        return dirtied;
+    }
+
+    /**
+     * Moves the upper half of the entries of an overfull page to right, an
+     * empty page of the same kind, and returns the separator between them.
+     * The middle separator of an internal page moves up to the parent
+     * rather than to right.
+     */
+    private Tuple split(BTreePage page, BTreePage right) {
+        List<Tuple> entries = page.getEntries();
+        int half = entries.size() / 2;
+        Tuple separator;
+        if (page.isLeaf()) {
+            List<Tuple> upper = entries.subList(half, entries.size());
+            right.getEntries().addAll(upper);
+            upper.clear();
+            right.setLink(page.getLink());
+            page.setLink(right.getId().pageNumber());
+            separator = separatorOf(right.getEntries().get(0));
+        } else {
+            separator = entries.get(half);
+            List<Tuple> upper = entries.subList(half + 1, entries.size());
+            right.getEntries().addAll(upper);
+            upper.clear();
+            entries.remove(half);
+            List<Integer> children = page.getChildren().subList(half + 1,
+                    page.getChildren().size());
+            right.getChildren().addAll(children);
+            children.clear();
+        }
+        return separator;
+    }
+
+    /**
+     * Removes the entry of t, a tuple of the indexed table with its RecordId
+     * set.
+     *
+     * @throws DbException
+     *             if the index has no entry for t
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        Tuple entry = entryOf(t);
+        BTreePage leaf = findLeaf(tid, entry, new ArrayList<BTreePage>());
+        int at = leaf.indexAfter(entry) - 1;
+        if (at < 0 || BTreePage.compare(leaf.getEntries().get(at), entry) != 0) {
+            throw new DbException("index " + file + " has no entry for " + t);
+        }
+        leaf.getEntries().remove(at);
+        leaf.markDirty(true, tid);
+        return leaf;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, null);
+    }
+
+    // see IndexFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, Field lower, Field upper) {
+        return new BTreeFileIterator(tid, lower, upper);
+    }
+
+    private class BTreeFileIterator implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId transactionId;
+        private final Field lower;
+        private final Field upper;
+        private BTreePage leaf;
+        private int cursor;
+        // the next entry in the range, found by hasNext()
+        private Tuple next;
+        private boolean isOpen;
+
+        BTreeFileIterator(TransactionId tid, Field lower, Field upper) {
+            this.transactionId = tid;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            BTreePage rootPointer = getPage(transactionId, 0, Permissions.READ_ONLY);
+            int pageNo = rootPointer.getLink();
+            for (int level = rootPointer.getHeight(); level > 1; level--) {
+                BTreePage page = getPage(transactionId, pageNo,
+                        Permissions.READ_ONLY);
+                pageNo = page.getChildren().get(lower == null ? 0
+                        : page.indexOfKey(lower));
+            }
+            leaf = getPage(transactionId, pageNo, Permissions.READ_ONLY);
+            cursor = lower == null ? 0 : leaf.indexOfKey(lower);
+            next = null;
+            isOpen = true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!isOpen) {
+                return false;
+            }
+            while (next == null && leaf != null) {
+                if (cursor < leaf.getEntries().size()) {
+                    Tuple entry = leaf.getEntries().get(cursor++);
+                    if (upper != null && entry.getField(0)
+                            .compare(Predicate.Op.GREATER_THAN, upper)) {
+                        leaf = null;
+                    } else {
+                        next = entry;
+                    }
+                } else if (leaf.getLink() == 0) {
+                    leaf = null;
+                } else {
+                    leaf = getPage(transactionId, leaf.getLink(),
+                            Permissions.READ_ONLY);
+                    cursor = 0;
+                }
+            }
+            return next != null;
+        }
+
+        public Tuple next()
+                throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple entry = next;
+            next = null;
+            return entry;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            isOpen = false;
+            leaf = null;
+            next = null;
+        }
+    }
+
+    /**
+     * Rebuilds the tree bottom up from the sorted entries of the tuples of
+     * the table as committed to disk, filling pages to BUILD_FILL, and
+     * writes it straight to the file. The leaves are built one at a time
+     * from the sorted run, so only the levels above them are kept in memory.
+     */
+    public synchronized void rebuild() throws IOException {
+        // the page numbers of one level of the tree, and the first entry
+        // under each of its pages
+        ArrayList<Integer> level = new ArrayList<Integer>();
+        ArrayList<Tuple> firsts = new ArrayList<Tuple>();
+        int perLeaf = Math.max(1,
+                (int) (BTreePage.getMaxEntries(entryDesc) * BUILD_FILL));
+        try (ExternalSort entries = sortEntries(new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                return BTreePage.compare(a, b);
+            }
+        })) {
+            discardPages();
+            pageCount = 1;
+
+            BTreePage leaf = null;
+            Tuple entry = entries.next();
+            while (entry != null || leaf == null) {
+                BTreePage next = new BTreePage(new BTreePageId(getId(), pageCount++),
+                        BTreePage.LEAF, this);
+                while (entry != null && next.getEntries().size() < perLeaf) {
+                    next.getEntries().add(entry);
+                    entry = entries.next();
+                }
+                if (leaf != null) {
+                    leaf.setLink(next.getId().pageNumber());
+                    writePage(leaf);
+                }
+                leaf = next;
+                level.add(leaf.getId().pageNumber());
+                firsts.add(leaf.getEntries().isEmpty() ? null : leaf.getEntries().get(0));
+            }
+            writePage(leaf);
+        }
+
+        int height = 1;
+        int perNode = Math.max(2,
+                (int) ((BTreePage.getMaxSeparators(keyDesc) + 1) * BUILD_FILL));
+        while (level.size() > 1) {
+            ArrayList<Integer> upper = new ArrayList<Integer>();
+            ArrayList<Tuple> upperFirsts = new ArrayList<Tuple>();
+            for (int i = 0; i < level.size(); i += perNode) {
+                BTreePage node = new BTreePage(new BTreePageId(getId(), pageCount++),
+                        BTreePage.INTERNAL, this);
+                int end = Math.min(level.size(), i + perNode);
+                if (end - i == 1) {
+                    // a lone child goes to the node before instead
+                    BTreePage last = (BTreePage) readPage(new BTreePageId(getId(),
+                            upper.get(upper.size() - 1)));
+                    last.getEntries().add(separatorOf(firsts.get(i)));
+                    last.getChildren().add(level.get(i));
+                    writePage(last);
+                    pageCount--;
+                    break;
+                }
+                node.getChildren().addAll(level.subList(i, end));
+                for (int j = i + 1; j < end; j++) {
+                    node.getEntries().add(separatorOf(firsts.get(j)));
+                }
+                writePage(node);
+                upper.add(node.getId().pageNumber());
+                upperFirsts.add(firsts.get(i));
+            }
+            level = upper;
+            firsts = upperFirsts;
+            height++;
+        }
+
+        BTreePage rootPointer = new BTreePage(new BTreePageId(getId(), 0),
+                BTreePage.ROOT_POINTER, this);
+        rootPointer.setLink(level.get(0));
+        rootPointer.setHeight(height);
+        writePage(rootPointer);
+        finishRebuild();
+    }
+}
@@ -0,0 +1,300 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Each instance of BTreePage stores one node of a BTreeFile. A page starts
+ * with a one-byte kind, an int count and an int link, followed by:
+ * <ul>
+ * <li>on a leaf, count entries in order. Each is the fields of the entry
+ * followed by the page number and slot of the RecordId of the indexed tuple.
+ * The link is the page number of the next leaf, or 0 for the last one.
+ * <li>on an internal node, count + 1 child page numbers followed by count
+ * separators, each a key and a RecordId stored as in a leaf entry. The
+ * entries under child i are at least separator i - 1 and less than separator
+ * i, so that entries with equal keys may span several leaves.
+ * <li>on the root pointer page, page 0 of every index, nothing: the link is
+ * the page number of the root and the count the height of the tree, 1 when
+ * the root is a leaf.
+ * </ul>
+ * Entries are ordered by key and then by RecordId, which makes every entry
+ * unique.
+ *
+ * @see BTreeFile
+ */
+public class BTreePage implements Page {
+
+    static final int LEAF = 1;
+    static final int INTERNAL = 2;
+    static final int ROOT_POINTER = 3;
+
+    static final int HEADER_SIZE = 9;
+    // the page number and slot of a RecordId
+    static final int RID_SIZE = 8;
+
+    private final BTreePageId pid;
+    private final BTreeFile file;
+    private int kind;
+    private int link;
+    // the height of the tree, on the root pointer page
+    private int height;
+    // the entries of a leaf or the separators of an internal node
+    private final ArrayList<Tuple> entries = new ArrayList<Tuple>();
+    private final ArrayList<Integer> children = new ArrayList<Integer>();
+
+    byte[] oldData;
+
+    private TransactionId dirtyTransactionId;
+    private boolean isDirty;
+
+    /**
+     * Create a BTreePage from a set of bytes of data read from disk.
+     */
+    public BTreePage(BTreePageId id, byte[] data) {
+        this(id, data, (BTreeFile) Database.getCatalog().getDbFile(id.getTableId()));
+    }
+
+    BTreePage(BTreePageId id, byte[] data, BTreeFile file) {
+        this.pid = id;
+        this.file = file;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.kind = buf.get(0);
+        int count = buf.getInt(1);
+        this.link = buf.getInt(5);
+        int offset = HEADER_SIZE;
+        try {
+            if (kind == LEAF) {
+                for (int i = 0; i < count; i++) {
+                    entries.add(readEntry(buf, offset, file.getTupleDesc()));
+                    offset += file.getTupleDesc().getSize() + RID_SIZE;
+                }
+            } else if (kind == INTERNAL) {
+                for (int i = 0; i <= count; i++) {
+                    children.add(buf.getInt(offset));
+                    offset += 4;
+                }
+                for (int i = 0; i < count; i++) {
+                    entries.add(readEntry(buf, offset, file.getKeyDesc()));
+                    offset += file.getKeyDesc().getSize() + RID_SIZE;
+                }
+            } else {
+                this.height = count;
+            }
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        this.oldData = data;
+    }
+
+    /**
+     * Creates an empty page of the given kind.
+     */
+    BTreePage(BTreePageId id, int kind, BTreeFile file) {
+        this.pid = id;
+        this.file = file;
+        this.kind = kind;
+        this.oldData = createEmptyPageData();
+    }
+
+    private Tuple readEntry(ByteBuffer buf, int offset, TupleDesc td)
+            throws java.text.ParseException {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            t.setField(j, td.getFieldType(j).parse(buf, offset));
+            offset += td.getFieldType(j).getLen();
+        }
+        t.setRecordId(new RecordId(new HeapPageId(file.getTable().getId(),
+                buf.getInt(offset)), buf.getInt(offset + 4)));
+        return t;
+    }
+
+    private static int writeEntry(ByteBuffer buf, int offset, Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        for (int j = 0; j < td.numFields(); j++) {
+            td.getFieldType(j).serialize(t.getField(j), buf, offset);
+            offset += td.getFieldType(j).getLen();
+        }
+        RecordId rid = t.getRecordId();
+        buf.putInt(offset, rid.getPageId().pageNumber());
+        buf.putInt(offset + 4, rid.tupleno());
+        return offset + RID_SIZE;
+    }
+
+    /**
+     * Returns the number of leaf entries of the given TupleDesc that fit on
+     * a page.
+     */
+    static int getMaxEntries(TupleDesc entryDesc) {
+        return (BufferPool.getPageSize() - HEADER_SIZE)
+                / (entryDesc.getSize() + RID_SIZE);
+    }
+
+    /**
+     * Returns the number of separators with keys of the given TupleDesc that
+     * fit on an internal page, along with one child more.
+     */
+    static int getMaxSeparators(TupleDesc keyDesc) {
+        return (BufferPool.getPageSize() - HEADER_SIZE - 4)
+                / (keyDesc.getSize() + RID_SIZE + 4);
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * Return a view of this page before it was modified -- used by recovery
+     */
+    public BTreePage getBeforeImage() {
+        return new BTreePage(pid, oldData.clone(), file);
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.put(0, (byte) kind);
+        buf.putInt(1, kind == ROOT_POINTER ? height : entries.size());
+        buf.putInt(5, link);
+        int offset = HEADER_SIZE;
+        if (kind == INTERNAL) {
+            for (int child : children) {
+                buf.putInt(offset, child);
+                offset += 4;
+            }
+        }
+        for (Tuple t : entries) {
+            offset = writeEntry(buf, offset, t);
+        }
+        return data;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * BTreePage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; // all 0
+    }
+
+    public boolean isLeaf() {
+        return kind == LEAF;
+    }
+
+    /**
+     * Returns the page number of the next leaf of a leaf, or of the root on
+     * the root pointer page.
+     */
+    public int getLink() {
+        return link;
+    }
+
+    public void setLink(int link) {
+        this.link = link;
+    }
+
+    /** Returns the height of the tree, on the root pointer page. */
+    public int getHeight() {
+        return height;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    /**
+     * Returns the entries of a leaf or the separators of an internal node, in
+     * order. The list is the page's own.
+     */
+    List<Tuple> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the child page numbers of an internal node, one more than its
+     * separators. The list is the page's own.
+     */
+    List<Integer> getChildren() {
+        return children;
+    }
+
+    /**
+     * Returns true if the page holds more entries than fit on it, and has to
+     * be split before it is written.
+     */
+    boolean isOverfull() {
+        return entries.size() > (kind == LEAF ? getMaxEntries(file.getTupleDesc())
+                : getMaxSeparators(file.getKeyDesc()));
+    }
+
+    /**
+     * Returns the number of entries of this page that come before or equal
+     * entry, which is where entry goes in a leaf, and the child of an
+     * internal node it belongs under.
+     */
+    int indexAfter(Tuple entry) {
+        int lo = 0;
+        int hi = entries.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(entries.get(mid), entry) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the number of entries of this page whose key is less than key,
+     * which is where a scan for keys from key on starts in a leaf, and the
+     * child of an internal node it descends to.
+     */
+    int indexOfKey(Field key) {
+        int lo = 0;
+        int hi = entries.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (entries.get(mid).getField(0).compare(Predicate.Op.LESS_THAN, key)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Compares two entries by key and then by RecordId.
+     */
+    static int compare(Tuple a, Tuple b) {
+        Field ka = a.getField(0);
+        Field kb = b.getField(0);
+        if (ka.compare(Predicate.Op.LESS_THAN, kb)) {
+            return -1;
+        }
+        if (ka.compare(Predicate.Op.GREATER_THAN, kb)) {
+            return 1;
+        }
+        RecordId ra = a.getRecordId();
+        RecordId rb = b.getRecordId();
+        int c = Integer.compare(ra.getPageId().pageNumber(),
+                rb.getPageId().pageNumber());
+        return c != 0 ? c : Integer.compare(ra.tupleno(), rb.tupleno());
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTransactionId = tid;
+        this.isDirty = dirty;
+    }
+
+    public TransactionId isDirty() {
+        return isDirty ? dirtyTransactionId : null;
+    }
+}
@@ -0,0 +1,491 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BitmapFile is an IndexFile that keeps, for each distinct value of one
+ * field of a HeapFile, a bitmap of the positions of the tuples with that
+ * value. The tuple in slot s of page p is at position p * n + s, where n is
+ * {@link HeapFile#maxTuplesPerPage}. Page 0 of the file is the first page of
+ * a directory of the keys, which points to the first page of the bitmap of
+ * each key; bitmaps are compressed as described in {@link BitmapPage}, and a
+ * bitmap that outgrows its page chains more pages.
+ * <p>
+ * Every distinct key takes at least a page, so bitmap indexes are meant for
+ * fields with few distinct values. They find the tuples of any predicate on
+ * their key by ORing the bitmaps of the keys that satisfy it, and the
+ * bitmaps of several indexes of a table can be combined before the table
+ * is read at all, as {@link BitmapScan} does. Pages are read through the
+ * buffer pool and locked like the pages of tables: lookups lock the pages
+ * they read READ_ONLY, and an insert or delete locks the page of the bitmap
+ * it changes READ_WRITE, and the directory too if it adds a key. Keys are
+ * never removed from the directory.
+ *
+ * @see BitmapPage
+ * @see BitmapScan
+ */
+public class BitmapFile extends PagedIndexFile<BitmapPage> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a bitmap index backed by the specified file. A file that is
+     * empty, doesn't exist yet or is out of date, see PagedIndexFile, has
+     * to be filled with {@link #rebuild} before the index is used;
+     * {@link Catalog#addIndex} does that.
+     *
+     * @param f
+     *            the file that stores the pages of the index
+     * @param table
+     *            the file of the indexed table
+     * @param keyField
+     *            the index of the field of the table the index is on
+     * @throws IllegalArgumentException
+     *             if the table has no such field, it is of a variable length
+     *             type, or its values don't fit on a page
+     */
+    public BitmapFile(File f, HeapFile table, int keyField) {
+        // a bitmap has no room for values other than the key
+        super(f, table, keyField, new int[0]);
+        TupleDesc td = table.getTupleDesc();
+        if (BitmapPage.getMaxKeys(td.getFieldType(keyField)) < 1) {
+            throw new IllegalArgumentException("pages are too small to index "
+                    + td.getFieldName(keyField));
+        }
+    }
+
+    // see IndexFile.java for javadocs
+    public boolean isOrdered() {
+        return true;
+    }
+
+    // see PagedIndexFile.java for javadocs
+    protected BitmapPageId pageId(int pageNo) {
+        return new BitmapPageId(getId(), pageNo);
+    }
+
+    // see PagedIndexFile.java for javadocs
+    protected BitmapPage createPage(PageId pid, byte[] data) {
+        return new BitmapPage((BitmapPageId) pid, data, this);
+    }
+
+    // see PagedIndexFile.java for javadocs
+    protected BitmapPage createPage(PageId pid, int kind) {
+        return new BitmapPage((BitmapPageId) pid, kind, this);
+    }
+
+    /**
+     * Returns the position of a tuple of the table in the bitmaps.
+     */
+    private long positionOf(RecordId rid) {
+        return (long) rid.getPageId().pageNumber() * table.maxTuplesPerPage()
+                + rid.tupleno();
+    }
+
+    /**
+     * Returns the RecordId of the tuple of the table at a position in the
+     * bitmaps.
+     */
+    private RecordId recordIdOf(long position) {
+        int perPage = table.maxTuplesPerPage();
+        return new RecordId(new HeapPageId(table.getId(), (int) (position / perPage)),
+                (int) (position % perPage));
+    }
+
+    /**
+     * Returns the keys of the index and the first pages of their bitmaps,
+     * reading the directory READ_ONLY.
+     */
+    private Map<Field, Integer> readDirectory(TransactionId tid)
+            throws TransactionAbortedException, DbException {
+        Map<Field, Integer> directory = new HashMap<Field, Integer>();
+        int pageNo = 0;
+        do {
+            BitmapPage page = getPage(tid, pageNo, Permissions.READ_ONLY);
+            for (int i = 0; i < page.getKeys().size(); i++) {
+                directory.put(page.getKeys().get(i), page.getPages().get(i));
+            }
+            pageNo = page.getLink();
+        } while (pageNo != 0);
+        return directory;
+    }
+
+    /**
+     * Returns the first page of the bitmap of a key, adding the key to the
+     * directory with an empty bitmap if it isn't there yet. The pages it
+     * changed are added to dirtied.
+     */
+    private int addKey(TransactionId tid, Field key, List<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        Integer first = readDirectory(tid).get(key);
+        if (first != null) {
+            return first;
+        }
+        BitmapPage page = getPage(tid, 0, Permissions.READ_WRITE);
+        while (page.isFull() && page.getLink() != 0) {
+            page = getPage(tid, page.getLink(), Permissions.READ_WRITE);
+        }
+        if (page.isFull()) {
+            BitmapPage next = allocatePage(tid, BitmapPage.DIRECTORY);
+            page.setLink(next.getId().pageNumber());
+            page.markDirty(true, tid);
+            dirtied.add(page);
+            page = next;
+        }
+        BitmapPage bitmap = allocatePage(tid, BitmapPage.BITMAP);
+        page.getKeys().add(key);
+        page.getPages().add(bitmap.getId().pageNumber());
+        page.markDirty(true, tid);
+        dirtied.add(page);
+        dirtied.add(bitmap);
+        return bitmap.getId().pageNumber();
+    }
+
+    /**
+     * Sets or clears the bit at a position of the bitmap starting at page
+     * first, and returns the pages it changed. The page the bit is on is
+     * re-encoded, and pages are chained after it if it no longer fits.
+     *
+     * @return false if the bit already had that value
+     */
+    private boolean update(TransactionId tid, int first, long position, boolean set,
+            List<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        if (position >> 6 >= Integer.MAX_VALUE) {
+            throw new DbException("position " + position + " is past the end of a bitmap");
+        }
+        int word = (int) (position >> 6);
+        long bit = 1L << (position & 63);
+        BitmapPage page = getPage(tid, first, Permissions.READ_WRITE);
+        int start = 0;
+        while (word >= start + page.getSpan() && page.getLink() != 0) {
+            start += page.getSpan();
+            page = getPage(tid, page.getLink(), Permissions.READ_WRITE);
+        }
+
+        BitmapPage.Encoder encoder = new BitmapPage.Encoder();
+        long[] codes = page.getCodes();
+        int w = start;
+        boolean changed = false;
+        for (int i = 0; i < codes.length;) {
+            long marker = codes[i++];
+            boolean fill = BitmapPage.fillOf(marker);
+            int run = BitmapPage.runOf(marker);
+            if (word >= w && word < w + run) {
+                encoder.addRun(fill, word - w);
+                long old = fill ? -1L : 0L;
+                long updated = set ? old | bit : old & ~bit;
+                changed = updated != old;
+                encoder.addWord(updated);
+                encoder.addRun(fill, w + run - word - 1);
+            } else {
+                encoder.addRun(fill, run);
+            }
+            w += run;
+            for (int j = BitmapPage.literalsOf(marker); j > 0; j--, i++, w++) {
+                long old = codes[i];
+                if (w == word) {
+                    long updated = set ? old | bit : old & ~bit;
+                    changed = updated != old;
+                    encoder.addWord(updated);
+                } else {
+                    encoder.addWord(old);
+                }
+            }
+        }
+        if (word >= w) {
+            // past the end of the bitmap, where all bits are 0
+            if (!set) {
+                return false;
+            }
+            encoder.addRun(false, word - w);
+            encoder.addWord(bit);
+            changed = true;
+        }
+        if (!changed) {
+            return false;
+        }
+
+        List<long[]> chunks = encoder.finish();
+        page.setCodes(chunks.get(0));
+        page.markDirty(true, tid);
+        dirtied.add(page);
+        for (int i = 1; i < chunks.size(); i++) {
+            BitmapPage next = allocatePage(tid, BitmapPage.BITMAP);
+            next.setCodes(chunks.get(i));
+            next.setLink(page.getLink());
+            page.setLink(next.getId().pageNumber());
+            page = next;
+            dirtied.add(page);
+        }
+        return true;
+    }
+
+    /**
+     * Sets the bit of t, a tuple of the indexed table with its RecordId set,
+     * in the bitmap of its key, adding the key if it is new.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t.getRecordId() == null || t.getField(keyField) == null) {
+            throw new DbException("tuple " + t + " can't be indexed");
+        }
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        int first = addKey(tid, t.getField(keyField), dirtied);
+        update(tid, first, positionOf(t.getRecordId()), true, dirtied);
+        return dirtied;
+    }
+
+    /**
+     * Clears the bit of t, a tuple of the indexed table with its RecordId
+     * set, in the bitmap of its key.
+     *
+     * @throws DbException
+     *             if the index has no entry for t
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        if (t.getRecordId() == null || t.getField(keyField) == null) {
+            throw new DbException("tuple " + t + " can't be indexed");
+        }
+        Integer first = readDirectory(tid).get(t.getField(keyField));
+        List<Page> dirtied = new ArrayList<Page>();
+        try {
+            if (first == null
+                    || !update(tid, first, positionOf(t.getRecordId()), false, dirtied)) {
+                throw new DbException("index " + file + " has no entry for " + t);
+            }
+        } catch (IOException e) {
+            throw new DbException("can't update index " + file + ": " + e);
+        }
+        return dirtied.get(0);
+    }
+
+    /**
+     * Returns the bitmap of the tuples whose key satisfies a predicate on the
+     * key field, whose own field is ignored, as words of at least the given
+     * length: the OR of the bitmaps of the keys that satisfy it. Only the
+     * pages of the index are read.
+     */
+    public long[] getBitmap(TransactionId tid, Predicate p, int length)
+            throws TransactionAbortedException, DbException {
+        long[] words = new long[length];
+        for (Map.Entry<Field, Integer> e : readDirectory(tid).entrySet()) {
+            if (!e.getKey().compare(p.getOp(), p.getOperand())) {
+                continue;
+            }
+            int pageNo = e.getValue();
+            int start = 0;
+            do {
+                BitmapPage page = getPage(tid, pageNo, Permissions.READ_ONLY);
+                if (start + page.getSpan() > words.length) {
+                    words = Arrays.copyOf(words, start + page.getSpan());
+                }
+                BitmapPage.orInto(page.getCodes(), start, words);
+                start += page.getSpan();
+                pageNo = page.getLink();
+            } while (pageNo != 0);
+        }
+        return words;
+    }
+
+    /**
+     * Returns the RecordIds of the tuples of the table whose bits are set in
+     * words, in the order of their positions, which is the order of their
+     * pages in the table.
+     */
+    Iterator<RecordId> recordIds(final long[] words) {
+        return new Iterator<RecordId>() {
+            private int word = 0;
+            private long bits = words.length > 0 ? words[0] : 0;
+
+            public boolean hasNext() {
+                while (bits == 0 && word + 1 < words.length) {
+                    bits = words[++word];
+                }
+                return bits != 0;
+            }
+
+            public RecordId next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int bit = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                return recordIdOf(((long) word << 6) + bit);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over all entries of the index, key by key.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BitmapFileIterator(tid, null, null);
+    }
+
+    // see IndexFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, Field lower, Field upper) {
+        return new BitmapFileIterator(tid, lower, upper);
+    }
+
+    private class BitmapFileIterator implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId transactionId;
+        // the bounds of the keys returned, or null for no bound
+        private final Field lower;
+        private final Field upper;
+        // the keys in range, in key order, and the key being returned
+        private Iterator<Field> keys;
+        private Field key;
+        private Iterator<RecordId> rids;
+        private boolean isOpen;
+
+        BitmapFileIterator(TransactionId tid, Field lower, Field upper) {
+            this.transactionId = tid;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            List<Field> inRange = new ArrayList<Field>();
+            for (Field k : readDirectory(transactionId).keySet()) {
+                if ((lower == null || k.compare(Predicate.Op.GREATER_THAN_OR_EQ, lower))
+                        && (upper == null || k.compare(Predicate.Op.LESS_THAN_OR_EQ, upper))) {
+                    inRange.add(k);
+                }
+            }
+            Collections.sort(inRange, new Comparator<Field>() {
+                public int compare(Field a, Field b) {
+                    return a.compare(Predicate.Op.LESS_THAN, b) ? -1
+                            : a.equals(b) ? 0 : 1;
+                }
+            });
+            keys = inRange.iterator();
+            rids = null;
+            isOpen = true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!isOpen) {
+                return false;
+            }
+            while (rids == null || !rids.hasNext()) {
+                if (!keys.hasNext()) {
+                    return false;
+                }
+                key = keys.next();
+                rids = recordIds(getBitmap(transactionId,
+                        new Predicate(keyField, Predicate.Op.EQUALS, key), 0));
+            }
+            return true;
+        }
+
+        public Tuple next()
+                throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple entry = new Tuple(entryDesc, new Field[] { key });
+            entry.setRecordId(rids.next());
+            return entry;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            isOpen = false;
+            keys = null;
+            rids = null;
+        }
+    }
+
+    /**
+     * Rebuilds the index from the tuples of the table as committed to disk,
+     * and writes it straight to the file: the bitmap of each key, encoded
+     * from the entries sorted by key and position, then the directory, whose
+     * first page is page 0 and the rest of which follow the bitmaps.
+     */
+    public synchronized void rebuild() throws IOException {
+        // the keys and the first pages of their bitmaps, for the directory
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<Integer> firstPages = new ArrayList<Integer>();
+        try (ExternalSort entries = sortEntries(new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                Field ka = a.getField(0);
+                Field kb = b.getField(0);
+                if (ka.compare(Predicate.Op.LESS_THAN, kb)) {
+                    return -1;
+                }
+                if (ka.compare(Predicate.Op.GREATER_THAN, kb)) {
+                    return 1;
+                }
+                return Long.compare(positionOf(a.getRecordId()),
+                        positionOf(b.getRecordId()));
+            }
+        })) {
+            discardPages();
+            pageCount = 1;
+
+            Tuple entry = entries.next();
+            while (entry != null) {
+                Field key = entry.getField(0);
+                BitmapPage.Encoder encoder = new BitmapPage.Encoder();
+                // the word the last position fell in, and its bits so far
+                long index = 0;
+                long word = 0;
+                while (entry != null && entry.getField(0).equals(key)) {
+                    long position = positionOf(entry.getRecordId());
+                    if (position >> 6 > index) {
+                        encoder.addWord(word);
+                        encoder.addRun(false, (int) ((position >> 6) - index - 1));
+                        index = position >> 6;
+                        word = 0;
+                    }
+                    word |= 1L << (position & 63);
+                    entry = entries.next();
+                }
+                encoder.addWord(word);
+
+                List<long[]> chunks = encoder.finish();
+                keys.add(key);
+                firstPages.add(pageCount);
+                for (int i = 0; i < chunks.size(); i++) {
+                    BitmapPage page = new BitmapPage(new BitmapPageId(getId(), pageCount),
+                            BitmapPage.BITMAP, this);
+                    page.setCodes(chunks.get(i));
+                    pageCount++;
+                    if (i + 1 < chunks.size()) {
+                        page.setLink(pageCount);
+                    }
+                    writePage(page);
+                }
+            }
+        }
+
+        int maxKeys = BitmapPage.getMaxKeys(entryDesc.getFieldType(0));
+        int directories = Math.max(1, (keys.size() + maxKeys - 1) / maxKeys);
+        for (int d = 0; d < directories; d++) {
+            BitmapPage page = new BitmapPage(new BitmapPageId(getId(),
+                    d == 0 ? 0 : pageCount + d - 1), BitmapPage.DIRECTORY, this);
+            if (d + 1 < directories) {
+                page.setLink(pageCount + d);
+            }
+            int end = Math.min(keys.size(), (d + 1) * maxKeys);
+            page.getKeys().addAll(keys.subList(d * maxKeys, end));
+            page.getPages().addAll(firstPages.subList(d * maxKeys, end));
+            writePage(page);
+        }
+        pageCount += directories - 1;
+        finishRebuild();
+    }
+}
@@ -0,0 +1,340 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Each instance of BitmapPage stores one page of a BitmapFile. A page starts
+ * with a one-byte kind, an int count and an int link, the page number of the
+ * next page of its chain, or 0 for the last one, followed by:
+ * <ul>
+ * <li>on a directory page, count entries, each a key followed by the page
+ * number of the first page of the bitmap of the key.
+ * <li>on a bitmap page, count codes of the next words of a bitmap.
+ * </ul>
+ * Bitmaps are sequences of 64-bit words, compressed as runs of words that
+ * are all 0s or all 1s and literal words: each run is a marker long, with
+ * the bit of the run in its top bit, the number of words of the run in the
+ * next 31 bits and the number of literal words that follow the run in the
+ * low 32 bits, followed by those literal words. The pages of a bitmap cover
+ * consecutive words of it, as many as their codes add up to.
+ *
+ * @see BitmapFile
+ */
+public class BitmapPage implements Page {
+
+    static final int DIRECTORY = 1;
+    static final int BITMAP = 2;
+
+    static final int HEADER_SIZE = 9;
+    // the longest run one marker holds
+    static final int MAX_RUN = Integer.MAX_VALUE;
+
+    private final BitmapPageId pid;
+    private final BitmapFile file;
+    private int kind;
+    private int link;
+    // the keys of a directory page and the first pages of their bitmaps
+    private final ArrayList<Field> keys = new ArrayList<Field>();
+    private final ArrayList<Integer> pages = new ArrayList<Integer>();
+    // the codes of a bitmap page, and the number of words they cover
+    private long[] codes = new long[0];
+    private int span;
+
+    byte[] oldData;
+
+    private TransactionId dirtyTransactionId;
+    private boolean isDirty;
+
+    /**
+     * Create a BitmapPage from a set of bytes of data read from disk.
+     */
+    public BitmapPage(BitmapPageId id, byte[] data) {
+        this(id, data, (BitmapFile) Database.getCatalog().getDbFile(id.getTableId()));
+    }
+
+    BitmapPage(BitmapPageId id, byte[] data, BitmapFile file) {
+        this.pid = id;
+        this.file = file;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.kind = buf.get(0);
+        int count = buf.getInt(1);
+        this.link = buf.getInt(5);
+        int offset = HEADER_SIZE;
+        if (kind == DIRECTORY) {
+            Type type = file.getTupleDesc().getFieldType(0);
+            try {
+                for (int i = 0; i < count; i++) {
+                    keys.add(type.parse(buf, offset));
+                    pages.add(buf.getInt(offset + type.getLen()));
+                    offset += type.getLen() + 4;
+                }
+            } catch (java.text.ParseException e) {
+                e.printStackTrace();
+                throw new NoSuchElementException("parsing error!");
+            }
+        } else {
+            long[] codes = new long[count];
+            for (int i = 0; i < count; i++) {
+                codes[i] = buf.getLong(offset);
+                offset += 8;
+            }
+            setCodes(codes);
+        }
+        this.oldData = data;
+    }
+
+    /**
+     * Creates an empty page of the given kind.
+     */
+    BitmapPage(BitmapPageId id, int kind, BitmapFile file) {
+        this.pid = id;
+        this.file = file;
+        this.kind = kind;
+        this.oldData = createEmptyPageData();
+    }
+
+    /**
+     * Returns the number of keys of the given type that fit on a directory
+     * page.
+     */
+    static int getMaxKeys(Type type) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (type.getLen() + 4);
+    }
+
+    /**
+     * Returns the number of codes that fit on a bitmap page.
+     */
+    static int getMaxCodes() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / 8;
+    }
+
+    public BitmapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Return a view of this page before it was modified -- used by recovery
+     */
+    public BitmapPage getBeforeImage() {
+        return new BitmapPage(pid, oldData.clone(), file);
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.put(0, (byte) kind);
+        buf.putInt(1, kind == DIRECTORY ? keys.size() : codes.length);
+        buf.putInt(5, link);
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < keys.size(); i++) {
+            Type type = keys.get(i).getType();
+            type.serialize(keys.get(i), buf, offset);
+            buf.putInt(offset + type.getLen(), pages.get(i));
+            offset += type.getLen() + 4;
+        }
+        for (long code : codes) {
+            buf.putLong(offset, code);
+            offset += 8;
+        }
+        return data;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * BitmapPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; // all 0
+    }
+
+    /**
+     * Returns the page number of the next page of a chain, 0 for the last.
+     */
+    public int getLink() {
+        return link;
+    }
+
+    public void setLink(int link) {
+        this.link = link;
+    }
+
+    /**
+     * Returns the keys of a directory page. The list is the page's own.
+     */
+    List<Field> getKeys() {
+        return keys;
+    }
+
+    /**
+     * Returns the page numbers of the first pages of the bitmaps of the keys
+     * of a directory page. The list is the page's own.
+     */
+    List<Integer> getPages() {
+        return pages;
+    }
+
+    /**
+     * Returns true if a directory page has no room for another key.
+     */
+    boolean isFull() {
+        return keys.size() >= getMaxKeys(file.getTupleDesc().getFieldType(0));
+    }
+
+    /**
+     * Returns the codes of a bitmap page. The array is the page's own.
+     */
+    long[] getCodes() {
+        return codes;
+    }
+
+    /**
+     * Replaces the codes of a bitmap page.
+     *
+     * @throws IllegalArgumentException
+     *             if they don't fit on the page
+     */
+    void setCodes(long[] codes) {
+        if (codes.length > getMaxCodes()) {
+            throw new IllegalArgumentException(codes.length + " codes don't fit on a page");
+        }
+        this.codes = codes;
+        this.span = spanOf(codes);
+    }
+
+    /**
+     * Returns the number of words of its bitmap a bitmap page covers.
+     */
+    int getSpan() {
+        return span;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTransactionId = tid;
+        this.isDirty = dirty;
+    }
+
+    public TransactionId isDirty() {
+        return isDirty ? dirtyTransactionId : null;
+    }
+
+    static long marker(boolean fill, int run, int literals) {
+        return (fill ? 1L << 63 : 0) | ((long) run << 32) | (literals & 0xffffffffL);
+    }
+
+    static boolean fillOf(long marker) {
+        return marker < 0;
+    }
+
+    static int runOf(long marker) {
+        return (int) ((marker >>> 32) & Integer.MAX_VALUE);
+    }
+
+    static int literalsOf(long marker) {
+        return (int) marker;
+    }
+
+    /**
+     * Returns the number of words the given codes cover.
+     */
+    static int spanOf(long[] codes) {
+        int span = 0;
+        for (int i = 0; i < codes.length; i += 1 + literalsOf(codes[i])) {
+            span += runOf(codes[i]) + literalsOf(codes[i]);
+        }
+        return span;
+    }
+
+    /**
+     * ORs the words the given codes cover into words, starting at word
+     * start. Words past the end of words are left out.
+     */
+    static void orInto(long[] codes, int start, long[] words) {
+        int w = start;
+        for (int i = 0; i < codes.length && w < words.length;) {
+            long marker = codes[i++];
+            int run = runOf(marker);
+            if (fillOf(marker)) {
+                Arrays.fill(words, w, (int) Math.min(words.length, (long) w + run), -1L);
+            }
+            w += run;
+            for (int j = literalsOf(marker); j > 0; j--, i++, w++) {
+                if (w < words.length) {
+                    words[w] |= codes[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes words as codes, cutting them into chunks that each fit on a
+     * page.
+     */
+    static class Encoder {
+        private final int capacity;
+        private final ArrayList<long[]> chunks = new ArrayList<long[]>();
+        private long[] codes;
+        private int size;
+        // the index of the last marker of the current chunk, or -1
+        private int marker;
+
+        Encoder() {
+            this.capacity = getMaxCodes();
+            this.codes = new long[capacity];
+            this.marker = -1;
+        }
+
+        private void newChunk() {
+            chunks.add(Arrays.copyOf(codes, size));
+            size = 0;
+            marker = -1;
+        }
+
+        /** Appends count words whose bits are all fill. */
+        void addRun(boolean fill, int count) {
+            while (count > 0) {
+                if (marker < 0 || literalsOf(codes[marker]) > 0
+                        || (runOf(codes[marker]) > 0 && fillOf(codes[marker]) != fill)
+                        || runOf(codes[marker]) == MAX_RUN) {
+                    if (size == capacity) {
+                        newChunk();
+                    }
+                    marker = size;
+                    codes[size++] = marker(fill, 0, 0);
+                }
+                int run = runOf(codes[marker]);
+                int n = Math.min(count, MAX_RUN - run);
+                codes[marker] = marker(fill, run + n, 0);
+                count -= n;
+            }
+        }
+
+        /** Appends a word. */
+        void addWord(long word) {
+            if (word == 0 || word == -1L) {
+                addRun(word == -1L, 1);
+                return;
+            }
+            if (marker < 0 || size == capacity) {
+                if (size + 2 > capacity) {
+                    newChunk();
+                }
+                marker = size;
+                codes[size++] = marker(false, 0, 0);
+            }
+            long m = codes[marker];
+            codes[marker] = marker(fillOf(m), runOf(m), literalsOf(m) + 1);
+            codes[size++] = word;
+        }
+
+        /** Returns the chunks of codes of the words added, at least one. */
+        List<long[]> finish() {
+            newChunk();
+            return chunks;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapScan is an access method that reads the tuples of a table that
+ * satisfy all, or any, of several predicates on fields with a bitmap index.
+ * When it is opened it ORs together, for each predicate, the bitmaps of the
+ * keys of its index that satisfy it, and ANDs or ORs the results, reading
+ * only pages of the indexes. It then fetches the tuples whose bits are set,
+ * in the order of their pages, so each page of the table holding a matching
+ * tuple is read once and no other page is.
+ *
+ * @see BitmapFile#getBitmap
+ */
+public class BitmapScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId transactionId;
+    private final HeapFile table;
+    private final String tableAlias;
+    private final Predicate[] predicates;
+    private final BitmapFile[] indexes;
+    private final boolean conjunctive;
+    // the RecordIds of the tuples found when the scan was opened
+    private transient Iterator<RecordId> rids;
+    private boolean isOpen;
+
+    private TupleDesc td;
+
+    /**
+     * Creates a scan over the tuples of a table that satisfy the given
+     * predicates.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan
+     * @param tableAlias
+     *            the alias of the table, which the field names of the
+     *            returned tupleDesc are prefixed with, as for a SeqScan
+     * @param predicates
+     *            predicates on fields of the table, each of which has a
+     *            bitmap index
+     * @param conjunctive
+     *            true to return the tuples that satisfy all predicates, false
+     *            for those that satisfy any of them
+     * @throws IllegalArgumentException
+     *             if there are no predicates or one is on a field without a
+     *             bitmap index
+     * @see SeqScan#SeqScan(TransactionId, int, String)
+     */
+    public BitmapScan(TransactionId tid, int tableid, String tableAlias,
+            Predicate[] predicates, boolean conjunctive) {
+        if (predicates.length == 0) {
+            throw new IllegalArgumentException("a bitmap scan needs a predicate");
+        }
+        this.transactionId = tid;
+        this.tableAlias = tableAlias;
+        this.predicates = predicates.clone();
+        this.indexes = new BitmapFile[predicates.length];
+        for (int i = 0; i < predicates.length; i++) {
+            indexes[i] = findIndex(tableid, predicates[i].getField());
+            if (indexes[i] == null) {
+                throw new IllegalArgumentException("no bitmap index on field "
+                        + predicates[i].getField() + " of table " + tableid);
+            }
+        }
+        this.table = indexes[0].getTable();
+        this.conjunctive = conjunctive;
+        this.isOpen = false;
+    }
+
+    /**
+     * Returns the bitmap index of a table on a field, or null if it has none.
+     */
+    static BitmapFile findIndex(int tableid, int field) {
+        for (IndexFile index : Database.getCatalog().getIndexes(tableid)) {
+            if (index instanceof BitmapFile && index.getKeyField() == field) {
+                return (BitmapFile) index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the name of the table the operator scans, as in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(table.getId());
+    }
+
+    /** @return the id of the table the operator scans */
+    public int getTableId() {
+        return table.getId();
+    }
+
+    /**
+     * @return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return transactionId;
+    }
+
+    /** @return the predicates the returned tuples satisfy */
+    public Predicate[] getPredicates() {
+        return predicates.clone();
+    }
+
+    /**
+     * @return true if the tuples satisfy all predicates, false if they
+     *         satisfy any of them
+     */
+    public boolean isConjunctive() {
+        return conjunctive;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        long[] words = indexes[0].getBitmap(transactionId, predicates[0], 0);
+        for (int i = 1; i < predicates.length; i++) {
+            long[] other = indexes[i].getBitmap(transactionId, predicates[i], 0);
+            if (conjunctive) {
+                if (other.length < words.length) {
+                    words = Arrays.copyOf(words, other.length);
+                }
+                for (int w = 0; w < words.length; w++) {
+                    words[w] &= other[w];
+                }
+            } else {
+                if (other.length > words.length) {
+                    words = Arrays.copyOf(words, other.length);
+                }
+                for (int w = 0; w < other.length; w++) {
+                    words[w] |= other[w];
+                }
+            }
+        }
+        rids = indexes[0].recordIds(words);
+        isOpen = true;
+    }
+
+    private void checkOpen() throws IllegalStateException {
+        if (!isOpen) {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Returns the TupleDesc of the table with field names prefixed with the
+     * table alias, as for a SeqScan.
+     */
+    public TupleDesc getTupleDesc() {
+        if (td == null) {
+            TupleDesc desc = table.getTupleDesc();
+            Type[] types = new Type[desc.numFields()];
+            String[] names = new String[desc.numFields()];
+            String prefix = tableAlias == null ? "null." : tableAlias + ".";
+            for (int i = 0; i < types.length; i++) {
+                types[i] = desc.getFieldType(i);
+                String fieldName = desc.getFieldName(i);
+                names[i] = prefix + (fieldName == null ? "null" : fieldName);
+            }
+            td = new TupleDesc(types, names);
+        }
+        return td;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        checkOpen();
+        return rids.hasNext();
+    }
+
+    public Tuple next()
+            throws NoSuchElementException, TransactionAbortedException, DbException {
+        checkOpen();
+        RecordId rid = rids.next();
+        Tuple t = table.getTuple(transactionId, rid);
+        Tuple tuple = new Tuple(getTupleDesc(), t.getFields());
+        tuple.setRecordId(rid);
+        return tuple;
+    }
+
+    public void close() {
+        rids = null;
+        isOpen = false;
+    }
+
+    public void rewind()
+            throws DbException, NoSuchElementException, TransactionAbortedException {
+        checkOpen();
+        close();
+        open();
+    }
+}
@@ -1,11 +1,17 @@
 package simpledb;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from disk.
@@ -17,8 +23,17 @@ import java.util.Set;
  * read/write the page.
  */
 public class BufferPool {
-    /** Bytes per page, including header. */
-    public static final int PAGE_SIZE = 4096;
+    /** Bytes per page, including header, unless the database sets its own. */
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+    /**
+     * Bounds on the page size. SlottedPage stores offsets as unsigned shorts,
+     * so pages can't be larger than 64KB.
+     */
+    public static final int MIN_PAGE_SIZE = 512;
+    public static final int MAX_PAGE_SIZE = 65536;
+
+    private static int pageSize = DEFAULT_PAGE_SIZE;
+
 
     /**
      * Default number of pages passed to the constructor. This is used by other
@@ -26,13 +41,28 @@ public class BufferPool {
      * instead.
      */
     public static final int DEFAULT_PAGES = 50;
+    /** Pages a sequential scan reads ahead of itself, unless set otherwise. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 16;
     private final long WAIT_TIME = 500;
 
+    /** The background I/O thread that reads prefetched pages. */
+    private static final ExecutorService readAheadThread = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-read-ahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
     private int maxPagesCount;
     private LruMap<PageId, Page> cache;
     // Ҫͷɣ滻ҳ棬flushPage
     private LockManager lockManager;
     private Map<TransactionId, Set<Page>> tidToPages;
+    // pages being read by the read-ahead thread
+    private Set<PageId> prefetching;
+    private int readAheadPages;
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -45,6 +75,56 @@ public class BufferPool {
         this.cache = new LruMap<PageId, Page>(maxPagesCount);
         this.tidToPages = new HashMap<TransactionId, Set<Page>>();
         this.lockManager = new LockManager();
+        this.prefetching = new HashSet<PageId>();
+        this.readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+    }
+
+    /** The number of pages a sequential scan reads ahead of itself. */
+    public synchronized int getReadAheadPages() {
+        return readAheadPages;
+    }
+
+    /**
+     * Sets the number of pages a sequential scan reads ahead of itself; 0
+     * turns read-ahead off.
+     *
+     * @throws IllegalArgumentException
+     *             if pages is negative
+     */
+    public synchronized void setReadAheadPages(int pages) {
+        if (pages < 0) {
+            throw new IllegalArgumentException("negative read-ahead " + pages);
+        }
+        readAheadPages = pages;
+    }
+
+    /** Bytes per page, including header. */
+    public static int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Sets the page size of the database. This has to happen before any table
+     * is opened, since files compute their number of pages from it; the
+     * catalog does it when a schema declares its page size.
+     *
+     * @param size
+     *            the page size in bytes, a power of two between
+     *            MIN_PAGE_SIZE and MAX_PAGE_SIZE
+     * @throws IllegalArgumentException
+     *             if size is not a valid page size
+     */
+    public static void setPageSize(int size) {
+        if (size < MIN_PAGE_SIZE || size > MAX_PAGE_SIZE
+                || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("invalid page size " + size);
+        }
+        pageSize = size;
+    }
+
+    /** Restores the default page size; used by unit tests. */
+    public static void resetPageSize() {
+        pageSize = DEFAULT_PAGE_SIZE;
     }
 
     /**
@@ -68,31 +148,168 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        HeapPage page = (HeapPage) cache.get(pid);
-        if (page == null) {
-            if (cache.isFull()) {
-                // Ƴҳ
-                Page pageToRemove = cache.getCur();
-                while (pageToRemove.isDirty() != null) {
-                    pageToRemove = cache.getAnother();
-                    if (pageToRemove == null) {
-                        throw new DbException("all pages in the buffer pool are dirty");
-                    }
-                }
-                cache.removeCur();
-                lockManager.unlockAll(pageToRemove.getId());
-            }
-            // ҳ
-            HeapFile table = getTable(pid);
-            page = (HeapPage) table.readPage(pid);
-            cache.put(pid, page);
-        }
+        Page page = cachedPage(pid);
         blockedLock(tid, pid, perm);
         // ÿλȡ޸ģpageͼӵУΪʱҪͷֻX
         updateTransaction(tid, page);
         return page;
     }
 
+    /**
+     * Adds a page that a DbFile has just allocated to the buffer pool, locked
+     * READ_WRITE by tid, without reading it back from disk. The page has to be
+     * new, so that no other transaction can hold a lock on it yet.
+     *
+     * @param tid
+     *            the ID of the transaction that allocated the page
+     * @param page
+     *            the new page
+     * @return the page as held by the buffer pool
+     */
+    public Page addNewPage(TransactionId tid, Page page)
+            throws TransactionAbortedException, DbException {
+        PageId pid = page.getId();
+        synchronized (this) {
+            Page cached = cache.get(pid);
+            if (cached == null) {
+                evictIfFull();
+                cache.put(pid, page);
+            } else {
+                page = cached;
+            }
+        }
+        blockedLock(tid, pid, Permissions.READ_WRITE);
+        updateTransaction(tid, page);
+        return page;
+    }
+
+    /**
+     * Returns the cached copy of a page, reading it from disk first if it
+     * isn't cached. The read happens outside the buffer pool's monitor; a
+     * page the read-ahead thread is reading is waited for instead of being
+     * read twice.
+     */
+    private Page cachedPage(PageId pid) throws DbException {
+        synchronized (this) {
+            while (prefetching.contains(pid)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            Page page = cache.get(pid);
+            if (page != null) {
+                return page;
+            }
+        }
+        Page page = getTable(pid).readPage(pid);
+        synchronized (this) {
+            Page cached = cache.get(pid);
+            if (cached != null) {
+                return cached;
+            }
+            evictIfFull();
+            cache.put(pid, page);
+            return page;
+        }
+    }
+
+    /**
+     * Asks the read-ahead thread to read a run of consecutive pages of one
+     * file into the buffer pool with {@link DbFile#readPages}, leaving out
+     * pages that are cached or being read already. No lock is taken on the
+     * pages: the transaction that later calls getPage on one locks it then,
+     * as it would a page that was read on demand. Prefetched pages only
+     * evict clean pages that no transaction holds a lock on; those that
+     * don't fit, or can't be read, are left for getPage to read.
+     *
+     * @param pids
+     *            the IDs of the pages to read, consecutive and in order. At
+     *            most half the buffer pool is read.
+     */
+    public void prefetchPages(List<PageId> pids) {
+        int count = Math.min(pids.size(), Math.max(1, maxPagesCount / 2));
+        List<PageId> run = new ArrayList<PageId>();
+        synchronized (this) {
+            for (PageId pid : pids.subList(0, count)) {
+                if (cache.containsKey(pid) || !prefetching.add(pid)) {
+                    readRun(run);
+                    run = new ArrayList<PageId>();
+                } else {
+                    run.add(pid);
+                }
+            }
+            readRun(run);
+        }
+    }
+
+    /**
+     * Waits until the read-ahead thread has read all the pages it was asked
+     * to read so far.
+     */
+    synchronized void awaitReadAhead() throws InterruptedException {
+        while (!prefetching.isEmpty()) {
+            wait();
+        }
+    }
+
+    private void readRun(final List<PageId> run) {
+        if (run.isEmpty()) {
+            return;
+        }
+        readAheadThread.execute(new Runnable() {
+            public void run() {
+                List<Page> pages = Collections.emptyList();
+                try {
+                    pages = getTable(run.get(0)).readPages(run.get(0), run.size());
+                } catch (RuntimeException e) {
+                    // the table was dropped or truncated meanwhile
+                }
+                synchronized (BufferPool.this) {
+                    prefetching.removeAll(run);
+                    for (Page page : pages) {
+                        if (page != null && !cache.containsKey(page.getId())
+                                && (!cache.isFull() || evict(true))) {
+                            cache.put(page.getId(), page);
+                        }
+                    }
+                    BufferPool.this.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Evicts a clean page if the buffer pool is full.
+     */
+    private void evictIfFull() throws DbException {
+        if (cache.isFull() && !evict(false)) {
+            throw new DbException("all pages in the buffer pool are dirty");
+        }
+    }
+
+    /**
+     * Evicts the least recently used clean page, releasing any locks held on
+     * it, or only a page nobody holds a lock on if unlockedOnly is set.
+     *
+     * @return false if there is no page to evict
+     */
+    private boolean evict(boolean unlockedOnly) {
+        Page pageToRemove = cache.getCur();
+        while (pageToRemove.isDirty() != null
+                || (unlockedOnly && lockManager.hasLock(pageToRemove.getId()))) {
+            pageToRemove = cache.getAnother();
+            if (pageToRemove == null) {
+                return false;
+            }
+        }
+        cache.removeCur();
+        lockManager.unlockAll(pageToRemove.getId());
+        return true;
+    }
+
     private void blockedLock(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException {
         if (!lockManager.lock(tid, pid, perm)) {
@@ -117,8 +334,8 @@ public class BufferPool {
         tidToPages.get(tid).add(page);
     }
 
-    private HeapFile getTable(PageId pid) {
-        return (HeapFile) Database.getCatalog().getDbFile(pid.getTableId());
+    private DbFile getTable(PageId pid) {
+        return Database.getCatalog().getDbFile(pid.getTableId());
     }
 
     /**
@@ -175,10 +392,15 @@ public class BufferPool {
             if (t != null && tid.equals(t)) {
                 if (commit) {
                     flushPage(page);
+                    page.setBeforeImage();
                 } else {
                     // pageָtidδֹʱ
-                    HeapFile table = getTable(pid);
-                    page = (HeapPage) table.readPage(pid);
+                    DbFile table = getTable(pid);
+                    page = table.readPage(pid);
+                    if (table instanceof HeapFile) {
+                        ((HeapFile) table).updateFreeSpace((TuplePage) page);
+                    }
+
                     // ⣺޸cacheеpageʱû޸tidToPage
                     cache.put(pid, page);
                 }
@@ -195,7 +417,8 @@ public class BufferPool {
      * 
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have
-     * been dirtied so that future requests see up-to-date pages.
+     * been dirtied so that future requests see up-to-date pages. The tuple's
+     * entry is added to each index of the table.
      *
      * @param tid
      *            the transaction adding the tuple
@@ -208,9 +431,12 @@ public class BufferPool {
     // updates cached versions of any pages that have been dirtied
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        HeapFile table = (HeapFile) Database.getCatalog().getDbFile(tableId);
+        DbFile table = Database.getCatalog().getDbFile(tableId);
         // pageMap(ѾڵͲĺmark dirty)
         table.insertTuple(tid, t);
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            index.insertTuple(tid, t);
+        }
     }
 
     /**
@@ -221,7 +447,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit. Does not need to update cached versions of any pages
      * that have been dirtied, as it is not possible that a new page was created
-     * during the deletion (note difference from addTuple).
+     * during the deletion (note difference from addTuple). The tuple's entry
+     * is removed from each index of the table.
      *
      * @param tid
      *            the transaction adding the tuple.
@@ -234,9 +461,16 @@ public class BufferPool {
     public void deleteTuple(TransactionId tid, Tuple t)
             throws DbException, TransactionAbortedException {
         PageId pid = t.getRecordId().getPageId();
-        HeapFile table = getTable(pid);
+        DbFile table = getTable(pid);
+        // the indexes find the tuple's entries by its RecordId, which the
+        // table clears
+        Tuple deleted = new Tuple(t.getTupleDesc(), t.getFields());
+        deleted.setRecordId(t.getRecordId());
         // ѾڵͲĺmark dirty
         table.deleteTuple(tid, t);
+        for (IndexFile index : Database.getCatalog().getIndexes(pid.getTableId())) {
+            index.deleteTuple(tid, deleted);
+        }
     }
 
     /**
@@ -264,7 +498,33 @@ public class BufferPool {
      * @throws IOException
      */
     public synchronized void discardPage(PageId pid) {
+        cache.remove(pid);
+        lockManager.unlockAll(pid);
+    }
 
+    /**
+     * Removes the pages of a table from the buffer pool before its file is
+     * replaced on disk, e.g. by ClusteredHeapFile.cluster(). Nothing is removed if a
+     * transaction holds a lock on a page of the table.
+     *
+     * @return false if a page of the table is locked
+     */
+    public synchronized boolean discardTable(int tableId) {
+        if (lockManager.hasTableLock(tableId)) {
+            return false;
+        }
+        List<PageId> pids = new ArrayList<PageId>();
+        Iterator<Page> it = cache.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next().getId();
+            if (pid.getTableId() == tableId) {
+                pids.add(pid);
+            }
+        }
+        for (PageId pid : pids) {
+            cache.remove(pid);
+        }
+        return true;
     }
 
     /**
@@ -274,10 +534,10 @@ public class BufferPool {
      *            an ID indicating the page to flush
      */
     private synchronized void flushPage(Page page) throws IOException {
-        HeapFile table = getTable(page.getId());
-        HeapPage dirtyPage = (HeapPage) page;
-        table.writePage(dirtyPage);
-        dirtyPage.markDirty(false, null);
+        DbFile table = getTable(page.getId());
+
+        table.writePage(page);
+        page.markDirty(false, null);
     }
 
     /**
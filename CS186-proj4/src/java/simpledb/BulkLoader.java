@@ -0,0 +1,498 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+/**
+ * BulkLoader turns a delimited text file, in the format HeapFileEncoder
+ * reads, into the pages of a HeapFile. The input is split into chunks at line
+ * boundaries and the chunks are parsed by a pool of threads. Each thread
+ * encodes its tuples straight into pages in a ByteBuffer taken from a pool of
+ * reused buffers, and the buffers are written out in input order, one large
+ * positional channel write per chunk.
+ * <p>
+ * Every chunk starts on a new page, so loaded files have one partly filled
+ * page per chunk. A line that can't be parsed fails the load with a
+ * ParseException that gives its line number.
+ * <p>
+ * At most {@link #MAX_CHUNKS_IN_FLIGHT} chunks are parsed or waiting to be
+ * written at a time, however many threads there are, and each of them holds
+ * its input and its encoded pages in memory. With the default chunk size
+ * that is 64MB of input plus its pages, which take up more room than the
+ * text when fixed-length STRING fields are much shorter than
+ * Type.STRING_LEN: a one-character string takes up 132 bytes.
+ *
+ * @see HeapFileEncoder
+ * @see HeapFile#bulkLoad
+ */
+public class BulkLoader {
+
+    /** Default number of bytes of input parsed by one task. */
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+    /** The most chunks of input in memory at a time. */
+    public static final int MAX_CHUNKS_IN_FLIGHT = 16;
+
+    private final TupleDesc td;
+    private final char fieldSeparator;
+    private final int threads;
+    private final int chunkSize;
+    private final int pageSize;
+    // true if the pages are SlottedPages rather than HeapPages
+    private final boolean slotted;
+    private final int tuplesPerPage;
+    private final int headerSize;
+    private final int tupleSize;
+
+    // output buffers of chunks that have been written, for the next chunks
+    private final BlockingQueue<ByteBuffer> buffers = new LinkedBlockingQueue<ByteBuffer>();
+    // input buffers, one per parsing thread
+    private final ThreadLocal<byte[]> inputs = new ThreadLocal<byte[]>();
+    private long tuplesLoaded;
+
+    /**
+     * Creates a loader for tables with the given schema that parses with one
+     * thread per processor, up to half of MAX_CHUNKS_IN_FLIGHT threads.
+     */
+    public BulkLoader(TupleDesc td, char fieldSeparator) {
+        this(td, fieldSeparator, Math.min(Runtime.getRuntime().availableProcessors(),
+                MAX_CHUNKS_IN_FLIGHT / 2), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a loader for tables with the given schema.
+     *
+     * @param td
+     *            the schema of the table loaded
+     * @param fieldSeparator
+     *            the character between the fields of a line
+     * @param threads
+     *            the number of threads parsing the input
+     * @param chunkSize
+     *            the number of bytes of input parsed by one task
+     */
+    public BulkLoader(TupleDesc td, char fieldSeparator, int threads, int chunkSize) {
+        if (threads < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.td = td;
+        this.fieldSeparator = fieldSeparator;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.pageSize = BufferPool.getPageSize();
+        this.slotted = SlottedPage.isUsedFor(td);
+        this.tuplesPerPage = HeapPage.getNumTuples(td);
+        this.headerSize = (tuplesPerPage + 7) / 8;
+        this.tupleSize = td.getSize();
+    }
+
+    /**
+     * @return the number of tuples the last load or convert wrote.
+     */
+    public long getTuplesLoaded() {
+        return tuplesLoaded;
+    }
+
+    /**
+     * Writes the header and the pages of inFile to outFile, replacing it. An
+     * empty input still gets one empty page, as with HeapFileEncoder.
+     *
+     * @return the number of tuples loaded
+     * @throws ParseException
+     *             if a line of inFile can't be parsed; its errorOffset is
+     *             the number of the line, counting from 1
+     */
+    public long convert(File inFile, File outFile) throws IOException, ParseException {
+        try (FileChannel out = FileChannel.open(outFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.wrap(FileHeader.create(pageSize));
+            while (header.hasRemaining()) {
+                out.write(header, header.position());
+            }
+            if (load(inFile, out, pageSize) == 0) {
+                ByteBuffer empty = ByteBuffer.allocate(pageSize);
+                while (empty.hasRemaining()) {
+                    out.write(empty, pageSize + empty.position());
+                }
+            }
+        }
+        return tuplesLoaded;
+    }
+
+    /**
+     * Parses inFile and writes its pages to out, the first one at byte
+     * position.
+     *
+     * @return the number of pages written
+     * @throws ParseException
+     *             if a line of inFile can't be parsed; its errorOffset is
+     *             the number of the line, counting from 1. The pages of the
+     *             lines before it may have been written already.
+     */
+    public int load(File inFile, FileChannel out, long position)
+            throws IOException, ParseException {
+        tuplesLoaded = 0;
+        int pages = 0;
+        long lines = 0;
+        int inFlight = Math.min(threads * 2, MAX_CHUNKS_IN_FLIGHT);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            long start = 0;
+            ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+            while (start < size || !pending.isEmpty()) {
+                // a couple of chunks per thread in flight keeps the threads
+                // busy while the writer catches up, and bounds the memory used
+                while (start < size && pending.size() < inFlight) {
+                    long end = findLineEnd(in, Math.min(start + chunkSize, size), size);
+                    pending.add(pool.submit(new ParseTask(in, start, (int) (end - start))));
+                    start = end;
+                }
+                Chunk chunk = await(pending.poll());
+                if (chunk.badLine >= 0) {
+                    long line = lines + chunk.badLine + 1;
+                    throw new ParseException("can't parse line " + line + " of "
+                            + inFile + ": " + chunk.badText,
+                            (int) Math.min(line, Integer.MAX_VALUE));
+                }
+                lines += chunk.numLines;
+                long pos = position + (long) pages * pageSize;
+                while (chunk.pages.hasRemaining()) {
+                    pos += out.write(chunk.pages, pos);
+                }
+                pages += chunk.numPages;
+                tuplesLoaded += chunk.numTuples;
+                buffers.offer(chunk.pages);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return pages;
+    }
+
+    private static Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the position just past the first newline at or after from, or
+     * size if there is none.
+     */
+    private static long findLineEnd(FileChannel in, long from, long size)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long pos = from;
+        while (pos < size) {
+            buf.clear();
+            int n = in.read(buf, pos);
+            if (n < 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    /** The pages encoded from one chunk of input. */
+    private static class Chunk {
+        ByteBuffer pages;
+        int numPages;
+        long numTuples;
+        int numLines;
+        // the line of the chunk, counting from 0, that couldn't be parsed,
+        // and its text, or -1 if there was none
+        int badLine = -1;
+        String badText;
+    }
+
+    private class ParseTask implements Callable<Chunk> {
+        private final FileChannel in;
+        private final long start;
+        private final int length;
+
+        // the buffer pages are encoded into, the start of the current page
+        // and the number of tuples on it
+        private ByteBuffer out;
+        private int pageStart;
+        private int slot;
+
+        private final Chunk chunk = new Chunk();
+
+        ParseTask(FileChannel in, long start, int length) {
+            this.in = in;
+            this.start = start;
+            this.length = length;
+        }
+
+        public Chunk call() throws IOException {
+            byte[] input = inputs.get();
+            if (input == null || input.length < length) {
+                input = new byte[length];
+                inputs.set(input);
+            }
+            ByteBuffer buf = ByteBuffer.wrap(input, 0, length);
+            while (buf.hasRemaining()) {
+                if (in.read(buf, start + buf.position()) < 0) {
+                    throw new EOFException("input shrank while loading it");
+                }
+            }
+
+            out = buffers.poll();
+            if (out == null) {
+                out = ByteBuffer.allocate((length / pageSize + 2) * pageSize);
+            }
+            out.clear();
+            startPage();
+            SlottedPage page = slotted ? newSlottedPage() : null;
+
+            int lineStart = 0;
+            while (lineStart < length) {
+                int lineEnd = lineStart;
+                while (lineEnd < length && input[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                int end = lineEnd;
+                // ignore Windows line endings
+                if (end > lineStart && input[end - 1] == '\r') {
+                    end--;
+                }
+                if (!isBlank(input, lineStart, end)) {
+                    if (slotted) {
+                        page = addSlotted(page, input, lineStart, end);
+                    } else {
+                        addTuple(input, lineStart, end);
+                    }
+                }
+                if (chunk.badLine >= 0) {
+                    // the load fails, so the rest of the chunk is of no use
+                    return chunk;
+                }
+                chunk.numLines++;
+                lineStart = lineEnd + 1;
+            }
+
+            if (slot > 0) {
+                if (slotted) {
+                    System.arraycopy(page.getPageData(), 0, out.array(), pageStart, pageSize);
+                }
+                chunk.numPages++;
+            }
+            out.position(0);
+            out.limit(chunk.numPages * pageSize);
+            chunk.pages = out;
+            return chunk;
+        }
+
+        /** Makes room for one more page after the ones encoded so far. */
+        private void startPage() {
+            pageStart = chunk.numPages * pageSize;
+            if (out.capacity() < pageStart + pageSize) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(
+                        pageStart + pageSize, out.capacity() * 2));
+                System.arraycopy(out.array(), 0, grown.array(), 0, pageStart);
+                out = grown;
+            }
+            Arrays.fill(out.array(), pageStart, pageStart + pageSize, (byte) 0);
+            slot = 0;
+        }
+
+        /** Encodes a line into the next slot of the current HeapPage. */
+        private void addTuple(byte[] input, int start, int end) {
+            if (slot == tuplesPerPage) {
+                chunk.numPages++;
+                startPage();
+            }
+            int pos = pageStart + headerSize + slot * tupleSize;
+            int fieldStart = start;
+            for (int i = 0; i < td.numFields(); i++) {
+                int fieldEnd = fieldStart;
+                while (fieldEnd < end && input[fieldEnd] != fieldSeparator) {
+                    fieldEnd++;
+                }
+                boolean last = i == td.numFields() - 1;
+                if (last != (fieldEnd == end) || !encodeField(td.getFieldType(i),
+                        input, fieldStart, fieldEnd, pos)) {
+                    badLine(input, start, end);
+                    return;
+                }
+                pos += td.getFieldType(i).getLen();
+                fieldStart = fieldEnd + 1;
+            }
+            out.array()[pageStart + slot / 8] |= (byte) (1 << (slot % 8));
+            slot++;
+            chunk.numTuples++;
+        }
+
+        /**
+         * Writes the field in input[start, end) at pos in its on-disk format,
+         * or returns false if it can't be parsed.
+         */
+        private boolean encodeField(Type type, byte[] input, int start, int end, int pos) {
+            while (start < end && isSpace(input[start])) {
+                start++;
+            }
+            while (end > start && isSpace(input[end - 1])) {
+                end--;
+            }
+            if (type == Type.INT_TYPE) {
+                return encodeInt(input, start, end, pos);
+            }
+            if (type == Type.LONG_TYPE) {
+                return encodeLong(input, start, end, pos);
+            }
+            if (type != Type.STRING_TYPE) {
+                // DOUBLE and DATE fields are rare enough to parse as strings
+                try {
+                    Field f = type.parse(new String(input, start, end - start,
+                            StandardCharsets.ISO_8859_1));
+                    if (type == Type.DOUBLE_TYPE) {
+                        out.putDouble(pos, ((DoubleField) f).getValue());
+                    } else {
+                        out.putLong(pos, ((DateField) f).getValue());
+                    }
+                    return true;
+                } catch (ParseException e) {
+                    return false;
+                }
+            }
+            // a fixed-length string; the rest of the slot is already zeroed
+            int len = Math.min(end - start, Type.STRING_LEN);
+            out.putInt(pos, len);
+            System.arraycopy(input, start, out.array(), pos + 4, len);
+            return true;
+        }
+
+        private boolean encodeInt(byte[] input, int start, int end, int pos) {
+            boolean negative = false;
+            if (start < end && (input[start] == '-' || input[start] == '+')) {
+                negative = input[start] == '-';
+                start++;
+            }
+            if (start == end) {
+                return false;
+            }
+            long value = 0;
+            for (int i = start; i < end; i++) {
+                int digit = input[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    return false;
+                }
+                value = value * 10 + digit;
+                if (value > (long) Integer.MAX_VALUE + 1) {
+                    return false;
+                }
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                return false;
+            }
+            out.putInt(pos, (int) value);
+            return true;
+        }
+
+        private boolean encodeLong(byte[] input, int start, int end, int pos) {
+            boolean negative = false;
+            if (start < end && (input[start] == '-' || input[start] == '+')) {
+                negative = input[start] == '-';
+                start++;
+            }
+            if (start == end) {
+                return false;
+            }
+            // accumulated negatively, since -Long.MIN_VALUE doesn't fit
+            long value = 0;
+            for (int i = start; i < end; i++) {
+                int digit = input[i] - '0';
+                if (digit < 0 || digit > 9 || value < Long.MIN_VALUE / 10
+                        || value * 10 < Long.MIN_VALUE + digit) {
+                    return false;
+                }
+                value = value * 10 - digit;
+            }
+            if (!negative) {
+                if (value == Long.MIN_VALUE) {
+                    return false;
+                }
+                value = -value;
+            }
+            out.putLong(pos, value);
+            return true;
+        }
+
+        private void badLine(byte[] input, int start, int end) {
+            chunk.badLine = chunk.numLines;
+            chunk.badText = new String(input, start, end - start,
+                    StandardCharsets.ISO_8859_1);
+        }
+
+        private SlottedPage newSlottedPage() {
+            // the page isn't in the catalog, so its id is only a placeholder
+            return new SlottedPage(new HeapPageId(0, 0),
+                    SlottedPage.createEmptyPageData(), td);
+        }
+
+        /**
+         * Adds a line to a SlottedPage, first encoding the page and starting
+         * a new one if it is full. Returns the page to add the next line to.
+         */
+        private SlottedPage addSlotted(SlottedPage page, byte[] input, int start,
+                int end) throws IOException {
+            String line = new String(input, start, end - start, StandardCharsets.ISO_8859_1);
+            Tuple t = HeapFileEncoder.parseLine(line,
+                    Pattern.quote(String.valueOf(fieldSeparator)), td.numFields(), td);
+            if (t == null) {
+                badLine(input, start, end);
+                return page;
+            }
+            if (!page.hasRoomFor(t) && slot > 0) {
+                System.arraycopy(page.getPageData(), 0, out.array(), pageStart, pageSize);
+                chunk.numPages++;
+                startPage();
+                page = newSlottedPage();
+            }
+            try {
+                page.insertTuple(t);
+            } catch (DbException e) {
+                throw new IOException("tuple doesn't fit on a page: " + line);
+            }
+            slot++;
+            chunk.numTuples++;
+            return page;
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static boolean isBlank(byte[] input, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isSpace(input[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
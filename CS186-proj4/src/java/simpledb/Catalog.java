@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.*;
 
 /**
@@ -15,33 +16,206 @@ import java.util.*;
 
 public class Catalog {
 
-    private HashMap<Integer, DbFile> idToFile;
-    private HashMap<Integer, String> idToPkey;
-    private HashMap<Integer, String> idToName;
-    private HashMap<String, Integer> nameToId;
+    /**
+     * A table, or the partition of a partitioned table or an index of a
+     * table, in the catalog.
+     */
+    private static class Table {
+        final DbFile file;
+        // null for a partition or an index, which aren't tables of their own
+        final String name;
+        final String pkey;
+        final List<IndexFile> indexes;
+
+        Table(DbFile file, String name, String pkey) {
+            this(file, name, pkey, Collections.<IndexFile> emptyList());
+        }
+
+        Table(DbFile file, String name, String pkey, List<IndexFile> indexes) {
+            this.file = file;
+            this.name = name;
+            this.pkey = pkey;
+            this.indexes = indexes;
+        }
+
+        /** Returns this table with the given index added. */
+        Table withIndex(IndexFile index) {
+            ArrayList<IndexFile> all = new ArrayList<IndexFile>(indexes);
+            all.add(index);
+            return new Table(file, name, pkey, Collections.unmodifiableList(all));
+        }
+    }
+
+    /**
+     * The tables of the catalog at one point in time. A snapshot isn't
+     * changed once it is published: adding or removing tables builds a new
+     * one and swaps it in, so lookups take no lock.
+     */
+    private static class Snapshot {
+        // by table id; the ids the catalog assigns count up from 0
+        final Table[] tables;
+        // the tables whose files keep ids of their own
+        final Map<Integer, Table> fixed;
+        final Map<String, Integer> nameToId;
+        // the id the next table is given. Ids aren't reused, so pages of a
+        // removed table left in the buffer pool are never taken for pages
+        // of a new one
+        final int nextId;
+
+        Snapshot(Table[] tables, Map<Integer, Table> fixed,
+                Map<String, Integer> nameToId, int nextId) {
+            this.tables = tables;
+            this.fixed = fixed;
+            this.nameToId = nameToId;
+            this.nextId = nextId;
+        }
+
+        Table get(int id) {
+            if (id >= 0 && id < tables.length && tables[id] != null) {
+                return tables[id];
+            }
+            return fixed.get(id);
+        }
+    }
+
+    /** A copy of a snapshot that tables are added to and removed from. */
+    private static class Edit {
+        Table[] tables;
+        final HashMap<Integer, Table> fixed;
+        final HashMap<String, Integer> nameToId;
+        int nextId;
+        // the files of the removed tables, closed once the edit is published
+        final ArrayList<DbFile> removed = new ArrayList<>();
+
+        Edit(Snapshot s) {
+            tables = s.tables.clone();
+            fixed = new HashMap<>(s.fixed);
+            nameToId = new HashMap<>(s.nameToId);
+            nextId = s.nextId;
+        }
+
+        Snapshot publish() {
+            int length = tables.length;
+            while (length > 0 && tables[length - 1] == null) {
+                length--;
+            }
+            return new Snapshot(Arrays.copyOf(tables, length),
+                    Collections.unmodifiableMap(fixed),
+                    Collections.unmodifiableMap(nameToId), nextId);
+        }
+
+        Table get(int id) {
+            return isDense(id) ? tables[id] : fixed.get(id);
+        }
+
+        /** Returns true if the table with the given id is in tables. */
+        boolean isDense(int id) {
+            return id >= 0 && id < tables.length && tables[id] != null;
+        }
+
+        /** Returns the id file is in the catalog under, or null. */
+        Integer idOf(DbFile file) {
+            Table t = get(file.getId());
+            return t != null && t.file == file ? file.getId() : null;
+        }
+
+        /**
+         * Puts t in the catalog under id, in place of the table that had that
+         * id or t's name.
+         */
+        void put(int id, Table t, boolean dense) {
+            Table old = get(id);
+            if (old != null && old.file != t.file) {
+                remove(id);
+            }
+            if (t.name != null) {
+                Integer oldId = nameToId.get(t.name);
+                if (oldId != null && oldId != id) {
+                    remove(oldId);
+                }
+                if (old != null && old.file == t.file && old.name != null
+                        && !old.name.equals(t.name)) {
+                    nameToId.remove(old.name);
+                }
+                nameToId.put(t.name, id);
+            }
+            if (dense) {
+                if (id >= tables.length) {
+                    tables = Arrays.copyOf(tables,
+                            Math.max(id + 1, tables.length * 2));
+                }
+                tables[id] = t;
+                nextId = Math.max(nextId, id + 1);
+            } else {
+                fixed.put(id, t);
+            }
+        }
+
+        /**
+         * Removes the table with the given id, and its partitions and
+         * indexes.
+         */
+        void remove(int id) {
+            Table t = get(id);
+            if (isDense(id)) {
+                tables[id] = null;
+            } else {
+                fixed.remove(id);
+            }
+            if (t.name != null) {
+                Integer nameId = nameToId.get(t.name);
+                if (nameId != null && nameId == id) {
+                    nameToId.remove(t.name);
+                }
+                removed.add(t.file);
+            }
+            if (t.file instanceof PartitionedFile) {
+                for (HeapFile partition : ((PartitionedFile) t.file).getPartitions()) {
+                    if (idOf(partition) != null) {
+                        remove(partition.getId());
+                    }
+                }
+            }
+            for (IndexFile index : t.indexes) {
+                if (idOf(index) != null) {
+                    remove(index.getId());
+                    removed.add(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ids a schema's "id:" option may give are below this. A snapshot has a
+     * slot for every id up to the largest, so a larger id would take more
+     * memory than the tables are worth.
+     */
+    public static final int MAX_SCHEMA_ID = 1 << 16;
+
+    private volatile Snapshot snapshot;
 
     /**
      * Constructor. Creates a new, empty catalog.
      */
     public Catalog() {
-        idToFile = new HashMap<>();
-        idToPkey = new HashMap<>();
-        idToName = new HashMap<>();
-        nameToId = new HashMap<>();
+        snapshot = new Snapshot(new Table[0], Collections.<Integer, Table> emptyMap(),
+                Collections.<String, Integer> emptyMap(), 0);
     }
 
     /**
      * Add a new table to the catalog. This table's contents are stored in the
-     * specified DbFile.
+     * specified DbFile. The catalog gives the file the next free table id
+     * through DbFile.assignId, unless the file is in the catalog already;
+     * the partitions of a PartitionedFile get ids of their own after it.
      *
      * @param file
      *            the contents of the table to add; file.getId() is the
      *            identfier of this file/tupledesc param for the calls
-     *            getTupleDesc and getFile
+     *            getTupleDesc and getFile once it is added
      * @param name
      *            the name of the table -- may be an empty string. May not be
      *            null. If a name conflict exists, use the last table to be
-     *            added as the table for a given name. todo
+     *            added as the table for a given name.
      * @param pkeyField
      *            the name of the primary key field
      */
@@ -49,11 +223,8 @@ public class Catalog {
         if (name == null || pkeyField == null) {
             throw new IllegalArgumentException();
         }
-        int tableid = file.getId();
-        idToFile.put(tableid, file);
-        idToName.put(tableid, name);
-        idToPkey.put(tableid, pkeyField);
-        nameToId.put(name, tableid);
+        install(Collections.singletonList(new Table(file, name, pkeyField)),
+                Collections.<Integer> singletonList(null));
     }
 
     public void addTable(DbFile file, String name) {
@@ -73,6 +244,96 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Adds tables to the catalog in one step. The tables with an id in ids
+     * get that id, and are placed first; the others get ids as addTable
+     * gives them.
+     */
+    private synchronized void install(List<Table> tables, List<Integer> ids) {
+        Edit edit = new Edit(snapshot);
+        for (int i = 0; i < tables.size(); i++) {
+            Integer id = ids.get(i);
+            if (id != null) {
+                DbFile file = tables.get(i).file;
+                if (!file.assignId(id) && file.getId() != id) {
+                    throw new IllegalArgumentException("table "
+                            + tables.get(i).name + " can't have id " + id);
+                }
+                edit.put(id, tables.get(i), true);
+            }
+        }
+        for (int i = 0; i < tables.size(); i++) {
+            if (ids.get(i) == null) {
+                Table t = tables.get(i);
+                Integer id = edit.idOf(t.file);
+                if (id != null) {
+                    // a table added again keeps its indexes
+                    for (IndexFile index : edit.get(id).indexes) {
+                        t = t.withIndex(index);
+                    }
+                    edit.put(id, t, edit.isDense(id));
+                } else if (t.file.assignId(edit.nextId)) {
+                    edit.put(edit.nextId, t, true);
+                } else {
+                    edit.put(t.file.getId(), t, false);
+                }
+            }
+        }
+        for (Table t : tables) {
+            if (t.file instanceof PartitionedFile) {
+                for (HeapFile partition : ((PartitionedFile) t.file).getPartitions()) {
+                    if (edit.idOf(partition) == null) {
+                        partition.assignId(edit.nextId);
+                        edit.put(edit.nextId, new Table(partition, null, ""), true);
+                    }
+                }
+            }
+        }
+        snapshot = edit.publish();
+        closeFiles(edit.removed);
+    }
+
+    /**
+     * Adds an index of a table to the catalog. The index gets an id of its
+     * own, like a table, but isn't listed as one. An index with no pages,
+     * because its file is empty or out of date, is built from the tuples of
+     * the table first, so no transaction may be modifying the table.
+     *
+     * @throws NoSuchElementException
+     *             if the indexed table isn't in the catalog
+     * @throws IOException
+     *             if the index can't be built
+     */
+    public synchronized void addIndex(IndexFile index) throws IOException {
+        Edit edit = new Edit(snapshot);
+        Integer tableid = edit.idOf(index.getTable());
+        if (tableid == null) {
+            throw new NoSuchElementException();
+        }
+        if (edit.idOf(index) != null) {
+            return;
+        }
+        int id = edit.nextId;
+        if (!index.assignId(id)) {
+            throw new IllegalArgumentException("index " + index + " can't have id " + id);
+        }
+        edit.put(id, new Table(index, null, ""), true);
+        edit.put(tableid, edit.get(tableid).withIndex(index), edit.isDense(tableid));
+        if (index.numPages() == 0) {
+            index.rebuild();
+        }
+        snapshot = edit.publish();
+    }
+
+    /**
+     * Returns the indexes of the table with the given id, in the order they
+     * were added; none for an id that isn't in the catalog.
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+        Table t = snapshot.get(tableid);
+        return t == null ? Collections.<IndexFile> emptyList() : t.indexes;
+    }
+
     /**
      * Return the id of the table with a specified name,
      *
@@ -80,10 +341,11 @@ public class Catalog {
      *             if the table doesn't exist
      */
     public int getTableId(String name) throws NoSuchElementException {
-        if (name == null || !nameToId.containsKey(name)) {
+        Integer id = name == null ? null : snapshot.nameToId.get(name);
+        if (id == null) {
             throw new NoSuchElementException();
         }
-        return nameToId.get(name);
+        return id;
     }
 
     /**
@@ -96,55 +358,109 @@ public class Catalog {
      *             if the table doesn't exist
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
-        if (!idToFile.containsKey(tableid)) {
-            throw new NoSuchElementException();
-        }
-        return idToFile.get(tableid).getTupleDesc();
+        return getDbFile(tableid).getTupleDesc();
     }
 
     /**
      * Returns the DbFile that can be used to read the contents of the specified
-     * table.
+     * table, or of the partition of a partitioned table with that id, whose
+     * pages carry it.
      *
      * @param tableid
      *            The id of the table, as specified by the DbFile.getId()
      *            function passed to addTable
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
-        // some code goes here
-        if (!idToFile.containsKey(tableid)) {
+        Table t = snapshot.get(tableid);
+        if (t == null) {
             throw new NoSuchElementException();
         }
-        return idToFile.get(tableid);
+        return t.file;
     }
 
-    public String getPrimaryKey(int tableid) {
-        if (!idToPkey.containsKey(tableid)) {
+    /** Returns the table with the given id; partitions aren't tables. */
+    private Table getTable(int tableid) throws NoSuchElementException {
+        Table t = snapshot.get(tableid);
+        if (t == null || t.name == null) {
             throw new NoSuchElementException();
         }
-        return idToPkey.get(tableid);
+        return t;
+    }
+
+    public String getPrimaryKey(int tableid) {
+        return getTable(tableid).pkey;
     }
 
     public Iterator<Integer> tableIdIterator() {
-        return idToName.keySet().iterator();
+        Snapshot s = snapshot;
+        ArrayList<Integer> ids = new ArrayList<>();
+        for (int id = 0; id < s.tables.length; id++) {
+            if (s.tables[id] != null && s.tables[id].name != null) {
+                ids.add(id);
+            }
+        }
+        for (Map.Entry<Integer, Table> e : s.fixed.entrySet()) {
+            if (e.getValue().name != null) {
+                ids.add(e.getKey());
+            }
+        }
+        return Collections.unmodifiableList(ids).iterator();
     }
 
     public String getTableName(int id) {
-        if (!idToName.containsKey(id)) {
-            throw new NoSuchElementException();
-        }
-        return idToName.get(id);
+        return getTable(id).name;
     }
 
+    /**
+     * Drop the specified table from the catalog and close its DbFile. The
+     * data file itself is left on disk.
+     *
+     * @param tableid
+     *            The id of the table, as specified by the DbFile.getId()
+     *            function passed to addTable
+     * @throws NoSuchElementException
+     *             if the table doesn't exist
+     */
+    public synchronized void removeTable(int tableid) throws NoSuchElementException {
+        getTable(tableid);
+        Edit edit = new Edit(snapshot);
+        edit.remove(tableid);
+        snapshot = edit.publish();
+        closeFiles(edit.removed);
+    }
+
+    private void closeFiles(List<DbFile> files) {
+        for (DbFile file : files) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
     /**
-     * Delete all tables from the catalog
+     * Delete all tables from the catalog. The ids they had aren't given to
+     * tables added later.
      */
-    public void clear() {
-        idToName.clear();
-        idToPkey.clear();
-        idToFile.clear();
-        nameToId.clear();
+    public synchronized void clear() {
+        Snapshot s = snapshot;
+        ArrayList<DbFile> files = new ArrayList<>();
+        for (Table t : s.tables) {
+            if (t != null && t.name != null) {
+                files.add(t.file);
+                files.addAll(t.indexes);
+            }
+        }
+        for (Table t : s.fixed.values()) {
+            if (t.name != null) {
+                files.add(t.file);
+                files.addAll(t.indexes);
+            }
+        }
+        snapshot = new Snapshot(new Table[0], Collections.<Integer, Table> emptyMap(),
+                Collections.<String, Integer> emptyMap(), s.nextId);
+        closeFiles(files);
     }
 
     /**
@@ -162,7 +478,49 @@ public class Catalog {
         try {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
-            while ((line = br.readLine()) != null) {
+            // an optional first line "pagesize <bytes>" gives the page size
+            // the database's files were written with; without it they use
+            // the default page size
+            int pageSize = BufferPool.DEFAULT_PAGE_SIZE;
+            String pageSizeLine = null;
+            line = br.readLine();
+            if (line != null && line.trim().toLowerCase().startsWith("pagesize")) {
+                pageSizeLine = line;
+                try {
+                    pageSize = Integer.parseInt(line.trim().substring(8).trim());
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid page size : " + line);
+                    System.exit(0);
+                }
+                line = br.readLine();
+            }
+            if (pageSize != BufferPool.getPageSize()) {
+                if (snapshot.tables.length > 0 || !snapshot.fixed.isEmpty()) {
+                    System.out.println("Cannot load a schema with " + pageSize
+                            + "-byte pages while tables with "
+                            + BufferPool.getPageSize() + "-byte pages are open");
+                    System.exit(0);
+                }
+                try {
+                    BufferPool.setPageSize(pageSize);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Invalid page size : " + pageSize);
+                    System.exit(0);
+                }
+            }
+
+            // the tables are added together once all lines are read, so that
+            // those with an id: option keep their ids whatever their order
+            ArrayList<Table> tables = new ArrayList<Table>();
+            ArrayList<Integer> ids = new ArrayList<Integer>();
+            ArrayList<String> tableLines = new ArrayList<String>();
+            // the fields of each table to build B+ tree, hash and bitmap
+            // indexes on
+            ArrayList<List<Integer>> indexFields = new ArrayList<List<Integer>>();
+            ArrayList<List<Integer>> hashIndexFields = new ArrayList<List<Integer>>();
+            ArrayList<List<Integer>> bitmapIndexFields = new ArrayList<List<Integer>>();
+            ArrayList<Map<Integer, int[]>> includedFields = new ArrayList<Map<Integer, int[]>>();
+            for (; line != null; line = br.readLine()) {
                 // assume line is of the format name (field type, field type,
                 // ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
@@ -173,24 +531,111 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                int clusterField = -1;
+                int partitionField = -1;
+                List<Integer> indexed = new ArrayList<Integer>();
+                List<Integer> hashIndexed = new ArrayList<Integer>();
+                List<Integer> bitmapIndexed = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().toLowerCase().equals("int"))
-                        types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().toLowerCase().equals("string"))
-                        types.add(Type.STRING_TYPE);
+                    Type type = Type.forName(els2[1].trim());
+                    if (type != null)
+                        types.add(type);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    // "pk" marks the primary key; "clustered" keeps the
+                    // table's pages in the order of the field; "partitioned"
+                    // splits the table by the field; "index" keeps a B+ tree
+                    // index on the field, in the data file's name with
+                    // ".btree" and the number of the field appended,
+                    // "hashindex" a hash index, with ".hash" appended, and
+                    // "bitmapindex" a bitmap index, with ".bitmap" appended
+                    for (int j = 2; j < els2.length; j++) {
+                        if (els2[j].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[j].trim().equals("clustered"))
+                            clusterField = names.size() - 1;
+                        else if (els2[j].trim().equals("partitioned"))
+                            partitionField = names.size() - 1;
+                        else if (els2[j].trim().equals("index"))
+                            indexed.add(names.size() - 1);
+                        else if (els2[j].trim().equals("hashindex"))
+                            hashIndexed.add(names.size() - 1);
+                        else if (els2[j].trim().equals("bitmapindex"))
+                            bitmapIndexed.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[j]);
+                            System.exit(0);
+                        }
+                    }
+                }
+                // optional table options follow the column list, e.g.
+                // "name (f1 int, f2 string) mmap"; "compressed" and "deflate"
+                // choose the PageCompressor encodings of the table's pages,
+                // "columnar" stores the table in a ColumnFile. A table with a
+                // "partitioned" field needs "range:<bound>,<bound>,..." to be
+                // split at the bounds, or "hash:<n>" to be hashed over n
+                // partitions. "id:<n>" gives the table id n, below
+                // MAX_SCHEMA_ID, so that the ids stay the same when tables
+                // are added to or dropped from the schema; tables without one
+                // get the next free ids in the order of the schema, which
+                // are then written into the schema. "include:<key>=<field>,<field>,..."
+                // makes the B+ tree and hash indexes on the field key carry
+                // the values of the other fields, so that they cover queries
+                // on those fields
+
+                boolean mmap = false;
+                Integer id = null;
+                boolean columnar = false;
+                String[] rangeBounds = null;
+                int hashPartitions = 0;
+                int compression = PageCompressor.NONE;
+                Map<Integer, int[]> included = new HashMap<Integer, int[]>();
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                for (String option : options.isEmpty() ? new String[0]
+                        : options.split("\\s+")) {
+                    if (option.toLowerCase().equals("mmap"))
+                        mmap = true;
+                    else if (option.toLowerCase().equals("compressed"))
+                        compression |= PageCompressor.COLUMNS;
+                    else if (option.toLowerCase().equals("deflate"))
+                        compression |= PageCompressor.DEFLATE;
+                    else if (option.toLowerCase().equals("columnar"))
+                        columnar = true;
+                    else if (option.toLowerCase().startsWith("range:"))
+                        rangeBounds = option.substring(6).split(",");
+                    else if (option.toLowerCase().startsWith("hash:"))
+                        hashPartitions = Integer.parseInt(option.substring(5));
+                    else if (option.toLowerCase().startsWith("id:")) {
+                        id = Integer.parseInt(option.substring(3));
+                        if (id < 0 || id >= MAX_SCHEMA_ID || ids.contains(id))
+                            throw new IllegalArgumentException("bad table id " + id);
+                    }
+                    else if (option.toLowerCase().startsWith("include:")
+                            && option.indexOf("=") > 0) {
+                        String key = option.substring(8, option.indexOf("="));
+                        String[] others = option.substring(option.indexOf("=") + 1)
+                                .split(",");
+                        int[] includedAr = new int[others.length];
+                        for (int j = 0; j < others.length; j++) {
+                            includedAr[j] = names.indexOf(others[j]);
+                            if (includedAr[j] < 0) {
+                                System.out.println("Unknown field " + others[j]);
+                                System.exit(0);
+                            }
+                        }
+                        if (!names.contains(key)) {
+                            System.out.println("Unknown field " + key);
                             System.exit(0);
                         }
+                        included.put(names.indexOf(key), includedAr);
+                    }
+                    else {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
                     }
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
@@ -199,16 +644,159 @@ public class Catalog {
                 //ĬdatļcatalogͬһĿ¼
                 String tableName = (baseFolder == null ? "" : baseFolder + File.separator)
                         + name + ".dat";
-                HeapFile tabHf = new HeapFile(new File(tableName), t);
-                addTable(tabHf, name, primaryKey);
-                System.out.println("Added table : " + name + " with schema " + t);
+                // a file written with another page size would be misread, so
+                // refuse to open it
+                File dataFile = new File(tableName);
+                for (File f : tableFiles(dataFile)) {
+                    int filePageSize = FileHeader.readPageSize(f);
+                    if (filePageSize != 0 && filePageSize != pageSize) {
+                        System.out.println("Table file " + f + " has " + filePageSize
+                                + "-byte pages, not " + pageSize);
+                        System.exit(0);
+                    }
+                }
+                if (columnar && clusterField >= 0) {
+                    System.out.println("Columnar table " + name + " can't be clustered");
+                    System.exit(0);
+                }
+                if ((partitionField >= 0) != (rangeBounds != null || hashPartitions > 0)
+                        || (rangeBounds != null && hashPartitions > 0)) {
+                    System.out.println("Table " + name + " needs one partitioned"
+                            + " field and one of range: or hash:");
+                    System.exit(0);
+                }
+                if (columnar && partitionField >= 0) {
+                    System.out.println("Columnar table " + name + " can't be partitioned");
+                    System.exit(0);
+                }
+                if ((columnar || partitionField >= 0)
+                        && !(indexed.isEmpty() && hashIndexed.isEmpty()
+                                && bitmapIndexed.isEmpty())) {
+                    System.out.println("Only heap files can be indexed: " + name);
+                    System.exit(0);
+                }
+                DbFile tabHf;
+                if (columnar)
+                    tabHf = new ColumnFile(dataFile, t);
+                else if (rangeBounds != null) {
+                    Type type = t.getFieldType(partitionField);
+                    Field[] bounds = new Field[rangeBounds.length];
+                    for (int j = 0; j < bounds.length; j++) {
+                        try {
+                            bounds[j] = type.parse(rangeBounds[j]);
+                        } catch (java.text.ParseException e) {
+                            System.out.println("Invalid partition bound " + rangeBounds[j]);
+                            System.exit(0);
+                        }
+                    }
+                    tabHf = new PartitionedFile(dataFile, t, partitionField,
+                            bounds, mmap, compression, clusterField);
+                } else if (hashPartitions > 0)
+                    tabHf = new PartitionedFile(dataFile, t, partitionField,
+                            hashPartitions, mmap, compression, clusterField);
+                else
+                    tabHf = clusterField >= 0
+                            ? new ClusteredHeapFile(dataFile, t, mmap, compression,
+                                    clusterField)
+                            : new HeapFile(dataFile, t, mmap, compression);
+
+                tables.add(new Table(tabHf, name, primaryKey));
+                ids.add(id);
+                tableLines.add(line);
+                indexFields.add(indexed);
+                hashIndexFields.add(hashIndexed);
+                bitmapIndexFields.add(bitmapIndexed);
+                includedFields.add(included);
             }
-        } catch (IOException e) {
+            install(tables, ids);
+            if (ids.contains(null)) {
+                writeIds(new File(catalogFile), pageSizeLine, tableLines, tables, ids);
+            }
+            for (int i = 0; i < tables.size(); i++) {
+                Table t = tables.get(i);
+                System.out.println("Added table : " + t.name + " with schema "
+                        + t.file.getTupleDesc());
+                // clustered files written in no particular order, e.g. by
+                // HeapFileEncoder, are sorted before anything reads them
+                HeapFile[] heapFiles = t.file instanceof PartitionedFile
+                        ? ((PartitionedFile) t.file).getPartitions()
+                        : t.file instanceof HeapFile ? new HeapFile[] { (HeapFile) t.file }
+                        : new HeapFile[0];
+                for (HeapFile hf : heapFiles) {
+                    if (hf instanceof ClusteredHeapFile
+                            && ((ClusteredHeapFile) hf).needsClustering()) {
+                        System.out.println("Clustering " + hf.getFile());
+                        ((ClusteredHeapFile) hf).cluster();
+                    }
+                }
+                Map<Integer, int[]> included = includedFields.get(i);
+                for (int field : indexFields.get(i)) {
+                    HeapFile hf = (HeapFile) t.file;
+                    addIndex(new BTreeFile(new File(hf.getFile().getPath() + ".btree"
+                            + field), hf, field,
+                            included.containsKey(field) ? included.get(field) : new int[0]));
+                }
+                for (int field : hashIndexFields.get(i)) {
+                    HeapFile hf = (HeapFile) t.file;
+                    addIndex(new HashFile(new File(hf.getFile().getPath() + ".hash"
+                            + field), hf, field,
+                            included.containsKey(field) ? included.get(field) : new int[0]));
+                }
+                for (int field : bitmapIndexFields.get(i)) {
+                    HeapFile hf = (HeapFile) t.file;
+                    addIndex(new BitmapFile(new File(hf.getFile().getPath() + ".bitmap"
+                            + field), hf, field));
+                }
+            }
+        } catch (IOException | DbException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
             System.out.println("Invalid catalog entry : " + line);
             System.exit(0);
         }
     }
+
+    /**
+     * Returns the files of a table stored in dataFile that exist: dataFile
+     * and any column or partition files named after it.
+     */
+    private static List<File> tableFiles(File dataFile) {
+        List<File> files = new ArrayList<File>();
+        files.add(dataFile);
+        for (String suffix : new String[] { ".col", ".p" }) {
+            for (int j = 0; new File(dataFile.getPath() + suffix + j).exists(); j++) {
+                files.add(new File(dataFile.getPath() + suffix + j));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Writes a schema back with an "id:" option for each table that had
+     * none, giving the id the table got, so that it keeps that id when the
+     * schema is loaded again. A schema that can't be written is left as it
+     * is.
+     */
+    private static void writeIds(File catalogFile, String pageSizeLine,
+            List<String> tableLines, List<Table> tables, List<Integer> ids) {
+        File tmp = new File(catalogFile.getPath() + ".tmp");
+        try {
+            try (PrintWriter out = new PrintWriter(tmp)) {
+                if (pageSizeLine != null) {
+                    out.println(pageSizeLine);
+                }
+                for (int i = 0; i < tables.size(); i++) {
+                    out.println(ids.get(i) != null ? tableLines.get(i)
+                            : tableLines.get(i) + " id:" + tables.get(i).file.getId());
+                }
+            }
+            java.nio.file.Files.move(tmp.toPath(), catalogFile.toPath(),
+                    java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.out.println("Cannot write table ids to " + catalogFile + ": "
+                    + e.getMessage());
+            tmp.delete();
+        }
+    }
 }
@@ -0,0 +1,655 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * ClusteredHeapFile is a HeapFile that keeps its pages in the order of one
+ * field, the clustering key. The pages are chained in key order by a list of
+ * page numbers, saved in a file next to the data file with ".order"
+ * appended, so that a page split only has to append the new page to the
+ * file. Every key on a page is at most the smallest key on the next
+ * non-empty page in the list.
+ * <p>
+ * Inserts go to the page the key belongs on, splitting it when it is full,
+ * scans read the pages in key order, and a key range scan only reads the
+ * pages that may hold keys in the range. A file written in no particular
+ * order, e.g. by HeapFileEncoder, has to be sorted by {@link #cluster}
+ * before it is used; the Catalog does so when it loads the table.
+ *
+ * @see Catalog#loadSchema
+ */
+public class ClusteredHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int clusterField;
+    // page numbers in key order; replaced rather than modified, so that
+    // readers can use the array they got without holding the lock
+    private int[] order;
+    // bumped whenever a page is added to order
+    private int orderVersion;
+    // pages' worth of tuples cluster() sorts in memory at a time
+    private static final int SORT_RUN_PAGES = 256;
+    // pages cluster() reads from disk at a time
+    private static final int SORT_READ_PAGES = 64;
+
+    /**
+     * Constructs a clustered heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mmap
+     *            if true, pages are read through a memory mapping of the
+     *            file. Ignored for compressed files.
+     * @param compression
+     *            the encodings pages are compressed with on disk, or
+     *            PageCompressor.NONE.
+     * @param clusterField
+     *            the index of the field whose order the pages of the table
+     *            are kept in
+     */
+    public ClusteredHeapFile(File f, TupleDesc td, boolean mmap,
+            int compression, int clusterField) {
+        super(f, td, mmap, compression);
+        if (clusterField < 0 || clusterField >= td.numFields()) {
+            throw new IllegalArgumentException("no field " + clusterField
+                    + " to cluster on");
+        }
+        this.clusterField = clusterField;
+    }
+
+    /**
+     * @return the index of the field the pages of this table are kept in the
+     *         order of
+     */
+    public int getClusterField() {
+        return clusterField;
+    }
+
+    private File getOrderFile() {
+        return new File(getFile().getPath() + ".order");
+    }
+
+    /**
+     * Returns the page numbers of the file in key order, reading them from
+     * the order file on first use. An empty file without an order file gets
+     * one; a file with tuples but no order file has to be clustered first.
+     */
+    private synchronized int[] getOrder() throws IOException {
+        if (order != null) {
+            return order;
+        }
+        File f = getOrderFile();
+        if (!f.exists()) {
+            if (numPages() > 0) {
+                throw new IOException("clustered file " + getFile()
+                        + " isn't sorted yet");
+            }
+            setOrder(new int[0]);
+            return order;
+        }
+        int[] pages = new int[(int) (f.length() / 4)];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(f)))) {
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = in.readInt();
+                // a page split off by a transaction that didn't commit may
+                // be past the last page that was written
+                growTo(pages[i] + 1);
+            }
+        }
+        order = pages;
+        return order;
+    }
+
+    @Override
+    int[] scanOrder() throws DbException {
+        try {
+            return getOrder();
+        } catch (IOException e) {
+            throw new DbException("can't read the page order of " + getFile()
+                    + ": " + e);
+        }
+    }
+
+    /**
+     * Replaces the page order of the file and saves it. It is written to a
+     * temporary file first and then moved into place.
+     */
+    private synchronized void setOrder(int[] pages) throws IOException {
+        File tmp = new File(getOrderFile().getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)))) {
+            for (int page : pages) {
+                out.writeInt(page);
+            }
+        }
+        java.nio.file.Files.move(tmp.toPath(), getOrderFile().toPath(),
+                java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        order = pages;
+        orderVersion++;
+    }
+
+    /**
+     * Reads the tuples of the given pages straight from disk, without going
+     * through the buffer pool.
+     */
+    private ArrayList<Tuple> readTuples(int[] pages) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int pageNo : pages) {
+            Iterator<Tuple> it = ((TuplePage) readPage(
+                    new HeapPageId(getId(), pageNo))).iterator();
+            while (it.hasNext()) {
+                tuples.add(it.next());
+            }
+        }
+        return tuples;
+    }
+
+    /**
+     * @return true if the file has tuples whose pages haven't been put in
+     *         key order yet, e.g. one written by HeapFileEncoder.
+     */
+    public synchronized boolean needsClustering() {
+        return order == null && numPages() > 0 && !getOrderFile().exists();
+    }
+
+    /**
+     * Sorts the tuples of the file by key, packing them full into pages in
+     * key order, and rebuilds the indexes of the table. The tuples are sorted
+     * with an external merge sort into a copy of the file, which is then
+     * moved over it, so the table may be larger than memory.
+     * <p>
+     * Like bulkLoad, this is not logged: it is a step for loading or
+     * reorganizing a table, not for use while transactions use it.
+     *
+     * @throws DbException
+     *             if a transaction holds a lock on a page of the table
+     */
+    public void cluster() throws DbException, IOException {
+        claimTable();
+        synchronized (this) {
+            try (ExternalSort sort = newSort()) {
+                addTuples(sort);
+                replaceWith(sort);
+            }
+        }
+        rebuildIndexes();
+    }
+
+    /**
+     * Drops the pages of the table from the buffer pool before its file is
+     * replaced. Called without holding the monitor of this file, which the
+     * buffer pool takes to write pages out.
+     *
+     * @throws DbException
+     *             if a transaction holds a lock on a page of the table
+     */
+    private void claimTable() throws DbException {
+        if (!Database.getBufferPool().discardTable(getId())) {
+            throw new DbException("table " + getFile() + " is in use");
+        }
+    }
+
+    private ExternalSort newSort() {
+        return new ExternalSort(getTupleDesc(), new TupleComparator(clusterField,
+                true), SORT_RUN_PAGES * maxTuplesPerPage());
+    }
+
+    /**
+     * Adds the tuples of the file to sort, read straight from disk a run of
+     * pages at a time.
+     */
+    private void addTuples(ExternalSort sort) throws IOException {
+        for (int i = 0; i < numPages(); i += SORT_READ_PAGES) {
+            for (Page page : readPages(new HeapPageId(getId(), i),
+                    SORT_READ_PAGES)) {
+                Iterator<Tuple> it = ((TuplePage) page).iterator();
+                while (it.hasNext()) {
+                    sort.add(it.next());
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of the file with the tuples of sort. They are
+     * written, packed full in key order, to a temporary file next to the
+     * data file, which is then moved over it. The order file is deleted
+     * first, so that a file replaced by a move that didn't finish saving its
+     * order is sorted again rather than read in a stale order. The caller
+     * has claimed the table.
+     */
+    private synchronized void replaceWith(ExternalSort sort) throws IOException {
+        sort.sort();
+        File tmp = new File(getFile().getPath() + ".sorted");
+        try {
+            int written;
+            try (FileChannel out = FileHeader.open(tmp)) {
+                written = writeTuples(sort, 0, out);
+            }
+            java.nio.file.Files.deleteIfExists(getOrderFile().toPath());
+            order = null;
+            replaceFile(tmp, written);
+        } finally {
+            tmp.delete();
+        }
+        int[] pages = new int[numPages()];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = i;
+        }
+        setOrder(pages);
+    }
+
+    /**
+     * Packs the tuples of sort, in order, into new pages numbered from first
+     * on. The pages are written to out, starting at its beginning, or to this
+     * file if out is null.
+     *
+     * @return the number of pages written
+     */
+    private int writeTuples(ExternalSort sort, int first, FileChannel out)
+            throws IOException {
+        int written = 0;
+        TuplePage page = null;
+        for (Tuple t = sort.next(); t != null; t = sort.next()) {
+            if (page == null || !page.hasRoomFor(t)) {
+                if (page != null) {
+                    writeTuplePage(page, out, written);
+                    written++;
+                }
+                page = (TuplePage) createEmptyPage(new HeapPageId(getId(),
+                        first + written));
+            }
+            try {
+                page.insertTuple(t);
+            } catch (DbException e) {
+                throw new IOException("tuple doesn't fit on a page: " + t);
+            }
+        }
+        if (page != null) {
+            writeTuplePage(page, out, written);
+            written++;
+        }
+        return written;
+    }
+
+    private void writeTuplePage(TuplePage page, FileChannel out, int index)
+            throws IOException {
+        if (out == null) {
+            writePage(page);
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+        long pos = FileHeader.offset(index);
+        while (buf.hasRemaining()) {
+            out.write(buf, pos + buf.position());
+        }
+    }
+
+    private TuplePage getPage(TransactionId tid, int pageNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (TuplePage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(getId(), pageNo), perm);
+    }
+
+    /**
+     * @return the smallest key on a page of the file, or null if the page is
+     *         empty.
+     */
+    private Field minKey(TuplePage page) {
+        Field min = null;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Field key = it.next().getField(clusterField);
+            if (min == null || key.compare(Predicate.Op.LESS_THAN, min)) {
+                min = key;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Binary searches the pages of the file for the last non-empty page
+     * whose smallest key is at most key, or less than key if not inclusive.
+     * The pages looked at are locked READ_ONLY by tid.
+     *
+     * @return the index of that page in pages, or -1 if there is none
+     */
+    private int findPage(TransactionId tid, int[] pages, Field key,
+            boolean inclusive) throws TransactionAbortedException, DbException {
+        Predicate.Op op = inclusive ? Predicate.Op.LESS_THAN_OR_EQ
+                : Predicate.Op.LESS_THAN;
+        int lo = 0;
+        int hi = pages.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            // an empty page has no key, so look at the next one that has
+            int probe = mid;
+            Field min = null;
+            for (; probe <= hi && pages[probe] < numPages(); probe++) {
+                min = minKey(getPage(tid, pages[probe], Permissions.READ_ONLY));
+                if (min != null) {
+                    break;
+                }
+            }
+            if (min != null && min.compare(op, key)) {
+                found = probe;
+                lo = probe + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Inserts a tuple on the last page whose smallest key is at most the
+     * tuple's key, or the first page if there is none. A full page is split:
+     * the upper half of its tuples by key move to a new page, which follows
+     * it in the page order.
+     */
+    @Override
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = t.getField(clusterField);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        while (true) {
+            int[] pages;
+            int version;
+            synchronized (this) {
+                pages = getOrder();
+                version = orderVersion;
+                if (pages.length == 0) {
+                    setOrder(new int[] { allocatePageId().pageNumber() });
+                    continue;
+                }
+            }
+            int index = Math.max(0, findPage(tid, pages, key, true));
+            TuplePage page = getPage(tid, pages[index], Permissions.READ_WRITE);
+            synchronized (this) {
+                if (orderVersion != version) {
+                    // a page was split while we waited for the lock
+                    continue;
+                }
+            }
+
+            if (!page.hasRoomFor(t)) {
+                if (!page.iterator().hasNext()) {
+                    throw new DbException("tuple is too large for a page: " + t);
+                }
+                TuplePage right = split(tid, page, key);
+                dirtied.add(page);
+                dirtied.add(right);
+                Field min = minKey(right);
+                if (min == null || !key.compare(Predicate.Op.LESS_THAN, min)) {
+                    page = right;
+                }
+                if (!page.hasRoomFor(t)) {
+                    // a variable-length tuple that needs another split
+                    continue;
+                }
+            }
+            page.insertTuple(t);
+            page.markDirty(true, tid);
+            if (!dirtied.contains(page)) {
+                dirtied.add(page);
+            }
+            return dirtied;
+        }
+    }
+
+    /**
+     * Splits a full page, moving the upper half of its tuples by key to a
+     * new page that follows it in the page order. A page with one tuple is
+     * split around the key about to be inserted instead, so that the tuple
+     * and the key end up on different pages.
+     *
+     * @return the new page
+     */
+    private TuplePage split(TransactionId tid, TuplePage page, Field key)
+            throws DbException, IOException, TransactionAbortedException {
+        HeapPageId pid;
+        synchronized (this) {
+            pid = allocatePageId();
+            int at = 0;
+            while (order[at] != page.getId().pageNumber()) {
+                at++;
+            }
+            int[] pages = new int[order.length + 1];
+            System.arraycopy(order, 0, pages, 0, at + 1);
+            pages[at + 1] = pid.pageNumber();
+            System.arraycopy(order, at + 1, pages, at + 2, order.length - at - 1);
+            setOrder(pages);
+        }
+        TuplePage right = (TuplePage) Database.getBufferPool().addNewPage(tid,
+                createEmptyPage(pid));
+
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        Collections.sort(tuples, new TupleComparator(clusterField, true));
+        int from = tuples.size() / 2;
+        if (tuples.size() == 1) {
+            from = key.compare(Predicate.Op.LESS_THAN,
+                    tuples.get(0).getField(clusterField)) ? 0 : 1;
+        }
+        for (Tuple moved : tuples.subList(from, tuples.size())) {
+            RecordId rid = moved.getRecordId();
+            page.deleteTuple(moved);
+            right.insertTuple(moved);
+            moveIndexEntries(tid, moved, rid);
+        }
+        page.markDirty(true, tid);
+        right.markDirty(true, tid);
+        return right;
+    }
+
+    /**
+     * Loads the tuples of a delimited text file like HeapFile.bulkLoad, but
+     * keeps the file in key order: the loaded tuples are sorted with an
+     * external merge sort. If their keys all come after the keys already in
+     * the table, the sorted pages are appended; otherwise the table is
+     * replaced by a sorted copy, as by {@link #cluster}. The indexes of the
+     * table are rebuilt afterwards.
+     *
+     * @throws DbException
+     *             if a transaction holds a lock on a page of the table
+     * @throws ParseException
+     *             if a line of inFile can't be parsed, in which case nothing
+     *             is loaded
+     */
+    @Override
+    public long bulkLoad(File inFile, char fieldSeparator)
+            throws DbException, IOException, ParseException {
+        BulkLoader loader = new BulkLoader(getTupleDesc(), fieldSeparator);
+        claimTable();
+        long loaded;
+        synchronized (this) {
+            loaded = bulkLoadSorted(loader, inFile);
+        }
+        rebuildIndexes();
+        return loaded;
+    }
+
+    private long bulkLoadSorted(BulkLoader loader, File inFile)
+            throws IOException, ParseException {
+        try (ExternalSort sort = newSort()) {
+            Field min = null;
+            File tmp = File.createTempFile("bulk", ".dat");
+            try {
+                loader.convert(inFile, tmp);
+                int size = BufferPool.getPageSize();
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(tmp)))) {
+                    FileHeader.skip(in);
+                    byte[] data = new byte[size];
+                    for (long i = 0; i < FileHeader.pages(tmp.length()); i++) {
+                        in.readFully(data);
+                        Iterator<Tuple> it = ((TuplePage) createPage(
+                                new HeapPageId(getId(), 0), data.clone())).iterator();
+                        while (it.hasNext()) {
+                            Tuple t = it.next();
+                            Field key = t.getField(clusterField);
+                            if (min == null || key.compare(Predicate.Op.LESS_THAN, min)) {
+                                min = key;
+                            }
+                            sort.add(t);
+                        }
+                    }
+                }
+            } finally {
+                tmp.delete();
+            }
+            long loaded = sort.size();
+            if (loaded == 0) {
+                return 0;
+            }
+
+            Field max = null;
+            int[] pages = needsClustering() ? null : getOrder();
+            for (int i = pages == null ? -1 : pages.length - 1; i >= 0 && max == null; i--) {
+                for (Tuple t : readTuples(new int[] { pages[i] })) {
+                    Field key = t.getField(clusterField);
+                    if (max == null || key.compare(Predicate.Op.GREATER_THAN, max)) {
+                        max = key;
+                    }
+                }
+            }
+            if (pages != null && (max == null
+                    || !min.compare(Predicate.Op.LESS_THAN, max))) {
+                sort.sort();
+                int first = numPages();
+                int written = writeTuples(sort, first, null);
+                int[] grown = Arrays.copyOf(pages, pages.length + written);
+                for (int i = 0; i < written; i++) {
+                    grown[pages.length + i] = first + i;
+                }
+                growTo(first + written);
+                setOrder(grown);
+            } else {
+                addTuples(sort);
+                replaceWith(sort);
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * Clustered files can't be vacuumed, since moving tuples to earlier pages
+     * would break their order.
+     *
+     * @throws DbException
+     *             always
+     */
+    @Override
+    public int vacuum() throws DbException {
+        throw new DbException("can't vacuum clustered file " + getFile());
+    }
+
+    /**
+     * Returns an iterator over the tuples of the file whose key is between
+     * lower and upper, inclusive. The iterator starts with a binary search
+     * over the pages for the first one that may hold such a key and stops at
+     * the first page whose keys are all past upper, so only those pages are
+     * read. Tuples come out in page order, which is key order between pages
+     * but not within them.
+     *
+     * @param lower
+     *            the smallest key returned, or null for no lower bound
+     * @param upper
+     *            the largest key returned, or null for no upper bound
+     */
+    public DbFileIterator iterator(TransactionId tid, Field lower, Field upper) {
+        return new KeyRangeIterator(tid, lower, upper);
+    }
+
+    private class KeyRangeIterator implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId transactionId;
+        private final Field lower;
+        private final Field upper;
+        private int[] pages;
+        private int cursor;
+        private Iterator<Tuple> currentPageIterator;
+        // the next tuple in the range, found by hasNext()
+        private Tuple next;
+        private boolean done;
+        private boolean isOpen;
+
+        KeyRangeIterator(TransactionId tid, Field lower, Field upper) {
+            this.transactionId = tid;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            pages = scanOrder();
+            // keys equal to lower may also end the page before the first
+            // page whose smallest key is lower
+            cursor = lower == null ? 0
+                    : Math.max(0, findPage(transactionId, pages, lower, false));
+            currentPageIterator = Collections.<Tuple>emptyIterator();
+            next = null;
+            done = false;
+            isOpen = true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!isOpen) {
+                return false;
+            }
+            while (next == null && !done) {
+                if (currentPageIterator.hasNext()) {
+                    Tuple t = currentPageIterator.next();
+                    Field key = t.getField(clusterField);
+                    if ((lower == null || !key.compare(Predicate.Op.LESS_THAN, lower))
+                            && (upper == null
+                                    || !key.compare(Predicate.Op.GREATER_THAN, upper))) {
+                        next = t;
+                    }
+                } else if (cursor >= pages.length || pages[cursor] >= numPages()) {
+                    done = true;
+                } else {
+                    TuplePage page = getPage(transactionId, pages[cursor++],
+                            Permissions.READ_ONLY);
+                    Field min = minKey(page);
+                    if (min != null && upper != null
+                            && min.compare(Predicate.Op.GREATER_THAN, upper)) {
+                        done = true;
+                    } else {
+                        currentPageIterator = page.iterator();
+                    }
+                }
+            }
+            return next != null;
+        }
+
+        public Tuple next()
+                throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            isOpen = false;
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * ColumnFile is an implementation of a DbFile that stores each column of a
+ * table in a file of its own, so that a scan that needs only some of the
+ * columns only reads the pages of those. Column j of the table backed by
+ * file f is stored in the file named f with ".col" + j appended, as a
+ * sequence of ColumnPages after a {@link FileHeader}.
+ * <p>
+ * Rows are numbered from 0 in the order they were inserted, and row r of the
+ * table is made of the value in slot r % n of page r / n of each column,
+ * where n is the number of values of that column that fit on a page. New
+ * rows are always appended; the slots of deleted rows are not reused.
+ * <p>
+ * The RecordId of a row refers to the page of column 0 it is stored on.
+ *
+ * @see ColumnPage
+ */
+public class ColumnFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private File file;
+    // assigned by the Catalog; the hash of the file's path until then
+    private int id;
+    private TupleDesc tupleDesc;
+    private int[] slotsPerPage;
+    private int[] pageCounts;
+    // one channel per column, opened lazily
+    private transient FileChannel[] channels;
+    // the number of the row the next insert goes to
+    private int nextRow;
+
+    /**
+     * Constructs a column file backed by the specified file. If the column
+     * files don't exist yet but f does, f is read as a HeapFile of the same
+     * TupleDesc, e.g. one written by HeapFileEncoder, and its tuples are
+     * copied into new column files. f itself is left alone.
+     *
+     * @param f
+     *            the file whose name the column files are named after
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.file = f;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.tupleDesc = td;
+        int n = td.numFields();
+        this.slotsPerPage = new int[n];
+        this.pageCounts = new int[n];
+        this.channels = new FileChannel[n];
+        for (int j = 0; j < n; j++) {
+            slotsPerPage[j] = ColumnPage.getNumSlots(td.getFieldType(j));
+        }
+
+        try {
+            if (!getColumnFile(0).exists() && f.length() > 0) {
+                FileHeader.check(f);
+                copyHeapFile();
+            }
+            for (int j = 0; j < n; j++) {
+                FileHeader.check(getColumnFile(j));
+                pageCounts[j] = FileHeader.pages(getColumnFile(j).length());
+            }
+            nextRow = findNextRow();
+        } catch (IOException e) {
+            throw new RuntimeException("failed to open column file " + f, e);
+        }
+    }
+
+    /**
+     * Returns the File whose name the column files are named after.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the File holding column j.
+     */
+    public File getColumnFile(int j) {
+        return new File(file.getPath() + ".col" + j);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    // see DbFile.java for javadocs
+    public boolean assignId(int id) {
+        this.id = id;
+        return true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    /**
+     * Returns the number of pages of all columns together.
+     */
+    public int numPages() {
+        int pages = 0;
+        for (int count : pageCounts) {
+            pages += count;
+        }
+        return pages;
+    }
+
+    /**
+     * Returns the number of pages of column j.
+     */
+    public int numPages(int j) {
+        return pageCounts[j];
+    }
+
+    private synchronized FileChannel getChannel(int j) throws IOException {
+        if (channels[j] == null || !channels[j].isOpen()) {
+            channels[j] = FileHeader.open(getColumnFile(j));
+        }
+        return channels[j];
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() throws IOException {
+        for (int j = 0; j < channels.length; j++) {
+            if (channels[j] != null) {
+                channels[j].close();
+                channels[j] = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the row after the last used slot of column 0.
+     */
+    private int findNextRow() throws IOException {
+        int last = pageCounts[0] - 1;
+        if (last < 0) {
+            return 0;
+        }
+        ColumnPage page = (ColumnPage) readPage(new ColumnPageId(getId(), 0, last));
+        for (int i = page.getNumSlots() - 1; i >= 0; i--) {
+            if (page.isSlotUsed(i)) {
+                return last * slotsPerPage[0] + i + 1;
+            }
+        }
+        return last * slotsPerPage[0];
+    }
+
+    /**
+     * Fills the column files from the heap file this ColumnFile is named
+     * after.
+     */
+    private void copyHeapFile() throws IOException {
+        int n = tupleDesc.numFields();
+        ColumnPage[] pages = new ColumnPage[n];
+        int[] written = new int[n];
+        OutputStream[] outs = new OutputStream[n];
+        try {
+            for (int j = 0; j < n; j++) {
+                outs[j] = new BufferedOutputStream(new FileOutputStream(getColumnFile(j)));
+                outs[j].write(FileHeader.create(BufferPool.getPageSize()));
+            }
+            int row = 0;
+            DbFileIterator it = new HeapFileReader(file, tupleDesc);
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int j = 0; j < n; j++) {
+                    int slot = row % slotsPerPage[j];
+                    if (slot == 0) {
+                        if (pages[j] != null) {
+                            outs[j].write(pages[j].getPageData());
+                            written[j]++;
+                        }
+                        pages[j] = new ColumnPage(new ColumnPageId(getId(), j, written[j]),
+                                ColumnPage.createEmptyPageData(),
+                                tupleDesc.getFieldType(j));
+                    }
+                    pages[j].setField(slot, t.getField(j));
+                }
+                row++;
+            }
+            it.close();
+            for (int j = 0; j < n; j++) {
+                if (pages[j] != null) {
+                    outs[j].write(pages[j].getPageData());
+                }
+            }
+        } catch (DbException e) {
+            throw new IOException(e);
+        } catch (TransactionAbortedException e) {
+            throw new IOException(e);
+        } finally {
+            for (OutputStream out : outs) {
+                if (out != null) {
+                    out.close();
+                }
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IllegalArgumentException {
+        ColumnPageId cpid = (ColumnPageId) pid;
+        int j = cpid.getColumn();
+        if (j >= pageCounts.length || pid.pageNumber() >= pageCounts[j]) {
+            throw new IllegalArgumentException(getColumnFile(j).getAbsolutePath());
+        }
+        try {
+            byte[] data = new byte[BufferPool.getPageSize()];
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            long pos = FileHeader.offset(pid.pageNumber());
+            FileChannel ch = getChannel(j);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, pos + buf.position()) < 0) {
+                    break;
+                }
+            }
+            return new ColumnPage(cpid, data, tupleDesc.getFieldType(j));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /** Reads page by page from the column of the first page. */
+    public List<Page> readPages(PageId first, int count)
+            throws IllegalArgumentException {
+        ColumnPageId cpid = (ColumnPageId) first;
+        int j = cpid.getColumn();
+        if (j >= pageCounts.length || first.pageNumber() >= pageCounts[j]) {
+            throw new IllegalArgumentException(getColumnFile(j).getAbsolutePath());
+        }
+        count = Math.min(count, pageCounts[j] - first.pageNumber());
+        List<Page> pages = new ArrayList<Page>(count);
+        for (int i = 0; i < count; i++) {
+            pages.add(readPage(new ColumnPageId(getId(), j, first.pageNumber() + i)));
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId cpid = (ColumnPageId) page.getId();
+        long pos = FileHeader.offset(cpid.pageNumber());
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData(), 0, BufferPool.getPageSize());
+        FileChannel ch = getChannel(cpid.getColumn());
+        while (buf.hasRemaining()) {
+            ch.write(buf, pos + buf.position());
+        }
+    }
+
+    private ColumnPageId pageOfRow(int column, int row) {
+        return new ColumnPageId(getId(), column, row / slotsPerPage[column]);
+    }
+
+    private RecordId recordIdOfRow(int row) {
+        return new RecordId(pageOfRow(0, row), row % slotsPerPage[0]);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        int row;
+        synchronized (this) {
+            row = nextRow++;
+            // append an empty page to each column that doesn't reach the row
+            for (int j = 0; j < pageCounts.length; j++) {
+                ColumnPageId pid = pageOfRow(j, row);
+                if (pid.pageNumber() >= pageCounts[j]) {
+                    writePage(new ColumnPage(pid, ColumnPage.createEmptyPageData(),
+                            tupleDesc.getFieldType(j)));
+                    pageCounts[j]++;
+                }
+            }
+        }
+
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (int j = 0; j < pageCounts.length; j++) {
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid,
+                    pageOfRow(j, row), Permissions.READ_WRITE);
+            page.setField(row % slotsPerPage[j], t.getField(j));
+            page.markDirty(true, tid);
+            pages.add(page);
+        }
+        t.setRecordId(recordIdOfRow(row));
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId)
+                || rid.getPageId().getTableId() != getId()
+                || ((ColumnPageId) rid.getPageId()).getColumn() != 0) {
+            throw new DbException(
+                    "the tuple cannot be deleted or is not a member of the file");
+        }
+        int row = rid.getPageId().pageNumber() * slotsPerPage[0] + rid.tupleno();
+        if (row >= nextRow) {
+            throw new DbException(
+                    "the tuple cannot be deleted or is not a member of the file");
+        }
+
+        Page first = null;
+        for (int j = 0; j < pageCounts.length; j++) {
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid,
+                    pageOfRow(j, row), Permissions.READ_WRITE);
+            int slot = row % slotsPerPage[j];
+            if (!page.isSlotUsed(slot)) {
+                throw new DbException("tuple slot is already empty");
+            }
+            page.clearSlot(slot);
+            page.markDirty(true, tid);
+            if (first == null) {
+                first = page;
+            }
+        }
+        t.setRecordId(null);
+        return first;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] all = new int[tupleDesc.numFields()];
+        for (int j = 0; j < all.length; j++) {
+            all[j] = j;
+        }
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that only reads the
+     * given columns. The other fields of the tuples it returns are null.
+     *
+     * @param columns
+     *            the indexes of the columns to read
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new ColumnFileIterator(tid, columns);
+    }
+
+    // must use the BufferPool.getPage() method to access pages
+    private class ColumnFileIterator implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private TransactionId transactionId;
+        private int[] columns;
+        // the column whose slots tell which rows are in use
+        private int driver;
+        private ColumnPage[] current;
+        private int row;
+        private boolean isOpen;
+
+        public ColumnFileIterator(TransactionId tid, int[] columns) {
+            this.transactionId = tid;
+            this.columns = columns.clone();
+            this.driver = columns.length > 0 ? columns[0] : 0;
+            this.current = new ColumnPage[tupleDesc.numFields()];
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            row = 0;
+            isOpen = true;
+        }
+
+        private ColumnPage getPage(int column)
+                throws DbException, TransactionAbortedException {
+            ColumnPageId pid = pageOfRow(column, row);
+            if (current[column] == null || !current[column].getId().equals(pid)) {
+                current[column] = (ColumnPage) Database.getBufferPool().getPage(
+                        transactionId, pid, Permissions.READ_ONLY);
+            }
+            return current[column];
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!isOpen) {
+                return false;
+            }
+            while (row < nextRow) {
+                if (getPage(driver).isSlotUsed(row % slotsPerPage[driver])) {
+                    return true;
+                }
+                row++;
+            }
+            return false;
+        }
+
+        public Tuple next()
+                throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = new Tuple(tupleDesc);
+            for (int j : columns) {
+                t.setField(j, getPage(j).getField(row % slotsPerPage[j]));
+            }
+            t.setRecordId(recordIdOfRow(row));
+            row++;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            isOpen = false;
+            Arrays.fill(current, null);
+        }
+    }
+
+    /**
+     * Iterates over the tuples of a heap file straight from disk, without
+     * the catalog or the buffer pool.
+     */
+    private static class HeapFileReader implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final File file;
+        private final TupleDesc td;
+        private DataInputStream in;
+        private Iterator<Tuple> page;
+
+        HeapFileReader(File file, TupleDesc td) {
+            this.file = file;
+            this.td = td;
+        }
+
+        public void open() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file)));
+                FileHeader.skip(in);
+            } catch (IOException e) {
+                throw new DbException(e.getMessage());
+            }
+        }
+
+        public boolean hasNext() throws DbException {
+            while (page == null || !page.hasNext()) {
+                byte[] data = new byte[BufferPool.getPageSize()];
+                try {
+                    in.readFully(data);
+                } catch (EOFException e) {
+                    return false;
+                } catch (IOException e) {
+                    throw new DbException(e.getMessage());
+                }
+                page = readTuples(data).iterator();
+            }
+            return true;
+        }
+
+        private List<Tuple> readTuples(byte[] data) throws DbException {
+            HeapPageId pid = new HeapPageId(0, 0);
+            if (SlottedPage.isUsedFor(td)) {
+                List<Tuple> tuples = new ArrayList<Tuple>();
+                Iterator<Tuple> it = new SlottedPage(pid, data, td).iterator();
+                while (it.hasNext()) {
+                    tuples.add(it.next());
+                }
+                return tuples;
+            }
+            int numSlots = HeapPage.getNumTuples(td);
+            int headerSize = (numSlots + 7) / 8;
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            List<Tuple> tuples = new ArrayList<Tuple>();
+            for (int i = 0; i < numSlots; i++) {
+                if ((data[i / 8] & (1 << (i % 8))) == 0) {
+                    continue;
+                }
+                Tuple t = new Tuple(td);
+                int offset = headerSize + i * td.getSize();
+                try {
+                    for (int j = 0; j < td.numFields(); j++) {
+                        t.setField(j, td.getFieldType(j).parse(buf, offset));
+                        offset += td.getFieldType(j).getLen();
+                    }
+                } catch (java.text.ParseException e) {
+                    throw new DbException("parsing error in " + file);
+                }
+                tuples.add(t);
+            }
+            return tuples;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public void close() {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            in = null;
+            page = null;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of ColumnPage stores the values of one column for a run of
+ * consecutive rows of a ColumnFile. Its format is the one of a HeapPage of a
+ * table with that single column: a bitmap of the slots in use followed by
+ * fixed-size slots, one value each.
+ *
+ * @see ColumnFile
+ * @see HeapPage
+ */
+public class ColumnPage implements Page {
+
+    private ColumnPageId pid;
+    private Type type;
+    private int numSlots;
+    private int headerSize;
+    // the current contents of the page, changed in place
+    private byte[] data;
+    private ByteBuffer buf;
+
+    byte[] oldData;
+
+    private TransactionId dirtyTransactionId;
+    private boolean isDirty;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk. The
+     * page takes ownership of data.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId())
+                .getFieldType(id.getColumn()));
+    }
+
+    ColumnPage(ColumnPageId id, byte[] data, Type type) {
+        this.pid = id;
+        this.type = type;
+        this.numSlots = getNumSlots(type);
+        this.headerSize = (numSlots + 7) / 8;
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        setBeforeImage();
+    }
+
+    /**
+     * Returns the number of values of the given type that fit on one page.
+     */
+    static int getNumSlots(Type type) {
+        return (BufferPool.getPageSize() * 8) / (type.getLen() * 8 + 1);
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Return a view of this page before it was modified -- used by recovery
+     */
+    public ColumnPage getBeforeImage() {
+        return new ColumnPage(pid, oldData.clone(), type);
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * ColumnPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; // all 0
+    }
+
+    /**
+     * Returns the number of slots on this page.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /**
+     * Returns the value in slot i, or null if the slot is empty.
+     */
+    public Field getField(int i) {
+        if (!isSlotUsed(i)) {
+            return null;
+        }
+        try {
+            return type.parse(buf, headerSize + i * type.getLen());
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new java.util.NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Stores f in slot i and marks the slot used.
+     */
+    public void setField(int i, Field f) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(type.getLen());
+        try {
+            // fixed width even for variable-length types, so slots line up
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        System.arraycopy(baos.toByteArray(), 0, data,
+                headerSize + i * type.getLen(), type.getLen());
+        data[i / 8] |= (1 << (i % 8));
+    }
+
+    /**
+     * Empties slot i.
+     */
+    public void clearSlot(int i) {
+        data[i / 8] &= ~(1 << (i % 8));
+        int offset = headerSize + i * type.getLen();
+        java.util.Arrays.fill(data, offset, offset + type.getLen(), (byte) 0);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTransactionId = tid;
+        this.isDirty = dirty;
+    }
+
+    public TransactionId isDirty() {
+        return isDirty ? dirtyTransactionId : null;
+    }
+}
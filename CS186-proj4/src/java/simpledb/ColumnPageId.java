@@ -0,0 +1,71 @@
+package simpledb;
+
+/** Unique identifier for ColumnPage objects. */
+public class ColumnPageId implements PageId {
+
+    private int tableId;
+    private int column;
+    private int pageNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of one
+     * column of a specific table.
+     *
+     * @param tableId
+     *            The table that is being referenced
+     * @param column
+     *            The index of the column in the table's TupleDesc
+     * @param pgNo
+     *            The page number in that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pageNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column of the table this page holds values of */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the column associated with this PageId
+     */
+    public int pageNumber() {
+        return pageNo;
+    }
+
+    public int hashCode() {
+        return (31 * tableId + column) * 31 + pageNo;
+    }
+
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof ColumnPageId) {
+            ColumnPageId another = (ColumnPageId) o;
+            return tableId == another.tableId && column == another.column
+                    && pageNo == another.pageNo;
+        }
+        return false;
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pageNo + ")";
+    }
+
+    /**
+     * Return a representation of this object as an array of integers, for
+     * writing to disk.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, column, pageNo };
+    }
+}
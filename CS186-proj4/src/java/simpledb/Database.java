@@ -56,6 +56,8 @@ public class Database {
 
     //reset the database, used for unit tests only.
     public static void reset() {
+        _instance._catalog.clear();
+        BufferPool.resetPageSize();
     	_instance = new Database();
     }
 
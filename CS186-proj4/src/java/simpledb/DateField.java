@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Instance of Field that stores a date and time of day, as milliseconds since
+ * 1970-01-01 00:00:00 UTC. Dates are written as text as "yyyy-MM-dd", with
+ * " HH:mm:ss" after it when the time of day isn't midnight.
+ */
+public class DateField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final DateTimeFormatter DATE_TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private long value;
+
+    /**
+     * @return the milliseconds since 1970-01-01 00:00:00 UTC.
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param millis The milliseconds since 1970-01-01 00:00:00 UTC.
+     */
+    public DateField(long millis) {
+        value = millis;
+    }
+
+    /**
+     * Returns the DateField for a date written as "yyyy-MM-dd" or
+     * "yyyy-MM-dd HH:mm:ss".
+     *
+     * @throws ParseException if s is neither
+     */
+    public static DateField parse(String s) throws ParseException {
+        s = s.trim();
+        try {
+            LocalDateTime time = s.length() <= 10
+                    ? LocalDate.parse(s).atStartOfDay()
+                    : LocalDateTime.parse(s, DATE_TIME);
+            return new DateField(time.toInstant(ZoneOffset.UTC).toEpochMilli());
+        } catch (DateTimeParseException e) {
+            throw new ParseException("not a date: " + s, e.getErrorIndex());
+        }
+    }
+
+    public String toString() {
+        LocalDateTime time = LocalDateTime.ofEpochSecond(
+                Math.floorDiv(value, 1000L), 0, ZoneOffset.UTC);
+        if (time.toLocalTime().toSecondOfDay() == 0) {
+            return time.toLocalDate().toString();
+        }
+        return time.format(DATE_TIME);
+    }
+
+    public int hashCode() {
+        return Long.hashCode(value);
+    }
+
+    public boolean equals(Object field) {
+        return ((DateField) field).value == value;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeLong(value);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a DateField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        long other = ((DateField) val).value;
+
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return value == other;
+        case NOT_EQUALS:
+            return value != other;
+        case GREATER_THAN:
+            return value > other;
+        case GREATER_THAN_OR_EQ:
+            return value >= other;
+        case LESS_THAN:
+            return value < other;
+        case LESS_THAN_OR_EQ:
+            return value <= other;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.DATE_TYPE
+     */
+    public Type getType() {
+        return Type.DATE_TYPE;
+    }
+}
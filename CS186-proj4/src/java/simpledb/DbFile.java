@@ -20,6 +20,21 @@ public interface DbFile extends Serializable {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Reads a run of consecutive pages from disk, in as few reads as the file
+     * allows, e.g. a single scattering read of the whole run.
+     *
+     * @param first
+     *            the first page of the run
+     * @param count
+     *            the number of pages in the run; pages past the end of the
+     *            file are left out
+     * @return the pages read, in order
+     * @throws IllegalArgumentException
+     *             if the first page does not exist in this file.
+     */
+    public List<Page> readPages(PageId first, int count);
+
     /**
      * Push the specified page to disk.
      *
@@ -76,20 +91,43 @@ public interface DbFile extends Serializable {
      * can be used to look up the table via {@link Catalog#getDbFile} and
      * {@link Catalog#getTupleDesc}.
      * <p>
-     * Implementation note: you will need to generate this tableid somewhere,
-     * ensure that each HeapFile has a "unique id," and that you always return
-     * the same value for a particular HeapFile. A simple implementation is to
-     * use the hash code of the absolute path of the file underlying the
-     * HeapFile, i.e. <code>f.getAbsoluteFile().hashCode()</code>.
+     * Files whose id the Catalog assigns return that id once they have been
+     * added to it; until then they return an id of their own, e.g. the hash
+     * code of the absolute path of the underlying file.
      *
      * @return an ID uniquely identifying this HeapFile.
      */
     public int getId();
 
+    /**
+     * Gives this file the id the Catalog assigned to it when it was added.
+     * Must not be called once pages of the file have been read through the
+     * buffer pool.
+     *
+     * @return true if the file now has the given id, false if it keeps an id
+     *         of its own, which the Catalog then uses instead
+     */
+    public boolean assignId(int id);
+
     /**
      * Returns the TupleDesc of the table stored in this DbFile.
      * 
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Returns the number of pages a scan of the whole file reads.
+     */
+    public int numPages();
+
+    /**
+     * Releases any operating system resources (e.g. open file handles) held
+     * by this DbFile. Called by the Catalog when the table is dropped. A
+     * closed DbFile may be reopened by a later page access.
+     *
+     * @throws IOException
+     *             if the underlying file can't be closed
+     */
+    public void close() throws IOException;
 }
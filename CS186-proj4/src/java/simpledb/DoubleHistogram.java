@@ -0,0 +1,169 @@
+package simpledb;
+
+import simpledb.Predicate.Op;
+
+/**
+ * A fixed-width histogram over a single numeric field that doesn't fit in an
+ * int: LONG, DOUBLE and DATE fields, whose values are added as doubles.
+ * <p>
+ * Equality is estimated from the number of distinct values in a bucket,
+ * counted with a small bitmap per bucket that each value sets one bit of
+ * by its hash (linear counting), rather than from the width of the bucket:
+ * DATE fields hold days as millisecond timestamps, so most whole numbers in
+ * a bucket never occur, and the values of DOUBLE fields needn't be whole.
+ *
+ * @see IntHistogram
+ */
+public class DoubleHistogram {
+    // the bits of the bitmap of distinct values of a bucket
+    private static final int SKETCH_BITS = 256;
+
+    private double[] buckets;
+    private long[][] sketches;
+    private double minValue;
+    private double maxValue;
+    private double width;
+    private int count;
+
+    /**
+     * Create a new DoubleHistogram.
+     *
+     * @param buckets
+     *            The number of buckets to split the input value into.
+     * @param min
+     *            The minimum value that will ever be passed to this class for
+     *            histogramming
+     * @param max
+     *            The maximum value that will ever be passed to this class for
+     *            histogramming
+     */
+    public DoubleHistogram(int buckets, double min, double max) {
+        this.buckets = new double[buckets];
+        this.sketches = new long[buckets][SKETCH_BITS / 64];
+        this.minValue = min;
+        this.maxValue = max;
+        this.width = (max - min) / buckets;
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     *
+     * @param val
+     *            Value to add to the histogram
+     */
+    public void addValue(double val) {
+        int index = getIndex(val);
+        buckets[index]++;
+        count++;
+        int bit = (int) ((hash(val) >>> 1) % SKETCH_BITS);
+        sketches[index][bit / 64] |= 1L << (bit % 64);
+    }
+
+    private static long hash(double val) {
+        // the finalizer of MurmurHash3, so that every bit of the value counts
+        long h = Double.doubleToLongBits(val == 0 ? 0.0 : val);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Returns the estimated number of distinct values in bucket i, at least
+     * 1. A bucket whose bitmap is full is taken to hold only distinct values.
+     */
+    private double distinctValues(int i) {
+        int zeros = 0;
+        for (long word : sketches[i]) {
+            zeros += Long.bitCount(~word);
+        }
+        double distinct = zeros == 0 ? buckets[i]
+                : Math.round(-SKETCH_BITS * Math.log((double) zeros / SKETCH_BITS));
+        return Math.max(1, Math.min(distinct, buckets[i]));
+    }
+
+    private int getIndex(double val) {
+        if (width == 0) {
+            return 0;
+        }
+        int index = (int) ((val - minValue) / width);
+        return Math.max(0, Math.min(index, buckets.length - 1));
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this
+     * table.
+     *
+     * @param op
+     *            Operator
+     * @param val
+     *            Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, double val) {
+        if (count == 0) {
+            return 0;
+        }
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            if (val < minValue || val > maxValue) {
+                return 0;
+            }
+            int bucket = getIndex(val);
+            return buckets[bucket] / distinctValues(bucket) / count;
+        case GREATER_THAN:
+            if (val < minValue) {
+                return 1;
+            }
+            if (val >= maxValue) {
+                return 0;
+            }
+            int index = getIndex(val);
+            double bucketEnd = minValue + width * (index + 1);
+            double greater = buckets[index] * (bucketEnd - val) / width;
+            for (int i = index + 1; i < buckets.length; i++) {
+                greater += buckets[i];
+            }
+            return greater / count;
+        case GREATER_THAN_OR_EQ:
+            return Math.min(1, estimateSelectivity(Op.GREATER_THAN, val)
+                    + estimateSelectivity(Op.EQUALS, val));
+        case LESS_THAN:
+            return 1 - estimateSelectivity(Op.GREATER_THAN_OR_EQ, val);
+        case LESS_THAN_OR_EQ:
+            return 1 - estimateSelectivity(Op.GREATER_THAN, val);
+        case NOT_EQUALS:
+            return 1 - estimateSelectivity(Op.EQUALS, val);
+        default:
+            throw new IllegalStateException("impossible to reach here");
+        }
+    }
+
+    /**
+     * @return the average selectivity of this histogram: the expected
+     *         selectivity of EQUALS with a value drawn from the values in it,
+     *         as {@link IntHistogram#avgSelectivity} gives it.
+     */
+    public double avgSelectivity() {
+        if (count == 0) {
+            return 0;
+        }
+        double avg = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            // probability of the bucket * selectivity of a value in it
+            avg += buckets[i] / count * (buckets[i] / distinctValues(i) / count);
+        }
+        return avg;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        return "<DoubleHistogram " + buckets.length + " buckets over ["
+                + minValue + ", " + maxValue + "], " + count + " values>";
+    }
+}
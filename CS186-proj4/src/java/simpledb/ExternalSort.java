@@ -0,0 +1,257 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * ExternalSort sorts more tuples than fit in memory with an external merge
+ * sort. Tuples are collected into runs of a bounded number of tuples; each
+ * full run is sorted in memory and written to a temporary file, and the runs
+ * are then merged into one sorted stream, at most MERGE_FAN_IN of them at a
+ * time. Tuples are written to the run files field by field, in the format of
+ * {@link Type#serialize(Field, DataOutputStream)}, followed by their
+ * RecordId, if they have one, which has to be on a HeapPage.
+ * <p>
+ * Add the tuples, call sort() and read them back in order with next(). The
+ * run files are deleted by close().
+ *
+ * @see ClusteredHeapFile#cluster
+ * @see PagedIndexFile#sortEntries
+ */
+class ExternalSort implements Closeable {
+
+    /** Most runs merged at once; more runs are merged in several passes. */
+    static final int MERGE_FAN_IN = 64;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> comparator;
+    private final int runSize;
+    // tuples added since the last run was written out
+    private final ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+    private final ArrayDeque<Run> runs = new ArrayDeque<Run>();
+    private long size;
+    // where next() reads from after sort(): the buffer if no run was
+    // written, otherwise the heads of the runs being merged
+    private Iterator<Tuple> inMemory;
+    private PriorityQueue<RunReader> merging;
+
+    /** A sorted run of tuples in a temporary file. */
+    private static class Run {
+        final File file;
+        final long count;
+
+        Run(File file, long count) {
+            this.file = file;
+            this.count = count;
+        }
+    }
+
+    /** Reads the tuples of a run back in order. */
+    private class RunReader implements Closeable {
+        private final Run run;
+        private final DataInputStream in;
+        private long left;
+        Tuple head;
+
+        RunReader(Run run) throws IOException {
+            this.run = run;
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                    run.file)));
+            left = run.count;
+            advance();
+        }
+
+        void advance() throws IOException {
+            head = left-- > 0 ? readTuple(in) : null;
+        }
+
+        /** Closes the run and deletes its file. */
+        public void close() throws IOException {
+            in.close();
+            run.file.delete();
+        }
+    }
+
+    /**
+     * Creates a sort of tuples with the given schema.
+     *
+     * @param comparator
+     *            the order the tuples are returned in
+     * @param runSize
+     *            the number of tuples sorted in memory at a time
+     */
+    ExternalSort(TupleDesc td, Comparator<Tuple> comparator, int runSize) {
+        if (runSize < 1) {
+            throw new IllegalArgumentException("runs of " + runSize + " tuples");
+        }
+        this.td = td;
+        this.comparator = comparator;
+        this.runSize = runSize;
+    }
+
+    /**
+     * Adds a tuple to the sort, writing out a run once runSize tuples have
+     * been added since the last one.
+     */
+    void add(Tuple t) throws IOException {
+        if (merging != null || inMemory != null) {
+            throw new IllegalStateException("tuples are already sorted");
+        }
+        buffer.add(t);
+        size++;
+        if (buffer.size() >= runSize) {
+            spill();
+        }
+    }
+
+    /** @return the number of tuples added. */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Finishes adding tuples: writes out the last run and merges the runs
+     * until at most MERGE_FAN_IN are left, to be merged by next(). Tuples
+     * that all fit in one run are never written out.
+     */
+    void sort() throws IOException {
+        if (runs.isEmpty()) {
+            Collections.sort(buffer, comparator);
+            inMemory = buffer.iterator();
+            return;
+        }
+        if (!buffer.isEmpty()) {
+            spill();
+        }
+        while (runs.size() > MERGE_FAN_IN) {
+            PriorityQueue<RunReader> group = open(MERGE_FAN_IN);
+            File f = File.createTempFile("sort", ".run");
+            long count = 0;
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(f)))) {
+                for (Tuple t = merge(group); t != null; t = merge(group)) {
+                    writeTuple(out, t);
+                    count++;
+                }
+            }
+            runs.addLast(new Run(f, count));
+        }
+        merging = open(runs.size());
+    }
+
+    /**
+     * @return the next tuple in order, or null once all of them were
+     *         returned
+     */
+    Tuple next() throws IOException {
+        if (inMemory != null) {
+            return inMemory.hasNext() ? inMemory.next() : null;
+        }
+        if (merging == null) {
+            throw new IllegalStateException("tuples aren't sorted yet");
+        }
+        return merge(merging);
+    }
+
+    /** Deletes the run files. */
+    public void close() throws IOException {
+        if (merging != null) {
+            for (RunReader reader : merging) {
+                reader.close();
+            }
+            merging = null;
+        }
+        for (Run run : runs) {
+            run.file.delete();
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    /**
+     * Sorts the buffered tuples and writes them out as a new run.
+     */
+    private void spill() throws IOException {
+        Collections.sort(buffer, comparator);
+        File f = File.createTempFile("sort", ".run");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(f)))) {
+            for (Tuple t : buffer) {
+                writeTuple(out, t);
+            }
+        }
+        runs.addLast(new Run(f, buffer.size()));
+        buffer.clear();
+    }
+
+    /**
+     * Opens the first n runs for merging, taking them off the list of runs.
+     */
+    private PriorityQueue<RunReader> open(int n) throws IOException {
+        PriorityQueue<RunReader> heads = new PriorityQueue<RunReader>(n,
+                new Comparator<RunReader>() {
+                    public int compare(RunReader a, RunReader b) {
+                        return comparator.compare(a.head, b.head);
+                    }
+                });
+        for (int i = 0; i < n; i++) {
+            Run run = runs.removeFirst();
+            RunReader reader = new RunReader(run);
+            if (reader.head != null) {
+                heads.add(reader);
+            } else {
+                reader.close();
+            }
+        }
+        return heads;
+    }
+
+    /**
+     * @return the smallest head of the runs, moving its run on to its next
+     *         tuple, or null if all runs are used up
+     */
+    private Tuple merge(PriorityQueue<RunReader> heads) throws IOException {
+        RunReader reader = heads.poll();
+        if (reader == null) {
+            return null;
+        }
+        Tuple t = reader.head;
+        reader.advance();
+        if (reader.head != null) {
+            heads.add(reader);
+        } else {
+            reader.close();
+        }
+        return t;
+    }
+
+    private void writeTuple(DataOutputStream out, Tuple t) throws IOException {
+        for (int i = 0; i < td.numFields(); i++) {
+            td.getFieldType(i).serialize(t.getField(i), out);
+        }
+        RecordId rid = t.getRecordId();
+        out.writeBoolean(rid != null);
+        if (rid != null) {
+            out.writeInt(rid.getPageId().getTableId());
+            out.writeInt(rid.getPageId().pageNumber());
+            out.writeInt(rid.tupleno());
+        }
+    }
+
+    private Tuple readTuple(DataInputStream in) throws IOException {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            try {
+                t.setField(i, td.getFieldType(i).parse(in));
+            } catch (ParseException e) {
+                throw new IOException("corrupt sort run: " + e.getMessage());
+            }
+        }
+        if (in.readBoolean()) {
+            HeapPageId pid = new HeapPageId(in.readInt(), in.readInt());
+            t.setRecordId(new RecordId(pid, in.readInt()));
+        }
+        return t;
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * FileHeader reads and writes the header of the files tables are stored in:
+ * heap files, the data files of compressed tables and the files of the
+ * columns of columnar tables. The header takes up the first page of the
+ * file and holds a magic number, the size of the pages the file was written
+ * with, so that a file is never read with pages of another size, and a
+ * random stamp that tells the file apart from one written over it later,
+ * e.g. by HeapFileEncoder. The pages of the table follow it, page n of a
+ * file of fixed-size pages at byte (n + 1) * page size, which keeps them
+ * aligned to the page size. Index files start with the same header.
+ *
+ * @see Catalog#loadSchema
+ * @see PagedIndexFile
+ */
+class FileHeader {
+
+    /** The first int of every table file. */
+    static final int MAGIC = 0x53444246;
+    /** Bytes of the header in use: the magic number, page size and stamp. */
+    static final int LENGTH = 16;
+
+    private static final Random stamps = new Random();
+
+    private FileHeader() {
+    }
+
+    /**
+     * @return the header of a new file of pages of the given size, a whole
+     *         page of that size
+     */
+    static byte[] create(int pageSize) {
+        synchronized (stamps) {
+            return create(pageSize, stamps.nextLong());
+        }
+    }
+
+    /**
+     * @return the header of a file of pages of the given size with the given
+     *         stamp
+     */
+    static byte[] create(int pageSize, long stamp) {
+        ByteBuffer header = ByteBuffer.allocate(pageSize);
+        header.putInt(MAGIC);
+        header.putInt(pageSize);
+        header.putLong(stamp);
+        return header.array();
+    }
+
+    /**
+     * Opens a table file for reading and writing, creating it if it doesn't
+     * exist. A file that is empty gets a header for the current page size.
+     */
+    static FileChannel open(File f) throws IOException {
+        FileChannel ch = new RandomAccessFile(f, "rw").getChannel();
+        if (ch.size() == 0) {
+            ByteBuffer header = ByteBuffer.wrap(create(BufferPool.getPageSize()));
+            while (header.hasRemaining()) {
+                ch.write(header, header.position());
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Reads the page size from the header of a table file.
+     *
+     * @return the size of the pages of the file, or 0 if it is empty or
+     *         doesn't exist
+     * @throws IOException
+     *             if the file doesn't start with a header
+     */
+    static int readPageSize(File f) throws IOException {
+        return f.length() == 0 ? 0 : read(f).getInt(4);
+    }
+
+    /**
+     * Reads the stamp from the header of a table file.
+     *
+     * @return the stamp of the file, or 0 if it is empty or doesn't exist
+     * @throws IOException
+     *             if the file doesn't start with a header
+     */
+    static long readStamp(File f) throws IOException {
+        return f.length() == 0 ? 0 : read(f).getLong(8);
+    }
+
+    /**
+     * Checks that a table file can be read with the current page size.
+     *
+     * @throws IOException
+     *             if the file doesn't start with a header, e.g. because it
+     *             was written before table files had one, or its pages are
+     *             of another size
+     */
+    static void check(File f) throws IOException {
+        int size = readPageSize(f);
+        if (size != 0 && size != BufferPool.getPageSize()) {
+            throw new IOException(f + " has " + size + "-byte pages, not "
+                    + BufferPool.getPageSize());
+        }
+    }
+
+    private static ByteBuffer read(File f) throws IOException {
+        byte[] header = new byte[LENGTH];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+            in.readFully(header);
+        } catch (EOFException e) {
+            throw noHeader(f);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(header);
+        if (buf.getInt(0) != MAGIC) {
+            throw noHeader(f);
+        }
+        return buf;
+    }
+
+    private static IOException noHeader(File f) {
+        return new IOException(f + " isn't a table file: it has no header;"
+                + " a file written without one has to be converted again");
+    }
+
+    /**
+     * Skips the header of a table file read from its beginning.
+     */
+    static void skip(DataInputStream in) throws IOException {
+        in.readFully(new byte[BufferPool.getPageSize()]);
+    }
+
+    /**
+     * @return the position of page pageNo in a file of fixed-size pages
+     */
+    static long offset(int pageNo) {
+        return (pageNo + 1L) * BufferPool.getPageSize();
+    }
+
+    /**
+     * @return the number of pages of a file of fixed-size pages with the
+     *         given length
+     */
+    static int pages(long length) {
+        return (int) Math.max(0, length / BufferPool.getPageSize() - 1);
+    }
+}
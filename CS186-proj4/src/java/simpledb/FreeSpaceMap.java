@@ -0,0 +1,73 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile have at least one empty
+ * slot, so that inserts can go straight to a page with room instead of
+ * locking every page from the start of the file.
+ * <p>
+ * The map is only a hint. HeapFile checks a page again once it holds the
+ * page's write lock, and marks it full if another transaction got there
+ * first. It lives in memory and is rebuilt from the page headers on disk the
+ * first time a table is inserted into.
+ */
+public class FreeSpaceMap {
+
+    // bit i is set if page i is believed to have an empty slot
+    private final BitSet free = new BitSet();
+
+    /**
+     * Builds the map of a heap file by reading the header of each of its
+     * pages straight from disk, without going through the buffer pool.
+     *
+     * @param file
+     *            the heap file
+     * @param numPages
+     *            the number of pages in the file
+     * @param td
+     *            the TupleDesc of the tuples stored in the file
+     */
+    public static FreeSpaceMap build(HeapFile file, int numPages,
+            TupleDesc td) throws IOException {
+        FreeSpaceMap fsm = new FreeSpaceMap();
+        boolean slotted = SlottedPage.isUsedFor(td);
+        int numSlots = HeapPage.getNumTuples(td);
+        ByteBuffer header = ByteBuffer.allocate(slotted
+                ? SlottedPage.HEADER_SIZE : (numSlots + 7) / 8);
+        for (int i = 0; i < numPages; i++) {
+            header.clear();
+            file.readPageHeader(i, header);
+            fsm.setFree(i, slotted ? SlottedPage.hasFreeSpace(header, td)
+                    : hasEmptySlot(header.array(), numSlots));
+        }
+        return fsm;
+    }
+
+    private static boolean hasEmptySlot(byte[] header, int numSlots) {
+        for (int i = 0; i < numSlots; i++) {
+            if ((header[i / 8] & (1 << (i % 8))) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of the first page at or after from that is believed
+     * to have an empty slot, or -1 if there is none.
+     */
+    public synchronized int nextFreePage(int from) {
+        return free.nextSetBit(from);
+    }
+
+    /**
+     * Records whether page pageNo has an empty slot.
+     */
+    public synchronized void setFree(int pageNo, boolean hasRoom) {
+        free.set(pageNo, hasRoom);
+    }
+}
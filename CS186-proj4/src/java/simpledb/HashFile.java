@@ -0,0 +1,427 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is an IndexFile that keeps the entries of an index on one field
+ * of a HeapFile in buckets picked by the hash of their key, with linear
+ * hashing: a table of n buckets, 2^L &lt;= n &lt; 2^(L+1), puts a key in the
+ * bucket given by the low L + 1 bits of its hash if that bucket exists, and
+ * by the low L bits otherwise. Page 0 of the file holds the number of
+ * buckets and points to directory pages, which point to the first page of
+ * each bucket; a bucket that outgrows its page chains more pages.
+ * <p>
+ * A lookup only reads the pages of the bucket of its key, so an index can
+ * only find the entries of a single key, in no order. Pages are read through
+ * the buffer pool and locked like the pages of tables: lookups lock the
+ * pages they read READ_ONLY, and an insert or delete locks the pages of the
+ * bucket it changes READ_WRITE. Whenever an insert chains a new page to a
+ * bucket, the next bucket in turn is split in two, which locks page 0
+ * READ_WRITE. Pages are never freed; pages of a bucket emptied by deletes or
+ * splits are reused by its later inserts.
+ *
+ * @see HashPage
+ * @see IndexScan
+ */
+public class HashFile extends PagedIndexFile<HashPage> {
+
+    private static final long serialVersionUID = 1L;
+
+    // the share of a page rebuild() fills, so that inserts after a rebuild
+    // don't chain pages to every bucket at once
+    private static final double BUILD_FILL = 0.75;
+
+    /**
+     * Constructs a hash index backed by the specified file. A file that is
+     * empty, doesn't exist yet or is out of date, see PagedIndexFile, has
+     * to be filled with {@link #rebuild} before the index is used;
+     * {@link Catalog#addIndex} does that.
+     *
+     * @param f
+     *            the file that stores the pages of the index
+     * @param table
+     *            the file of the indexed table
+     * @param keyField
+     *            the index of the field of the table the index is on
+     * @throws IllegalArgumentException
+     *             if the table has no such field, it is of a variable length
+     *             type, or its values don't fit on a page
+     */
+    public HashFile(File f, HeapFile table, int keyField) {
+        this(f, table, keyField, new int[0]);
+    }
+
+    /**
+     * Constructs a hash index whose entries also carry the values of the
+     * given fields of the table, so that it covers queries that need only
+     * those fields and the key.
+     *
+     * @param includedFields
+     *            the indexes of the fields of the table to include, none of
+     *            which may be the key
+     * @throws IllegalArgumentException
+     *             if the table has no such key field, it or an included field
+     *             is of a variable length type or included twice, or an entry
+     *             doesn't fit on a page
+     * @see #HashFile(File, HeapFile, int)
+     */
+    public HashFile(File f, HeapFile table, int keyField, int[] includedFields) {
+        super(f, table, keyField, includedFields);
+        TupleDesc td = table.getTupleDesc();
+        if (HashPage.getMaxEntries(entryDesc) < 1) {
+            throw new IllegalArgumentException("pages are too small to index "
+                    + td.getFieldName(keyField));
+        }
+    }
+
+    // see IndexFile.java for javadocs
+    public boolean isOrdered() {
+        return false;
+    }
+
+    // see PagedIndexFile.java for javadocs
+    protected HashPageId pageId(int pageNo) {
+        return new HashPageId(getId(), pageNo);
+    }
+
+    // see PagedIndexFile.java for javadocs
+    protected HashPage createPage(PageId pid, byte[] data) {
+        return new HashPage((HashPageId) pid, data, this);
+    }
+
+    // see PagedIndexFile.java for javadocs
+    protected HashPage createPage(PageId pid, int kind) {
+        return new HashPage((HashPageId) pid, kind, this);
+    }
+
+    /**
+     * Returns the hash of a key, with its high bits mixed into the low ones
+     * that pick its bucket.
+     */
+    private static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /**
+     * Returns the bucket a key with the given hash is in when the index has
+     * numBuckets buckets.
+     */
+    static int bucketOf(int hash, int numBuckets) {
+        int low = Integer.highestOneBit(numBuckets);
+        int bucket = hash & (low - 1);
+        if (bucket < numBuckets - low) {
+            // the bucket has been split already
+            bucket = hash & (2 * low - 1);
+        }
+        return bucket;
+    }
+
+    /**
+     * Returns the page number of the first page of a bucket, locking the
+     * directory page on the way READ_ONLY.
+     */
+    private int firstPage(TransactionId tid, HashPage meta, int bucket)
+            throws TransactionAbortedException, DbException {
+        HashPage directory = getPage(tid,
+                meta.getPages().get(bucket / HashPage.getMaxPages()),
+                Permissions.READ_ONLY);
+        return directory.getPages().get(bucket % HashPage.getMaxPages());
+    }
+
+    /**
+     * Adds the entry of t, a tuple of the indexed table with its RecordId
+     * set, to the first page of its bucket with room for it. If there is
+     * none, a page is chained to the bucket and the next bucket in turn is
+     * split.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Tuple entry = entryOf(t);
+        HashPage meta = getPage(tid, 0, Permissions.READ_ONLY);
+        HashPage page = getPage(tid, firstPage(tid, meta,
+                bucketOf(hash(entry.getField(0)), meta.getNumBuckets())),
+                Permissions.READ_WRITE);
+        while (page.isFull() && page.getLink() != 0) {
+            page = getPage(tid, page.getLink(), Permissions.READ_WRITE);
+        }
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        boolean chained = false;
+        if (page.isFull()) {
+            HashPage next = allocatePage(tid, HashPage.BUCKET);
+            page.setLink(next.getId().pageNumber());
+            page.markDirty(true, tid);
+            dirtied.add(page);
+            page = next;
+            chained = true;
+        }
+        page.getEntries().add(entry);
+        page.markDirty(true, tid);
+        dirtied.add(page);
+        if (chained) {
+            dirtied.addAll(split(tid));
+        }
+        return dirtied;
+    }
+
+    /**
+     * Adds a bucket to the index and moves the entries of the bucket it
+     * splits that now belong in it there. Returns the pages it changed.
+     */
+    private List<Page> split(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        List<Page> dirtied = new ArrayList<Page>();
+        HashPage meta = getPage(tid, 0, Permissions.READ_WRITE);
+        int numBuckets = meta.getNumBuckets();
+        int maxPages = HashPage.getMaxPages();
+        if (numBuckets == maxPages * maxPages) {
+            // the directory is full; buckets only grow longer from here on
+            return dirtied;
+        }
+
+        HashPage directory;
+        if (numBuckets % maxPages == 0) {
+            directory = allocatePage(tid, HashPage.DIRECTORY);
+            meta.getPages().add(directory.getId().pageNumber());
+        } else {
+            directory = getPage(tid, meta.getPages().get(numBuckets / maxPages),
+                    Permissions.READ_WRITE);
+        }
+        HashPage target = allocatePage(tid, HashPage.BUCKET);
+        directory.getPages().add(target.getId().pageNumber());
+        directory.markDirty(true, tid);
+        meta.setNumBuckets(numBuckets + 1);
+        meta.markDirty(true, tid);
+        dirtied.add(meta);
+        dirtied.add(directory);
+        dirtied.add(target);
+
+        int bucket = numBuckets - Integer.highestOneBit(numBuckets);
+        int pageNo = firstPage(tid, meta, bucket);
+        while (pageNo != 0) {
+            HashPage page = getPage(tid, pageNo, Permissions.READ_WRITE);
+            Iterator<Tuple> it = page.getEntries().iterator();
+            while (it.hasNext()) {
+                Tuple entry = it.next();
+                if (bucketOf(hash(entry.getField(0)), numBuckets + 1) != bucket) {
+                    it.remove();
+                    if (target.isFull()) {
+                        HashPage next = allocatePage(tid, HashPage.BUCKET);
+                        target.setLink(next.getId().pageNumber());
+                        target = next;
+                        dirtied.add(target);
+                    }
+                    target.getEntries().add(entry);
+                    page.markDirty(true, tid);
+                }
+            }
+            if (page.isDirty() != null) {
+                dirtied.add(page);
+            }
+            pageNo = page.getLink();
+        }
+        return dirtied;
+    }
+
+    /**
+     * Removes the entry of t, a tuple of the indexed table with its RecordId
+     * set.
+     *
+     * @throws DbException
+     *             if the index has no entry for t
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        Tuple entry = entryOf(t);
+        HashPage meta = getPage(tid, 0, Permissions.READ_ONLY);
+        int pageNo = firstPage(tid, meta,
+                bucketOf(hash(entry.getField(0)), meta.getNumBuckets()));
+        while (pageNo != 0) {
+            HashPage page = getPage(tid, pageNo, Permissions.READ_WRITE);
+            Iterator<Tuple> it = page.getEntries().iterator();
+            while (it.hasNext()) {
+                Tuple e = it.next();
+                if (e.getField(0).equals(entry.getField(0))
+                        && e.getRecordId().equals(entry.getRecordId())) {
+                    it.remove();
+                    page.markDirty(true, tid);
+                    return page;
+                }
+            }
+            pageNo = page.getLink();
+        }
+        throw new DbException("index " + file + " has no entry for " + t);
+    }
+
+    /**
+     * Returns an iterator over all entries of the index, bucket by bucket.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the entries with a single key.
+     *
+     * @throws IllegalArgumentException
+     *             unless lower and upper are the same key
+     */
+    public DbFileIterator iterator(TransactionId tid, Field lower, Field upper) {
+        if (lower == null || !lower.equals(upper)) {
+            throw new IllegalArgumentException(
+                    "a hash index only finds single keys");
+        }
+        return new HashFileIterator(tid, lower);
+    }
+
+    private class HashFileIterator implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId transactionId;
+        // the key looked up, or null for all entries
+        private final Field key;
+        private HashPage meta;
+        private int bucket;
+        private HashPage page;
+        private int cursor;
+        // the next matching entry, found by hasNext()
+        private Tuple next;
+        private boolean isOpen;
+
+        HashFileIterator(TransactionId tid, Field key) {
+            this.transactionId = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            meta = getPage(transactionId, 0, Permissions.READ_ONLY);
+            bucket = key == null ? 0 : bucketOf(hash(key), meta.getNumBuckets());
+            page = getPage(transactionId, firstPage(transactionId, meta, bucket),
+                    Permissions.READ_ONLY);
+            cursor = 0;
+            next = null;
+            isOpen = true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!isOpen) {
+                return false;
+            }
+            while (next == null && page != null) {
+                if (cursor < page.getEntries().size()) {
+                    Tuple entry = page.getEntries().get(cursor++);
+                    if (key == null || entry.getField(0).equals(key)) {
+                        next = entry;
+                    }
+                } else if (page.getLink() != 0) {
+                    page = getPage(transactionId, page.getLink(),
+                            Permissions.READ_ONLY);
+                    cursor = 0;
+                } else if (key == null && ++bucket < meta.getNumBuckets()) {
+                    page = getPage(transactionId,
+                            firstPage(transactionId, meta, bucket),
+                            Permissions.READ_ONLY);
+                    cursor = 0;
+                } else {
+                    page = null;
+                }
+            }
+            return next != null;
+        }
+
+        public Tuple next()
+                throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple entry = next;
+            next = null;
+            return entry;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            isOpen = false;
+            meta = null;
+            page = null;
+            next = null;
+        }
+    }
+
+    /**
+     * Rebuilds the index from the entries of the tuples of the table as
+     * committed to disk, with enough buckets to fill their first pages to
+     * BUILD_FILL, and writes it straight to the file. The entries are sorted
+     * by their hash with its bits reversed, which puts those of one bucket
+     * next to each other however many buckets there are, so the buckets are
+     * written one at a time.
+     */
+    public synchronized void rebuild() throws IOException {
+        try (ExternalSort entries = sortEntries(new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                return Integer.compareUnsigned(Integer.reverse(hash(a.getField(0))),
+                        Integer.reverse(hash(b.getField(0))));
+            }
+        })) {
+            discardPages();
+
+            int maxPages = HashPage.getMaxPages();
+            int perBucket = Math.max(1,
+                    (int) (HashPage.getMaxEntries(entryDesc) * BUILD_FILL));
+            int numBuckets = (int) Math.min((long) maxPages * maxPages,
+                    Math.max(1, (entries.size() + perBucket - 1) / perBucket));
+
+            // the meta page, then the directory pages, then the first page of
+            // each bucket, then the pages chained to buckets
+            int directories = (numBuckets + maxPages - 1) / maxPages;
+            HashPage meta = new HashPage(new HashPageId(getId(), 0), HashPage.META, this);
+            meta.setNumBuckets(numBuckets);
+            pageCount = 1 + directories + numBuckets;
+            for (int d = 0; d < directories; d++) {
+                HashPage directory = new HashPage(new HashPageId(getId(), 1 + d),
+                        HashPage.DIRECTORY, this);
+                for (int b = d * maxPages; b < Math.min(numBuckets, (d + 1) * maxPages); b++) {
+                    directory.getPages().add(1 + directories + b);
+                }
+                writePage(directory);
+                meta.getPages().add(1 + d);
+            }
+            writePage(meta);
+
+            int maxEntries = HashPage.getMaxEntries(entryDesc);
+            BitSet written = new BitSet(numBuckets);
+            Tuple entry = entries.next();
+            while (entry != null) {
+                int b = bucketOf(hash(entry.getField(0)), numBuckets);
+                HashPage page = new HashPage(new HashPageId(getId(),
+                        1 + directories + b), HashPage.BUCKET, this);
+                while (entry != null && bucketOf(hash(entry.getField(0)), numBuckets) == b) {
+                    if (page.getEntries().size() == maxEntries) {
+                        page.setLink(pageCount);
+                        writePage(page);
+                        page = new HashPage(new HashPageId(getId(), pageCount++),
+                                HashPage.BUCKET, this);
+                    }
+                    page.getEntries().add(entry);
+                    entry = entries.next();
+                }
+                writePage(page);
+                written.set(b);
+            }
+            for (int b = written.nextClearBit(0); b < numBuckets;
+                    b = written.nextClearBit(b + 1)) {
+                writePage(new HashPage(new HashPageId(getId(), 1 + directories + b),
+                        HashPage.BUCKET, this));
+            }
+        }
+        finishRebuild();
+    }
+}
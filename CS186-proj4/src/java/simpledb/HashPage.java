@@ -0,0 +1,219 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Each instance of HashPage stores one page of a HashFile. A page starts
+ * with a one-byte kind, an int count and an int link, followed by:
+ * <ul>
+ * <li>on a bucket page, count entries, each the fields of the entry followed
+ * by the page number and slot of the RecordId of the indexed tuple. The link
+ * is the page number of the next page of the bucket, or 0 for the last one.
+ * <li>on a directory page, count page numbers of buckets, in bucket order.
+ * <li>on the meta page, page 0 of every index, the page numbers of the
+ * directory pages. The count is the number of buckets of the index.
+ * </ul>
+ *
+ * @see HashFile
+ */
+public class HashPage implements Page {
+
+    static final int META = 1;
+    static final int DIRECTORY = 2;
+    static final int BUCKET = 3;
+
+    static final int HEADER_SIZE = 9;
+    // the page number and slot of a RecordId
+    static final int RID_SIZE = 8;
+
+    private final HashPageId pid;
+    private final HashFile file;
+    private int kind;
+    private int link;
+    // the number of buckets, on the meta page
+    private int numBuckets;
+    // the entries of a bucket page
+    private final ArrayList<Tuple> entries = new ArrayList<Tuple>();
+    // the page numbers of the directory pages on the meta page, and of the
+    // buckets on a directory page
+    private final ArrayList<Integer> pages = new ArrayList<Integer>();
+
+    byte[] oldData;
+
+    private TransactionId dirtyTransactionId;
+    private boolean isDirty;
+
+    /**
+     * Create a HashPage from a set of bytes of data read from disk.
+     */
+    public HashPage(HashPageId id, byte[] data) {
+        this(id, data, (HashFile) Database.getCatalog().getDbFile(id.getTableId()));
+    }
+
+    HashPage(HashPageId id, byte[] data, HashFile file) {
+        this.pid = id;
+        this.file = file;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.kind = buf.get(0);
+        int count = buf.getInt(1);
+        this.link = buf.getInt(5);
+        int offset = HEADER_SIZE;
+        if (kind == BUCKET) {
+            TupleDesc td = file.getTupleDesc();
+            try {
+                for (int i = 0; i < count; i++) {
+                    Tuple t = new Tuple(td);
+                    for (int j = 0; j < td.numFields(); j++) {
+                        t.setField(j, td.getFieldType(j).parse(buf, offset));
+                        offset += td.getFieldType(j).getLen();
+                    }
+                    t.setRecordId(new RecordId(new HeapPageId(file.getTable().getId(),
+                            buf.getInt(offset)), buf.getInt(offset + 4)));
+                    offset += RID_SIZE;
+                    entries.add(t);
+                }
+            } catch (java.text.ParseException e) {
+                e.printStackTrace();
+                throw new NoSuchElementException("parsing error!");
+            }
+        } else {
+            if (kind == META) {
+                this.numBuckets = count;
+                count = (count + getMaxPages() - 1) / getMaxPages();
+            }
+            for (int i = 0; i < count; i++) {
+                pages.add(buf.getInt(offset));
+                offset += 4;
+            }
+        }
+        this.oldData = data;
+    }
+
+    /**
+     * Creates an empty page of the given kind.
+     */
+    HashPage(HashPageId id, int kind, HashFile file) {
+        this.pid = id;
+        this.file = file;
+        this.kind = kind;
+        this.oldData = createEmptyPageData();
+    }
+
+    /**
+     * Returns the number of entries of the given TupleDesc that fit on a
+     * bucket page.
+     */
+    static int getMaxEntries(TupleDesc entryDesc) {
+        return (BufferPool.getPageSize() - HEADER_SIZE)
+                / (entryDesc.getSize() + RID_SIZE);
+    }
+
+    /**
+     * Returns the number of page numbers that fit on a directory page or the
+     * meta page.
+     */
+    static int getMaxPages() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / 4;
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Return a view of this page before it was modified -- used by recovery
+     */
+    public HashPage getBeforeImage() {
+        return new HashPage(pid, oldData.clone(), file);
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.put(0, (byte) kind);
+        buf.putInt(1, kind == META ? numBuckets
+                : kind == BUCKET ? entries.size() : pages.size());
+        buf.putInt(5, link);
+        int offset = HEADER_SIZE;
+        for (Tuple t : entries) {
+            TupleDesc td = t.getTupleDesc();
+            for (int j = 0; j < td.numFields(); j++) {
+                td.getFieldType(j).serialize(t.getField(j), buf, offset);
+                offset += td.getFieldType(j).getLen();
+            }
+            RecordId rid = t.getRecordId();
+            buf.putInt(offset, rid.getPageId().pageNumber());
+            buf.putInt(offset + 4, rid.tupleno());
+            offset += RID_SIZE;
+        }
+        for (int page : pages) {
+            buf.putInt(offset, page);
+            offset += 4;
+        }
+        return data;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * HashPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; // all 0
+    }
+
+    /**
+     * Returns the page number of the next page of a bucket, 0 for the last.
+     */
+    public int getLink() {
+        return link;
+    }
+
+    public void setLink(int link) {
+        this.link = link;
+    }
+
+    /** Returns the number of buckets, on the meta page. */
+    public int getNumBuckets() {
+        return numBuckets;
+    }
+
+    public void setNumBuckets(int numBuckets) {
+        this.numBuckets = numBuckets;
+    }
+
+    /**
+     * Returns the entries of a bucket page. The list is the page's own.
+     */
+    List<Tuple> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the directory page numbers of the meta page, or the bucket
+     * page numbers of a directory page. The list is the page's own.
+     */
+    List<Integer> getPages() {
+        return pages;
+    }
+
+    /**
+     * Returns true if a bucket page has no room for another entry.
+     */
+    boolean isFull() {
+        return entries.size() >= getMaxEntries(file.getTupleDesc());
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTransactionId = tid;
+        this.isDirty = dirty;
+    }
+
+    public TransactionId isDirty() {
+        return isDirty ? dirtyTransactionId : null;
+    }
+}
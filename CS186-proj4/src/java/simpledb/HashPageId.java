@@ -0,0 +1,61 @@
+package simpledb;
+
+/** Unique identifier for HashPage objects. */
+public class HashPageId implements PageId {
+
+    private int tableId;
+    private int pageNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific hash index.
+     *
+     * @param tableId
+     *            The id of the index that is being referenced
+     * @param pgNo
+     *            The page number in that index.
+     */
+    public HashPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pageNo = pgNo;
+    }
+
+    /** @return the index associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the index associated with this PageId
+     */
+    public int pageNumber() {
+        return pageNo;
+    }
+
+    public int hashCode() {
+        return 31 * tableId + pageNo;
+    }
+
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof HashPageId) {
+            HashPageId another = (HashPageId) o;
+            return tableId == another.tableId && pageNo == another.pageNo;
+        }
+        return false;
+    }
+
+    public String toString() {
+        return "HashPageId(" + tableId + ", " + pageNo + ")";
+    }
+
+    /**
+     * Return a representation of this object as an array of integers, for
+     * writing to disk.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pageNo };
+    }
+}
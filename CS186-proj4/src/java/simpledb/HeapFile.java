@@ -1,23 +1,79 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
 import java.util.*;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
- * size, and the file is simply a collection of those pages. HeapFile works
- * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * size, and the file is simply a collection of those pages after a
+ * {@link FileHeader} that records their size. HeapFile works closely with
+ * HeapPage. The format of HeapPages is described in the HeapPage constructor.
+ * Tables with variable-length fields are stored on SlottedPages instead.
+ * Tables kept in the order of a key are stored in a ClusteredHeapFile.
  * 
  * @see simpledb.HeapPage#HeapPage
+ * @see simpledb.SlottedPage
+ * @see simpledb.ClusteredHeapFile
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
     private File file;
+    // assigned by the Catalog; the hash of the file's path until then
+    private int id;
     private TupleDesc tupleDesc;
-    private int pageCount;
+    // the high-water mark: pages up to here are part of the table. It is
+    // only changed under the file's monitor, but scans, getTuple and inserts
+    // read it without the lock while VACUUM truncates the table
+    private volatile int pageCount;
+    // pages the file holds on disk. It grows by whole extents of empty
+    // pages, so it is usually past pageCount; compressed files don't use it
+    private int allocatedPages;
+    private int extentPages = DEFAULT_EXTENT_PAGES;
+
+    /** Default number of pages a file grows by when it runs out of pages. */
+    public static final int DEFAULT_EXTENT_PAGES = 64;
+
+    // pages a single vacuum transaction moves tuples into before committing,
+    // so that it never fills the buffer pool with dirty pages
+    private static final int VACUUM_BATCH_PAGES = 16;
+    // times in a row a vacuum step may be aborted before vacuum gives up
+    private static final int VACUUM_RETRIES = 10;
+
+    // true if the pages of this file are SlottedPages rather than HeapPages
+    private final boolean slotted;
+    // opened lazily and kept for the lifetime of the table; positional
+    // read/write on a FileChannel is safe to use from many threads
+    private transient FileChannel channel;
+
+    // bytes covered by one memory-mapped region of the file
+    private static final long REGION_SIZE = 1L << 30;
+    private final boolean mmap;
+    // read-only mappings of the file, one per REGION_SIZE bytes, created on
+    // first access and replaced once the file has grown past their end
+    private transient MappedByteBuffer[] regions;
+    // pages with room for another tuple; built on the first insert
+    private transient FreeSpaceMap freeSpace;
+    // HeapPages are encoded into a buffer per writing thread, reused from
+    // page to page and from file to file
+    private static final ThreadLocal<ByteBuffer> writeBuffers = new ThreadLocal<ByteBuffer>();
+
+    // null unless pages are stored compressed. Compressed pages have
+    // different sizes, so the data file is a sequence of compressed pages
+    // and a directory file next to it holds, for each page, a long offset
+    // into the data file and an int length
+    private final PageCompressor compressor;
+    private static final int DIRECTORY_ENTRY_SIZE = 12;
+    private transient FileChannel directory;
+    private long[] pageOffsets;
+    private int[] pageLengths;
+    // where the next compressed page that doesn't fit in its old place goes
+    private long dataEnd;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -28,9 +84,69 @@ public class HeapFile implements DbFile {
      * @throws Exception
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mmap
+     *            if true, pages are decoded straight out of a read-only
+     *            memory mapping of the file instead of being copied into a
+     *            fresh byte array on every read. Writes still go through the
+     *            file channel, which the mapping observes.
+     */
+    public HeapFile(File f, TupleDesc td, boolean mmap) {
+        this(f, td, mmap, PageCompressor.NONE);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file. A file that isn't
+     * empty has to start with a header for the current page size; one that
+     * doesn't, e.g. one written before table files had headers, isn't
+     * opened.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mmap
+     *            if true, pages are read through a memory mapping of the
+     *            file. Ignored for compressed files.
+     * @param compression
+     *            the encodings pages are compressed with on disk, see
+     *            {@link PageCompressor}, or PageCompressor.NONE. A file of
+     *            uncompressed pages, e.g. one written by HeapFileEncoder, is
+     *            compressed the first time it is opened this way.
+     */
+    public HeapFile(File f, TupleDesc td, boolean mmap, int compression) {
         this.file = f;
+        this.id = f.getAbsoluteFile().hashCode();
         this.tupleDesc = td;
-        this.pageCount = (int) Math.ceil(f.length() / BufferPool.PAGE_SIZE);
+        this.slotted = SlottedPage.isUsedFor(td);
+        if (compression == PageCompressor.NONE) {
+            this.mmap = mmap;
+            this.compressor = null;
+            try {
+                FileHeader.check(f);
+                this.allocatedPages = FileHeader.pages(f.length());
+                this.pageCount = findHighWaterMark();
+            } catch (IOException e) {
+                throw new RuntimeException("failed to open heap file " + f, e);
+            }
+        } else {
+            this.mmap = false;
+            this.compressor = new PageCompressor(td, compression);
+            try {
+                FileHeader.check(f);
+                openDirectory();
+            } catch (IOException e) {
+                throw new RuntimeException("failed to open compressed heap file "
+                        + f, e);
+            }
+        }
     }
 
     /**
@@ -43,16 +159,286 @@ public class HeapFile implements DbFile {
     }
 
     /**
-     * Returns an ID uniquely identifying this HeapFile. Implementation note:
-     * you will need to generate this tableid somewhere ensure that each
-     * HeapFile has a "unique id," and that you always return the same value for
-     * a particular HeapFile. We suggest hashing the absolute file name of the
-     * file underlying the heapfile, i.e. f.getAbsoluteFile().hashCode().
+     * Returns the stamp in the header of the file, which changes whenever
+     * the file is written anew, by HeapFileEncoder or by
+     * ClusteredHeapFile.cluster(). An empty file gets its header first.
+     */
+    public long getFileStamp() throws IOException {
+        getChannel();
+        return FileHeader.readStamp(file);
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HeapFile: the id the Catalog
+     * assigned to it, or the hash of the absolute name of the file underlying
+     * the heapfile if it hasn't been added to the Catalog.
      * 
      * @return an ID uniquely identifying this HeapFile.
      */
     public int getId() {
-        return file.getAbsoluteFile().hashCode();
+        return id;
+    }
+
+    // see DbFile.java for javadocs
+    public boolean assignId(int id) {
+        this.id = id;
+        return true;
+    }
+
+    /**
+     * Returns the channel backing this HeapFile, opening it on first use.
+     */
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileHeader.open(file);
+        }
+        return channel;
+    }
+
+    /**
+     * Returns the number of pages up to the last page on disk that isn't
+     * empty. The pages after it were preallocated by an extent or have been
+     * emptied, and are handed out again as the table grows. A SlottedPage
+     * counts as empty only if it never had a tuple.
+     */
+    private int findHighWaterMark() throws IOException {
+        int headerSize = slotted ? SlottedPage.HEADER_SIZE
+                : (HeapPage.getNumTuples(tupleDesc) + 7) / 8;
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        for (int i = allocatedPages - 1; i >= 0; i--) {
+            header.clear();
+            readPageHeader(i, header);
+            if (slotted ? header.getInt(0) != 0 : !isZero(header.array())) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isZero(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the number of pages the file grows by when the table needs a new
+     * page. Larger extents make bulk inserts cheaper, at the cost of up to
+     * that many unused pages at the end of the file.
+     */
+    public synchronized void setExtentSize(int pages) {
+        if (pages < 1) {
+            throw new IllegalArgumentException("extent of " + pages + " pages");
+        }
+        extentPages = pages;
+    }
+
+    /**
+     * @return true if pages of this file are stored compressed on disk.
+     */
+    public boolean isCompressed() {
+        return compressor != null;
+    }
+
+    private File getDirectoryFile() {
+        return new File(file.getPath() + ".pages");
+    }
+
+    private synchronized FileChannel getDirectory() throws IOException {
+        if (directory == null || !directory.isOpen()) {
+            directory = new RandomAccessFile(getDirectoryFile(), "rw").getChannel();
+        }
+        return directory;
+    }
+
+    /**
+     * Loads the page directory of a compressed file, first compressing the
+     * file if it holds uncompressed pages and has no directory yet.
+     */
+    private void openDirectory() throws IOException {
+        if (!getDirectoryFile().exists() && file.length() > 0) {
+            compressPlainFile(file);
+        }
+        FileChannel dir = getDirectory();
+        int n = (int) (dir.size() / DIRECTORY_ENTRY_SIZE);
+        ByteBuffer entries = ByteBuffer.allocate(n * DIRECTORY_ENTRY_SIZE);
+        while (entries.hasRemaining()) {
+            if (dir.read(entries, entries.position()) < 0) {
+                break;
+            }
+        }
+        pageOffsets = new long[Math.max(n, 16)];
+        pageLengths = new int[pageOffsets.length];
+        for (int i = 0; i < n; i++) {
+            pageOffsets[i] = entries.getLong(i * DIRECTORY_ENTRY_SIZE);
+            pageLengths[i] = entries.getInt(i * DIRECTORY_ENTRY_SIZE + 8);
+        }
+        pageCount = n;
+        dataEnd = getChannel().size();
+    }
+
+    /**
+     * Writes a file of uncompressed pages, this file or another one, over
+     * this file as compressed pages plus a page directory. Both are written
+     * to temporary files first and then moved into place; the move isn't
+     * atomic, so this shouldn't be interrupted.
+     */
+    private void compressPlainFile(File plain) throws IOException {
+        File tmpData = new File(file.getPath() + ".tmp");
+        File tmpDir = new File(getDirectoryFile().getPath() + ".tmp");
+        int size = BufferPool.getPageSize();
+        int pages = FileHeader.pages(plain.length());
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(plain)));
+                DataOutputStream data = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tmpData)));
+                DataOutputStream dir = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tmpDir)))) {
+            // the header, and with it the stamp, of the plain file is kept
+            byte[] page = new byte[size];
+            in.readFully(page);
+            data.write(page);
+            long offset = size;
+            for (int i = 0; i < pages; i++) {
+                in.readFully(page);
+                byte[] blob = compressor.compress(page);
+                data.write(blob);
+                dir.writeLong(offset);
+                dir.writeInt(blob.length);
+                offset += blob.length;
+            }
+        }
+        java.nio.file.Files.move(tmpData.toPath(), file.toPath(),
+                java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        java.nio.file.Files.move(tmpDir.toPath(), getDirectoryFile().toPath(),
+                java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private synchronized byte[] readCompressedPage(int pageNo) throws IOException {
+        ByteBuffer blob = ByteBuffer.allocate(pageLengths[pageNo]);
+        FileChannel ch = getChannel();
+        while (blob.hasRemaining()) {
+            if (ch.read(blob, pageOffsets[pageNo] + blob.position()) < 0) {
+                throw new IOException("compressed page " + pageNo
+                        + " runs past the end of " + file);
+            }
+        }
+        return compressor.decompress(blob.array());
+    }
+
+    /**
+     * Compresses and writes a page. A page that still fits where it was is
+     * overwritten in place; otherwise it is appended to the data file and
+     * the space it took before is left unused.
+     */
+    private synchronized void writeCompressedPage(int pageNo, byte[] data)
+            throws IOException {
+        byte[] blob = compressor.compress(data);
+        long offset;
+        if (pageNo < pageCount && blob.length <= pageLengths[pageNo]) {
+            offset = pageOffsets[pageNo];
+        } else {
+            offset = dataEnd;
+            dataEnd += blob.length;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(blob);
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+
+        if (pageNo >= pageOffsets.length) {
+            int grown = Math.max(pageNo + 1, pageOffsets.length * 2);
+            pageOffsets = Arrays.copyOf(pageOffsets, grown);
+            pageLengths = Arrays.copyOf(pageLengths, grown);
+        }
+        pageOffsets[pageNo] = offset;
+        pageLengths[pageNo] = blob.length;
+        ByteBuffer entry = ByteBuffer.allocate(DIRECTORY_ENTRY_SIZE);
+        entry.putLong(0, offset);
+        entry.putInt(8, blob.length);
+        FileChannel dir = getDirectory();
+        while (entry.hasRemaining()) {
+            dir.write(entry, (long) pageNo * DIRECTORY_ENTRY_SIZE + entry.position());
+        }
+    }
+
+    /**
+     * Reads the first dst.remaining() bytes of the data of page pageNo into
+     * dst, without going through the buffer pool.
+     */
+    void readPageHeader(int pageNo, ByteBuffer dst) throws IOException {
+        if (compressor != null) {
+            byte[] page = readCompressedPage(pageNo);
+            dst.put(page, 0, Math.min(dst.remaining(), page.length));
+            return;
+        }
+        long pos = FileHeader.offset(pageNo);
+        int start = dst.position();
+        FileChannel ch = getChannel();
+        while (dst.hasRemaining()) {
+            if (ch.read(dst, pos + dst.position() - start) < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return true if pages of this file are read through a memory mapping.
+     */
+    public boolean isMemoryMapped() {
+        return mmap;
+    }
+
+    /**
+     * Returns a read-only view of the bytes of page pageNo in the memory
+     * mapping of the file, or null if the file doesn't extend that far.
+     */
+    private synchronized ByteBuffer getMappedPage(int pageNo) throws IOException {
+        int size = BufferPool.getPageSize();
+        long pos = FileHeader.offset(pageNo);
+        int index = (int) (pos / REGION_SIZE);
+        long regionStart = index * REGION_SIZE;
+        int offset = (int) (pos - regionStart);
+
+        if (regions == null || regions.length <= index) {
+            MappedByteBuffer[] grown = new MappedByteBuffer[index + 1];
+            if (regions != null) {
+                System.arraycopy(regions, 0, grown, 0, regions.length);
+            }
+            regions = grown;
+        }
+        MappedByteBuffer region = regions[index];
+        if (region == null || region.capacity() < offset + size) {
+            FileChannel ch = getChannel();
+            long length = Math.min(REGION_SIZE, ch.size() - regionStart);
+            if (length < offset + size) {
+                return null;
+            }
+            region = ch.map(FileChannel.MapMode.READ_ONLY, regionStart, length);
+            regions[index] = region;
+        }
+
+        ByteBuffer view = region.duplicate();
+        view.position(offset);
+        view.limit(offset + size);
+        return view.slice();
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() throws IOException {
+        regions = null;
+        if (directory != null) {
+            directory.close();
+            directory = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
     }
 
     /**
@@ -74,33 +460,145 @@ public class HeapFile implements DbFile {
             // + "˸ñҳ" + pageCount);
         }
 
-        try (RandomAccessFile raf = new RandomAccessFile(getFile(), "r")) {
-            int size = BufferPool.PAGE_SIZE;
-            int pos = pid.pageNumber() * size;
-            raf.seek(pos);
+        try {
+            if (compressor != null) {
+                return createPage((HeapPageId) pid,
+                        readCompressedPage(pid.pageNumber()));
+            }
+            if (mmap) {
+                ByteBuffer mapped = getMappedPage(pid.pageNumber());
+                if (mapped != null) {
+                    return slotted ? new SlottedPage((HeapPageId) pid, mapped)
+                            : new HeapPage((HeapPageId) pid, mapped);
+                }
+            }
+
+            int size = BufferPool.getPageSize();
+            long pos = FileHeader.offset(pid.pageNumber());
+
             byte[] data = new byte[size];
-            raf.read(data, 0, size);
-            return new HeapPage((HeapPageId) pid, data);
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            FileChannel ch = getChannel();
+            while (buf.hasRemaining()) {
+                // a short file just leaves the rest of the page zeroed
+                if (ch.read(buf, pos + buf.position()) < 0) {
+                    break;
+                }
+            }
+            return createPage((HeapPageId) pid, data);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new IllegalArgumentException("can't read page "
+                    + pid.pageNumber() + " of " + file, e);
         }
+    }
 
-        return null;
+    /**
+     * Reads the run with a single scattering read into one frame per page.
+     * Memory-mapped and compressed files read page by page, which costs no
+     * more: the mapping is already in memory, and compressed pages have
+     * different sizes.
+     */
+    public List<Page> readPages(PageId first, int count)
+            throws IllegalArgumentException {
+        int firstNo = first.pageNumber();
+        int numPages = pageCount;
+        if (firstNo >= numPages) {
+            throw new IllegalArgumentException(file.getAbsolutePath());
+        }
+        count = Math.min(count, numPages - firstNo);
+        List<Page> pages = new ArrayList<Page>(count);
+        if (compressor != null || mmap) {
+            for (int i = 0; i < count; i++) {
+                pages.add(readPage(new HeapPageId(getId(), firstNo + i)));
+            }
+            return pages;
+        }
+
+        int size = BufferPool.getPageSize();
+        byte[][] frames = new byte[count][size];
+        ByteBuffer[] bufs = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            bufs[i] = ByteBuffer.wrap(frames[i]);
+        }
+        try {
+            FileChannel ch = getChannel();
+            // a scattering read goes through the channel's position, which
+            // the positional reads and writes of single pages leave alone
+            synchronized (ch) {
+                ch.position(FileHeader.offset(firstNo));
+                while (bufs[count - 1].hasRemaining()) {
+                    // a short file just leaves the rest of the run zeroed
+                    if (ch.read(bufs) < 0) {
+                        break;
+                    }
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                pages.add(createPage(new HeapPageId(getId(), firstNo + i), frames[i]));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can't read pages " + firstNo
+                    + "-" + (firstNo + count - 1) + " of " + file, e);
+        }
+        return pages;
+    }
+
+    Page createPage(HeapPageId pid, byte[] data) throws IOException {
+        return slotted ? new SlottedPage(pid, data) : new HeapPage(pid, data);
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        RandomAccessFile raf = new RandomAccessFile(getFile(), "rw");
-        int size = BufferPool.PAGE_SIZE;
-        int pos = page.getId().pageNumber() * size;
-        raf.seek(pos);
-        byte[] data = page.getPageData();
-        raf.write(data, 0, size);
-        raf.close();
+        if (compressor != null) {
+            writeCompressedPage(page.getId().pageNumber(), page.getPageData());
+            return;
+        }
+        int size = BufferPool.getPageSize();
+        int pageNo = page.getId().pageNumber();
+        long pos = FileHeader.offset(pageNo);
+        ByteBuffer buf;
+        if (page instanceof HeapPage) {
+            buf = writeBuffers.get();
+            if (buf == null || buf.capacity() != size) {
+                buf = ByteBuffer.allocate(size);
+                writeBuffers.set(buf);
+            }
+            buf.clear();
+            ((HeapPage) page).writePageData(buf);
+        } else {
+            buf = ByteBuffer.wrap(page.getPageData(), 0, size);
+        }
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining()) {
+            ch.write(buf, pos + buf.position());
+        }
+        synchronized (this) {
+            // so the next extent doesn't zero out this page
+            allocatedPages = Math.max(allocatedPages, pageNo + 1);
+        }
+    }
+
+    /**
+     * Grows the file on disk by whole extents of empty pages until it holds
+     * at least the given number of pages. An all-zero page is an empty
+     * HeapPage or SlottedPage.
+     */
+    private synchronized void extend(int pages) throws IOException {
+        int size = BufferPool.getPageSize();
+        int target = Math.max(pages, allocatedPages + extentPages);
+        ByteBuffer zeros = ByteBuffer.allocate((target - allocatedPages) * size);
+        long pos = FileHeader.offset(allocatedPages);
+        FileChannel ch = getChannel();
+        while (zeros.hasRemaining()) {
+            ch.write(zeros, pos + zeros.position());
+        }
+        allocatedPages = target;
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile. This is the high-water
+     * mark of the pages the table uses; the file may hold empty pages after
+     * it.
      */
     public int numPages() {
         return pageCount;
@@ -116,34 +614,176 @@ public class HeapFile implements DbFile {
     // modify:ҪʹmarkDirty
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-
         ArrayList<Page> pages = new ArrayList<Page>();
-        HeapPage page = null;
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        TuplePage page = null;
         boolean found = false;
-        for (int i = 0; i < this.numPages(); i++) {
-            page = (HeapPage) Database.getBufferPool().getPage(tid,
+        // only lock pages the free space map says have room
+        for (int i = fsm.nextFreePage(0); i >= 0 && i < this.numPages();
+                i = fsm.nextFreePage(i + 1)) {
+            page = (TuplePage) Database.getBufferPool().getPage(tid,
                     new HeapPageId(this.getId(), i), Permissions.READ_WRITE);
-            if (page.getNumEmptySlots() != 0) {
+            if (i >= numPages()) {
+                // truncated by vacuum while we waited for the lock
+                break;
+            }
+            if (page.hasRoomFor(t)) {
                 found = true;
                 break;
             }
+            if (page.getNumEmptySlots() == 0) {
+                fsm.setFree(i, false);
+            }
         }
         if (!found) {
-            HeapPageId newPid = new HeapPageId(getId(), numPages());
-            page = new HeapPage(newPid, HeapPage.createEmptyPageData());
-            writePage(page);
-            pageCount++;
-            // BufferPool.getPagepage뻺أܽк
-            page = (HeapPage) Database.getBufferPool().getPage(tid, newPid,
-                    Permissions.READ_WRITE);
+            page = allocatePage(tid);
+            if (!page.hasRoomFor(t)) {
+                throw new DbException("tuple is too large for a page: " + t);
+            }
         }
         page.insertTuple(t);
         page.markDirty(true, tid);
+        updateFreeSpace(page);
 
         pages.add(page);
         return pages;
     }
 
+    /**
+     * Appends an empty page to the table and hands it to the buffer pool,
+     * locked by tid, without reading it back. An uncompressed file only
+     * grows when the page is past its last extent; compressed pages have no
+     * fixed place to preallocate, so each new one is written out right away.
+     */
+    private TuplePage allocatePage(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        return (TuplePage) Database.getBufferPool().addNewPage(tid,
+                createEmptyPage(allocatePageId()));
+    }
+
+    /**
+     * Appends an empty page to the file and returns its id.
+     */
+    synchronized HeapPageId allocatePageId() throws IOException {
+        HeapPageId pid = new HeapPageId(getId(), pageCount);
+        if (compressor != null) {
+            writePage(createEmptyPage(pid));
+        } else if (pageCount >= allocatedPages) {
+            extend(pageCount + 1);
+        }
+        pageCount++;
+        return pid;
+    }
+
+    Page createEmptyPage(HeapPageId pid) throws IOException {
+        if (slotted) {
+            return new SlottedPage(pid, SlottedPage.createEmptyPageData(),
+                    tupleDesc);
+        }
+        return new HeapPage(pid, HeapPage.createEmptyPageData());
+    }
+
+    /**
+     * Appends the tuples of a delimited text file to this table with a
+     * BulkLoader. Pages are written straight to the file rather than through
+     * the buffer pool, so the load is not logged and can't be rolled back;
+     * it is meant for filling tables, not for use alongside transactions
+     * that modify them. The indexes of the table are rebuilt afterwards.
+     *
+     * @param inFile
+     *            the file to load, in the format HeapFileEncoder reads
+     * @param fieldSeparator
+     *            the character between the fields of a line
+     * @return the number of tuples loaded
+     * @throws ParseException
+     *             if a line of inFile can't be parsed, in which case nothing
+     *             is loaded
+     */
+    public synchronized long bulkLoad(File inFile, char fieldSeparator)
+            throws DbException, IOException, ParseException {
+        BulkLoader loader = new BulkLoader(tupleDesc, fieldSeparator);
+        int size = BufferPool.getPageSize();
+        int loaded;
+        if (compressor == null) {
+            // over the empty pages of the last extent, if any
+            try {
+                loaded = loader.load(inFile, getChannel(), FileHeader.offset(pageCount));
+            } catch (IOException | ParseException e) {
+                // drops the pages of the lines loaded before the failure
+                shrinkFile();
+                throw e;
+            }
+            allocatedPages = Math.max(allocatedPages, pageCount + loaded);
+        } else {
+            File tmp = File.createTempFile("bulk", ".dat");
+            try (FileChannel pages = new RandomAccessFile(tmp, "rw").getChannel()) {
+                loaded = loader.load(inFile, pages, 0);
+                for (int i = 0; i < loaded; i++) {
+                    ByteBuffer page = ByteBuffer.allocate(size);
+                    while (page.hasRemaining()) {
+                        pages.read(page, (long) i * size + page.position());
+                    }
+                    writeCompressedPage(pageCount + i, page.array());
+                }
+            } finally {
+                tmp.delete();
+            }
+        }
+        pageCount += loaded;
+        // rebuilt from the pages on disk by the next insert
+        freeSpace = null;
+        rebuildIndexes();
+        return loader.getTuplesLoaded();
+    }
+
+    /**
+     * Rebuilds the indexes of the table from its pages on disk, once tuples
+     * were added or moved without going through the buffer pool.
+     */
+    void rebuildIndexes() throws IOException {
+        for (IndexFile index : Database.getCatalog().getIndexes(getId())) {
+            index.rebuild();
+        }
+    }
+
+    /**
+     * Moves the index entries of a tuple the file moved from slot from to
+     * the slot it is in now.
+     */
+    void moveIndexEntries(TransactionId tid, Tuple t, RecordId from)
+            throws DbException, IOException, TransactionAbortedException {
+        for (IndexFile index : Database.getCatalog().getIndexes(getId())) {
+            Tuple old = new Tuple(tupleDesc, t.getFields());
+            old.setRecordId(from);
+            index.deleteTuple(tid, old);
+            index.insertTuple(tid, t);
+        }
+    }
+
+    /**
+     * Returns the free space map of this file, building it from the page
+     * headers on disk on first use.
+     */
+    private synchronized FreeSpaceMap getFreeSpaceMap() throws IOException {
+        if (freeSpace == null) {
+            freeSpace = FreeSpaceMap.build(this, pageCount, tupleDesc);
+        }
+        return freeSpace;
+    }
+
+    /**
+     * Records in the free space map whether page has room for another tuple.
+     * Called whenever the number of used slots of a page of this file may
+     * have changed, including when an aborted transaction's changes to it are
+     * thrown away.
+     */
+    synchronized void updateFreeSpace(TuplePage page) {
+        if (freeSpace != null) {
+            freeSpace.setFree(page.getId().pageNumber(),
+                    page.getNumEmptySlots() != 0);
+        }
+    }
+
     // see DbFile.java for javadocs
     // This method will acquire a lock on the affected pages of the
     // file, and may block until the lock can be acquired.
@@ -156,10 +796,11 @@ public class HeapFile implements DbFile {
         if (t.getRecordId() != null) {
             PageId pageId = t.getRecordId().getPageId();
             if (pageId.pageNumber() < pageCount) {
-                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId,
+                TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pageId,
                         Permissions.READ_WRITE);
                 page.deleteTuple(t);
                 page.markDirty(true, tid);
+                updateFreeSpace(page);
                 return page;
             }
         }
@@ -167,18 +808,339 @@ public class HeapFile implements DbFile {
                 "the tuple cannot be deleted or is not a member of the file");
     }
 
+    /**
+     * Returns a bound on the slot numbers of the tuples on a page of this
+     * file: the number of slots of a HeapPage, or, for a SlottedPage, the
+     * number of slot directory entries a page has room for.
+     */
+    public int maxTuplesPerPage() {
+        return slotted
+                ? (BufferPool.getPageSize() - SlottedPage.HEADER_SIZE) / SlottedPage.SLOT_SIZE
+                : HeapPage.getNumTuples(tupleDesc);
+    }
+
+    /**
+     * Returns the tuple with the given RecordId, reading only its page,
+     * which is locked READ_ONLY, through the buffer pool. This is how tuples
+     * found through an index are fetched.
+     *
+     * @throws DbException
+     *             if the RecordId isn't the one of a tuple of this file
+     */
+    public Tuple getTuple(TransactionId tid, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        PageId pageId = rid.getPageId();
+        if (pageId.getTableId() == getId() && pageId.pageNumber() < pageCount) {
+            TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pageId,
+                    Permissions.READ_ONLY);
+            Tuple t = page.getTuple(rid.tupleno());
+            if (t != null) {
+                return t;
+            }
+        }
+        throw new DbException("no tuple " + rid.tupleno() + " on " + pageId
+                + " of the file");
+    }
+
+    /**
+     * Moves the tuples of this table into a dense prefix of its pages and
+     * truncates the file after the last page still in use, so that scans only
+     * read pages that hold tuples.
+     * <p>
+     * Vacuum runs as a series of short transactions of its own, each of which
+     * moves tuples from the last page with tuples on it into empty slots of
+     * earlier pages. Other transactions keep running meanwhile, under the
+     * usual page locks. Moved tuples get new RecordIds, and their index
+     * entries are moved along. A step aborted to break a deadlock is
+     * retried.
+     *
+     * @return the number of pages the table shrank by
+     */
+    public int vacuum() throws DbException, IOException,
+            TransactionAbortedException {
+        int before = numPages();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int aborts = 0;
+        int last = before - 1;
+        while (last > 0) {
+            int first = fsm.nextFreePage(0);
+            if (first < 0 || first >= last) {
+                break;
+            }
+            TransactionId tid = new TransactionId();
+            try {
+                int left = moveTuples(tid, last);
+                Database.getBufferPool().transactionComplete(tid);
+                aborts = 0;
+                if (left == 0) {
+                    last--;
+                } else if (left < 0) {
+                    break;
+                }
+            } catch (TransactionAbortedException e) {
+                Database.getBufferPool().transactionComplete(tid, false);
+                if (++aborts == VACUUM_RETRIES) {
+                    throw e;
+                }
+            }
+        }
+        truncate();
+        return before - numPages();
+    }
+
+    /**
+     * Moves tuples from page pageNo into empty slots of the pages before it,
+     * dirtying at most VACUUM_BATCH_PAGES pages besides pageNo.
+     *
+     * @return the number of tuples left on the page, or -1 if none of them
+     *         fit on an earlier page
+     */
+    private int moveTuples(TransactionId tid, int pageNo)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        TuplePage source = (TuplePage) bufferPool.getPage(tid,
+                new HeapPageId(getId(), pageNo), Permissions.READ_WRITE);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = source.iterator();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+
+        int moved = 0;
+        int targets = 0;
+        TuplePage target = null;
+        for (Tuple t : tuples) {
+            if (target == null || !target.hasRoomFor(t)) {
+                target = null;
+                if (targets == VACUUM_BATCH_PAGES) {
+                    break;
+                }
+                for (int i = fsm.nextFreePage(0); i >= 0 && i < pageNo;
+                        i = fsm.nextFreePage(i + 1)) {
+                    TuplePage page = (TuplePage) bufferPool.getPage(tid,
+                            new HeapPageId(getId(), i), Permissions.READ_WRITE);
+                    if (page.hasRoomFor(t)) {
+                        target = page;
+                        targets++;
+                        break;
+                    }
+                    if (page.getNumEmptySlots() == 0) {
+                        fsm.setFree(i, false);
+                    }
+                }
+                if (target == null) {
+                    break;
+                }
+            }
+            RecordId rid = t.getRecordId();
+            source.deleteTuple(t);
+            target.insertTuple(t);
+            target.markDirty(true, tid);
+            updateFreeSpace(target);
+            moveIndexEntries(tid, t, rid);
+            moved++;
+        }
+        if (moved > 0) {
+            source.markDirty(true, tid);
+            updateFreeSpace(source);
+        } else if (!tuples.isEmpty()) {
+            return -1;
+        }
+        return tuples.size() - moved;
+    }
+
+    /**
+     * Drops the empty pages at the end of the table and truncates the file
+     * after the last page left. Each page is locked before it is dropped, so
+     * transactions still using it finish first; pages that get a tuple in
+     * the meantime are kept.
+     */
+    private void truncate() throws DbException, IOException {
+        BufferPool bufferPool = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        try {
+            while (true) {
+                int last = numPages() - 1;
+                if (last < 0) {
+                    break;
+                }
+                HeapPageId pid = new HeapPageId(getId(), last);
+                TuplePage page = (TuplePage) bufferPool.getPage(tid, pid,
+                        Permissions.READ_WRITE);
+                if (page.iterator().hasNext()) {
+                    break;
+                }
+                synchronized (this) {
+                    if (pageCount != last + 1) {
+                        // another transaction appended a page; look again
+                        continue;
+                    }
+                    pageCount = last;
+                }
+                bufferPool.discardPage(pid);
+            }
+        } catch (TransactionAbortedException e) {
+            // keep what was truncated so far
+        } finally {
+            bufferPool.transactionComplete(tid);
+        }
+        shrinkFile();
+    }
+
+    /**
+     * Truncates the file after the last page of the table.
+     */
+    private synchronized void shrinkFile() throws IOException {
+        if (compressor != null) {
+            // the data file keeps the space of dropped pages
+            getDirectory().truncate((long) pageCount * DIRECTORY_ENTRY_SIZE);
+        } else {
+            // mappings of the dropped pages would fault once they're gone
+            regions = null;
+            getChannel().truncate(FileHeader.offset(pageCount));
+            allocatedPages = pageCount;
+        }
+    }
+
+    /**
+     * Raises the high-water mark to the given number of pages, for pages
+     * written past it with writePage rather than appended by
+     * allocatePageId.
+     */
+    synchronized void growTo(int pages) {
+        pageCount = Math.max(pageCount, pages);
+    }
+
+    /**
+     * Replaces the pages of the file with those of a file of uncompressed
+     * pages, e.g. a sorted copy of the table, which is moved over this one
+     * or, if this file is compressed, compressed into its place. The caller
+     * has dropped the pages of the table from the buffer pool.
+     *
+     * @param pages
+     *            the number of pages of plain
+     */
+    synchronized void replaceFile(File plain, int pages) throws IOException {
+        close();
+        if (compressor == null) {
+            java.nio.file.Files.move(plain.toPath(), file.toPath(),
+                    java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            allocatedPages = pages;
+        } else {
+            compressPlainFile(plain);
+            openDirectory();
+        }
+        pageCount = pages;
+        freeSpace = null;
+    }
+
+    /**
+     * Returns the page numbers of the file in the order scans read them, or
+     * null to read them in file order, which HeapFile always does.
+     *
+     * @throws DbException
+     *             if the order can't be read
+     */
+    int[] scanOrder() throws DbException {
+        return null;
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         return new HeapFileIterator(tid);
     }
 
-    // must use the BufferPool.getPage() method to access pages
+    /**
+     * Returns an iterator over the tuples of the file as committed to disk,
+     * read straight from the file a run of pages at a time with
+     * {@link #readPages}. It bypasses the buffer pool, so it takes no locks
+     * and leaves the cache alone; TableStats uses it to scan whole tables.
+     *
+     * @param chunkPages
+     *            the number of pages read at a time
+     */
+    public DbFileIterator diskIterator(int chunkPages) {
+        return new DiskIterator(chunkPages);
+    }
+
+    /**
+     * Iterates through the pages on disk a run of pages at a time. It reads
+     * them without BufferPool.getPage(), which is safe for its callers:
+     * TableStats only needs an estimate, and indexes are rebuilt as their
+     * table is added to the catalog, before any transaction can change it.
+     */
+    private class DiskIterator implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final int chunkPages;
+        private int nextPage;
+        private Iterator<Page> chunk;
+        private Iterator<Tuple> tuples;
+
+        public DiskIterator(int chunkPages) {
+            this.chunkPages = chunkPages;
+        }
+
+        public void open() throws DbException {
+            // fails for a file whose pages aren't in the order scans need yet
+            scanOrder();
+            rewind();
+        }
+
+        public boolean hasNext() {
+            if (tuples == null) {
+                return false;
+            }
+            while (!tuples.hasNext()) {
+                if (!chunk.hasNext()) {
+                    if (nextPage >= pageCount) {
+                        return false;
+                    }
+                    chunk = readPages(new HeapPageId(getId(), nextPage), chunkPages)
+                            .iterator();
+                    nextPage += chunkPages;
+                    continue;
+                }
+                Page page = chunk.next();
+                if (page != null) {
+                    tuples = ((TuplePage) page).iterator();
+                }
+            }
+            return true;
+        }
+
+        public Tuple next() throws NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return tuples.next();
+        }
+
+        public void rewind() {
+            nextPage = 0;
+            chunk = Collections.<Page>emptyIterator();
+            tuples = Collections.<Tuple>emptyIterator();
+        }
+
+        public void close() {
+            chunk = null;
+            tuples = null;
+        }
+    }
+
     private class HeapFileIterator implements DbFileIterator {
         private TransactionId transactionId;
         private int cursor;
         private int last;
+        // page numbers in the order they are scanned, or null for file order
+        private int[] pages;
         private Iterator<Tuple> currentPageIterator;
         private boolean isOpen;
+        // the position of the page read before the current one, and the
+        // furthest position handed to the read-ahead thread
+        private int previous = -1;
+        private int prefetched = -1;
 
         public HeapFileIterator(TransactionId tid) {
             this.transactionId = tid;
@@ -189,18 +1151,69 @@ public class HeapFile implements DbFile {
 
         // ΪҪӦcheckOpen()޷ͨtest
         public void open() throws DbException, TransactionAbortedException {
-            currentPageIterator = getIterator();
+            pages = scanOrder();
+            if (pages != null) {
+                last = pages.length - 1;
+            }
+            currentPageIterator = last < 0 ? Collections.<Tuple>emptyIterator()
+                    : getIterator();
             isOpen = true;
         }
 
         // ȡcursoriterator
         private Iterator<Tuple> getIterator()
                 throws TransactionAbortedException, DbException {
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(transactionId,
-                    new HeapPageId(getId(), cursor), Permissions.READ_ONLY);
+            int pageNo = pages == null ? cursor : pages[cursor];
+            if (pageNo >= pageCount) {
+                // truncated by vacuum since the iterator was created
+                return Collections.<Tuple>emptyIterator();
+            }
+            readAhead();
+
+            TuplePage page = (TuplePage) Database.getBufferPool().getPage(transactionId,
+                    new HeapPageId(getId(), pageNo), Permissions.READ_ONLY);
             return page.iterator();
         }
 
+        /**
+         * Once the scan has moved from one page to the next, keeps the pages
+         * within the buffer pool's read-ahead window past the cursor queued
+         * for the read-ahead thread. A scan that stops on its first page
+         * reads nothing it doesn't need.
+         */
+        private void readAhead() {
+            boolean sequential = cursor == previous + 1 && previous >= 0;
+            previous = cursor;
+            if (!sequential) {
+                prefetched = cursor;
+                return;
+            }
+            BufferPool bufferPool = Database.getBufferPool();
+            int window = bufferPool.getReadAheadPages();
+            // the window is refilled a whole window at a time once the scan
+            // is halfway through it, so that pages are read in long runs
+            if (prefetched - cursor > window / 2) {
+                return;
+            }
+            int start = Math.max(prefetched, cursor) + 1;
+            int end = Math.min(last, start - 1 + window);
+            List<PageId> run = new ArrayList<PageId>();
+            for (int i = start; i <= end; i++) {
+                int pageNo = pages == null ? i : pages[i];
+                if (!run.isEmpty() && pageNo != run.get(run.size() - 1).pageNumber() + 1) {
+                    bufferPool.prefetchPages(run);
+                    run = new ArrayList<PageId>();
+                }
+                if (pageNo < pageCount) {
+                    run.add(new HeapPageId(getId(), pageNo));
+                }
+            }
+            if (!run.isEmpty()) {
+                bufferPool.prefetchPages(run);
+            }
+            prefetched = Math.max(prefetched, end);
+        }
+
         public boolean hasNext() throws DbException, TransactionAbortedException {
             if (!isOpen || cursor > last) {
                 return false;
@@ -226,7 +1239,8 @@ public class HeapFile implements DbFile {
 
         public void rewind() throws DbException, TransactionAbortedException {
             cursor = 0;
-            currentPageIterator = getIterator();
+            currentPageIterator = last < 0 ? Collections.<Tuple>emptyIterator()
+                    : getIterator();
         }
 
         public void close() {
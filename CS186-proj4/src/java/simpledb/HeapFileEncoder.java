@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.text.ParseException;
 import java.util.ArrayList;
 
 /**
@@ -8,7 +9,7 @@ import java.util.ArrayList;
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file after a header that records their length.
  */
 
 public class HeapFileEncoder {
@@ -76,9 +77,13 @@ public class HeapFileEncoder {
     * where each row represents a tuple.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * HeapFile. If any of the types is variable-length, the file is written
+    * as SlottedPages instead. Files with the database's page size are
+    * written by a BulkLoader.
     *
+    * @see BulkLoader
     * @see HeapPage
+    * @see SlottedPage
     * @see HeapFile
     * @param inFile The input file to read data from
     * @param outFile The output file to write data to
@@ -91,6 +96,21 @@ public class HeapFileEncoder {
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
+      // pages of the database's page size are written by the parallel
+      // BulkLoader; other sizes only support fixed-length fields
+      if (npagebytes == BufferPool.getPageSize()) {
+          try {
+              new BulkLoader(new TupleDesc(typeAr), fieldSeparator).convert(inFile, outFile);
+          } catch (ParseException e) {
+              throw new IOException(e.getMessage());
+          }
+          return;
+      }
+      if (SlottedPage.isUsedFor(new TupleDesc(typeAr))) {
+          throw new IllegalArgumentException("slotted pages must be "
+                  + BufferPool.getPageSize() + " bytes");
+      }
+
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
@@ -106,6 +126,7 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    os.write(FileHeader.create(npagebytes));
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -157,6 +178,13 @@ public class HeapFileEncoder {
                 while (overflow-- > 0)
                     pageStream.write((byte)0);
             }
+            else {
+                try {
+                    typeAr[fieldNo].parse(s.trim()).serialize(pageStream);
+                } catch (ParseException e) {
+                    System.out.println ("BAD LINE : " + s);
+                }
+            }
             curpos = 0;
             if (c == '\n')
                 fieldNo = 0;
@@ -223,4 +251,23 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Parses one line of input into a tuple, or returns null if it is
+   * malformed.
+   */
+  static Tuple parseLine(String line, String separator, int numFields,
+                 TupleDesc td) {
+      String[] values = line.split(separator, -1);
+      if (values.length != numFields)
+          return null;
+      Tuple t = new Tuple(td);
+      for (int i = 0; i < numFields; i++) {
+          try {
+              t.setField(i, td.getFieldType(i).parse(values[i].trim()));
+          } catch (ParseException e) {
+              return null;
+          }
+      }
+      return t;
+  }
 }
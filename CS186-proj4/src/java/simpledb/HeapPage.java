@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
@@ -11,14 +12,29 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
     private HeapPageId pid;
     private TupleDesc td;
-    private byte header[];
+    // the header as a bitset: slot i is used if bit i % 64 of word i / 64 is
+    // set. Bits past the last slot are always clear
+    private long header[];
+    // bytes the header takes on the page
+    private int headerSize;
+    // tuples are decoded from data the first time they are asked for; a null
+    // entry in a used slot means the slot still holds its on-disk bytes
     private Tuple tuples[];
     private int numSlots;
-
+    // the page as it was read; never written to
+    private ByteBuffer data;
+    // byte offset of each field within a tuple
+    private int[] fieldOffsets;
+
+    // the page as it was before the transaction modifying it started;
+    // captured on the first change, and null while the page is unchanged
+    // since it was read or last committed
     byte[] oldData;
+    // true once the page no longer matches data
+    private boolean modified;
 
     private TransactionId dirtyTransactionIdId;
     private boolean isDirty;
@@ -29,7 +45,7 @@ public class HeapPage implements Page {
      * that are in use, some number of tuple slots. Specifically, the number of
      * tuples is equal to:
      * <p>
-     * floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     * floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
      * <p>
      * where tuple size is the size of tuples in this database table, which can
      * be determined via {@link Catalog#getTupleDesc}. The number of 8-bit
@@ -40,30 +56,61 @@ public class HeapPage implements Page {
      * 
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding one page of data, e.g. a region
+     * of a memory-mapped table file. Only the header is decoded up front; the
+     * page keeps a reference to the buffer (which must not be modified
+     * afterwards) and decodes a tuple or a single field from it only when it
+     * is asked for. The buffer's position is not changed.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        this.data = data;
+
+        // allocate and read the header slots of this page; byte k holds
+        // slots 8k to 8k + 7, lowest bit first
+        headerSize = getHeaderSize();
+        header = new long[(numSlots + 63) / 64];
+        for (int k = 0; k < headerSize; k++) {
+            header[k / 8] |= (long) (data.get(k) & 0xff) << (k % 8 * 8);
+        }
+        if (numSlots % 64 != 0) {
+            header[header.length - 1] &= (1L << numSlots) - 1;
+        }
 
-        try {
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+        tuples = new Tuple[numSlots];
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
         }
-        dis.close();
+    }
 
-        setBeforeImage();
+    /**
+     * Returns the page held in the first BufferPool.getPageSize() bytes of
+     * data as an array that is never written to: the backing array itself if
+     * it holds exactly the page, else a copy.
+     */
+    private static byte[] copyPage(ByteBuffer data) {
+        int len = BufferPool.getPageSize();
+        if (data.hasArray() && data.arrayOffset() == 0
+                && data.array().length == len) {
+            return data.array();
+        }
+        byte[] page = new byte[len];
+        ByteBuffer src = data.duplicate();
+        src.clear();
+        src.get(page);
+        return page;
     }
 
     /**
@@ -75,10 +122,18 @@ public class HeapPage implements Page {
         if (numSlots > 0) {
             return numSlots;
         } else {
-            return (int) ((BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1));
+            return getNumTuples(td);
         }
     }
 
+    /**
+     * Returns the number of tuples that fit on one page of a table with the
+     * given TupleDesc.
+     */
+    static int getNumTuples(TupleDesc td) {
+        return (int) ((BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1));
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with
      * each tuple occupying tupleSize bytes
@@ -88,7 +143,7 @@ public class HeapPage implements Page {
      */
     private int getHeaderSize() {
         if (header != null) {
-            return header.length;
+            return headerSize;
         } else {
             return (int) (Math.ceil((double) numSlots / 8));
         }
@@ -99,7 +154,7 @@ public class HeapPage implements Page {
      */
     public HeapPage getBeforeImage() {
         try {
-            return new HeapPage(pid, oldData);
+            return new HeapPage(pid, oldData != null ? oldData : currentData());
         } catch (IOException e) {
             e.printStackTrace();
             // should never happen -- we parsed it OK before!
@@ -108,8 +163,30 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * A transaction that wrote this page just committed it, so the page as it
+     * is now is its before image. Nothing is copied until it changes again.
+     */
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = null;
+    }
+
+    /**
+     * Saves the before image of this page, unless it has one already. Called
+     * before the first change after the page was read or committed.
+     */
+    private void captureBeforeImage() {
+        if (oldData == null) {
+            oldData = currentData();
+        }
+    }
+
+    /**
+     * Returns the bytes of this page as it is now, without encoding it if it
+     * hasn't changed since it was read.
+     */
+    private byte[] currentData() {
+        return modified ? getPageData() : copyPage(data);
     }
 
     /**
@@ -120,38 +197,52 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the byte offset in the page data of the tuple in slot i.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId)
-            throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    private int slotOffset(int i) {
+        return headerSize + i * td.getSize();
+    }
+
+    /**
+     * Returns the tuple stored in slot i, decoding it from the page data if it
+     * hasn't been asked for before, or null if the slot is empty.
+     */
+    public Tuple getTuple(int i) throws NoSuchElementException {
+        if (!isSlotUsed(i)) {
+            return null;
+        }
+        if (tuples[i] == null) {
+            Tuple t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, i));
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, readField(i, j));
             }
+            tuples[i] = t;
+        }
+        return tuples[i];
+    }
+
+    /**
+     * Returns field j of the tuple in slot i without materializing the rest
+     * of the tuple, or null if the slot is empty.
+     */
+    public Field getField(int i, int j) throws NoSuchElementException {
+        if (!isSlotUsed(i)) {
             return null;
         }
+        if (tuples[i] != null) {
+            return tuples[i].getField(j);
+        }
+        return readField(i, j);
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    private Field readField(int i, int j) throws NoSuchElementException {
         try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return td.getFieldType(j).parse(data, slotOffset(i) + fieldOffsets[j]);
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
-
-        return t;
     }
 
     /**
@@ -166,68 +257,76 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i = 0; i < header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(page));
+        return page;
+    }
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+    /**
+     * Encodes this page into the first BufferPool.getPageSize() bytes of buf,
+     * in the same format as {@link #getPageData()}. Every byte of the page is
+     * overwritten, so buf may be reused from page to page. Runs of slots that
+     * still hold the bytes they were read with are copied in bulk; only
+     * tuples that were inserted or decoded are encoded field by field. The
+     * buffer's position is not changed.
+     */
+    public void writePageData(ByteBuffer buf) {
+        ByteBuffer dst = buf.duplicate();
+        dst.clear();
+        for (int k = 0; k < headerSize; k++) {
+            dst.put((byte) (header[k / 8] >>> (k % 8 * 8)));
+        }
 
+        int tupleSize = td.getSize();
+        int i = 0;
+        while (i < numSlots) {
+            // find the run of slots like slot i
+            boolean used = isSlotUsed(i);
+            boolean raw = used && tuples[i] == null;
+            int end = i + 1;
+            if (!used) {
+                end = nextUsedSlot(i);
+            } else if (raw) {
+                int last = nextEmptySlot(i);
+                while (end < last && tuples[end] == null) {
+                    end++;
                 }
-                continue;
             }
 
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
+            int offset = slotOffset(i);
+            if (!used) {
+                zero(dst, offset, (end - i) * tupleSize);
+            } else if (raw) {
+                ByteBuffer src = data.duplicate();
+                src.limit(slotOffset(end));
+                src.position(offset);
+                dst.position(offset);
+                dst.put(src);
+            } else {
+                Tuple t = tuples[i];
+                for (int j = 0; j < fieldOffsets.length; j++) {
+                    td.getFieldType(j).serialize(t.getField(j), dst,
+                            offset + fieldOffsets[j]);
                 }
             }
+            i = end;
         }
 
         // padding
-        int zerolen = BufferPool.PAGE_SIZE
-                - (header.length + td.getSize() * tuples.length); // -
-                                                                  // numSlots
-                                                                  // *
-                                                                  // td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        int padding = slotOffset(numSlots);
+        zero(dst, padding, BufferPool.getPageSize() - padding);
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private static final byte[] ZEROES = new byte[1024];
 
-        return baos.toByteArray();
+    /** Zeroes len bytes of buf starting at an absolute offset. */
+    private static void zero(ByteBuffer buf, int offset, int len) {
+        buf.position(offset);
+        while (len > 0) {
+            int n = Math.min(len, ZEROES.length);
+            buf.put(ZEROES, 0, n);
+            len -= n;
+        }
     }
 
     /**
@@ -239,7 +338,7 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
+        int len = BufferPool.getPageSize();
         return new byte[len]; // all 0
     }
 
@@ -269,6 +368,8 @@ public class HeapPage implements Page {
         if (!isSlotUsed(num)) {
             throw new DbException("tuple slot is already empty");
         }
+        captureBeforeImage();
+        modified = true;
         t.setRecordId(null);
         tuples[num] = null;
         markSlotUsed(num, false);
@@ -297,15 +398,15 @@ public class HeapPage implements Page {
         // if (!t.getTupleDesc().equals(this.td)) {
         // throw new DbException("tupledesc is mismatch");
         // }
-        for (int i = 0; i < this.numSlots; i++) {
-            if (!this.isSlotUsed(i)) {
-                t.setRecordId(new RecordId(this.pid, i));
-                this.tuples[i] = t;
-                this.markSlotUsed(i, true);
-                return;
-            }
+        int i = nextEmptySlot(0);
+        if (i == numSlots) {
+            throw new DbException("page is full");
         }
-        throw new DbException("page is full");
+        captureBeforeImage();
+        modified = true;
+        t.setRecordId(new RecordId(this.pid, i));
+        this.tuples[i] = t;
+        this.markSlotUsed(i, true);
     }
 
     /**
@@ -313,6 +414,9 @@ public class HeapPage implements Page {
      * the dirtying
      */
     public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) {
+            captureBeforeImage();
+        }
         this.dirtyTransactionIdId = tid;
         this.isDirty = dirty;
     }
@@ -333,36 +437,74 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int emptyCount = 0;
-        for (int i = 0; i < numSlots; i++) {
-            if (!this.isSlotUsed(i)) {
-                emptyCount++;
-            }
+        int used = 0;
+        for (long word : header) {
+            used += Long.bitCount(word);
         }
-        return emptyCount;
+        return numSlots - used;
+    }
+
+    /**
+     * Returns true if the page has an empty slot; all tuples of a table take
+     * the same space.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() != 0;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-        int index = (int) (i / 8);
-        // ȡbitsi%8λ0
-        int pos = i % 8;
-        return (header[index] & (1 << pos)) != 0;
+        return (header[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Returns the first used slot at or after slot i, or the number of slots
+     * if there is none.
+     */
+    private int nextUsedSlot(int i) {
+        int w = i >>> 6;
+        if (w >= header.length) {
+            return numSlots;
+        }
+        long word = header[w] & (-1L << i);
+        while (word == 0) {
+            if (++w == header.length) {
+                return numSlots;
+            }
+            word = header[w];
+        }
+        return w * 64 + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Returns the first empty slot at or after slot i, or the number of slots
+     * if there is none.
+     */
+    private int nextEmptySlot(int i) {
+        int w = i >>> 6;
+        if (w >= header.length) {
+            return numSlots;
+        }
+        long word = ~header[w] & (-1L << i);
+        while (word == 0) {
+            if (++w == header.length) {
+                return numSlots;
+            }
+            word = ~header[w];
+        }
+        return Math.min(numSlots, w * 64 + Long.numberOfTrailingZeros(word));
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
-        int index = (int) (i / 8);
-        // ȡbitsi%8λ0
-        int pos = i % 8;
         if (value) {
-            header[index] = (byte) (header[index] | (1 << pos));
+            header[i >>> 6] |= 1L << i;
         } else {
-            header[index] = (byte) (header[index] & ~(1 << pos));
+            header[i >>> 6] &= ~(1L << i);
         }
     }
 
@@ -376,27 +518,24 @@ public class HeapPage implements Page {
     }
 
     private class ResultIterator implements Iterator<Tuple> {
+        // the next used slot, or numSlots
         private int cursor;
-        private int leftCount;
 
         public ResultIterator() {
-            this.cursor = 0;
-            this.leftCount = numSlots - HeapPage.this.getNumEmptySlots();
+            this.cursor = nextUsedSlot(0);
         }
 
         public boolean hasNext() {
-            return leftCount != 0;
+            return cursor < numSlots;
         }
 
         public Tuple next() {
             if (!this.hasNext()) {
                 throw new NoSuchElementException();
             }
-            while (!HeapPage.this.isSlotUsed(cursor)) {
-                cursor++;
-            }
-            leftCount--;
-            return tuples[cursor++];
+            Tuple t = getTuple(cursor);
+            cursor = nextUsedSlot(cursor + 1);
+            return t;
         }
 
         public void remove() {
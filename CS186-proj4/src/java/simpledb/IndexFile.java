@@ -0,0 +1,76 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * The interface for index files on disk. An index maps the values of one
+ * field of a table, its key, to the RecordIds of the tuples with that value.
+ * Its entries are tuples of their own: their fields are the key followed by
+ * the values of the fields the index includes, if any, and their RecordId is
+ * the one of the indexed tuple. An index that includes all the fields a
+ * query needs of a table covers the query, which can then be answered from
+ * the index alone with an {@link IndexOnlyScan}.
+ * <p>
+ * An index is added to the Catalog with {@link Catalog#addIndex}, which gives
+ * it an id of its own, so that its pages go through the buffer pool and are
+ * locked like the pages of tables. The buffer pool keeps the indexes of a
+ * table up to date as tuples are inserted into and deleted from it:
+ * {@link DbFile#insertTuple} and {@link DbFile#deleteTuple} of an index take
+ * a tuple of the indexed table, with its RecordId set, and add or remove its
+ * entry.
+ */
+public interface IndexFile extends DbFile {
+
+    /**
+     * Returns the file of the indexed table. Only tables stored in a HeapFile
+     * are indexed, so that tuples can be fetched by their RecordId with
+     * {@link HeapFile#getTuple}.
+     */
+    public HeapFile getTable();
+
+    /**
+     * Returns the index of the field of the indexed table that is the key of
+     * this index.
+     */
+    public int getKeyField();
+
+    /**
+     * Returns the indexes of the fields of the indexed table whose values the
+     * entries of this index carry after the key, in order; field i + 1 of an
+     * entry is field getIncludedFields()[i] of the tuple. The array is a
+     * copy.
+     */
+    public int[] getIncludedFields();
+
+    /**
+     * Returns true if the index finds ranges of keys in key order, and false
+     * if it only finds single keys, as a hash index does.
+     */
+    public boolean isOrdered();
+
+    /**
+     * Returns an iterator over the entries whose key is between lower and
+     * upper, inclusive, in key order. The iterator must use
+     * {@link BufferPool#getPage} to read the pages of the index. An index
+     * that isn't ordered only takes a lower bound equal to the upper one.
+     *
+     * @param lower
+     *            the smallest key returned, or null for no lower bound
+     * @param upper
+     *            the largest key returned, or null for no upper bound
+     * @throws IllegalArgumentException
+     *             if the index isn't ordered and the bounds aren't the same
+     *             key
+     */
+    public DbFileIterator iterator(TransactionId tid, Field lower, Field upper);
+
+    /**
+     * Replaces the contents of the index with the entries of the tuples of
+     * the table as committed to disk. Pages of the index are dropped from the
+     * buffer pool, so no transaction may be using the table.
+     *
+     * @throws IOException
+     *             if the index can't be written
+     */
+    public void rebuild() throws IOException;
+}
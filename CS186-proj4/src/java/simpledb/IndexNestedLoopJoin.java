@@ -0,0 +1,172 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator joins each tuple of its outer child to the
+ * tuples of an indexed table it finds through the index, rather than by
+ * scanning the table. The inner child is an IndexScan of the table, possibly
+ * under Filters; for each outer tuple the scan is set to the keys that can
+ * join with it and the inner child is opened again, so only the pages of the
+ * index it walks and of the tuples it finds are read.
+ *
+ * @see JoinOptimizer#instantiateJoin
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate predicate;
+    private DbIterator child1, child2;
+    private final IndexScan probe;
+    private final TupleDesc td;
+    // the outer tuple being joined, and whether the inner child is open
+    private transient Tuple outer;
+    private transient boolean innerOpen;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children. Its operator
+     *            can't be LIKE or NOT_EQUALS, and has to be EQUALS unless the
+     *            index is ordered.
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join: probe, or
+     *            Filters over it
+     * @param probe
+     *            the scan of the index on the join field of the inner table
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            IndexScan probe) {
+        this.predicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.probe = probe;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return predicate;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table
+     *         name.
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(predicate.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table
+     *         name.
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(predicate.getField2());
+    }
+
+    /** @return the scan the join looks tuples of the inner table up with */
+    public IndexScan getProbe() {
+        return probe;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        outer = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (innerOpen) {
+            child2.close();
+            innerOpen = false;
+        }
+        child1.close();
+        outer = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        outer = null;
+    }
+
+    /**
+     * Sets the probe to the keys of the inner table that can join with key
+     * and opens the inner child again, which reads them. The probe only
+     * narrows the keys; the join predicate is still applied to every pair.
+     */
+    private void lookUp(Field key) throws DbException, TransactionAbortedException {
+        switch (predicate.getOperator()) {
+        case EQUALS:
+            probe.setKeyRange(key, key);
+            break;
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            // outer < inner
+            probe.setKeyRange(key, null);
+            break;
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            probe.setKeyRange(null, key);
+            break;
+        default:
+            throw new DbException("can't look up " + predicate.getOperator()
+                    + " in an index");
+        }
+        if (innerOpen) {
+            child2.close();
+        }
+        child2.open();
+        innerOpen = true;
+    }
+
+    /**
+     * Returns the next pair of an outer tuple and a tuple of the inner table
+     * found for it through the index that satisfies the join predicate, as
+     * the concatenation of the two, or null if there are no more.
+     *
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer == null) {
+                if (!child1.hasNext()) {
+                    return null;
+                }
+                outer = child1.next();
+                lookUp(outer.getField(predicate.getField1()));
+            }
+            while (child2.hasNext()) {
+                Tuple inner = child2.next();
+                if (predicate.filter(outer, inner)) {
+                    return Tuple.merge(outer, inner);
+                }
+            }
+            outer = null;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    /**
+     * Replaces the children of the join; a new inner child has to read the
+     * same probe.
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -0,0 +1,66 @@
+package simpledb;
+
+/**
+ * IndexOnlyScan is an IndexScan that answers from the entries of the index
+ * alone, without fetching the tuples from the table: the tuples it returns
+ * only have the key and the fields the index includes, and their other
+ * fields are null, like those of a ColumnFile scan of a few columns. It is
+ * for queries the index covers, which need no other field of the table, and
+ * reads no page of the table at all.
+ *
+ * @see IndexFile#getIncludedFields
+ */
+public class IndexOnlyScan extends IndexScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int keyField;
+    private final int[] includedFields;
+    private final int numFields;
+
+    /**
+     * Creates a scan over the entries of an index with a key between lower
+     * and upper, inclusive, with the arguments of an IndexScan.
+     *
+     * @see IndexScan#IndexScan(TransactionId, int, String, Field, Field)
+     */
+    public IndexOnlyScan(TransactionId tid, int indexId, String tableAlias,
+            Field lower, Field upper) {
+        super(tid, indexId, tableAlias, lower, upper);
+        this.keyField = getIndex().getKeyField();
+        this.includedFields = getIndex().getIncludedFields();
+        this.numFields = getIndex().getTable().getTupleDesc().numFields();
+    }
+
+    /**
+     * Returns true if the entries of an index carry all the given fields of
+     * its table.
+     */
+    static boolean covers(IndexFile index, int[] fields) {
+        int[] included = index.getIncludedFields();
+        for (int field : fields) {
+            boolean found = field == index.getKeyField();
+            for (int i = 0; i < included.length && !found; i++) {
+                found = included[i] == field;
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the fields of the tuple an entry points to that the entry
+     * carries, and null for the others.
+     */
+    @Override
+    protected Field[] getFields(Tuple entry) {
+        Field[] fields = new Field[numFields];
+        fields[keyField] = entry.getField(0);
+        for (int i = 0; i < includedFields.length; i++) {
+            fields[includedFields[i]] = entry.getField(i + 1);
+        }
+        return fields;
+    }
+}
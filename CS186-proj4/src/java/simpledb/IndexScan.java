@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose key
+ * in an index of the table is between two bounds, in key order. It walks the
+ * entries of the index in that range and fetches each tuple from its page
+ * through the buffer pool, so only the pages of the index it walks and the
+ * pages holding matching tuples are read. An index that isn't ordered only
+ * finds the tuples of a single key.
+ *
+ * @see IndexFile#iterator(TransactionId, Field, Field)
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId transactionId;
+    private final IndexFile index;
+    private final String tableAlias;
+    private Field lower;
+    private Field upper;
+    // created when the scan is opened or rewound, over the range set then
+    private DbFileIterator entries;
+    private boolean isOpen;
+
+    private TupleDesc td;
+
+    /**
+     * Creates a scan over the tuples of a table with a key in an index
+     * between lower and upper, inclusive.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param indexId
+     *            the id of the index in the catalog
+     * @param tableAlias
+     *            the alias of the indexed table, which the field names of the
+     *            returned tupleDesc are prefixed with, as for a SeqScan
+     * @param lower
+     *            the smallest key returned, or null for no lower bound
+     * @param upper
+     *            the largest key returned, or null for no upper bound
+     * @see SeqScan#SeqScan(TransactionId, int, String)
+     */
+    public IndexScan(TransactionId tid, int indexId, String tableAlias,
+            Field lower, Field upper) {
+        this.transactionId = tid;
+        this.index = (IndexFile) Database.getCatalog().getDbFile(indexId);
+        this.tableAlias = tableAlias;
+        this.lower = lower;
+        this.upper = upper;
+        this.isOpen = false;
+    }
+
+    /**
+     * @return the name of the table the operator scans, as in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTable().getId());
+    }
+
+    /**
+     * @return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * @return the index the operator looks tuples up in
+     */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /** @return the smallest key returned, or null for no lower bound */
+    public Field getLower() {
+        return lower;
+    }
+
+    /** @return the largest key returned, or null for no upper bound */
+    public Field getUpper() {
+        return upper;
+    }
+
+    /**
+     * Changes the range of keys the scan returns. The new range is read from
+     * the next time the scan is opened or rewound, which lets an
+     * IndexNestedLoopJoin look up one key after another with the same scan.
+     *
+     * @see IndexNestedLoopJoin
+     */
+    public void setKeyRange(Field lower, Field upper) {
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the index isn't ordered and the bounds aren't the same
+     *             key
+     */
+    public void open() throws DbException, TransactionAbortedException {
+        entries = index.iterator(transactionId, lower, upper);
+        entries.open();
+        isOpen = true;
+    }
+
+    private void checkOpen() throws IllegalStateException {
+        if (!isOpen) {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table with field names prefixed
+     * with the table alias, as for a SeqScan.
+     */
+    public TupleDesc getTupleDesc() {
+        if (td == null) {
+            TupleDesc desc = index.getTable().getTupleDesc();
+            Type[] types = new Type[desc.numFields()];
+            String[] names = new String[desc.numFields()];
+            String prefix = tableAlias == null ? "null." : tableAlias + ".";
+            for (int i = 0; i < types.length; i++) {
+                types[i] = desc.getFieldType(i);
+                String fieldName = desc.getFieldName(i);
+                names[i] = prefix + (fieldName == null ? "null" : fieldName);
+            }
+            td = new TupleDesc(types, names);
+        }
+        return td;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        checkOpen();
+        return entries.hasNext();
+    }
+
+    public Tuple next()
+            throws NoSuchElementException, TransactionAbortedException, DbException {
+        checkOpen();
+        Tuple entry = entries.next();
+        Tuple tuple = new Tuple(getTupleDesc(), getFields(entry));
+        tuple.setRecordId(entry.getRecordId());
+        return tuple;
+    }
+
+    /**
+     * Returns the fields of the tuple an entry of the index points to,
+     * fetched from the table.
+     */
+    protected Field[] getFields(Tuple entry)
+            throws TransactionAbortedException, DbException {
+        return index.getTable().getTuple(transactionId, entry.getRecordId()).getFields();
+    }
+
+    public void close() {
+        if (entries != null) {
+            entries.close();
+            entries = null;
+        }
+        isOpen = false;
+    }
+
+    public void rewind()
+            throws DbException, NoSuchElementException, TransactionAbortedException {
+        checkOpen();
+        close();
+        open();
+    }
+}
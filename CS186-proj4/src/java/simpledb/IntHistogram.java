@@ -134,18 +134,22 @@ public class IntHistogram {
     }
 
     /**
-     * @return the average selectivity of this histogram.
+     * @return the average selectivity of this histogram: the expected
+     *         selectivity of EQUALS with a value drawn from the values in it.
      * 
      *         This is not an indispensable method to implement the basic join
      *         optimization. It may be needed if you want to implement a more
      *         efficient optimization
      */
     public double avgSelectivity() {
+        if (count == 0) {
+            return 0;
+        }
         double avg = 0;
         for (int i = 0; i < numBuckets; i++) {
-            double height = buckets[i];
-            // probability * number
-            avg += height / count * height;
+            int w = Math.max(1, i == numBuckets - 1 ? lastWidth : width);
+            // probability of the bucket * selectivity of a value in it
+            avg += buckets[i] / count * (buckets[i] / w / count);
         }
         return avg;
     }
@@ -66,12 +66,88 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
+        if (lj.indexJoin) {
+            j = instantiateIndexJoin(p, plan1, plan2);
+            if (j != null) {
+                return j;
+            }
+        }
         j = new Join(p, plan1, plan2);
 
         return j;
 
     }
 
+    /**
+     * Returns an IndexNestedLoopJoin that looks up the tuples of plan2 that
+     * join with each tuple of plan1 in an index, or null if plan2 isn't the
+     * scan of a table, under Filters, with an index on the join field that
+     * can look them up. The scan is replaced by an IndexScan of the index,
+     * under the same Filters.
+     */
+    private static DbIterator instantiateIndexJoin(JoinPredicate p, DbIterator plan1,
+            DbIterator plan2) {
+        ArrayList<Predicate> filters = new ArrayList<Predicate>();
+        DbIterator scan = plan2;
+        while (scan instanceof Filter) {
+            filters.add(((Filter) scan).getPredicate());
+            scan = ((Filter) scan).getChildren()[0];
+        }
+        TransactionId tid;
+        int tableid;
+        String alias;
+        if (scan instanceof SeqScan) {
+            tid = ((SeqScan) scan).getTransactionId();
+            tableid = ((SeqScan) scan).getTableId();
+            alias = ((SeqScan) scan).getAlias();
+        } else if (scan instanceof IndexScan) {
+            tid = ((IndexScan) scan).getTransactionId();
+            tableid = ((IndexScan) scan).getIndex().getTable().getId();
+            alias = ((IndexScan) scan).getAlias();
+        } else if (scan instanceof BitmapScan) {
+            tid = ((BitmapScan) scan).getTransactionId();
+            tableid = ((BitmapScan) scan).getTableId();
+            alias = ((BitmapScan) scan).getAlias();
+        } else {
+            return null;
+        }
+        IndexFile index = findJoinIndex(tableid, p.getField2(), p.getOperator());
+        if (index == null) {
+            return null;
+        }
+        IndexScan probe;
+        if (scan instanceof IndexOnlyScan
+                && ((IndexOnlyScan) scan).getIndex().getId() == index.getId()) {
+            // the index covers the inner table
+            probe = new IndexOnlyScan(tid, index.getId(), alias, null, null);
+        } else {
+            probe = new IndexScan(tid, index.getId(), alias, null, null);
+        }
+        DbIterator inner = probe;
+        for (int i = filters.size() - 1; i >= 0; i--) {
+            inner = new Filter(filters.get(i), inner);
+        }
+        return new IndexNestedLoopJoin(p, plan1, inner, probe);
+    }
+
+    /**
+     * Returns an index of a table on field that can look up the tuples that
+     * join with a key under op, or null if the table has none. Hash indexes
+     * only look up EQUALS.
+     */
+    static IndexFile findJoinIndex(int tableid, int field, Predicate.Op op) {
+        if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE) {
+            return null;
+        }
+        for (IndexFile index : Database.getCatalog().getIndexes(tableid)) {
+            if (index.getKeyField() == field
+                    && (op == Predicate.Op.EQUALS || index.isOrdered())) {
+                return index;
+            }
+        }
+        return null;
+    }
+
     /**
      * Estimate the cost of a join.
      * <p>
@@ -80,6 +156,12 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
+     * <p>
+     * The right-hand side is the table j.t2Alias names, so the join is
+     * either a block nested-loops join that scans it once per block of the
+     * left-hand side, or, if it has an index on the join field, an index
+     * nested-loops join that looks the matches of each left-hand tuple up in
+     * the index, whichever is cheaper.
      *
      * @param j
      *            A LogicalJoinNode representing the join operation being
@@ -99,6 +181,17 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2, double cost1,
             double cost2) {
+        return Math.min(estimateScanJoinCost(j, card1, card2, cost1, cost2),
+                estimateIndexJoinCost(j, card1, cost1));
+    }
+
+    /**
+     * Estimates the cost of a join that scans the right-hand side once per
+     * block of the left-hand side, with the arguments of
+     * {@link #estimateJoinCost}.
+     */
+    private double estimateScanJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 4.
@@ -120,6 +213,40 @@ public class JoinOptimizer {
         }
     }
 
+    /**
+     * Estimates the cost of joining card1 tuples of the left-hand side, read
+     * at cost1, to the table j.t2Alias names by looking up the tuples that
+     * join with each of them in an index of the table on the join field.
+     * Each lookup costs as much as reading the tuples an average key matches
+     * through the index.
+     *
+     * @return the estimated cost, or Double.MAX_VALUE if the table has no
+     *         index to look the tuples up in or no statistics
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1, double cost1) {
+        if (j instanceof LogicalSubplanJoinNode || j.t2Alias == null) {
+            return Double.MAX_VALUE;
+        }
+        Integer tableid = p.getTableId(j.t2Alias);
+        if (tableid == null) {
+            return Double.MAX_VALUE;
+        }
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableid)
+                    .fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return Double.MAX_VALUE;
+        }
+        TableStats stats = TableStats.getTableStats(
+                Database.getCatalog().getTableName(tableid));
+        if (stats == null || findJoinIndex(tableid, field, j.p) == null) {
+            return Double.MAX_VALUE;
+        }
+        double lookup = stats.estimateIndexScanCost(stats.avgSelectivity(field, j.p));
+        return cost1 + card1 * lookup;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -411,10 +538,24 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateScanJoinCost(j, t1card, t2card, t1cost, t2cost);
+        // only a base table, not the joins of prevBest, can be looked up in
+        // an index
+        double indexCost1 = doesJoin(prevBest, j.t2Alias) ? Double.MAX_VALUE
+                : estimateIndexJoinCost(j, t1card, t1cost);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateScanJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double indexCost2 = doesJoin(prevBest, j2.t2Alias) ? Double.MAX_VALUE
+                : estimateIndexJoinCost(j2, t2card, t2cost);
+        if (indexCost1 < cost1) {
+            cost1 = indexCost1;
+            j = j.withIndexJoin();
+        }
+        if (indexCost2 < cost2) {
+            cost2 = indexCost2;
+            j2 = j2.withIndexJoin();
+        }
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -125,9 +125,18 @@ public class LockManager {
         }
     }
 
-    // public boolean hasLock(PageId pid) {
-    // return lockMap.containsKey(pid) && lockMap.get(pid).size() > 0;
-    // }
+    public synchronized boolean hasLock(PageId pid) {
+        return lockMap.containsKey(pid) && lockMap.get(pid).size() > 0;
+    }
+
+    public synchronized boolean hasTableLock(int tableId) {
+        for (Map.Entry<PageId, Set<Lock>> entry : lockMap.entrySet()) {
+            if (entry.getKey().getTableId() == tableId && !entry.getValue().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     // public boolean hasLock(TransactionId tid, PageId pid) {
     // if (lockMap.containsKey(pid)) {
@@ -36,6 +36,13 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /**
+     * True if the tuples of t2 that join with each tuple of t1 are looked up
+     * in an index of t2 on f2, rather than found by scanning t2. Set by the
+     * JoinOptimizer when that is cheaper.
+     */
+    public boolean indexJoin;
+
     public LogicalJoinNode() {
     }
 
@@ -58,6 +65,16 @@ public class LogicalJoinNode {
         this.f2QuantifiedName = t2Alias + "." + this.f2PureName;
     }
 
+    /**
+     * Return a new LogicalJoinNode that looks up the tuples of t2 in an index.
+     */
+    public LogicalJoinNode withIndexJoin() {
+        LogicalJoinNode j = new LogicalJoinNode(t1Alias, t2Alias, f1PureName,
+                f2PureName, p);
+        j.indexJoin = true;
+        return j;
+    }
+
     /**
      * Return a new LogicalJoinNode with the inner and outer (t1.f1 and t2.f2)
      * tables swapped.
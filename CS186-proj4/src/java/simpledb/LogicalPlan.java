@@ -327,6 +327,202 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Returns the indexes of the fields of the table scanned as alias that the
+     * query refers to, or null if it may need all of them (e.g. for SELECT *).
+     */
+    private int[] getReferencedFields(String alias, TupleDesc td) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalFilterNode lf : filters) {
+            names.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        for (LogicalSelectListNode si : selectList) {
+            names.add(si.fname);
+        }
+        names.add(groupByField);
+        names.add(aggField);
+        if (hasOrderBy) {
+            names.add(oByField);
+        }
+
+        TreeSet<Integer> fields = new TreeSet<Integer>();
+        String prefix = alias + ".";
+        for (String name : names) {
+            if (name == null) {
+                continue;
+            }
+            if (name.endsWith(".*")) {
+                return null;
+            }
+            if (name.startsWith(prefix)) {
+                try {
+                    fields.add(td.fieldNameToIndex(name.substring(prefix.length())));
+                } catch (NoSuchElementException e) {
+                    // reported once the plan is built
+                    return null;
+                }
+            }
+        }
+
+        int[] result = new int[fields.size()];
+        int i = 0;
+        for (int field : fields) {
+            result[i++] = field;
+        }
+        return result;
+    }
+
+    /**
+     * Narrows the range of clustering keys the scan of a clustered table, of
+     * partitioning keys the scan of a partitioned table, or of keys an index
+     * scan has to read by a filter on that key. The filter itself stays in
+     * the plan, so the range only has to include the tuples that pass it.
+     */
+    private static void narrowKeyRange(Map<String, Field[]> keyRanges,
+            String alias, Predicate.Op op, Field constant) {
+        Field[] range = keyRanges.get(alias);
+        if (range == null) {
+            range = new Field[2];
+            keyRanges.put(alias, range);
+        }
+        if (op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ) {
+            if (range[0] == null
+                    || constant.compare(Predicate.Op.GREATER_THAN, range[0])) {
+                range[0] = constant;
+            }
+        }
+        if (op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ) {
+            if (range[1] == null
+                    || constant.compare(Predicate.Op.LESS_THAN, range[1])) {
+                range[1] = constant;
+            }
+        }
+    }
+
+    /**
+     * Returns an IndexScan of a table over the range of the indexed field with
+     * the most selective filters, if fetching the tuples in that range one by
+     * one is estimated to be cheaper than scanning the whole table, and null
+     * otherwise. Indexes on the clustering key of a table are left out, as
+     * the scan of the table already reads only the pages in the range.
+     */
+    private static IndexScan chooseIndexScan(TransactionId t, LogicalScanNode table,
+            Map<String, Field[]> indexRanges, Map<String, Double> indexSelectivities,
+            Map<String, TableStats> statsMap) {
+        DbFile file = Database.getCatalog().getDbFile(table.t);
+        IndexFile best = null;
+        double bestSel = 1.0;
+        Field[] bestRange = null;
+        for (IndexFile index : Database.getCatalog().getIndexes(table.t)) {
+            if (file instanceof ClusteredHeapFile
+                    && ((ClusteredHeapFile) file).getClusterField() == index.getKeyField()) {
+                continue;
+            }
+            String name = table.alias + "."
+                    + file.getTupleDesc().getFieldName(index.getKeyField());
+            Double sel = indexSelectivities.get(name);
+            Field[] range = indexRanges.get(name);
+            if (sel != null && !index.isOrdered()
+                    && (range[0] == null || !range[0].equals(range[1]))) {
+                // a hash index only finds single keys
+                continue;
+            }
+            if (sel != null && (best == null || sel < bestSel)) {
+                best = index;
+                bestSel = sel;
+                bestRange = range;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        TableStats stats = statsMap.get(Database.getCatalog().getTableName(table.t));
+        if (stats != null
+                && stats.estimateIndexScanCost(bestSel) >= stats.estimateScanCost()) {
+            return null;
+        }
+        return new IndexScan(t, best.getId(), table.alias, bestRange[0], bestRange[1]);
+    }
+
+    /**
+     * Returns a BitmapScan of a table for all the filters on fields of the
+     * table with a bitmap index, if fetching the tuples that pass them all
+     * is estimated to be cheaper than scanning the whole table, and null
+     * otherwise.
+     */
+    private static BitmapScan chooseBitmapScan(TransactionId t, LogicalScanNode table,
+            List<Predicate> bitmapPredicates, double selectivity,
+            Map<String, TableStats> statsMap) {
+        if (bitmapPredicates.isEmpty()) {
+            return null;
+        }
+        TableStats stats = statsMap.get(Database.getCatalog().getTableName(table.t));
+        if (stats != null
+                && stats.estimateIndexScanCost(selectivity) >= stats.estimateScanCost()) {
+            return null;
+        }
+        return new BitmapScan(t, table.t, table.alias,
+                bitmapPredicates.toArray(new Predicate[bitmapPredicates.size()]), true);
+    }
+
+    /**
+     * Returns an IndexOnlyScan of a table with the index that covers the
+     * given fields of it at the least estimated cost, over the range of its
+     * key the filters set, if that is cheaper than cost, the estimated cost
+     * of the access to the table otherwise chosen, and null otherwise.
+     * Without statistics only an index with filters on its key is used.
+     */
+    private static IndexOnlyScan chooseIndexOnlyScan(TransactionId t,
+            LogicalScanNode table, int[] columns, Map<String, Field[]> indexRanges,
+            Map<String, Double> indexSelectivities, Map<String, TableStats> statsMap,
+            double cost) {
+        if (columns == null) {
+            return null;
+        }
+        TableStats stats = statsMap.get(Database.getCatalog().getTableName(table.t));
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        IndexFile best = null;
+        double bestCost = cost;
+        Field[] bestRange = null;
+        for (IndexFile index : Database.getCatalog().getIndexes(table.t)) {
+            if (!IndexOnlyScan.covers(index, columns)) {
+                continue;
+            }
+            String name = table.alias + "." + td.getFieldName(index.getKeyField());
+            Double sel = indexSelectivities.get(name);
+            Field[] range = indexRanges.get(name);
+            if (!index.isOrdered()
+                    && (sel == null || range[0] == null || !range[0].equals(range[1]))) {
+                // a hash index only finds single keys
+                continue;
+            }
+            double indexCost;
+            if (stats != null) {
+                indexCost = stats.estimateIndexOnlyScanCost(sel == null ? 1.0 : sel,
+                        index.numPages());
+            } else if (sel != null) {
+                indexCost = sel;
+            } else {
+                continue;
+            }
+            if (indexCost < bestCost) {
+                best = index;
+                bestCost = indexCost;
+                bestRange = range == null ? new Field[2] : range;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        return new IndexOnlyScan(t, best.getId(), table.alias, bestRange[0], bestRange[1]);
+    }
+
     /**
      * Convert this LogicalPlan into a physicalPlan represented by a
      * {@link DbIterator}. Attempts to find the optimal plan by using
@@ -355,6 +551,23 @@ public class LogicalPlan {
         HashMap<String, String> equivMap = new HashMap<String, String>();
         HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        HashMap<String, SeqScan> scans = new HashMap<String, SeqScan>();
+        // lower and upper bounds on the clustering key of clustered tables
+        // and the partitioning key of partitioned tables
+        HashMap<String, Field[]> keyRanges = new HashMap<String, Field[]>();
+        // the filters on each table, put back on top of an index scan that
+        // replaces the scan of the table
+        HashMap<String, List<Predicate>> predicates = new HashMap<String, List<Predicate>>();
+        // lower and upper bounds on indexed fields and the selectivity of the
+        // filters that set them, by quantified field name
+        HashMap<String, Field[]> indexRanges = new HashMap<String, Field[]>();
+        HashMap<String, Double> indexSelectivities = new HashMap<String, Double>();
+        // the filters on fields of each table with a bitmap index, and the
+        // selectivity of all of them
+        HashMap<String, List<Predicate>> bitmapPredicates = new HashMap<String, List<Predicate>>();
+        HashMap<String, Double> bitmapSelectivities = new HashMap<String, Double>();
+        // the fields of each table the query refers to, or null for all
+        HashMap<String, int[]> referencedFields = new HashMap<String, int[]>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -366,10 +579,21 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table " + table.t);
             }
 
+            int[] columns = getReferencedFields(table.alias,
+                    Database.getCatalog().getTupleDesc(table.t));
+            if (columns != null) {
+                ss.setColumns(columns);
+            }
+            referencedFields.put(table.alias, columns);
+
             subplanMap.put(table.alias, ss);
+            scans.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
+            predicates.put(table.alias, new ArrayList<Predicate>());
+            bitmapPredicates.put(table.alias, new ArrayList<Predicate>());
+            bitmapSelectivities.put(table.alias, 1.0);
 
         }
 
@@ -392,10 +616,12 @@ public class LogicalPlan {
                 throw new ParsingException(
                         "Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            try {
+                f = ftyp.parse(lf.c);
+            } catch (java.text.ParseException e) {
+                throw new ParsingException("Invalid constant " + lf.c
+                        + " for field " + lf.fieldQuantifiedName);
+            }
 
             Predicate p = null;
             try {
@@ -406,6 +632,17 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            predicates.get(lf.tableAlias).add(p);
+
+            DbFile file = Database.getCatalog().getDbFile(getTableId(lf.tableAlias));
+            if (file instanceof ClusteredHeapFile
+                    && ((ClusteredHeapFile) file).getClusterField() == p.getField()) {
+                narrowKeyRange(keyRanges, lf.tableAlias, lf.p, f);
+            } else if (file instanceof PartitionedFile
+                    && ((PartitionedFile) file).getPartitionField() == p.getField()) {
+                // prunes the partitions the scan reads
+                narrowKeyRange(keyRanges, lf.tableAlias, lf.p, f);
+            }
 
             TableStats s = statsMap.get(
                     Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
@@ -416,12 +653,80 @@ public class LogicalPlan {
             filterSelectivities.put(lf.tableAlias,
                     filterSelectivities.get(lf.tableAlias) * sel);
 
+            if (lf.p != Predicate.Op.NOT_EQUALS && lf.p != Predicate.Op.LIKE) {
+                for (IndexFile index : Database.getCatalog().getIndexes(file.getId())) {
+                    if (index.getKeyField() == p.getField()) {
+                        narrowKeyRange(indexRanges, lf.fieldQuantifiedName, lf.p, f);
+                        Double indexSel = indexSelectivities.get(lf.fieldQuantifiedName);
+                        indexSelectivities.put(lf.fieldQuantifiedName,
+                                (indexSel == null ? 1.0 : indexSel) * sel);
+                        break;
+                    }
+                }
+            }
+
+            if (BitmapScan.findIndex(file.getId(), p.getField()) != null) {
+                // a bitmap index finds the tuples of any predicate
+                bitmapPredicates.get(lf.tableAlias).add(p);
+                bitmapSelectivities.put(lf.tableAlias,
+                        bitmapSelectivities.get(lf.tableAlias) * sel);
+            }
+
             // s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
 
+        for (LogicalScanNode table : tables) {
+            IndexScan is = chooseIndexScan(t, table, indexRanges, indexSelectivities,
+                    statsMap);
+            BitmapScan bs = chooseBitmapScan(t, table, bitmapPredicates.get(table.alias),
+                    bitmapSelectivities.get(table.alias), statsMap);
+            DbIterator access = is;
+            if (bs != null && (is == null || bitmapSelectivities.get(table.alias)
+                    <= indexSelectivities.get(is.getTupleDesc()
+                            .getFieldName(is.getIndex().getKeyField())))) {
+                // reads the tuples in the order of their pages
+                access = bs;
+            }
+            TableStats stats = statsMap.get(Database.getCatalog().getTableName(table.t));
+            if (access != null || !keyRanges.containsKey(table.alias)) {
+                // a scan with a key range already reads only the pages in it
+                double cost;
+                if (stats == null) {
+                    cost = Double.MAX_VALUE;
+                } else if (access == null) {
+                    cost = stats.estimateScanCost();
+                } else if (access == bs) {
+                    cost = stats.estimateIndexScanCost(bitmapSelectivities.get(table.alias));
+                } else {
+                    cost = stats.estimateIndexScanCost(indexSelectivities.get(is
+                            .getTupleDesc().getFieldName(is.getIndex().getKeyField())));
+                }
+                IndexOnlyScan ios = chooseIndexOnlyScan(t, table,
+                        referencedFields.get(table.alias), indexRanges, indexSelectivities,
+                        statsMap, cost);
+                if (ios != null) {
+                    // never reads the table
+                    access = ios;
+                }
+            }
+            if (access != null) {
+                DbIterator plan = access;
+                for (Predicate p : predicates.get(table.alias)) {
+                    plan = new Filter(p, plan);
+                }
+                subplanMap.put(table.alias, plan);
+                keyRanges.remove(table.alias);
+            }
+        }
+
+        for (Map.Entry<String, Field[]> range : keyRanges.entrySet()) {
+            scans.get(range.getKey()).setKeyRange(range.getValue()[0],
+                    range.getValue()[1]);
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this, joins);
 
-        if (joins.size() != 0) {// γ̸ԭûжϣϺֹûjoinʱoptimizerönull
+        if (joins.size() != 0) {// �γ̸���ԭ����û������жϣ����Ϻ��ֹû��joinʱoptimizer�����ö�����null
             joins = jo.orderJoins(statsMap, filterSelectivities, explain);
         }
 
@@ -499,16 +804,17 @@ public class LogicalPlan {
             if (si.aggOp != null) {
                 outFields.add(groupByField != null ? 1 : 0);
                 TupleDesc td = node.getTupleDesc();
-                // int id;
+                int id;
                 try {
-                    // id =
-                    td.fieldNameToIndex(si.fname);
+                    id = td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException(
                             "Unknown field " + si.fname + " in SELECT list");
                 }
-                outTypes.add(Type.INT_TYPE); // the type of all aggregate
-                                             // functions is INT
+                // COUNT is an INT; the other aggregate functions have the
+                // type of the field they aggregate
+                outTypes.add(getAggOp(si.aggOp) == Aggregator.Op.COUNT ? Type.INT_TYPE
+                        : td.getFieldType(id));
 
             } else if (hasAgg) {
                 if (groupByField == null) {
@@ -105,6 +105,22 @@ public class LruMap<K, V> {
         cur = tail;
     }
 
+    public V remove(K key) {
+        Node node = keyToNode.remove(key);
+        if (node == null) {
+            return null;
+        }
+        delete(node);
+        if (cur == node) {
+            cur = tail;
+        }
+        return node.value;
+    }
+
+    public boolean containsKey(K key) {
+        return keyToNode.containsKey(key);
+    }
+
     public V get(K key) {
         if (keyToNode.containsKey(key)) {
             // ڵŵǰ
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Knows how to compute some aggregate over a set of LongFields, DoubleFields
+ * or DateFields. MIN, MAX and AVG return a field of the aggregated type, and
+ * SUM one of its type too, but isn't supported for dates. COUNT returns an
+ * IntField, as it does for the other aggregators.
+ */
+public class NumericAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private int gbFieldNum;
+    private Type gbFieldType;
+    private int operandNum;
+    private Type operandType;
+    private Op op;
+
+    private boolean noGrouping;
+    private Map<Field, Group> groups;
+
+    private static class Group {
+        int count;
+        // the sum of the values of a DOUBLE field, or of the others
+        double doubleSum;
+        long longSum;
+        Field min;
+        Field max;
+    }
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field: LONG_TYPE, DOUBLE_TYPE or
+     *            DATE_TYPE
+     * @param what
+     *            the aggregation operator
+     * @throws IllegalArgumentException
+     *             if afieldtype isn't one of those types, or what is SUM and
+     *             afieldtype is DATE_TYPE
+     */
+    public NumericAggregator(int gbfield, Type gbfieldtype, int afield,
+            Type afieldtype, Op what) {
+        if (afieldtype != Type.LONG_TYPE && afieldtype != Type.DOUBLE_TYPE
+                && afieldtype != Type.DATE_TYPE) {
+            throw new IllegalArgumentException("can't aggregate " + afieldtype
+                    + " fields");
+        }
+        if (what == Op.SUM && afieldtype == Type.DATE_TYPE) {
+            throw new IllegalArgumentException("can't sum dates");
+        }
+        this.gbFieldNum = gbfield;
+        this.gbFieldType = gbfieldtype;
+        this.operandNum = afield;
+        this.operandType = afieldtype;
+        this.op = what;
+        this.noGrouping = (gbFieldNum == Aggregator.NO_GROUPING);
+        // results come out in the order their groups were first seen
+        this.groups = new LinkedHashMap<Field, Group>();
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param t
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple t) {
+        Field gbField = null;
+        if (!noGrouping) {
+            gbField = t.getField(gbFieldNum);
+        }
+        Group group = groups.get(gbField);
+        if (group == null) {
+            group = new Group();
+            groups.put(gbField, group);
+        }
+        Field value = t.getField(operandNum);
+        group.count++;
+        if (operandType == Type.DOUBLE_TYPE) {
+            group.doubleSum += ((DoubleField) value).getValue();
+        } else if (operandType == Type.LONG_TYPE) {
+            group.longSum += ((LongField) value).getValue();
+        } else {
+            group.longSum += ((DateField) value).getValue();
+        }
+        if (group.min == null || value.compare(Predicate.Op.LESS_THAN, group.min)) {
+            group.min = value;
+        }
+        if (group.max == null || value.compare(Predicate.Op.GREATER_THAN, group.max)) {
+            group.max = value;
+        }
+    }
+
+    private Field result(Group group) {
+        switch (op) {
+        case MIN:
+            return group.min;
+        case MAX:
+            return group.max;
+        case COUNT:
+            return new IntField(group.count);
+        case SUM:
+            return operandType == Type.DOUBLE_TYPE ? new DoubleField(group.doubleSum)
+                    : new LongField(group.longSum);
+        default:
+            if (operandType == Type.DOUBLE_TYPE) {
+                return new DoubleField(group.doubleSum / group.count);
+            }
+            long avg = group.longSum / group.count;
+            return operandType == Type.LONG_TYPE ? new LongField(avg)
+                    : new DateField(avg);
+        }
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public DbIterator iterator() {
+        Map<Field, Field> results = new LinkedHashMap<Field, Field>();
+        for (Map.Entry<Field, Group> e : groups.entrySet()) {
+            results.put(e.getKey(), result(e.getValue()));
+        }
+        Type resultType = op == Op.COUNT ? Type.INT_TYPE : operandType;
+        return new AggregatorIterator(results, gbFieldType, resultType, noGrouping);
+    }
+
+}
@@ -0,0 +1,376 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * PageCompressor converts the data of a page of a HeapFile to and from the
+ * compressed form it is stored in on disk by a compressed HeapFile. Pages are
+ * only ever compressed on their way to disk: BufferPool always holds the
+ * ordinary, uncompressed page.
+ * <p>
+ * Two encodings can be combined. COLUMNS stores the tuples of a HeapPage
+ * column by column: integer columns frame-of-reference encoded (the smallest
+ * value on the page, then each value's offset from it bit-packed into as few
+ * bits as the largest offset needs), the 8-byte LONG, DOUBLE and DATE columns
+ * likewise over their raw bits, and string columns dictionary encoded
+ * (the distinct strings on the page, then each value's bit-packed index into
+ * them). Only used slots are stored. DEFLATE runs the result through
+ * java.util.zip. Pages of tables with variable-length fields are SlottedPages,
+ * which COLUMNS doesn't apply to; they are stored as they are, deflated if
+ * asked.
+ * <p>
+ * The first byte of a compressed page holds the encodings used on it.
+ */
+public class PageCompressor {
+
+    /** No compression. */
+    public static final int NONE = 0;
+    /** Column-wise frame-of-reference and dictionary encoding. */
+    public static final int COLUMNS = 1;
+    /** General-purpose compression with java.util.zip. */
+    public static final int DEFLATE = 2;
+
+    private final TupleDesc td;
+    private final int encodings;
+    private final boolean slotted;
+    private final int numSlots;
+    private final int headerSize;
+
+    /**
+     * @param td
+     *            the TupleDesc of the table whose pages are compressed
+     * @param encodings
+     *            COLUMNS, DEFLATE or both, or'ed together
+     */
+    public PageCompressor(TupleDesc td, int encodings) {
+        this.td = td;
+        this.encodings = encodings;
+        this.slotted = SlottedPage.isUsedFor(td);
+        this.numSlots = HeapPage.getNumTuples(td);
+        this.headerSize = (numSlots + 7) / 8;
+    }
+
+    /**
+     * Returns the compressed form of a page of data as produced by
+     * {@link Page#getPageData()}.
+     */
+    public byte[] compress(byte[] page) {
+        int used = encodings;
+        if (slotted) {
+            used &= ~COLUMNS;
+        }
+
+        byte[] body = page;
+        if ((used & COLUMNS) != 0) {
+            body = encodeColumns(page);
+        }
+        if ((used & DEFLATE) != 0) {
+            body = deflate(body);
+        }
+
+        byte[] out = new byte[body.length + 1];
+        out[0] = (byte) used;
+        System.arraycopy(body, 0, out, 1, body.length);
+        return out;
+    }
+
+    /**
+     * Returns the page data a call to {@link #compress} produced blob from.
+     */
+    public byte[] decompress(byte[] blob) throws IOException {
+        int used = blob[0];
+        byte[] body = Arrays.copyOfRange(blob, 1, blob.length);
+        if ((used & DEFLATE) != 0) {
+            body = inflate(body);
+        }
+        if ((used & COLUMNS) != 0) {
+            body = decodeColumns(body);
+        }
+        if (body.length != BufferPool.getPageSize()) {
+            throw new IOException("compressed page decodes to " + body.length
+                    + " bytes");
+        }
+        return body;
+    }
+
+    private boolean isSlotUsed(byte[] page, int i) {
+        return (page[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private byte[] encodeColumns(byte[] page) {
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        int tupleSize = td.getSize();
+
+        ArrayList<Integer> slots = new ArrayList<Integer>();
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(page, i)) {
+                slots.add(headerSize + i * tupleSize);
+            }
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.write(page, 0, headerSize);
+            int fieldOffset = 0;
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                if (type == Type.INT_TYPE) {
+                    encodeInts(buf, slots, fieldOffset, dos);
+                } else if (type.getLen() == 8) {
+                    encodeLongs(buf, slots, fieldOffset, dos);
+                } else {
+                    encodeStrings(buf, slots, fieldOffset, dos);
+                }
+                fieldOffset += type.getLen();
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    private void encodeInts(ByteBuffer page, List<Integer> slots,
+            int fieldOffset, DataOutputStream dos) throws IOException {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int slot : slots) {
+            int v = page.getInt(slot + fieldOffset);
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        int bits = slots.isEmpty() ? 0 : bitsFor((long) max - min);
+        dos.writeInt(min);
+        dos.writeByte(bits);
+
+        BitWriter out = new BitWriter(dos);
+        for (int slot : slots) {
+            out.write((long) page.getInt(slot + fieldOffset) - min, bits);
+        }
+        out.flush();
+    }
+
+    /**
+     * Frame-of-reference encodes the raw 8 bytes of LONG, DOUBLE and DATE
+     * fields, read as longs; offsets from the minimum are unsigned so that
+     * they can span the whole range of a long.
+     */
+    private void encodeLongs(ByteBuffer page, List<Integer> slots,
+            int fieldOffset, DataOutputStream dos) throws IOException {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int slot : slots) {
+            long v = page.getLong(slot + fieldOffset);
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        int bits = slots.isEmpty() ? 0 : bitsFor(max - min);
+        dos.writeLong(min);
+        dos.writeByte(bits);
+
+        BitWriter out = new BitWriter(dos);
+        for (int slot : slots) {
+            out.write(page.getLong(slot + fieldOffset) - min, bits);
+        }
+        out.flush();
+    }
+
+    private void encodeStrings(ByteBuffer page, List<Integer> slots,
+            int fieldOffset, DataOutputStream dos) throws IOException {
+        LinkedHashMap<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+        int[] codes = new int[slots.size()];
+        for (int k = 0; k < codes.length; k++) {
+            String s = readString(page, slots.get(k) + fieldOffset);
+            Integer code = dictionary.get(s);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.put(s, code);
+            }
+            codes[k] = code;
+        }
+
+        dos.writeShort(dictionary.size());
+        for (String s : dictionary.keySet()) {
+            byte[] bytes = s.getBytes("ISO-8859-1");
+            dos.writeShort(bytes.length);
+            dos.write(bytes);
+        }
+        int bits = bitsFor(Math.max(0, dictionary.size() - 1));
+        dos.writeByte(bits);
+
+        BitWriter out = new BitWriter(dos);
+        for (int code : codes) {
+            out.write(code, bits);
+        }
+        out.flush();
+    }
+
+    private static String readString(ByteBuffer page, int offset)
+            throws IOException {
+        int len = page.getInt(offset);
+        if (len < 0 || len > Type.STRING_LEN) {
+            throw new IOException("bad string length " + len);
+        }
+        byte[] bytes = new byte[len];
+        ByteBuffer src = page.duplicate();
+        src.position(offset + 4);
+        src.get(bytes);
+        return new String(bytes, "ISO-8859-1");
+    }
+
+    private byte[] decodeColumns(byte[] body) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(body));
+        byte[] page = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        int tupleSize = td.getSize();
+
+        dis.readFully(page, 0, headerSize);
+        ArrayList<Integer> slots = new ArrayList<Integer>();
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(page, i)) {
+                slots.add(headerSize + i * tupleSize);
+            }
+        }
+
+        int fieldOffset = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            if (type == Type.INT_TYPE) {
+                int min = dis.readInt();
+                int bits = dis.readUnsignedByte();
+                BitReader in = new BitReader(dis);
+                for (int slot : slots) {
+                    buf.putInt(slot + fieldOffset, (int) (min + in.read(bits)));
+                }
+            } else if (type.getLen() == 8) {
+                long min = dis.readLong();
+                int bits = dis.readUnsignedByte();
+                BitReader in = new BitReader(dis);
+                for (int slot : slots) {
+                    buf.putLong(slot + fieldOffset, min + in.read(bits));
+                }
+            } else {
+                String[] dictionary = new String[dis.readUnsignedShort()];
+                for (int k = 0; k < dictionary.length; k++) {
+                    byte[] bytes = new byte[dis.readUnsignedShort()];
+                    dis.readFully(bytes);
+                    dictionary[k] = new String(bytes, "ISO-8859-1");
+                }
+                int bits = dis.readUnsignedByte();
+                BitReader in = new BitReader(dis);
+                for (int slot : slots) {
+                    byte[] bytes = dictionary[(int) in.read(bits)].getBytes("ISO-8859-1");
+                    buf.putInt(slot + fieldOffset, bytes.length);
+                    System.arraycopy(bytes, 0, page, slot + fieldOffset + 4,
+                            bytes.length);
+                }
+            }
+            fieldOffset += type.getLen();
+        }
+        return page;
+    }
+
+    /**
+     * Returns the number of bits needed to store values from 0 to max.
+     */
+    private static int bitsFor(long max) {
+        return 64 - Long.numberOfLeadingZeros(max);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        byte[] chunk = new byte[1024];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            out.write(chunk, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(BufferPool.getPageSize());
+        byte[] chunk = new byte[1024];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IOException("truncated compressed page");
+                }
+                out.write(chunk, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /** Writes values of up to 64 bits packed next to each other. */
+    private static class BitWriter {
+        private final DataOutputStream out;
+        private long pending;
+        private int pendingBits;
+
+        BitWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void write(long value, int bits) throws IOException {
+            for (int b = bits - 1; b >= 0; b--) {
+                pending = (pending << 1) | ((value >>> b) & 1);
+                if (++pendingBits == 8) {
+                    out.writeByte((int) pending);
+                    pending = 0;
+                    pendingBits = 0;
+                }
+            }
+        }
+
+        /** Pads the last byte with zeroes. */
+        void flush() throws IOException {
+            if (pendingBits > 0) {
+                out.writeByte((int) (pending << (8 - pendingBits)));
+                pending = 0;
+                pendingBits = 0;
+            }
+        }
+    }
+
+    /** Reads values written by a BitWriter. */
+    private static class BitReader {
+        private final DataInputStream in;
+        private int current;
+        private int bitsLeft;
+
+        BitReader(DataInputStream in) {
+            this.in = in;
+        }
+
+        long read(int bits) throws IOException {
+            long value = 0;
+            for (int b = 0; b < bits; b++) {
+                if (bitsLeft == 0) {
+                    current = in.readUnsignedByte();
+                    bitsLeft = 8;
+                }
+                bitsLeft--;
+                value = (value << 1) | ((current >>> bitsLeft) & 1);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * PagedIndexFile is the part the IndexFiles share: an index on one field of
+ * a HeapFile whose pages, of type P, are stored at fixed offsets in a file of
+ * their own. It opens the file, reads, writes and appends pages and builds
+ * the entries of tuples; subclasses decide what the pages hold.
+ * <p>
+ * The pages follow a {@link FileHeader} that rebuild() writes last. It
+ * carries the stamp of the file of the table the index was built from, and
+ * after it the layout of the entries: the key field, the included fields
+ * and the types of the entry's fields. An index whose header doesn't match
+ * its table and entries, because the table's file was written anew or the
+ * index now includes other fields, is opened empty, so that
+ * {@link Catalog#addIndex} rebuilds it.
+ *
+ * @see BTreeFile
+ * @see HashFile
+ * @see BitmapFile
+ */
+abstract class PagedIndexFile<P extends Page> implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    // the number of entries rebuild() sorts in memory at a time
+    private static final int SORT_RUN_ENTRIES = 1 << 16;
+
+    protected final File file;
+    // assigned by the Catalog; the hash of the file's path until then
+    private int id;
+    protected final HeapFile table;
+    protected final int keyField;
+    protected final int[] includedFields;
+    // the key field and the included fields, named as in the table
+    protected final TupleDesc entryDesc;
+    protected int pageCount;
+    // opened lazily and kept for the lifetime of the index
+    private transient FileChannel channel;
+
+    /**
+     * Constructs an index backed by the specified file whose entries carry
+     * the key and the values of the given fields of the table.
+     *
+     * @param f
+     *            the file that stores the pages of the index
+     * @param table
+     *            the file of the indexed table
+     * @param keyField
+     *            the index of the field of the table the index is on
+     * @param includedFields
+     *            the indexes of the fields of the table to include, none of
+     *            which may be the key
+     * @throws IllegalArgumentException
+     *             if the table has no such key field, or it or an included
+     *             field is of a variable length type or included twice
+     */
+    PagedIndexFile(File f, HeapFile table, int keyField, int[] includedFields) {
+        TupleDesc td = table.getTupleDesc();
+        if (keyField < 0 || keyField >= td.numFields()) {
+            throw new IllegalArgumentException("no field " + keyField + " to index");
+        }
+        Type type = td.getFieldType(keyField);
+        if (type.isVariableLength()) {
+            throw new IllegalArgumentException("can't index " + type + " field "
+                    + td.getFieldName(keyField));
+        }
+        this.file = f;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.table = table;
+        this.keyField = keyField;
+        this.includedFields = includedFields.clone();
+        this.entryDesc = entryDesc(td, keyField, includedFields);
+        this.pageCount = isCurrent() ? FileHeader.pages(f.length()) : 0;
+    }
+
+    /**
+     * Returns true if the file holds an index with the entries of this one
+     * built from the table's file as it is now.
+     */
+    private boolean isCurrent() {
+        if (file.length() == 0) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] expected = header();
+            byte[] found = new byte[expected.length];
+            in.readFully(found);
+            return Arrays.equals(expected, found);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the header of the index, describing its entries and the
+     * table's file as it is now.
+     */
+    private byte[] header() throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(FileHeader.create(
+                BufferPool.getPageSize(), table.getFileStamp()));
+        header.position(FileHeader.LENGTH);
+        header.putInt(keyField);
+        header.putInt(includedFields.length);
+        for (int field : includedFields) {
+            header.putInt(field);
+        }
+        for (int i = 0; i < entryDesc.numFields(); i++) {
+            header.putInt(entryDesc.getFieldType(i).ordinal());
+        }
+        return header.array();
+    }
+
+    /**
+     * Returns the TupleDesc of the entries of an index of a table with the
+     * given TupleDesc: the key field followed by the included fields, named
+     * as in the table.
+     *
+     * @throws IllegalArgumentException
+     *             if an included field isn't a field of the table, is the key
+     *             or is included twice, or is of a variable length type
+     */
+    private static TupleDesc entryDesc(TupleDesc td, int keyField, int[] includedFields) {
+        Type[] types = new Type[1 + includedFields.length];
+        String[] names = new String[types.length];
+        types[0] = td.getFieldType(keyField);
+        names[0] = td.getFieldName(keyField);
+        HashSet<Integer> seen = new HashSet<Integer>();
+        seen.add(keyField);
+        for (int i = 0; i < includedFields.length; i++) {
+            int field = includedFields[i];
+            if (field < 0 || field >= td.numFields() || !seen.add(field)) {
+                throw new IllegalArgumentException("can't include field " + field);
+            }
+            types[i + 1] = td.getFieldType(field);
+            names[i + 1] = td.getFieldName(field);
+            if (types[i + 1].isVariableLength()) {
+                throw new IllegalArgumentException("can't include " + types[i + 1]
+                        + " field " + names[i + 1]);
+            }
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Returns the id of the page with the given number.
+     */
+    protected abstract PageId pageId(int pageNo);
+
+    /**
+     * Decodes a page of the index read from disk.
+     */
+    protected abstract P createPage(PageId pid, byte[] data);
+
+    /**
+     * Creates an empty page of the given kind, or of no kind if kind is 0.
+     */
+    protected abstract P createPage(PageId pid, int kind);
+
+    /**
+     * Returns the File backing this index on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    // see IndexFile.java for javadocs
+    public HeapFile getTable() {
+        return table;
+    }
+
+    // see IndexFile.java for javadocs
+    public int getKeyField() {
+        return keyField;
+    }
+
+    // see IndexFile.java for javadocs
+    public int[] getIncludedFields() {
+        return includedFields.clone();
+    }
+
+    /**
+     * Returns an ID uniquely identifying this index: the id the Catalog
+     * assigned to it, or the hash of the absolute name of its file if it
+     * hasn't been added to the Catalog.
+     */
+    public int getId() {
+        return id;
+    }
+
+    // see DbFile.java for javadocs
+    public boolean assignId(int id) {
+        this.id = id;
+        return true;
+    }
+
+    /**
+     * Returns the TupleDesc of the entries of the index.
+     */
+    public TupleDesc getTupleDesc() {
+        return entryDesc;
+    }
+
+    /**
+     * Returns the number of pages of the index.
+     */
+    public int numPages() {
+        return pageCount;
+    }
+
+    protected synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileHeader.open(file);
+        }
+        return channel;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IllegalArgumentException {
+        if (pid.pageNumber() >= pageCount) {
+            throw new IllegalArgumentException(file.getAbsolutePath());
+        }
+        try {
+            byte[] data = new byte[BufferPool.getPageSize()];
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            long pos = FileHeader.offset(pid.pageNumber());
+            FileChannel ch = getChannel();
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, pos + buf.position()) < 0) {
+                    break;
+                }
+            }
+            return createPage(pid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /** Reads page by page; the pages of an index aren't read in runs. */
+    public List<Page> readPages(PageId first, int count)
+            throws IllegalArgumentException {
+        if (first.pageNumber() >= pageCount) {
+            throw new IllegalArgumentException(file.getAbsolutePath());
+        }
+        count = Math.min(count, pageCount - first.pageNumber());
+        List<Page> pages = new ArrayList<Page>(count);
+        for (int i = 0; i < count; i++) {
+            pages.add(readPage(pageId(first.pageNumber() + i)));
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        long pos = FileHeader.offset(page.getId().pageNumber());
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining()) {
+            ch.write(buf, pos + buf.position());
+        }
+    }
+
+    /**
+     * Appends an empty page of the given kind to the index and hands it to
+     * the buffer pool, locked by tid. An empty page is written out first, so
+     * that the page can be read back if tid aborts.
+     */
+    @SuppressWarnings("unchecked")
+    protected P allocatePage(TransactionId tid, int kind)
+            throws DbException, IOException, TransactionAbortedException {
+        PageId pid;
+        synchronized (this) {
+            pid = pageId(pageCount);
+            writePage(createPage(pid, 0));
+            pageCount++;
+        }
+        P page = (P) Database.getBufferPool().addNewPage(tid, createPage(pid, kind));
+        page.markDirty(true, tid);
+        return page;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected P getPage(TransactionId tid, int pageNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        if (pageCount == 0) {
+            throw new DbException("index " + file + " hasn't been built");
+        }
+        return (P) Database.getBufferPool().getPage(tid, pageId(pageNo), perm);
+    }
+
+    /**
+     * Returns the entry of a tuple of the table.
+     *
+     * @throws DbException
+     *             if the tuple has no RecordId or key
+     */
+    protected Tuple entryOf(Tuple t) throws DbException {
+        if (t.getRecordId() == null || t.getField(keyField) == null) {
+            throw new DbException("tuple " + t + " can't be indexed");
+        }
+        Field[] fields = new Field[1 + includedFields.length];
+        fields[0] = t.getField(keyField);
+        for (int i = 0; i < includedFields.length; i++) {
+            fields[i + 1] = t.getField(includedFields[i]);
+        }
+        Tuple entry = new Tuple(entryDesc, fields);
+        entry.setRecordId(t.getRecordId());
+        return entry;
+    }
+
+    /**
+     * Returns the entries of the tuples of the table as committed to disk,
+     * for rebuild(), sorted in the given order by an ExternalSort, so that
+     * they needn't fit in memory. The caller reads them with next() and
+     * closes the sort.
+     */
+    protected ExternalSort sortEntries(Comparator<Tuple> order) throws IOException {
+        ExternalSort sort = new ExternalSort(entryDesc, order, SORT_RUN_ENTRIES);
+        DbFileIterator it = table.diskIterator(BufferPool.DEFAULT_READ_AHEAD_PAGES);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                sort.add(entryOf(it.next()));
+            }
+            sort.sort();
+        } catch (DbException | TransactionAbortedException e) {
+            sort.close();
+            throw new IOException("can't read " + table.getFile() + ": " + e);
+        } catch (IOException e) {
+            sort.close();
+            throw e;
+        } finally {
+            it.close();
+        }
+        return sort;
+    }
+
+    /**
+     * Drops the pages of the index from the buffer pool before rebuild()
+     * writes new ones.
+     */
+    protected void discardPages() {
+        BufferPool bufferPool = Database.getBufferPool();
+        for (int i = 0; i < pageCount; i++) {
+            bufferPool.discardPage(pageId(i));
+        }
+    }
+
+    /**
+     * Ends rebuild(): cuts the file off after the last page and writes the
+     * header that marks the index as built from the table as it is now.
+     */
+    protected void finishRebuild() throws IOException {
+        FileChannel ch = getChannel();
+        ch.truncate(FileHeader.offset(pageCount));
+        ByteBuffer header = ByteBuffer.wrap(header());
+        while (header.hasRemaining()) {
+            ch.write(header, header.position());
+        }
+    }
+}
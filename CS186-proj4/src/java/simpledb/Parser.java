@@ -363,26 +363,30 @@ public class Parser {
                     throw new simpledb.ParsingException(
                             "Complex expressions not allowed in INSERT statements.");
                 ZConstant zc = (ZConstant) e;
+                Type type = td.getFieldType(i);
+                boolean numeric = type == Type.INT_TYPE
+                        || type == Type.LONG_TYPE || type == Type.DOUBLE_TYPE;
                 if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
+                    if (!numeric) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is not an integer, expected a string.");
+                                + " is a number, expected a string.");
                     }
-                    IntField f = new IntField(new Integer(zc.getValue()));
-                    t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (numeric) {
                         throw new simpledb.ParsingException(
                                 "Value " + zc.getValue()
-                                        + " is a string, expected an integer.");
+                                        + " is a string, expected a number.");
                     }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
-                    t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
-                            "Only string or int fields are supported.");
+                            "Only string or numeric fields are supported.");
+                }
+                try {
+                    t.setField(i, type.parse(zc.getValue()));
+                } catch (java.text.ParseException pe) {
+                    throw new simpledb.ParsingException("Value "
+                            + zc.getValue() + " is not a valid " + type + ".");
                 }
 
                 i++;
@@ -470,6 +474,70 @@ public class Parser {
         }
     }
 
+    // Zql doesn't know COPY, so it is matched before Zql sees the statement:
+    // COPY table FROM 'file' [DELIMITER 'c']
+    private static final java.util.regex.Pattern COPY = java.util.regex.Pattern.compile(
+            "\\s*copy\\s+(\\w+)\\s+from\\s+'([^']*)'(?:\\s+delimiter\\s+'(.)')?\\s*;?\\s*",
+            java.util.regex.Pattern.CASE_INSENSITIVE | java.util.regex.Pattern.DOTALL);
+
+    /**
+     * Bulk loads a delimited text file into a table with HeapFile.bulkLoad,
+     * and recomputes the table's statistics. The load isn't part of any
+     * transaction, so it can't be run inside one.
+     */
+    public void handleCopyStatement(String table, File file, char fieldSeparator)
+            throws IOException, simpledb.ParsingException, DbException,
+            java.text.ParseException {
+        int id;
+        try {
+            id = Database.getCatalog().getTableId(table);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : " + table);
+        }
+        DbFile f = Database.getCatalog().getDbFile(id);
+        if (!(f instanceof HeapFile))
+            throw new simpledb.ParsingException("COPY only loads heap files");
+        if (inUserTrans)
+            throw new simpledb.ParsingException(
+                    "COPY can't run inside a transaction");
+        if (!file.isFile())
+            throw new simpledb.ParsingException("No such file : " + file);
+
+        long loaded = ((HeapFile) f).bulkLoad(file, fieldSeparator);
+        TableStats.setTableStats(table, new TableStats(id, TableStats.IOCOSTPERPAGE));
+        System.out.println("Loaded " + loaded + " tuples into " + table);
+    }
+
+    // VACUUM table
+    private static final java.util.regex.Pattern VACUUM = java.util.regex.Pattern.compile(
+            "\\s*vacuum\\s+(\\w+)\\s*;?\\s*", java.util.regex.Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Compacts a table with HeapFile.vacuum, and recomputes the table's
+     * statistics. Vacuum runs its own transactions, so it can't be run inside
+     * one.
+     */
+    public void handleVacuumStatement(String table) throws IOException,
+            simpledb.ParsingException, DbException, TransactionAbortedException {
+        int id;
+        try {
+            id = Database.getCatalog().getTableId(table);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : " + table);
+        }
+        DbFile f = Database.getCatalog().getDbFile(id);
+        if (!(f instanceof HeapFile))
+            throw new simpledb.ParsingException("VACUUM only compacts heap files");
+        if (inUserTrans)
+            throw new simpledb.ParsingException(
+                    "VACUUM can't run inside a transaction");
+
+        int freed = ((HeapFile) f).vacuum();
+        TableStats.setTableStats(table, new TableStats(id, TableStats.IOCOSTPERPAGE));
+        System.out.println("Vacuumed " + table + ": " + freed + " pages freed, "
+                + f.numPages() + " left");
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
@@ -500,15 +568,74 @@ public class Parser {
     }
 
     public void processNextStatement(String s) {
+        java.util.regex.Matcher copy = COPY.matcher(s);
+        if (copy.matches()) {
+            try {
+                handleCopyStatement(copy.group(1), new File(copy.group(2)),
+                        copy.group(3) == null ? ',' : copy.group(3).charAt(0));
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (DbException e) {
+                e.printStackTrace();
+            } catch (simpledb.ParsingException e) {
+                System.out.println("Invalid SQL expression: \n \t" + e.getMessage());
+            } catch (java.text.ParseException e) {
+                System.out.println(e.getMessage());
+            }
+            return;
+        }
+        java.util.regex.Matcher vacuum = VACUUM.matcher(s);
+        if (vacuum.matches()) {
+            try {
+                handleVacuumStatement(vacuum.group(1));
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (DbException e) {
+                e.printStackTrace();
+            } catch (TransactionAbortedException e) {
+                System.out.println("VACUUM aborted too many times; try again later");
+            } catch (simpledb.ParsingException e) {
+                System.out.println("Invalid SQL expression: \n \t" + e.getMessage());
+            }
+            return;
+        }
         try {
-            processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
+            processZqlStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Runs the statements read from a stream, e.g. the query file given with
+     * -f, one at a time with {@link #processNextStatement(String)}, so that
+     * COPY and VACUUM work there as they do at the prompt. A statement ends
+     * at a ';' outside single quotes.
+     */
     public void processNextStatement(InputStream is) {
+        try {
+            Reader in = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+            StringBuilder statement = new StringBuilder();
+            boolean quoted = false;
+            for (int c = in.read(); c != -1; c = in.read()) {
+                statement.append((char) c);
+                if (c == '\'') {
+                    quoted = !quoted;
+                } else if (c == ';' && !quoted) {
+                    processNextStatement(statement.toString());
+                    statement = new StringBuilder();
+                }
+            }
+            if (statement.toString().trim().length() > 0) {
+                processNextStatement(statement.toString());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void processZqlStatement(InputStream is) {
         try {
             ZqlParser p = new ZqlParser(is);
             ZStatement s = p.readStatement();
@@ -586,7 +713,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "copy", "vacuum" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -672,7 +799,6 @@ public class Parser {
                     buffer.append(line.substring(0, split + 1));
                     String cmd = buffer.toString().trim();
                     cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-                    byte[] statementBytes = cmd.getBytes("UTF-8");
                     if (cmd.equalsIgnoreCase("quit;")
                             || cmd.equalsIgnoreCase("exit;")) {
                         shutdown();
@@ -681,8 +807,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(
-                            new ByteArrayInputStream(statementBytes));
+                    processNextStatement(cmd);
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
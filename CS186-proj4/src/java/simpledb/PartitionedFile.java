@@ -0,0 +1,402 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PartitionedFile is an implementation of a DbFile that splits the tuples of
+ * a table over several HeapFiles, its partitions, by the value of one field.
+ * The table backed by file f keeps partition i in the file named f with ".p"
+ * + i appended.
+ * <p>
+ * A range-partitioned table is split at a sorted list of bounds: partition 0
+ * holds the keys below the first bound, partition i the keys from bound i - 1
+ * up to but not including bound i, and the last partition the keys from the
+ * last bound on. A hash-partitioned table puts a tuple in partition
+ * hash(key) mod n.
+ * <p>
+ * Every partition is a HeapFile with an id of its own, which the Catalog
+ * assigns along with the id of the table. The Catalog knows the partitions by
+ * their ids, so that the pages of a partition, which carry its id, are read
+ * and written through it, but lists only the PartitionedFile as a table.
+ *
+ * @see Catalog#addTable(DbFile, String, String)
+ */
+public class PartitionedFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+    // assigned by the Catalog; the hash of the file's path until then
+    private int id;
+    private final TupleDesc tupleDesc;
+    private final int partitionField;
+    // the points a range-partitioned table is split at, in order; null for
+    // a hash-partitioned table
+    private final Field[] bounds;
+    private final HeapFile[] partitions;
+
+    /**
+     * Constructs a range-partitioned file.
+     *
+     * @param f
+     *            the file whose name the partition files are named after
+     * @param partitionField
+     *            the index of the field the table is partitioned by
+     * @param bounds
+     *            the keys that start partitions 1 to bounds.length, in
+     *            increasing order
+     * @param mmap
+     *            passed on to the HeapFile of each partition
+     * @param compression
+     *            passed on to the HeapFile of each partition
+     * @param clusterField
+     *            the field each partition is a ClusteredHeapFile on, or -1
+     *            for partitions that are plain HeapFiles
+     */
+    public PartitionedFile(File f, TupleDesc td, int partitionField,
+            Field[] bounds, boolean mmap, int compression, int clusterField) {
+        this(f, td, partitionField, bounds, bounds.length + 1, mmap, compression,
+                clusterField);
+        for (int i = 1; i < bounds.length; i++) {
+            if (!bounds[i].compare(Predicate.Op.GREATER_THAN, bounds[i - 1])) {
+                throw new IllegalArgumentException("partition bounds out of order: "
+                        + bounds[i - 1] + ", " + bounds[i]);
+            }
+        }
+    }
+
+    /**
+     * Constructs a hash-partitioned file.
+     *
+     * @param f
+     *            the file whose name the partition files are named after
+     * @param partitionField
+     *            the index of the field the table is partitioned by
+     * @param numPartitions
+     *            the number of partitions
+     * @see #PartitionedFile(File, TupleDesc, int, Field[], boolean, int, int)
+     */
+    public PartitionedFile(File f, TupleDesc td, int partitionField,
+            int numPartitions, boolean mmap, int compression, int clusterField) {
+        this(f, td, partitionField, null, numPartitions, mmap, compression,
+                clusterField);
+    }
+
+    private PartitionedFile(File f, TupleDesc td, int partitionField,
+            Field[] bounds, int numPartitions, boolean mmap, int compression,
+            int clusterField) {
+        if (partitionField < 0 || partitionField >= td.numFields()) {
+            throw new IllegalArgumentException("no field " + partitionField
+                    + " to partition by");
+        }
+        if (numPartitions < 1) {
+            throw new IllegalArgumentException("a table needs a partition");
+        }
+        this.file = f;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.tupleDesc = td;
+        this.partitionField = partitionField;
+        this.bounds = bounds;
+        this.partitions = new HeapFile[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            partitions[i] = clusterField >= 0
+                    ? new ClusteredHeapFile(getPartitionFile(i), td, mmap,
+                            compression, clusterField)
+                    : new HeapFile(getPartitionFile(i), td, mmap, compression);
+        }
+    }
+
+    /**
+     * Returns the File whose name the partition files are named after.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the File holding partition i.
+     */
+    public File getPartitionFile(int i) {
+        return new File(file.getPath() + ".p" + i);
+    }
+
+    /**
+     * Returns the index of the field the table is partitioned by.
+     */
+    public int getPartitionField() {
+        return partitionField;
+    }
+
+    /**
+     * Returns true if the table is range-partitioned, false if it is
+     * hash-partitioned.
+     */
+    public boolean isRangePartitioned() {
+        return bounds != null;
+    }
+
+    /**
+     * Returns the HeapFiles of the partitions, in order.
+     */
+    public HeapFile[] getPartitions() {
+        return partitions.clone();
+    }
+
+    /**
+     * Returns the number of the partition that tuples with the given key go
+     * to.
+     */
+    public int partitionFor(Field key) {
+        if (bounds == null) {
+            return (key.hashCode() & Integer.MAX_VALUE) % partitions.length;
+        }
+        // the number of bounds at or below key
+        int lo = 0;
+        int hi = bounds.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key.compare(Predicate.Op.LESS_THAN, bounds[mid])) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns which partitions may hold a key between lower and upper,
+     * inclusive. A hash-partitioned table can only rule out partitions for a
+     * single key.
+     *
+     * @param lower
+     *            the smallest key needed, or null for no lower bound
+     * @param upper
+     *            the largest key needed, or null for no upper bound
+     */
+    public boolean[] partitionsFor(Field lower, Field upper) {
+        boolean[] needed = new boolean[partitions.length];
+        if (lower != null && upper != null
+                && lower.compare(Predicate.Op.GREATER_THAN, upper)) {
+            return needed;
+        }
+        if (bounds == null) {
+            if (lower != null && upper != null
+                    && lower.compare(Predicate.Op.EQUALS, upper)) {
+                needed[partitionFor(lower)] = true;
+            } else {
+                Arrays.fill(needed, true);
+            }
+            return needed;
+        }
+        int first = lower == null ? 0 : partitionFor(lower);
+        int last = upper == null ? partitions.length - 1 : partitionFor(upper);
+        for (int i = first; i <= last; i++) {
+            needed[i] = true;
+        }
+        return needed;
+    }
+
+    /**
+     * Returns the partition with the given table id.
+     *
+     * @throws IllegalArgumentException
+     *             if no partition has that id
+     */
+    private HeapFile getPartition(int tableId) {
+        for (HeapFile partition : partitions) {
+            if (partition.getId() == tableId) {
+                return partition;
+            }
+        }
+        throw new IllegalArgumentException("table " + tableId
+                + " is not a partition of " + file);
+    }
+
+    /**
+     * Returns an ID uniquely identifying this PartitionedFile: the id the
+     * Catalog assigned to it, or the hash of the absolute name of the file
+     * the partition files are named after if it hasn't been added to the
+     * Catalog.
+     */
+    public int getId() {
+        return id;
+    }
+
+    // see DbFile.java for javadocs
+    public boolean assignId(int id) {
+        this.id = id;
+        return true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        return getPartition(pid.getTableId()).readPage(pid);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> readPages(PageId first, int count) {
+        return getPartition(first.getTableId()).readPages(first, count);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        getPartition(page.getId().getTableId()).writePage(page);
+    }
+
+    /**
+     * Returns the number of pages of all partitions.
+     */
+    public int numPages() {
+        int pages = 0;
+        for (HeapFile partition : partitions) {
+            pages += partition.numPages();
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = t.getField(partitionField);
+        if (key == null) {
+            throw new DbException("tuple has no value to partition by: " + t);
+        }
+        return partitions[partitionFor(key)].insertTuple(tid, t);
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("tuple " + t + " is not in the table");
+        }
+        try {
+            return getPartition(rid.getPageId().getTableId()).deleteTuple(tid, t);
+        } catch (IllegalArgumentException e) {
+            throw new DbException("tuple " + t + " is not in the table");
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the partitions that may hold a
+     * key between lower and upper, inclusive, one partition after another.
+     * Tuples of those partitions outside the range are returned too, unless
+     * the partitions are clustered on the same field.
+     *
+     * @param lower
+     *            the smallest key needed, or null for no lower bound
+     * @param upper
+     *            the largest key needed, or null for no upper bound
+     * @see #partitionsFor(Field, Field)
+     */
+    public DbFileIterator iterator(TransactionId tid, Field lower, Field upper) {
+        boolean[] needed = partitionsFor(lower, upper);
+        List<DbFileIterator> its = new ArrayList<DbFileIterator>();
+        for (int i = 0; i < partitions.length; i++) {
+            if (!needed[i]) {
+                continue;
+            }
+            HeapFile partition = partitions[i];
+            if (partition instanceof ClusteredHeapFile
+                    && ((ClusteredHeapFile) partition).getClusterField() == partitionField
+                    && (lower != null || upper != null)) {
+                its.add(((ClusteredHeapFile) partition).iterator(tid, lower, upper));
+            } else {
+                its.add(partition.iterator(tid));
+            }
+        }
+        return new ConcatIterator(its);
+    }
+
+    /**
+     * Returns an iterator over the tuples of all partitions as committed to
+     * disk.
+     *
+     * @see HeapFile#diskIterator(int)
+     */
+    public DbFileIterator diskIterator(int chunkPages) {
+        List<DbFileIterator> its = new ArrayList<DbFileIterator>();
+        for (HeapFile partition : partitions) {
+            its.add(partition.diskIterator(chunkPages));
+        }
+        return new ConcatIterator(its);
+    }
+
+    /**
+     * Closes the files of all partitions.
+     */
+    public void close() throws IOException {
+        for (HeapFile partition : partitions) {
+            partition.close();
+        }
+    }
+
+    /** Returns the tuples of one iterator after another. */
+    private static class ConcatIterator implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final List<DbFileIterator> its;
+        // the iterator tuples are returned from, or its.size() once all are
+        // used up; -1 while closed
+        private int current = -1;
+
+        ConcatIterator(List<DbFileIterator> its) {
+            this.its = its;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            current = 0;
+            if (!its.isEmpty()) {
+                its.get(0).open();
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (current < 0) {
+                return false;
+            }
+            while (current < its.size()) {
+                if (its.get(current).hasNext()) {
+                    return true;
+                }
+                its.get(current).close();
+                if (++current < its.size()) {
+                    its.get(current).open();
+                }
+            }
+            return false;
+        }
+
+        public Tuple next()
+                throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return its.get(current).next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            if (current >= 0 && current < its.size()) {
+                its.get(current).close();
+            }
+            current = -1;
+        }
+    }
+}
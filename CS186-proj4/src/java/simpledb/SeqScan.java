@@ -61,6 +61,16 @@ public class SeqScan implements DbIterator {
         return this.tableAlias;
     }
 
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return this.transactionId;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * 
@@ -83,6 +93,48 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Tells the scan that only the given fields of its tuples will be looked
+     * at. A table stored in a ColumnFile then only reads those columns, and
+     * leaves the other fields of the tuples it returns null; other tables
+     * ignore this. Must be called before the scan is opened.
+     *
+     * @param columns
+     *            the indexes of the fields that are needed
+     */
+    public void setColumns(int[] columns) {
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        if (file instanceof ColumnFile) {
+            this.iterator = ((ColumnFile) file).iterator(transactionId, columns);
+        }
+    }
+
+    /**
+     * Tells the scan that only tuples whose clustering key is between lower
+     * and upper, inclusive, are needed. A clustered HeapFile then only reads
+     * the pages that may hold such keys and returns only those tuples; a
+     * PartitionedFile, for which the key is the field it is partitioned by,
+     * only reads the partitions that may hold such keys; other tables ignore
+     * this and return every tuple. Must be called before the scan is opened.
+     *
+     * @param lower
+     *            the smallest key needed, or null for no lower bound
+     * @param upper
+     *            the largest key needed, or null for no upper bound
+     * @see ClusteredHeapFile#iterator(TransactionId, Field, Field)
+     * @see PartitionedFile#iterator(TransactionId, Field, Field)
+     */
+    public void setKeyRange(Field lower, Field upper) {
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        if (file instanceof ClusteredHeapFile) {
+            this.iterator = ((ClusteredHeapFile) file).iterator(transactionId, lower,
+                    upper);
+        } else if (file instanceof PartitionedFile) {
+            this.iterator = ((PartitionedFile) file).iterator(transactionId, lower,
+                    upper);
+        }
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         this.iterator.open();
         isOpen = true;
@@ -8,7 +8,7 @@ public class SimpleDb {
         // convert a file
         if (args[0].equals("convert")) {
             try {
-                if (args.length < 3 || args.length > 5) {
+                if (args.length < 3 || args.length > 6) {
                     System.err.println(
                             "Unexpected number of arguments to convert ");
                     return;
@@ -33,25 +33,29 @@ public class SimpleDb {
                     }
                     int index = 0;
                     for (String s : typeStringAr) {
-                        if (s.toLowerCase().equals("int"))
-                            ts[index++] = Type.INT_TYPE;
-                        else if (s.toLowerCase().equals("string"))
-                            ts[index++] = Type.STRING_TYPE;
+                        Type type = Type.forName(s);
+                        if (type != null)
+                            ts[index++] = type;
                         else {
                             System.err.println("Unknown type " + s);
                             return;
                         }
                     }
-                    if (args.length == 5)
+                    if (args.length >= 5)
                         fieldSeparator = args[4].charAt(0);
+                    // the page size of the database the file is for, which
+                    // its schema has to declare as well
+                    if (args.length == 6)
+                        BufferPool.setPageSize(Integer.parseInt(args[5]));
                 }
 
-                HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                        BufferPool.PAGE_SIZE, numOfAttributes, ts,
-                        fieldSeparator);
+                new BulkLoader(new TupleDesc(ts), fieldSeparator)
+                        .convert(sourceTxtFile, targetDatFile);
 
             } catch (IOException e) {
                 throw new RuntimeException(e);
+            } catch (java.text.ParseException e) {
+                System.err.println(e.getMessage());
             }
         } else if (args[0].equals("print")) {
             File tableFile = new File(args[1]);
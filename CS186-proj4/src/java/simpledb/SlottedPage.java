@@ -0,0 +1,433 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a HeapFile whose
+ * tuples have variable-length fields, and implements the Page interface that
+ * is used by BufferPool.
+ * <p>
+ * Unlike a HeapPage, a SlottedPage isn't cut into fixed-size slots, so each
+ * tuple only takes as many bytes as its values need. The page starts with a
+ * header of two ints, the number of entries in the slot directory and the
+ * offset of the first byte used by tuples. The slot directory follows, one
+ * entry per slot made of two unsigned shorts: the offset of the slot's tuple
+ * in the page and its length. An offset of 0 marks an empty slot. The tuples
+ * themselves are packed from the end of the page towards the directory.
+ * <p>
+ * A page of all zeroes is an empty page. Because the directory stores
+ * offsets as shorts, pages can be at most 64KB.
+ *
+ * @see HeapFile
+ * @see BufferPool
+ */
+public class SlottedPage implements TuplePage {
+
+    /** Bytes at the start of the page before the slot directory. */
+    static final int HEADER_SIZE = 8;
+    /** Bytes taken by each entry of the slot directory. */
+    static final int SLOT_SIZE = 4;
+
+    private HeapPageId pid;
+    private TupleDesc td;
+    // the current contents of the page, changed in place
+    private byte[] data;
+    private ByteBuffer buf;
+    private int numSlots;
+    private int freeEnd;
+    // bytes of deleted tuples that compact() hasn't reclaimed yet
+    private int garbage;
+    // decoded the first time they are asked for
+    private Tuple[] tuples;
+
+    byte[] oldData;
+
+    private TransactionId dirtyTransactionId;
+    private boolean isDirty;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk. The
+     * page takes ownership of data, which must not be changed by the caller
+     * afterwards.
+     *
+     * @see Database#getCatalog
+     * @see Catalog#getTupleDesc
+     * @see BufferPool#getPageSize()
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a SlottedPage from a buffer holding one page of data. The bytes
+     * are copied out of the buffer; its position is not changed.
+     */
+    public SlottedPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, copyPage(data));
+    }
+
+    /**
+     * Create a SlottedPage of a table that isn't in the catalog, e.g. while
+     * HeapFileEncoder builds its file.
+     */
+    SlottedPage(HeapPageId id, byte[] data, TupleDesc td) {
+        this.pid = id;
+        this.td = td;
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        this.numSlots = buf.getInt(0);
+        this.freeEnd = buf.getInt(4);
+        if (freeEnd == 0) {
+            freeEnd = BufferPool.getPageSize();
+        }
+        this.tuples = new Tuple[numSlots];
+
+        int used = 0;
+        for (int i = 0; i < numSlots; i++) {
+            used += getSlotLength(i);
+        }
+        this.garbage = BufferPool.getPageSize() - freeEnd - used;
+
+        setBeforeImage();
+    }
+
+    private static byte[] copyPage(ByteBuffer data) {
+        byte[] bytes = new byte[BufferPool.getPageSize()];
+        ByteBuffer src = data.duplicate();
+        src.position(0);
+        src.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return true if tables with the given TupleDesc are stored on
+     *         SlottedPages rather than HeapPages, i.e. if any of their fields
+     *         has a variable length.
+     */
+    public static boolean isUsedFor(TupleDesc td) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i).isVariableLength()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the fewest bytes a tuple with the given TupleDesc can take.
+     */
+    static int getMinTupleSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            size += type.isVariableLength() ? 4 : type.getLen();
+        }
+        return size;
+    }
+
+    /**
+     * Returns true if a page whose first HEADER_SIZE bytes are in header has
+     * room for the smallest possible tuple between its slot directory and its
+     * tuples. Space left by deleted tuples is not counted.
+     */
+    static boolean hasFreeSpace(ByteBuffer header, TupleDesc td) {
+        int slots = header.getInt(0);
+        int end = header.getInt(4);
+        if (end == 0) {
+            end = BufferPool.getPageSize();
+        }
+        return end - HEADER_SIZE - (slots + 1) * SLOT_SIZE >= getMinTupleSize(td);
+    }
+
+    /**
+     * Return a view of this page before it was modified -- used by recovery
+     */
+    public SlottedPage getBeforeImage() {
+        return new SlottedPage(pid, oldData.clone(), td);
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    private int slotPosition(int i) {
+        return HEADER_SIZE + i * SLOT_SIZE;
+    }
+
+    private int getSlotOffset(int i) {
+        return buf.getShort(slotPosition(i)) & 0xffff;
+    }
+
+    private int getSlotLength(int i) {
+        return buf.getShort(slotPosition(i) + 2) & 0xffff;
+    }
+
+    private void setSlot(int i, int offset, int length) {
+        buf.putShort(slotPosition(i), (short) offset);
+        buf.putShort(slotPosition(i) + 2, (short) length);
+    }
+
+    private void writeHeader() {
+        buf.putInt(0, numSlots);
+        buf.putInt(4, freeEnd);
+    }
+
+    /**
+     * Returns the bytes between the end of the slot directory and the first
+     * tuple.
+     */
+    private int getContiguousFreeBytes() {
+        return freeEnd - slotPosition(numSlots);
+    }
+
+    /**
+     * Returns the number of the first empty entry of the slot directory, or
+     * -1 if every entry is in use.
+     */
+    private int getFirstEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes t in the format it is stored in on this page.
+     */
+    private byte[] encode(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                td.getFieldType(j).serialize(t.getField(j), dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Returns the tuple stored in slot i, decoding it from the page data if it
+     * hasn't been asked for before, or null if the slot is empty.
+     */
+    public Tuple getTuple(int i) throws NoSuchElementException {
+        if (!isSlotUsed(i)) {
+            return null;
+        }
+        if (tuples[i] == null) {
+            Tuple t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, i));
+            int offset = getSlotOffset(i);
+            try {
+                for (int j = 0; j < td.numFields(); j++) {
+                    Type type = td.getFieldType(j);
+                    t.setField(j, type.parse(buf, offset));
+                    offset += type.getLen(buf, offset);
+                }
+            } catch (java.text.ParseException e) {
+                e.printStackTrace();
+                throw new NoSuchElementException("parsing error!");
+            }
+            tuples[i] = t;
+        }
+        return tuples[i];
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page. Used to
+     * serialize this page to disk.
+     *
+     * @see #SlottedPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; // all 0
+    }
+
+    /**
+     * Delete the specified tuple from the page; the tuple should be updated to
+     * reflect that it is no longer stored on any page. The space it took is
+     * reclaimed the next time an insert needs it.
+     *
+     * @throws DbException
+     *             if this tuple is not on this page, or tuple slot is already
+     *             empty.
+     * @param t
+     *            The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple " + t + "is not on this page");
+        }
+        int num = rid.tupleno();
+        if (!isSlotUsed(num)) {
+            throw new DbException("tuple slot is already empty");
+        }
+        garbage += getSlotLength(num);
+        setSlot(num, 0, 0);
+        tuples[num] = null;
+        t.setRecordId(null);
+
+        // trailing empty entries can go; no RecordId refers to them
+        while (numSlots > 0 && !isSlotUsed(numSlots - 1)) {
+            numSlots--;
+        }
+        writeHeader();
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     *
+     * @throws DbException
+     *             if the page has no room for the tuple.
+     * @param t
+     *            The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        byte[] record = encode(t);
+        int slot = getFirstEmptySlot();
+        int needed = record.length + (slot < 0 ? SLOT_SIZE : 0);
+        if (needed > getContiguousFreeBytes() + garbage) {
+            throw new DbException("page is full");
+        }
+        if (needed > getContiguousFreeBytes()) {
+            compact();
+        }
+
+        if (slot < 0) {
+            slot = numSlots++;
+            if (tuples.length < numSlots) {
+                tuples = Arrays.copyOf(tuples, Math.max(numSlots, tuples.length * 2));
+            }
+        }
+        freeEnd -= record.length;
+        System.arraycopy(record, 0, data, freeEnd, record.length);
+        setSlot(slot, freeEnd, record.length);
+        writeHeader();
+
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+    }
+
+    /**
+     * Moves the tuples on this page next to each other at the end of the page,
+     * so that the space of deleted tuples becomes free again.
+     */
+    private void compact() {
+        byte[] packed = new byte[BufferPool.getPageSize()];
+        int end = BufferPool.getPageSize();
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                int length = getSlotLength(i);
+                end -= length;
+                System.arraycopy(data, getSlotOffset(i), packed, end, length);
+                setSlot(i, end, length);
+            }
+        }
+        int directoryEnd = slotPosition(numSlots);
+        Arrays.fill(data, directoryEnd, end, (byte) 0);
+        System.arraycopy(packed, end, data, end, packed.length - end);
+        freeEnd = end;
+        garbage = 0;
+        writeHeader();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction that did
+     * the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTransactionId = tid;
+        this.isDirty = dirty;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null
+     * if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return isDirty ? dirtyTransactionId : null;
+    }
+
+    /**
+     * Returns the number of the smallest possible tuples that would still fit
+     * on this page.
+     */
+    public int getNumEmptySlots() {
+        int free = getContiguousFreeBytes() + garbage;
+        return Math.max(0, free / (getMinTupleSize(td) + SLOT_SIZE));
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        int needed = encode(t).length
+                + (getFirstEmptySlot() < 0 ? SLOT_SIZE : 0);
+        return needed <= getContiguousFreeBytes() + garbage;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && getSlotOffset(i) != 0;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this
+     *         iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int cursor = nextUsed(0);
+
+            private int nextUsed(int from) {
+                while (from < numSlots && !isSlotUsed(from)) {
+                    from++;
+                }
+                return from;
+            }
+
+            public boolean hasNext() {
+                return cursor < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = getTuple(cursor);
+                cursor = nextUsed(cursor + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
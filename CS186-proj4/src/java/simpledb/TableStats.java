@@ -66,11 +66,20 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * Number of pages of a heap file read at a time while scanning it. The
+     * scan reads the file straight from disk rather than through the buffer
+     * pool, so a table larger than the pool doesn't evict its pages.
+     */
+    static final int SCAN_CHUNK_PAGES = 64;
+
     private int ioCostPerPage;
-    private HeapFile table;
+    private DbFile table;
     private TupleDesc td;
     private int numTuples;
     private HashMap<String, Integer[]> nameTolimits;
+    // min and max of the fields with a DoubleHistogram
+    private HashMap<String, double[]> nameToRange;
     private HashMap<String, Object> nameTohistogram;
 
     /**
@@ -95,21 +104,29 @@ public class TableStats {
         // in a single scan of the table.
 
         this.ioCostPerPage = ioCostPerPage;
-        this.table = (HeapFile) Database.getCatalog().getDbFile(tableid);
+        this.table = Database.getCatalog().getDbFile(tableid);
         this.td = table.getTupleDesc();
         this.nameTolimits = new HashMap<>();
+        this.nameToRange = new HashMap<>();
         this.nameTohistogram = new HashMap<>();
         scanTable();
     }
 
     /**
-     * histogram
+     * ����histogram
      */
     private void scanTable() {
-        DbFileIterator iter = table.iterator(new Transaction().getId());
+        DbFileIterator iter;
+        if (table instanceof HeapFile) {
+            iter = ((HeapFile) table).diskIterator(SCAN_CHUNK_PAGES);
+        } else if (table instanceof PartitionedFile) {
+            iter = ((PartitionedFile) table).diskIterator(SCAN_CHUNK_PAGES);
+        } else {
+            iter = table.iterator(new Transaction().getId());
+        }
         try {
             iter.open();
-            // ȡintݵminmaxֵhistogram
+            // ��ȡint���ݵ�min��maxֵ����������histogram
             while (iter.hasNext()) {
                 numTuples++;
                 Tuple t = iter.next();
@@ -126,11 +143,21 @@ public class TableStats {
                             Integer[] min_max = new Integer[] { value, value };
                             nameTolimits.put(name, min_max);
                         }
+                    } else if (hasDoubleHistogram(type)) {
+                        String name = td.getFieldName(i);
+                        double value = numericValue(t.getField(i));
+                        double[] range = nameToRange.get(name);
+                        if (range == null) {
+                            nameToRange.put(name, new double[] { value, value });
+                        } else {
+                            range[0] = Math.min(range[0], value);
+                            range[1] = Math.max(range[1], value);
+                        }
                     }
                 }
             }
 
-            // histogram
+            // ����histogram
             iter.rewind();
             while (iter.hasNext()) {
                 Tuple tuple = iter.next();
@@ -138,7 +165,17 @@ public class TableStats {
                     String fieldName = td.getFieldName(i);
                     Type fieldType = td.getFieldType(i);
 
-                    if (fieldType == Type.INT_TYPE) {
+                    if (hasDoubleHistogram(fieldType)) {
+                        DoubleHistogram histogram = (DoubleHistogram) nameTohistogram
+                                .get(fieldName);
+                        if (histogram == null) {
+                            double[] range = nameToRange.get(fieldName);
+                            histogram = new DoubleHistogram(NUM_HIST_BINS,
+                                    range[0], range[1]);
+                            nameTohistogram.put(fieldName, histogram);
+                        }
+                        histogram.addValue(numericValue(tuple.getField(i)));
+                    } else if (fieldType == Type.INT_TYPE) {
                         int value = ((IntField) tuple.getField(i)).getValue();
                         if (nameTohistogram.containsKey(fieldName)) {
                             IntHistogram histogram = (IntHistogram) nameTohistogram
@@ -151,7 +188,7 @@ public class TableStats {
                             nameTohistogram.put(fieldName, histogram);
                         }
                     } else {
-                        // String͵УпҪ½histogram
+                        // String���͵��У��п�����Ҫ�½�histogram
                         String value = ((StringField) tuple.getField(i))
                                 .getValue();
                         if (nameTohistogram.containsKey(fieldName)) {
@@ -172,6 +209,28 @@ public class TableStats {
         }
     }
 
+    /**
+     * @return true if fields of this type are histogrammed by a
+     *         DoubleHistogram.
+     */
+    private static boolean hasDoubleHistogram(Type type) {
+        return type == Type.LONG_TYPE || type == Type.DOUBLE_TYPE
+                || type == Type.DATE_TYPE;
+    }
+
+    /**
+     * @return the value of a LONG, DOUBLE or DATE field as a double.
+     */
+    static double numericValue(Field f) {
+        if (f instanceof DoubleField) {
+            return ((DoubleField) f).getValue();
+        }
+        if (f instanceof DateField) {
+            return ((DateField) f).getValue();
+        }
+        return ((LongField) f).getValue();
+    }
+
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
      * to read a page is costPerPageIO. You can assume that there are no seeks
@@ -185,7 +244,38 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        return this.ioCostPerPage * ((HeapFile) table).numPages();
+        return this.ioCostPerPage * table.numPages();
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that pass predicates with
+     * selectivity selectivityFactor through an index, as one page read to
+     * find them in the index and one per tuple: unless the table is clustered
+     * on the key of the index, tuples with neighbouring keys are rarely on
+     * the same page.
+     * 
+     * @param selectivityFactor
+     *            The selectivity of the predicates on the key of the index
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(double selectivityFactor) {
+        return this.ioCostPerPage * (1 + estimateTableCardinality(selectivityFactor));
+    }
+
+    /**
+     * Estimates the cost of reading the entries of a covering index that pass
+     * predicates with selectivity selectivityFactor, as one page read to find
+     * the first of them and the share of the pages of the index they fill:
+     * the table itself is never read.
+     *
+     * @param selectivityFactor
+     *            The selectivity of the predicates on the key of the index
+     * @param indexPages
+     *            The number of pages of the index
+     * @return The estimated cost of the index-only scan.
+     */
+    public double estimateIndexOnlyScanCost(double selectivityFactor, int indexPages) {
+        return this.ioCostPerPage * (1 + Math.ceil(selectivityFactor * indexPages));
     }
 
     /**
@@ -213,8 +303,27 @@ public class TableStats {
      *            selectivity. You may estimate this value from the histograms.
      */
     public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+        Object histogram = nameTohistogram.get(td.getFieldName(field));
+        double equals;
+        if (histogram instanceof IntHistogram) {
+            equals = ((IntHistogram) histogram).avgSelectivity();
+        } else if (histogram instanceof StringHistogram) {
+            equals = ((StringHistogram) histogram).avgSelectivity();
+        } else if (histogram instanceof DoubleHistogram) {
+            equals = ((DoubleHistogram) histogram).avgSelectivity();
+        } else {
+            return 1.0;
+        }
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equals;
+        case NOT_EQUALS:
+            return 1 - equals;
+        default:
+            // a value drawn from the field is above about half of the others
+            return 0.5;
+        }
     }
 
     /**
@@ -233,7 +342,10 @@ public class TableStats {
     public double estimateSelectivity(int index, Predicate.Op op,
             Field constant) {
         String name = td.getFieldName(index);
-        if (constant.getType() == Type.INT_TYPE) {
+        if (hasDoubleHistogram(constant.getType())) {
+            DoubleHistogram histogram = (DoubleHistogram) this.nameTohistogram.get(name);
+            return histogram.estimateSelectivity(op, numericValue(constant));
+        } else if (constant.getType() == Type.INT_TYPE) {
             IntHistogram histogram = (IntHistogram) this.nameTohistogram.get(name);
             return histogram.estimateSelectivity(op,
                     ((IntField) constant).getValue());
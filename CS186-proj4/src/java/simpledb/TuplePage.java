@@ -0,0 +1,64 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * TuplePage is the interface of the pages a HeapFile stores its tuples on.
+ * Tables whose tuples all have the same size use fixed-slot HeapPages; tables
+ * with variable-length fields use SlottedPages.
+ *
+ * @see HeapPage
+ * @see SlottedPage
+ */
+public interface TuplePage extends Page {
+
+    public HeapPageId getId();
+
+    /**
+     * Returns the number of empty slots on this page. For a page with
+     * variable-length tuples, the number of the smallest possible tuples that
+     * would still fit. A page with no empty slots is full.
+     */
+    public int getNumEmptySlots();
+
+    /**
+     * Returns true if t can be added to this page.
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i);
+
+    /**
+     * Returns the tuple stored in slot i, or null if the slot is empty.
+     */
+    public Tuple getTuple(int i) throws NoSuchElementException;
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     *
+     * @throws DbException
+     *             if the page has no room for the tuple.
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page; the tuple should be updated to
+     * reflect that it is no longer stored on any page.
+     *
+     * @throws DbException
+     *             if this tuple is not on this page, or tuple slot is already
+     *             empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this
+     *         iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,28 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new IntField(buf.getInt(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            buf.putInt(offset, ((IntField) f).getValue());
+        }
+
+        @Override
+        public Field parse(String s) throws ParseException {
+            try {
+                return new IntField(Integer.parseInt(s.trim()));
+            } catch (NumberFormatException e) {
+                throw new ParseException("not an integer: " + s, 0);
+            }
+        }
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,15 +65,290 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            return new StringField(getString(buf, offset), STRING_LEN);
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            int len = putString(((StringField) f).getValue(), buf, offset);
+            for (int i = offset + 4 + len; i < offset + getLen(); i++) {
+                buf.put(i, (byte) 0);
+            }
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new StringField(s, STRING_LEN);
+        }
+    }, VARSTRING_TYPE() {
+        /**
+         * Variable-length strings are stored as a 4 byte length followed by
+         * only the bytes of the string. This is the most a value can take.
+         */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public boolean isVariableLength() {
+            return true;
+        }
+
+        @Override
+        public int getLen(ByteBuffer buf, int offset) {
+            return 4 + buf.getInt(offset);
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                if (strLen < 0 || strLen > STRING_LEN) {
+                    throw new ParseException("bad string length " + strLen, 0);
+                }
+                byte bs[] = new byte[strLen];
+                dis.readFully(bs);
+                return new VarStringField(new String(bs), STRING_LEN);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            return new VarStringField(getString(buf, offset), STRING_LEN);
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new VarStringField(s, STRING_LEN);
+        }
+
+        @Override
+        public void serialize(Field f, DataOutputStream dos) throws IOException {
+            String s = ((StringField) f).getValue();
+            if (s.length() > STRING_LEN) {
+                s = s.substring(0, STRING_LEN);
+            }
+            dos.writeInt(s.length());
+            dos.writeBytes(s);
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            putString(((StringField) f).getValue(), buf, offset);
+        }
+    }, LONG_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new LongField(dis.readLong());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new LongField(buf.getLong(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            buf.putLong(offset, ((LongField) f).getValue());
+        }
+
+        @Override
+        public Field parse(String s) throws ParseException {
+            try {
+                return new LongField(Long.parseLong(s.trim()));
+            } catch (NumberFormatException e) {
+                throw new ParseException("not an integer: " + s, 0);
+            }
+        }
+    }, DOUBLE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DoubleField(dis.readDouble());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new DoubleField(buf.getDouble(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            buf.putDouble(offset, ((DoubleField) f).getValue());
+        }
+
+        @Override
+        public Field parse(String s) throws ParseException {
+            try {
+                return new DoubleField(Double.parseDouble(s.trim()));
+            } catch (NumberFormatException e) {
+                throw new ParseException("not a number: " + s, 0);
+            }
+        }
+    }, DATE_TYPE() {
+        /**
+         * Dates are stored as the milliseconds since 1970-01-01 00:00:00 UTC.
+         */
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DateField(dis.readLong());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new DateField(buf.getLong(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            buf.putLong(offset, ((DateField) f).getValue());
+        }
+
+        @Override
+        public Field parse(String s) throws ParseException {
+            return DateField.parse(s);
+        }
     };
     
     public static final int STRING_LEN = 128;
 
   /**
-   * @return the number of bytes required to store a field of this type.
+   * @return the number of bytes required to store a field of this type. For
+   *   a variable-length type, the most bytes a field can take.
    */
     public abstract int getLen();
 
+  /**
+   * @return true if fields of this type take a different number of bytes
+   *   depending on their value. Such fields are only stored on SlottedPages.
+   */
+    public boolean isVariableLength() {
+        return false;
+    }
+
+  /**
+   * @return the number of bytes taken by the field of this type stored in
+   *   buf at an absolute offset.
+   */
+    public int getLen(ByteBuffer buf, int offset) {
+        return getLen();
+    }
+
+  /**
+   * Writes a field of this type to dos in its on-disk format. Fixed-length
+   * types leave this to the field itself.
+   */
+    public void serialize(Field f, DataOutputStream dos) throws IOException {
+        f.serialize(dos);
+    }
+
+  /**
+   * Writes a field of this type into buf at an absolute offset, in the same
+   * format as {@link #serialize(Field, DataOutputStream)}. The buffer's
+   * position is not changed.
+   */
+    public abstract void serialize(Field f, ByteBuffer buf, int offset);
+
+  /**
+   * Reads a string stored as its length and then its characters as single
+   * bytes from buf at an absolute offset.
+   */
+    private static String getString(ByteBuffer buf, int offset) throws ParseException {
+        try {
+            int strLen = buf.getInt(offset);
+            if (strLen < 0 || strLen > STRING_LEN) {
+                throw new ParseException("bad string length " + strLen, offset);
+            }
+            byte bs[] = new byte[strLen];
+            ByteBuffer src = buf.duplicate();
+            src.position(offset + 4);
+            src.get(bs);
+            return new String(bs);
+        } catch (IndexOutOfBoundsException e) {
+            throw new ParseException("couldn't parse", offset);
+        }
+    }
+
+  /**
+   * Writes the length of s, cut to STRING_LEN, and then its characters as
+   * single bytes, as DataOutputStream.writeBytes does. Returns the number of
+   * characters written.
+   */
+    private static int putString(String s, ByteBuffer buf, int offset) {
+        int len = Math.min(s.length(), STRING_LEN);
+        buf.putInt(offset, len);
+        for (int i = 0; i < len; i++) {
+            buf.put(offset + 4 + i, (byte) s.charAt(i));
+        }
+        return len;
+    }
+
+  /**
+   * @return the type named by s in a schema file ("int", "string",
+   *   "varstring", "long", "double" or "date", in any case), or null if
+   *   there is none.
+   */
+    public static Type forName(String s) {
+        s = s.toLowerCase();
+        if (s.equals("int"))
+            return INT_TYPE;
+        if (s.equals("string"))
+            return STRING_TYPE;
+        if (s.equals("varstring"))
+            return VARSTRING_TYPE;
+        if (s.equals("long"))
+            return LONG_TYPE;
+        if (s.equals("double"))
+            return DOUBLE_TYPE;
+        if (s.equals("date"))
+            return DATE_TYPE;
+        return null;
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -60,4 +358,23 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object whose contents
+   *   are read from the specified buffer at an absolute offset. The buffer's
+   *   position is not changed.
+   * @param buf The buffer to read from
+   * @param offset The index in buf of the first byte of the field
+   * @throws ParseException if the data at offset is not of the appropriate
+   *   type.
+   */
+    public abstract Field parse(ByteBuffer buf, int offset) throws ParseException;
+
+  /**
+   * @return a Field object of the same type as this object holding the value
+   *   written as text in s, as in a data file or a query.
+   * @param s The text of the value
+   * @throws ParseException if s is not a value of this type.
+   */
+    public abstract Field parse(String s) throws ParseException;
+
 }
@@ -0,0 +1,39 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a single String of a VARSTRING_TYPE field,
+ * which takes only as many bytes on disk as the string has.
+ */
+public class VarStringField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param s
+     *            The value of this field.
+     * @param maxSize
+     *            The maximum size of this string
+     */
+    public VarStringField(String s, int maxSize) {
+        super(s, maxSize);
+    }
+
+    /**
+     * Write this string to dos: its length and then its bytes, without any
+     * padding.
+     */
+    public void serialize(DataOutputStream dos) throws IOException {
+        Type.VARSTRING_TYPE.serialize(this, dos);
+    }
+
+    /**
+     * @return the Type for this Field
+     */
+    public Type getType() {
+        return Type.VARSTRING_TYPE;
+    }
+}
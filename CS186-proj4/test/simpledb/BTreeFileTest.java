@@ -0,0 +1,163 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    /**
+     * Returns the keys of the entries of an index between lower and upper,
+     * checking that they come in order.
+     */
+    private static ArrayList<Integer> keys(BTreeFile index, int lower, int upper)
+            throws Exception {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid, new IntField(lower), new IntField(upper));
+        it.open();
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(0)).getValue();
+            assertTrue(keys.isEmpty() || keys.get(keys.size() - 1) <= key);
+            keys.add(key);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return keys;
+    }
+
+    private static ArrayList<Integer> expectedKeys(ArrayList<ArrayList<Integer>> tuples,
+            int field, int lower, int upper) {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(field) >= lower && tuple.get(field) <= upper) {
+                keys.add(tuple.get(field));
+            }
+        }
+        java.util.Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Unit test that inserts through the buffer pool split leaves and the
+     * root, and that deletes remove exactly the entries of the deleted tuples.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples, "f");
+        BTreeFile index = TestUtil.addIndex(new BTreeFile(
+                TestUtil.indexFile(".btree"), hf, 1));
+        assertEquals(2, index.numPages());
+
+        Random r = new Random(0);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 5000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, r.nextInt(500) });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(index.numPages() > 10);
+        assertEquals(expectedKeys(tuples, 1, 0, 500), keys(index, 0, 500));
+        assertEquals(expectedKeys(tuples, 1, 120, 130), keys(index, 120, 130));
+
+        tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 3 == 0) {
+                deleted.add(t);
+            } else {
+                remaining.add(SystemTestUtil.tupleToList(t));
+            }
+        }
+        it.close();
+        for (Tuple t : deleted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expectedKeys(remaining, 1, 0, 500), keys(index, 0, 500));
+        assertEquals(expectedKeys(remaining, 1, 77, 77), keys(index, 77, 77));
+    }
+
+    /**
+     * Unit test that an index built over an existing table finds the tuples
+     * of a key range through an IndexScan.
+     */
+    @Test public void indexScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, tuples, "f");
+        BTreeFile index = TestUtil.addIndex(new BTreeFile(
+                TestUtil.indexFile(".btree"), hf, 0));
+        assertEquals(expectedKeys(tuples, 0, 0, 1000), keys(index, 0, 1000));
+
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, index.getId(), "t", new IntField(200),
+                new IntField(260));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(0) >= 200 && tuple.get(0) <= 260) {
+                expected.add(tuple);
+            }
+        }
+        SystemTestUtil.matchTuples(scan, expected);
+        assertEquals("t.f0", scan.getTupleDesc().getFieldName(0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test that the planner reads a table through an index for a
+     * selective filter on the key of the index, and scans it otherwise.
+     */
+    @Test public void plannerUsesIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, 10000, null, tuples, "f");
+        TestUtil.addIndex(new BTreeFile(TestUtil.indexFile(".btree"), hf, 1));
+        String name = Database.getCatalog().getTableName(hf.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.f1", Predicate.Op.EQUALS, tuples.get(0).get(1).toString());
+        lp.addProjectField("*", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(TestUtil.contains(plan, IndexScan.class));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(1).equals(tuples.get(0).get(1))) {
+                expected.add(tuple);
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.f1", Predicate.Op.GREATER_THAN, "100");
+        lp.addProjectField("*", null);
+        assertTrue(!TestUtil.contains(lp.physicalPlan(tid, stats, false),
+                IndexScan.class));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
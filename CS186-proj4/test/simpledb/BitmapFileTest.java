@@ -0,0 +1,214 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BitmapFileTest extends SimpleDbTestBase {
+
+    /**
+     * Returns the number of entries of an index with the given key, checking
+     * that they all have that key and come in the order of the table.
+     */
+    private static int count(BitmapFile index, int key) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid, new IntField(key), new IntField(key));
+        it.open();
+        int count = 0;
+        RecordId last = null;
+        while (it.hasNext()) {
+            Tuple entry = it.next();
+            assertEquals(new IntField(key), entry.getField(0));
+            RecordId rid = entry.getRecordId();
+            assertTrue(last == null
+                    || last.getPageId().pageNumber() < rid.getPageId().pageNumber()
+                    || (last.getPageId().pageNumber() == rid.getPageId().pageNumber()
+                            && last.tupleno() < rid.tupleno()));
+            last = rid;
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * Unit test that inserts through the buffer pool set the bits of new
+     * tuples, chaining pages to bitmaps that outgrow theirs, and that
+     * deletes clear exactly the bits of the deleted tuples.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples, "f");
+        BitmapFile index = TestUtil.addIndex(new BitmapFile(
+                TestUtil.indexFile(".bitmap"), hf, 1));
+        assertEquals(1, index.numPages());
+
+        Random r = new Random(0);
+        TransactionId tid = null;
+        for (int i = 0; i < 40000; i++) {
+            // the buffer pool doesn't evict dirty pages, so commit now and
+            // then
+            if (i % 2000 == 0) {
+                if (tid != null) {
+                    Database.getBufferPool().transactionComplete(tid);
+                }
+                tid = new TransactionId();
+            }
+            // one key is rare, so its bitmap is mostly runs of 0s
+            int key = i % 1000 == 0 ? 4 : r.nextInt(4);
+            Tuple t = Utility.getHeapTuple(new int[] { i, key });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        // the bitmaps of the random keys don't compress
+        assertTrue(index.numPages() > 5);
+        int[] expected = TestUtil.counts(tuples, 1, 5);
+        for (int key = 0; key < 5; key++) {
+            assertEquals(expected[key], count(index, key));
+        }
+
+        tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 3 == 0) {
+                deleted.add(t);
+            } else {
+                remaining.add(SystemTestUtil.tupleToList(t));
+            }
+        }
+        it.close();
+        for (int i = 0; i < deleted.size(); i++) {
+            if (i % 2000 == 0) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+            Database.getBufferPool().deleteTuple(tid, deleted.get(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        expected = TestUtil.counts(remaining, 1, 5);
+        for (int key = 0; key < 5; key++) {
+            assertEquals(expected[key], count(index, key));
+        }
+
+        // rebuilt, the bitmaps of the random keys take two pages each and
+        // the one of the rare key fits on one, after the directory
+        index.rebuild();
+        assertEquals(1 + 4 * 2 + 1, index.numPages());
+        for (int key = 0; key < 5; key++) {
+            assertEquals(expected[key], count(index, key));
+        }
+    }
+
+    /**
+     * Unit test that a rebuild of an index with more keys than fit on one
+     * directory page chains directory pages and finds the bitmap of every
+     * key.
+     */
+    @Test public void rebuildManyKeys() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 4000, 1500, null, tuples, "f");
+        BitmapFile index = TestUtil.addIndex(new BitmapFile(
+                TestUtil.indexFile(".bitmap"), hf, 1));
+        index.rebuild();
+        int[] expected = TestUtil.counts(tuples, 1, 1500);
+        int keys = 0;
+        for (int key = 0; key < 1500; key++) {
+            assertEquals(expected[key], count(index, key));
+            keys += expected[key] > 0 ? 1 : 0;
+        }
+        // more keys than one directory page holds
+        assertTrue(keys > BufferPool.getPageSize() / 8);
+    }
+
+    /**
+     * Unit test that a BitmapScan returns the tuples that satisfy all, or
+     * any, of several predicates on fields with bitmap indexes.
+     */
+    @Test public void bitmapScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 5000, 8, null, tuples, "f");
+        TestUtil.addIndex(new BitmapFile(TestUtil.indexFile(".bitmap"), hf, 1));
+        TestUtil.addIndex(new BitmapFile(TestUtil.indexFile(".bitmap"), hf, 2));
+        Predicate[] predicates = new Predicate[] {
+                new Predicate(1, Predicate.Op.EQUALS, new IntField(3)),
+                new Predicate(2, Predicate.Op.LESS_THAN, new IntField(2)) };
+
+        TransactionId tid = new TransactionId();
+        for (boolean conjunctive : new boolean[] { true, false }) {
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> tuple : tuples) {
+                boolean first = tuple.get(1) == 3;
+                boolean second = tuple.get(2) < 2;
+                if (conjunctive ? first && second : first || second) {
+                    expected.add(tuple);
+                }
+            }
+            BitmapScan scan = new BitmapScan(tid, hf.getId(), "t", predicates,
+                    conjunctive);
+            SystemTestUtil.matchTuples(scan, expected);
+            assertEquals("t.f2", scan.getTupleDesc().getFieldName(2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test that the planner combines the filters on several fields with
+     * bitmap indexes in a BitmapScan when together they are selective, and
+     * scans the table otherwise.
+     */
+    @Test public void plannerUsesBitmapScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 20000, 20, null, tuples, "f");
+        TestUtil.addIndex(new BitmapFile(TestUtil.indexFile(".bitmap"), hf, 1));
+        TestUtil.addIndex(new BitmapFile(TestUtil.indexFile(".bitmap"), hf, 2));
+        String name = Database.getCatalog().getTableName(hf.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.f1", Predicate.Op.EQUALS, "7");
+        lp.addFilter("t.f2", Predicate.Op.EQUALS, "11");
+        lp.addProjectField("*", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(TestUtil.contains(plan, BitmapScan.class));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(1) == 7 && tuple.get(2) == 11) {
+                expected.add(tuple);
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.f1", Predicate.Op.NOT_EQUALS, "7");
+        lp.addProjectField("*", null);
+        assertTrue(TestUtil.contains(lp.physicalPlan(tid, stats, false), SeqScan.class));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapFileTest.class);
+    }
+}
@@ -0,0 +1,182 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static ArrayList<ArrayList<Integer>> randomTuples(int rows) {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        java.util.Random r = new java.util.Random(rows);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(r.nextInt() % 100000);
+            tuple.add(-i);
+            tuple.add(i);
+            tuples.add(tuple);
+        }
+        return tuples;
+    }
+
+    private static File writeCsv(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        File f = File.createTempFile("bulk", ".txt");
+        f.deleteOnExit();
+        PrintWriter out = new PrintWriter(f);
+        for (ArrayList<Integer> tuple : tuples) {
+            out.print(Utility.listToString(tuple).replace('\t', ',') + "\r\n");
+        }
+        out.close();
+        return f;
+    }
+
+    private static File tempDat() throws Exception {
+        File f = File.createTempFile("bulk", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Unit test for BulkLoader.convert() with an input split into many chunks
+     * parsed by several threads.
+     */
+    @Test public void convertInChunks() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = randomTuples(5000);
+        File in = writeCsv(tuples);
+        // blank lines are skipped
+        PrintWriter out = new PrintWriter(new java.io.FileWriter(in, true));
+        out.println("  ");
+        out.close();
+
+        File dat = tempDat();
+        BulkLoader loader = new BulkLoader(Utility.getTupleDesc(3), ',', 3, 1000);
+        assertEquals(5000, loader.convert(in, dat));
+        HeapFile hf = Utility.openHeapFile(3, dat);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test for BulkLoader.convert() with fixed and variable-length
+     * strings.
+     */
+    @Test public void convertStrings() throws Exception {
+        File in = File.createTempFile("bulk", ".txt");
+        in.deleteOnExit();
+        PrintWriter out = new PrintWriter(in);
+        for (int i = 0; i < 3000; i++) {
+            out.println(i + "| name" + i + " |" + "x" + (i % 7));
+        }
+        out.close();
+
+        Type[][] schemas = { { Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE },
+                { Type.INT_TYPE, Type.STRING_TYPE, Type.VARSTRING_TYPE } };
+        for (Type[] types : schemas) {
+            TupleDesc td = new TupleDesc(types);
+            File dat = tempDat();
+            new BulkLoader(td, '|', 2, 10000).convert(in, dat);
+            HeapFile hf = new HeapFile(dat, td);
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+            DbFileIterator it = hf.iterator(new TransactionId());
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                assertEquals(count, ((IntField) t.getField(0)).getValue());
+                assertEquals("name" + count, ((StringField) t.getField(1)).getValue());
+                assertEquals("x" + (count % 7), ((StringField) t.getField(2)).getValue());
+                count++;
+            }
+            it.close();
+            assertEquals(3000, count);
+        }
+    }
+
+    /**
+     * Unit test for HeapFile.bulkLoad(), which appends to a table that
+     * already has tuples.
+     */
+    @Test public void bulkLoadAppends() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 1000, null, tuples);
+        ArrayList<ArrayList<Integer>> more = randomTuples(2000);
+        assertEquals(2000, hf.bulkLoad(writeCsv(more), ','));
+        tuples.addAll(more);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 7, 8, 9 });
+        hf.insertTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        tuples.add(SystemTestUtil.tupleToList(t));
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test that a line that can't be parsed fails a load with its line
+     * number, counted across chunks, and leaves the table as it was.
+     */
+    @Test public void badLine() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 1000, null, tuples);
+        int pages = hf.numPages();
+        File in = File.createTempFile("bulk", ".txt");
+        in.deleteOnExit();
+        for (String bad : new String[] { "1,2", "1,x,3", "99999999999,1,2" }) {
+            PrintWriter out = new PrintWriter(in);
+            for (int i = 0; i < 3000; i++) {
+                out.print(i == 2500 ? bad + "\n" : i + ",0," + i + "\n");
+            }
+            out.close();
+            try {
+                new BulkLoader(hf.getTupleDesc(), ',', 2, 4096).convert(in, tempDat());
+                fail("expected exception for " + bad);
+            } catch (ParseException e) {
+                assertEquals(2501, e.getErrorOffset());
+            }
+        }
+        try {
+            hf.bulkLoad(in, ',');
+            fail("expected exception for a bad line");
+        } catch (ParseException e) {
+            assertEquals(2501, e.getErrorOffset());
+        }
+        assertEquals(pages, hf.numPages());
+        assertEquals(FileHeader.offset(pages), hf.getFile().length());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test for the COPY statement of the Parser.
+     */
+    @Test public void copyStatement() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 0, null, tuples);
+        String name = "t" + SystemTestUtil.getUUID().replace("-", "");
+        Database.getCatalog().addTable(hf, name);
+
+        ArrayList<ArrayList<Integer>> loaded = randomTuples(1500);
+        File in = writeCsv(loaded);
+        new Parser().processNextStatement("COPY " + name + " FROM '"
+                + in.getPath() + "';");
+        SystemTestUtil.matchTuples(hf, loaded);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -2,6 +2,11 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.NoSuchElementException;
 
 import junit.framework.Assert;
@@ -68,6 +73,109 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * Unit test for Catalog.loadSchema() with a schema that declares the page
+     * size of its tables.
+     */
+    @Test public void loadSchemaPageSize() throws Exception {
+        Database.getCatalog().clear();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BufferPool.setPageSize(16384);
+        File dat = SystemTestUtil.createRandomHeapFileUnopened(2, 5000, 100, null, tuples);
+        BufferPool.resetPageSize();
+
+        String table = dat.getName().substring(0, dat.getName().length() - 4);
+        File schema = new File(dat.getParentFile(), table + ".schema");
+        schema.deleteOnExit();
+        PrintWriter out = new PrintWriter(schema);
+        out.println("pagesize 16384");
+        out.println(table + " (a int, b int)");
+        out.close();
+
+        try {
+            Database.getCatalog().loadSchema(schema.getPath());
+            assertEquals(16384, BufferPool.getPageSize());
+            HeapFile hf = (HeapFile) Database.getCatalog().getDbFile(
+                    Database.getCatalog().getTableId(table));
+            assertEquals(16384, FileHeader.readPageSize(dat));
+            assertEquals(dat.length() / 16384 - 1, hf.numPages());
+            SystemTestUtil.matchTuples(hf, tuples);
+        } finally {
+            // not every test resets the database before it runs
+            Database.getCatalog().clear();
+            BufferPool.resetPageSize();
+        }
+    }
+
+    /**
+     * Unit test that the catalog gives tables dense ids in the order they are
+     * added, never reuses the id of a removed table, and keeps the ids an
+     * "id:" schema option gives, writing those of tables without one into the
+     * schema.
+     */
+    @Test public void assignedIds() throws Exception {
+        File a = SystemTestUtil.createRandomHeapFileUnopened(2, 10, 100, null, null);
+        File b = SystemTestUtil.createRandomHeapFileUnopened(2, 10, 100, null, null);
+        HeapFile fa = new HeapFile(a, Utility.getTupleDesc(2));
+        HeapFile fb = new HeapFile(b, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(fa, "a");
+        Database.getCatalog().addTable(fb, "b");
+        assertEquals(fa.getId() + 1, fb.getId());
+        assertEquals(fa, Database.getCatalog().getDbFile(fa.getId()));
+        assertEquals(fa.getId(), Database.getCatalog().getTableId("a"));
+
+        // adding a table again keeps its id
+        Database.getCatalog().addTable(fa, "a");
+        assertEquals(fb.getId() - 1, fa.getId());
+
+        Database.getCatalog().removeTable(fb.getId());
+        HeapFile fc = new HeapFile(b, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(fc, "c");
+        assertEquals(fb.getId() + 1, fc.getId());
+
+        Database.getCatalog().clear();
+        String ta = a.getName().substring(0, a.getName().length() - 4);
+        String tb = b.getName().substring(0, b.getName().length() - 4);
+        File schema = new File(a.getParentFile(), ta + ".schema");
+        schema.deleteOnExit();
+        PrintWriter out = new PrintWriter(schema);
+        out.println(ta + " (a int, b int)");
+        out.println(tb + " (a int, b int) id:7");
+        out.close();
+        try {
+            Database.getCatalog().loadSchema(schema.getPath());
+            assertEquals(7, Database.getCatalog().getTableId(tb));
+            int id = Database.getCatalog().getTableId(ta);
+            assertEquals(id, Database.getCatalog().getDbFile(id).getId());
+            assertEquals(8, id);
+
+            // the id ta got is written into the schema, and kept on reload
+            BufferedReader in = new BufferedReader(new FileReader(schema));
+            assertEquals(ta + " (a int, b int) id:8", in.readLine());
+            assertEquals(tb + " (a int, b int) id:7", in.readLine());
+            in.close();
+            Database.getCatalog().clear();
+            Database.getCatalog().loadSchema(schema.getPath());
+            assertEquals(8, Database.getCatalog().getTableId(ta));
+        } finally {
+            Database.getCatalog().clear();
+        }
+    }
+
+    /**
+     * Unit test for Catalog.removeTable()
+     */
+    @Test public void removeTable() throws Exception {
+        Database.getCatalog().removeTable(-2);
+        try {
+            Database.getCatalog().getTableId(name);
+            Assert.fail("Should not find dropped table");
+        } catch (NoSuchElementException e) {
+            // Expected to get here
+        }
+        assertEquals(-1, Database.getCatalog().getTableId(nameThisTestRun));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,271 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ClusteredHeapFileTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = Utility.getTupleDesc(2, "f");
+
+    /** A ClusteredHeapFile that counts the pages read from disk. */
+    private static class CountingHeapFile extends ClusteredHeapFile {
+        public int readCount = 0;
+
+        public CountingHeapFile(File f) {
+            super(f, TD, false, PageCompressor.NONE, 0);
+            new File(f.getPath() + ".order").deleteOnExit();
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    private static CountingHeapFile createEmpty() throws Exception {
+        File f = File.createTempFile("clustered", ".dat");
+        f.deleteOnExit();
+        CountingHeapFile hf = new CountingHeapFile(f);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    private static ArrayList<ArrayList<Integer>> inRange(
+            ArrayList<ArrayList<Integer>> tuples, int lower, int upper) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(0) >= lower && tuple.get(0) <= upper) {
+                result.add(tuple);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks that the keys of each page are at most the keys of the pages
+     * after it, and returns the number of tuples.
+     */
+    private static int checkOrder(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        int page = -1;
+        int pageMin = Integer.MIN_VALUE;
+        int pageMax = Integer.MIN_VALUE;
+        int previousMax = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            if (t.getRecordId().getPageId().pageNumber() != page) {
+                assertTrue(previousMax <= pageMin);
+                previousMax = Math.max(previousMax, pageMax);
+                page = t.getRecordId().getPageId().pageNumber();
+                pageMin = key;
+                pageMax = key;
+            }
+            pageMin = Math.min(pageMin, key);
+            pageMax = Math.max(pageMax, key);
+            count++;
+        }
+        assertTrue(previousMax <= pageMin);
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * Unit test that a file written in no particular order is sorted by
+     * cluster(), and that a key range scan only reads the pages the range is
+     * on.
+     */
+    @Test public void rangeScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 20, 100000,
+                null, tuples);
+        CountingHeapFile hf = new CountingHeapFile(f);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertTrue(hf.needsClustering());
+        hf.cluster();
+        assertFalse(hf.needsClustering());
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(20, hf.numPages());
+        assertEquals(tuples.size(), checkOrder(hf));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.readCount = 0;
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid, new IntField(40000), new IntField(41000));
+        ArrayList<ArrayList<Integer>> found = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            found.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        ArrayList<ArrayList<Integer>> expected = inRange(tuples, 40000, 41000);
+        Collections.sort(found, new ListComparator());
+        Collections.sort(expected, new ListComparator());
+        assertEquals(expected, found);
+        // a binary search over 20 pages, then the one or two pages in range
+        assertTrue("read " + hf.readCount + " pages", hf.readCount <= 8);
+    }
+
+    /**
+     * Unit test that inserts split full pages and keep the pages in key
+     * order, and that the order survives reopening the file.
+     */
+    @Test public void insertSplitsPages() throws Exception {
+        CountingHeapFile hf = createEmpty();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(0);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { r.nextInt(10000), i });
+            hf.insertTuple(tid, t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(hf.numPages() >= 4);
+        assertEquals(2000, checkOrder(hf));
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ClusteredHeapFile reopened = new ClusteredHeapFile(hf.getFile(), TD, false,
+                PageCompressor.NONE, 0);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(2000, checkOrder(reopened));
+        DbFileIterator it = reopened.iterator(new TransactionId(), new IntField(5000), null);
+        ArrayList<ArrayList<Integer>> found = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            found.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        assertEquals(inRange(tuples, 5000, Integer.MAX_VALUE).size(), found.size());
+    }
+
+    /**
+     * Unit test that a bulk load into a clustered file appends sorted pages
+     * when its keys come after the table's, and rewrites the table otherwise.
+     */
+    @Test public void bulkLoadSorts() throws Exception {
+        CountingHeapFile hf = createEmpty();
+        int[][] loads = { { 1000, 2000 }, { 2000, 3000 }, { 0, 1000 } };
+        int[] pages = { 2, 4, 6 };
+        for (int l = 0; l < loads.length; l++) {
+            ArrayList<Integer> keys = new ArrayList<Integer>();
+            for (int k = loads[l][0]; k < loads[l][1]; k++) {
+                keys.add(k);
+            }
+            Collections.shuffle(keys, new Random(l));
+            File in = File.createTempFile("clustered", ".txt");
+            in.deleteOnExit();
+            PrintWriter out = new PrintWriter(in);
+            for (int k : keys) {
+                out.println(k + "," + l);
+            }
+            out.close();
+            assertEquals(1000, hf.bulkLoad(in, ','));
+            assertEquals(pages[l], hf.numPages());
+            assertEquals(1000 * (l + 1), checkOrder(hf));
+        }
+    }
+
+    /**
+     * Unit test that a file that hasn't been clustered isn't read in the
+     * wrong order, and that a table in use isn't clustered.
+     */
+    @Test public void clusterIsExplicit() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 100000,
+                null, tuples);
+        CountingHeapFile hf = new CountingHeapFile(f);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        DbFileIterator it = hf.iterator(new TransactionId());
+        try {
+            it.open();
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        assertTrue(hf.needsClustering());
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0),
+                Permissions.READ_ONLY);
+        try {
+            hf.cluster();
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        assertTrue(hf.needsClustering());
+        Database.getBufferPool().transactionComplete(tid);
+
+        hf.cluster();
+        assertEquals(2000, checkOrder(hf));
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test that the planner turns filters on the clustering key into a
+     * key range scan.
+     */
+    @Test public void plannerUsesKeyRange() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 20, 100000,
+                null, tuples);
+        CountingHeapFile hf = new CountingHeapFile(f);
+        String name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(hf, name);
+        hf.cluster();
+        java.util.HashMap<String, TableStats> stats = new java.util.HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.readCount = 0;
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.f0", Predicate.Op.GREATER_THAN, "70000");
+        lp.addFilter("t.f0", Predicate.Op.LESS_THAN_OR_EQ, "71000");
+        lp.addProjectField("*", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        ArrayList<ArrayList<Integer>> expected = inRange(tuples, 70001, 71000);
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue("read " + hf.readCount + " pages", hf.readCount <= 8);
+    }
+
+    private static class ListComparator implements java.util.Comparator<ArrayList<Integer>> {
+        public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+            int c = a.get(0).compareTo(b.get(0));
+            return c != 0 ? c : a.get(1).compareTo(b.get(1));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ClusteredHeapFileTest.class);
+    }
+}
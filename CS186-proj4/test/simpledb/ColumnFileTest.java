@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File heap;
+    private ColumnFile cf;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        heap = SystemTestUtil.createRandomHeapFileUnopened(3, 2000, 1000, null, tuples);
+        for (int j = 0; j < 3; j++) {
+            new File(heap.getPath() + ".col" + j).deleteOnExit();
+        }
+        cf = new ColumnFile(heap, Utility.getTupleDesc(3, "f"));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Unit test that opening a ColumnFile over a heap file copies its tuples.
+     */
+    @Test public void copyHeapFile() throws Exception {
+        assertTrue(cf.getColumnFile(0).exists());
+        // 992 ints fit on a page
+        assertEquals(3, cf.numPages(1));
+        assertEquals(9, cf.numPages());
+        SystemTestUtil.matchTuples(cf, tuples);
+    }
+
+    /**
+     * Unit test for ColumnFile.iterator() with a subset of the columns: only
+     * those columns are read.
+     */
+    @Test public void pruneColumns() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid, new int[] { 2 });
+        it.open();
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertNull(t.getField(0));
+            assertNull(t.getField(1));
+            assertEquals((int) tuples.get(row).get(2), ((IntField) t.getField(2)).getValue());
+            row++;
+        }
+        it.close();
+        assertEquals(tuples.size(), row);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for ColumnFile.insertTuple() and ColumnFile.deleteTuple(),
+     * and that their effects are there once the file is reopened.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        cf.deleteTuple(tid, first);
+        tuples.remove(0);
+
+        for (int i = 0; i < 100; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, -i, 7 });
+            cf.insertTuple(tid, t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(cf, tuples);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ColumnFile reopened = new ColumnFile(heap, Utility.getTupleDesc(3, "f"));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * Unit test for a query over a columnar table, which only reads the
+     * columns the query refers to.
+     */
+    @Test public void queryPrunesColumns() throws Exception {
+        String name = Database.getCatalog().getTableName(cf.getId());
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "t");
+        lp.addFilter("t.f1", Predicate.Op.GREATER_THAN_OR_EQ, "0");
+        lp.addProjectField("t.f2", null);
+        java.util.HashMap<String, TableStats> stats = new java.util.HashMap<String, TableStats>();
+        stats.put(name, new TableStats(cf.getId(), 1));
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            assertEquals((int) tuples.get(count).get(2), ((IntField) t.getField(0)).getValue());
+            count++;
+        }
+        plan.close();
+        assertEquals(tuples.size(), count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
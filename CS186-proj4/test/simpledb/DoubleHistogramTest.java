@@ -0,0 +1,102 @@
+package simpledb;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import simpledb.Predicate.Op;
+
+public class DoubleHistogramTest {
+
+    /**
+     * Test that the equality selectivities of every value in the range add up
+     * to about 1.
+     */
+    @Test
+    public void equalsSumTest() {
+        DoubleHistogram h = new DoubleHistogram(100, 0, 1000);
+        for (int c = 0; c < 100000; c++) {
+            h.addValue((c * 37) % 1001);
+        }
+
+        double selectivity = 0.0;
+        for (int c = 0; c <= 1000; c++) {
+            selectivity += h.estimateSelectivity(Op.EQUALS, c);
+        }
+        Assert.assertEquals(1.0, selectivity, 0.05);
+    }
+
+    /**
+     * Test with values much larger than an int holds, such as the millisecond
+     * timestamps of DATE fields.
+     */
+    @Test
+    public void wideRangeTest() {
+        double min = 1e12;
+        double max = 2e12;
+        DoubleHistogram h = new DoubleHistogram(10, min, max);
+        for (int c = 0; c <= 1000; c++) {
+            h.addValue(min + (max - min) * c / 1000);
+        }
+
+        Assert.assertEquals(0.5, h.estimateSelectivity(Op.GREATER_THAN, 1.5e12), 0.01);
+        Assert.assertEquals(0.25, h.estimateSelectivity(Op.LESS_THAN, 1.25e12), 0.01);
+        Assert.assertEquals(1.0, h.estimateSelectivity(Op.GREATER_THAN, 0), 0.001);
+        Assert.assertEquals(0.0, h.estimateSelectivity(Op.GREATER_THAN, 3e12), 0.001);
+        Assert.assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, 3e12), 0.001);
+        Assert.assertEquals(1.0, h.estimateSelectivity(Op.NOT_EQUALS, 3e12), 0.001);
+    }
+
+    /**
+     * Test equality on DATE-like values: millisecond timestamps of whole
+     * days, which are few and far apart within each bucket.
+     */
+    @Test
+    public void sparseValuesTest() {
+        long day = 24L * 60 * 60 * 1000;
+        double min = 1.5e12;
+        DoubleHistogram h = new DoubleHistogram(10, min, min + 99 * day);
+        for (int c = 0; c < 10000; c++) {
+            h.addValue(min + (c % 100) * day);
+        }
+
+        Assert.assertEquals(0.01, h.estimateSelectivity(Op.EQUALS, min + 42 * day), 0.002);
+        double selectivity = 0.0;
+        for (int c = 0; c < 100; c++) {
+            selectivity += h.estimateSelectivity(Op.EQUALS, min + c * day);
+        }
+        Assert.assertEquals(1.0, selectivity, 0.05);
+    }
+
+    /**
+     * Test that the average selectivity is the one of a single value, e.g.
+     * one match per probe on a unique LONG key.
+     */
+    @Test
+    public void avgSelectivityTest() {
+        DoubleHistogram h = new DoubleHistogram(100, 1e10, 1e10 + 999);
+        for (int c = 0; c < 1000; c++) {
+            h.addValue(1e10 + c);
+        }
+        Assert.assertEquals(0.001, h.avgSelectivity(), 0.0002);
+    }
+
+    /**
+     * Test a histogram of fractional values and one of a single value.
+     */
+    @Test
+    public void fractionalAndConstantTest() {
+        DoubleHistogram h = new DoubleHistogram(10, 0, 1);
+        for (int c = 0; c < 1000; c++) {
+            h.addValue(c / 1000.0);
+        }
+        Assert.assertEquals(0.3, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 0.3), 0.01);
+
+        DoubleHistogram constant = new DoubleHistogram(10, 5, 5);
+        for (int c = 0; c < 10; c++) {
+            constant.addValue(5);
+        }
+        Assert.assertEquals(1.0, constant.estimateSelectivity(Op.EQUALS, 5), 0.001);
+        Assert.assertEquals(0.0, constant.estimateSelectivity(Op.GREATER_THAN, 5), 0.001);
+        Assert.assertEquals(1.0, constant.estimateSelectivity(Op.LESS_THAN_OR_EQ, 5), 0.001);
+    }
+}
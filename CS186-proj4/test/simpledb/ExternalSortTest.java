@@ -0,0 +1,71 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class ExternalSortTest {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] {
+            Type.INT_TYPE, Type.VARSTRING_TYPE });
+
+    /**
+     * Adds count tuples with random keys to sort, sorts them and checks that
+     * they come back in order with their RecordIds.
+     */
+    private static void checkSort(ExternalSort sort, int count) throws Exception {
+        Random r = new Random(count);
+        for (int i = 0; i < count; i++) {
+            Tuple t = new Tuple(TD);
+            int key = r.nextInt(count);
+            t.setField(0, new IntField(key));
+            t.setField(1, new StringField("v" + key, Type.STRING_LEN));
+            t.setRecordId(new RecordId(new HeapPageId(7, key), key % 50));
+            sort.add(t);
+        }
+        assertEquals(count, sort.size());
+        sort.sort();
+        int previous = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            Tuple t = sort.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            assertTrue(previous <= key);
+            assertEquals("v" + key, ((StringField) t.getField(1)).getValue());
+            assertEquals(new RecordId(new HeapPageId(7, key), key % 50),
+                    t.getRecordId());
+            previous = key;
+        }
+        assertNull(sort.next());
+        sort.close();
+    }
+
+    /**
+     * Unit test for tuples that fit in one run.
+     */
+    @Test public void inMemory() throws Exception {
+        checkSort(new ExternalSort(TD, new TupleComparator(0, true), 1000), 500);
+    }
+
+    /**
+     * Unit test for more runs than are merged at once, which takes more than
+     * one merge pass.
+     */
+    @Test public void manyRuns() throws Exception {
+        int runs = ExternalSort.MERGE_FAN_IN * 3 + 1;
+        checkSort(new ExternalSort(TD, new TupleComparator(0, true), 10),
+                runs * 10 - 5);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExternalSortTest.class);
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashFileTest extends SimpleDbTestBase {
+
+    /**
+     * Returns the number of entries of an index with the given key, checking
+     * that they all have that key.
+     */
+    private static int count(HashFile index, int key) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid, new IntField(key), new IntField(key));
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(new IntField(key), it.next().getField(0));
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * Unit test that inserts through the buffer pool chain pages and split
+     * buckets without losing entries, and that deletes remove exactly the
+     * entries of the deleted tuples.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples, "f");
+        HashFile index = TestUtil.addIndex(new HashFile(
+                TestUtil.indexFile(".hash"), hf, 1));
+        assertEquals(3, index.numPages());
+
+        Random r = new Random(0);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 5000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, r.nextInt(500) });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(index.numPages() > 10);
+        int[] expected = TestUtil.counts(tuples, 1, 500);
+        for (int key = 0; key < 500; key++) {
+            assertEquals(expected[key], count(index, key));
+        }
+
+        tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        int all = 0;
+        while (it.hasNext()) {
+            it.next();
+            all++;
+        }
+        it.close();
+        assertEquals(tuples.size(), all);
+
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 3 == 0) {
+                deleted.add(t);
+            } else {
+                remaining.add(SystemTestUtil.tupleToList(t));
+            }
+        }
+        it.close();
+        for (Tuple t : deleted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        expected = TestUtil.counts(remaining, 1, 500);
+        for (int key = 0; key < 500; key++) {
+            assertEquals(expected[key], count(index, key));
+        }
+    }
+
+    /**
+     * Unit test that a hash index only looks up single keys.
+     */
+    @Test public void singleKeysOnly() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100, null, null, "f");
+        HashFile index = TestUtil.addIndex(new HashFile(
+                TestUtil.indexFile(".hash"), hf, 0));
+        try {
+            index.iterator(new TransactionId(), new IntField(1), new IntField(2));
+            fail("expected exception for a range of keys");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Unit test that the planner looks up an equality filter on the key of a
+     * hash index through the index, and scans the table for a range.
+     */
+    @Test public void plannerUsesIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, 10000, null, tuples, "f");
+        TestUtil.addIndex(new HashFile(TestUtil.indexFile(".hash"), hf, 0));
+        String name = Database.getCatalog().getTableName(hf.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+
+        TransactionId tid = new TransactionId();
+        Integer key = tuples.get(0).get(0);
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.f0", Predicate.Op.EQUALS, key.toString());
+        lp.addProjectField("*", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(TestUtil.contains(plan, IndexScan.class));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(0).equals(key)) {
+                expected.add(tuple);
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.f0", Predicate.Op.LESS_THAN, "3");
+        lp.addProjectField("*", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(TestUtil.contains(plan, SeqScan.class));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
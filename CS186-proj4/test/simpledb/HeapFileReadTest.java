@@ -3,6 +3,9 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -62,6 +65,29 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         // assertEquals(1, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.getTuple()
+     */
+    @Test
+    public void getTuple() throws Exception {
+        RecordId rid = new RecordId(new HeapPageId(hf.getId(), 0), 3);
+        Tuple t = hf.getTuple(tid, rid);
+        assertEquals(rid, t.getRecordId());
+        HeapPage page = (HeapPage) hf.readPage(rid.getPageId());
+        assertEquals(page.getTuple(3).getField(1), t.getField(1));
+
+        try {
+            hf.getTuple(tid, new RecordId(new HeapPageId(hf.getId(), 0), 20));
+            fail("expected exception for an empty slot");
+        } catch (DbException e) {
+        }
+        try {
+            hf.getTuple(tid, new RecordId(new HeapPageId(hf.getId(), 1), 0));
+            fail("expected exception for a page past the end of the file");
+        } catch (DbException e) {
+        }
+    }
+
     /**
      * Unit test for HeapFile.readPage()
      */
@@ -77,6 +103,60 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped HeapFile
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        assertTrue(mapped.isMemoryMapped());
+
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage expected = (HeapPage) hf.readPage(pid);
+        HeapPage actual = (HeapPage) mapped.readPage(pid);
+        assertEquals(expected.getNumEmptySlots(), actual.getNumEmptySlots());
+        Iterator<Tuple> it = actual.iterator();
+        for (Iterator<Tuple> e = expected.iterator(); e.hasNext();) {
+            assertTrue(it.hasNext());
+            assertEquals(e.next().toString(), it.next().toString());
+        }
+        assertFalse(it.hasNext());
+        mapped.close();
+    }
+
+    /**
+     * Unit test for HeapFile.close(): a closed file reopens on the next read.
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.close();
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+        // close twice is harmless
+        hf.close();
+        hf.close();
+    }
+
+    /**
+     * Unit test that a file without a header, as written before table files
+     * had one, isn't opened with its pages shifted by one.
+     */
+    @Test
+    public void headerlessFile() throws Exception {
+        byte[] bytes = Files.readAllBytes(hf.getFile().toPath());
+        File legacy = File.createTempFile("legacy", ".dat");
+        legacy.deleteOnExit();
+        Files.write(legacy.toPath(), Arrays.copyOfRange(bytes,
+                (int) FileHeader.offset(0), bytes.length));
+        try {
+            new HeapFile(legacy, td);
+            fail("expected exception for a file without a header");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +201,117 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /** A HeapFile that counts the pages read from disk, from any thread. */
+    private static class CountingHeapFile extends HeapFile {
+        private int readCount = 0;
+        private int runCount = 0;
+
+        public CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            synchronized (this) {
+                readCount += 1;
+            }
+            return super.readPage(pid);
+        }
+
+        @Override
+        public List<Page> readPages(PageId first, int count) {
+            List<Page> pages = super.readPages(first, count);
+            synchronized (this) {
+                readCount += pages.size();
+                runCount += 1;
+            }
+            return pages;
+        }
+
+        public synchronized int getReadCount() {
+            return readCount;
+        }
+
+        public synchronized int getRunCount() {
+            return runCount;
+        }
+    }
+
+    /**
+     * Unit test for HeapFile.readPages(): a run reads the same pages as
+     * readPage, and stops at the end of the file.
+     */
+    @Test
+    public void readPages() throws Exception {
+        HeapFile threePages = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        List<Page> pages = threePages.readPages(new HeapPageId(threePages.getId(), 1), 5);
+        assertEquals(2, pages.size());
+        for (int i = 0; i < 2; i++) {
+            HeapPageId pid = new HeapPageId(threePages.getId(), i + 1);
+            assertEquals(pid, pages.get(i).getId());
+            assertTrue(Arrays.equals(threePages.readPage(pid).getPageData(),
+                    pages.get(i).getPageData()));
+        }
+        try {
+            threePages.readPages(new HeapPageId(threePages.getId(), 3), 1);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Unit test for read-ahead: once a scan moves past its first page, the
+     * next pages are read in the background without being locked, and no
+     * page is read twice.
+     */
+    @Test
+    public void readAhead() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 20, 1000,
+                null, new ArrayList<ArrayList<Integer>>());
+        final CountingHeapFile counting = new CountingHeapFile(f, td);
+        Database.getCatalog().addTable(counting, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getBufferPool().setReadAheadPages(4);
+
+        DbFileIterator it = counting.iterator(tid);
+        it.open();
+        for (int i = 0; i <= 504; i++) {
+            it.next();
+        }
+        // pages 0 and 1 by the scan, 2 to 5 by the read-ahead thread in a
+        // single run
+        Database.getBufferPool().awaitReadAhead();
+        assertEquals(6, counting.getReadCount());
+        assertEquals(1, counting.getRunCount());
+
+        // the scan holds no lock on a prefetched page yet
+        final TransactionId writer = new TransactionId();
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    Database.getBufferPool().getPage(writer,
+                            new HeapPageId(counting.getId(), 5), Permissions.READ_WRITE);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        t.start();
+        t.join(2000);
+        assertFalse(t.isAlive());
+        Database.getBufferPool().transactionComplete(writer);
+        assertEquals(6, counting.getReadCount());
+
+        int count = 505;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * 20, count);
+        assertEquals(20, counting.getReadCount());
+    }
+
     /**
      * JUnit suite target
      */
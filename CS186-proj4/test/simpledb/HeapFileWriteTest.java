@@ -43,6 +43,134 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test that HeapFile.insertTuple() skips full pages without locking
+     * them and reuses space freed by a delete.
+     */
+    @Test(timeout = 10000) public void addTupleSkipsFullPages() throws Exception {
+        for (int i = 0; i < 505; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        // another transaction reading the full first page must not block us
+        TransactionId reader = new TransactionId();
+        HeapPageId first = new HeapPageId(empty.getId(), 0);
+        Database.getBufferPool().getPage(reader, first, Permissions.READ_ONLY);
+        Tuple t = Utility.getHeapTuple(1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(1, t.getRecordId().getPageId().pageNumber());
+        Database.getBufferPool().transactionComplete(reader);
+
+        // a delete makes room on the first page again
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, first,
+                Permissions.READ_WRITE);
+        empty.deleteTuple(tid, page.iterator().next());
+        t = Utility.getHeapTuple(2, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(2, empty.numPages());
+    }
+
+    /**
+     * Unit test that HeapFile.insertTuple() grows the file by whole extents,
+     * and that a reopened file only counts the pages in use.
+     */
+    @Test public void addTupleGrowsByExtents() throws Exception {
+        empty.setExtentSize(8);
+        for (int i = 0; i < 1100; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, empty.numPages());
+        // the header and the page Utility.createEmptyHeapFile wrote, then
+        // one extent
+        assertEquals(10 * BufferPool.getPageSize(), empty.getFile().length());
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        assertEquals(3, reopened.numPages());
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(1100, count);
+    }
+
+    /**
+     * Unit test that HeapFile.vacuum() moves the tuples left after deletes
+     * into the first pages and truncates the file, waiting for a transaction
+     * that still reads the last page.
+     */
+    @Test(timeout = 20000) public void vacuum() throws Exception {
+        for (int i = 0; i < 504 * 6; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        java.util.ArrayList<Tuple> deleted = new java.util.ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 6 != 0) {
+                deleted.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : deleted) {
+            empty.deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(6, empty.numPages());
+
+        final TransactionId reader = new TransactionId();
+        Database.getBufferPool().getPage(reader,
+                new HeapPageId(empty.getId(), 5), Permissions.READ_ONLY);
+        Thread done = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(500);
+                    Database.getBufferPool().transactionComplete(reader);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        done.start();
+
+        assertEquals(5, empty.vacuum());
+        done.join();
+        assertEquals(1, empty.numPages());
+        assertEquals(FileHeader.offset(1), empty.getFile().length());
+        it = empty.iterator(tid);
+        it.open();
+        boolean[] seen = new boolean[504];
+        while (it.hasNext()) {
+            int v = ((IntField) it.next().getField(0)).getValue();
+            assertEquals(0, v % 6);
+            assertFalse(seen[v / 6]);
+            seen[v / 6] = true;
+        }
+        it.close();
+        for (boolean s : seen) {
+            assertTrue(s);
+        }
+
+        // the table grows again from the truncated end
+        Tuple t = Utility.getHeapTuple(1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(1, t.getRecordId().getPageId().pageNumber());
+        assertEquals(2, empty.numPages());
+    }
+
     /**
      * JUnit suite target
      */
@@ -57,8 +57,10 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         try {
             File temp = File.createTempFile("table", ".dat");
             temp.deleteOnExit();
-            HeapFileEncoder.convert(table, temp, BufferPool.PAGE_SIZE, 2);
-            EXAMPLE_DATA = TestUtil.readFileBytes(temp.getAbsolutePath());
+            HeapFileEncoder.convert(table, temp, BufferPool.getPageSize(), 2);
+            byte[] bytes = TestUtil.readFileBytes(temp.getAbsolutePath());
+            EXAMPLE_DATA = Arrays.copyOfRange(bytes, (int) FileHeader.offset(0),
+                    bytes.length);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -120,6 +122,39 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField() and HeapPage.getTuple()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            for (int j = 0; j < 2; ++j) {
+                IntField f = (IntField) page.getField(i, j);
+                assertEquals(EXAMPLE_VALUES[i][j], f.getValue());
+            }
+        }
+        assertEquals(null, page.getField(20, 0));
+
+        Tuple tup = page.getTuple(3);
+        assertEquals(new RecordId(pid, 3), tup.getRecordId());
+        assertEquals(EXAMPLE_VALUES[3][1], ((IntField) tup.getField(1)).getValue());
+        assertTrue(tup == page.getTuple(3));
+        assertEquals(null, page.getTuple(20));
+    }
+
+    /**
+     * Unit test that a page whose tuples were never decoded serializes back to
+     * the bytes it was read from.
+     */
+    @Test public void getPageDataUndecoded() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        page.getTuple(0);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
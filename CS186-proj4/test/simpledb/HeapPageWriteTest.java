@@ -4,6 +4,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +128,88 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.writePageData(): a page with inserted, deleted
+     * and never-decoded slots encodes to the same bytes as getPageData(),
+     * overwriting whatever the buffer held, and reads back unchanged.
+     */
+    @Test public void writePageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        page.deleteTuple(it.next());
+        page.insertTuple(Utility.getHeapTuple(new int[] { -7, 77 }));
+
+        byte[] garbage = new byte[BufferPool.getPageSize()];
+        Arrays.fill(garbage, (byte) 0x5a);
+        page.writePageData(ByteBuffer.wrap(garbage));
+        assertTrue(Arrays.equals(page.getPageData(), garbage));
+
+        HeapPage copy = new HeapPage(pid, garbage);
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> expected = page.iterator();
+        Iterator<Tuple> actual = copy.iterator();
+        while (expected.hasNext()) {
+            assertTrue(TestUtil.compareTuples(expected.next(), actual.next()));
+        }
+        assertTrue(!actual.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage(): the before image is the page as
+     * read until a transaction commits it, however often it changes before
+     * then.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData()));
+
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        page.markDirty(true, new TransactionId());
+        page.deleteTuple(page.iterator().next());
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData()));
+
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertTrue(Arrays.equals(committed, page.getBeforeImage().getPageData()));
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertTrue(Arrays.equals(committed, page.getBeforeImage().getPageData()));
+    }
+
+    /**
+     * Unit test that inserts fill the lowest empty slot and the iterator
+     * visits used slots in order across the 64-slot words of the header.
+     */
+    @Test public void slotsAcrossWords() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        LinkedList<Tuple> tuples = new LinkedList<Tuple>();
+        while (page.getNumEmptySlots() > 0) {
+            Tuple t = Utility.getHeapTuple(tuples.size(), 2);
+            page.insertTuple(t);
+            assertEquals(tuples.size(), t.getRecordId().tupleno());
+            tuples.add(t);
+        }
+        for (int i = 0; i < tuples.size(); i++) {
+            if (i % 3 != 0 && i != 63 && i != 64) {
+                page.deleteTuple(tuples.get(i));
+            }
+        }
+
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < tuples.size(); i++) {
+            if (i % 3 == 0 || i == 63 || i == 64) {
+                assertEquals(i, it.next().getRecordId().tupleno());
+            }
+        }
+        assertTrue(!it.hasNext());
+
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        page.insertTuple(t);
+        assertEquals(1, t.getRecordId().tupleno());
+    }
+
     /**
      * JUnit suite target
      */
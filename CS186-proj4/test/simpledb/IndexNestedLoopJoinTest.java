@@ -0,0 +1,125 @@
+package simpledb;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    /**
+     * Returns the concatenations of the tuples of outer and inner whose
+     * fields f1 and f2 satisfy op.
+     */
+    private static ArrayList<ArrayList<Integer>> expectedJoin(
+            ArrayList<ArrayList<Integer>> outer, int f1, Predicate.Op op,
+            ArrayList<ArrayList<Integer>> inner, int f2) {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : outer) {
+            for (ArrayList<Integer> t2 : inner) {
+                if (new IntField(t1.get(f1)).compare(op, new IntField(t2.get(f2)))) {
+                    ArrayList<Integer> t = new ArrayList<Integer>(t1);
+                    t.addAll(t2);
+                    expected.add(t);
+                }
+            }
+        }
+        return expected;
+    }
+
+    private static void checkJoin(IndexFile index, HeapFile outerFile,
+            ArrayList<ArrayList<Integer>> outer, Predicate.Op op,
+            ArrayList<ArrayList<Integer>> inner) throws Exception {
+        TransactionId tid = new TransactionId();
+        IndexScan probe = new IndexScan(tid, index.getId(), "b", null, null);
+        JoinPredicate p = new JoinPredicate(0, op, 1);
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(p,
+                new SeqScan(tid, outerFile.getId(), "a"), probe, probe);
+        SystemTestUtil.matchTuples(join, expectedJoin(outer, 0, op, inner, 1));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test that the join finds the matches of every outer tuple through
+     * a B+ tree index, for equality and ranges, and through a hash index.
+     */
+    @Test public void lookUps() throws Exception {
+        ArrayList<ArrayList<Integer>> outer = new ArrayList<ArrayList<Integer>>();
+        HeapFile outerFile = SystemTestUtil.createRandomHeapFile(2, 20, 200, null, outer, "f");
+        ArrayList<ArrayList<Integer>> inner = new ArrayList<ArrayList<Integer>>();
+        HeapFile innerFile = SystemTestUtil.createRandomHeapFile(2, 2000, 200, null, inner, "f");
+
+        IndexFile btree = TestUtil.addIndex(new BTreeFile(
+                TestUtil.indexFile(".btree"), innerFile, 1));
+        checkJoin(btree, outerFile, outer, Predicate.Op.EQUALS, inner);
+        checkJoin(btree, outerFile, outer, Predicate.Op.LESS_THAN, inner);
+        checkJoin(btree, outerFile, outer, Predicate.Op.GREATER_THAN_OR_EQ, inner);
+
+        IndexFile hash = TestUtil.addIndex(new HashFile(
+                TestUtil.indexFile(".hash"), innerFile, 1));
+        checkJoin(hash, outerFile, outer, Predicate.Op.EQUALS, inner);
+    }
+
+    /**
+     * Unit test that the optimizer looks up the matches of a few outer tuples
+     * in the index of a large table rather than scanning it, keeping the
+     * filters on the inner table, and scans it when it has no index.
+     */
+    @Test public void optimizerUsesIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> outer = new ArrayList<ArrayList<Integer>>();
+        HeapFile outerFile = SystemTestUtil.createRandomHeapFile(2, 1000, 1000, null, outer, "f");
+        ArrayList<ArrayList<Integer>> inner = new ArrayList<ArrayList<Integer>>();
+        HeapFile innerFile = SystemTestUtil.createRandomHeapFile(2, 20000, 10000, null, inner, "f");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        for (HeapFile hf : new HeapFile[] { outerFile, innerFile }) {
+            String name = Database.getCatalog().getTableName(hf.getId());
+            TableStats s = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+            TableStats.setTableStats(name, s);
+            stats.put(name, s);
+        }
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outerFile.getId(), "a");
+        lp.addScan(innerFile.getId(), "b");
+        lp.addFilter("a.f0", Predicate.Op.LESS_THAN, "10");
+        lp.addFilter("b.f0", Predicate.Op.GREATER_THAN, "5000");
+        lp.addJoin("a.f1", "b.f1", Predicate.Op.EQUALS);
+        lp.addProjectField("*", null);
+        assertTrue(!TestUtil.contains(lp.physicalPlan(tid, stats, false),
+                IndexNestedLoopJoin.class));
+
+        TestUtil.addIndex(new BTreeFile(TestUtil.indexFile(".btree"), innerFile, 1));
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(TestUtil.contains(plan, IndexNestedLoopJoin.class));
+        ArrayList<ArrayList<Integer>> smallOuter = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : outer) {
+            if (t.get(0) < 10) {
+                smallOuter.add(t);
+            }
+        }
+        ArrayList<ArrayList<Integer>> filteredInner = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : inner) {
+            if (t.get(0) > 5000) {
+                filteredInner.add(t);
+            }
+        }
+        SystemTestUtil.matchTuples(plan,
+                expectedJoin(smallOuter, 1, Predicate.Op.EQUALS, filteredInner, 1));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,212 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexOnlyScanTest extends SimpleDbTestBase {
+
+    private static final Comparator<List<Integer>> ORDER = new Comparator<List<Integer>>() {
+        public int compare(List<Integer> a, List<Integer> b) {
+            for (int i = 0; i < a.size(); i++) {
+                int c = a.get(i).compareTo(b.get(i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+    };
+
+    /**
+     * Returns the given fields of the tuples a scan returns, sorted, checking
+     * that its other fields are null.
+     */
+    private static List<List<Integer>> scan(DbIterator scan, int[] fields)
+            throws Exception {
+        List<List<Integer>> result = new ArrayList<List<Integer>>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            List<Integer> values = new ArrayList<Integer>();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                boolean found = false;
+                for (int field : fields) {
+                    found |= field == i;
+                }
+                if (found) {
+                    values.add(((IntField) t.getField(i)).getValue());
+                } else {
+                    assertNull(t.getField(i));
+                }
+            }
+            result.add(values);
+        }
+        scan.close();
+        Collections.sort(result, ORDER);
+        return result;
+    }
+
+    /**
+     * Returns the given fields of the tuples whose field key is between lower
+     * and upper, sorted.
+     */
+    private static List<List<Integer>> expected(ArrayList<ArrayList<Integer>> tuples,
+            int key, int lower, int upper, int[] fields) {
+        List<List<Integer>> result = new ArrayList<List<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(key) >= lower && tuple.get(key) <= upper) {
+                List<Integer> values = new ArrayList<Integer>();
+                for (int field : fields) {
+                    values.add(tuple.get(field));
+                }
+                result.add(values);
+            }
+        }
+        Collections.sort(result, ORDER);
+        return result;
+    }
+
+    /**
+     * Unit test that the entries of B+ tree and hash indexes carry the fields
+     * they include, also for tuples inserted after the indexes were built.
+     */
+    @Test public void includedFields() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(4, 3000, 50, null, tuples, "f");
+        BTreeFile btree = TestUtil.addIndex(new BTreeFile(
+                TestUtil.indexFile(".btree"), hf, 1, new int[] { 3, 0 }));
+        HashFile hash = TestUtil.addIndex(new HashFile(
+                TestUtil.indexFile(".hash"), hf, 2, new int[] { 1 }));
+        assertTrue(Arrays.equals(new int[] { 3, 0 }, btree.getIncludedFields()));
+        assertEquals(3, btree.getTupleDesc().numFields());
+        assertEquals(2, hash.getTupleDesc().numFields());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, i % 50, i % 7, -i });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        int[] fields = new int[] { 0, 1, 3 };
+        assertEquals(expected(tuples, 1, 10, 20, fields), scan(new IndexOnlyScan(tid,
+                btree.getId(), "t", new IntField(10), new IntField(20)), fields));
+        fields = new int[] { 1, 2 };
+        assertEquals(expected(tuples, 2, 3, 3, fields), scan(new IndexOnlyScan(tid,
+                hash.getId(), "t", new IntField(3), new IntField(3)), fields));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test that an index file built for other included fields, or from
+     * a table file that has been written anew since, is rebuilt when the
+     * index is added.
+     */
+    @Test public void staleIndexIsRebuilt() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(4, 1000, 50, null, tuples, "f");
+        File f = TestUtil.indexFile(".btree");
+        TestUtil.addIndex(new BTreeFile(f, hf, 1, new int[] { 2 }));
+        assertTrue(new BTreeFile(f, hf, 1, new int[] { 2 }).numPages() > 0);
+
+        BTreeFile btree = new BTreeFile(f, hf, 1, new int[] { 3 });
+        assertEquals(0, btree.numPages());
+        TestUtil.addIndex(btree);
+        TransactionId tid = new TransactionId();
+        int[] fields = new int[] { 1, 3 };
+        assertEquals(expected(tuples, 1, 0, 50, fields), scan(new IndexOnlyScan(tid,
+                btree.getId(), "t", new IntField(0), new IntField(50)), fields));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(new BTreeFile(f, hf, 1, new int[] { 3 }).numPages() > 0);
+
+        HeapFileEncoder.convert(tuples, hf.getFile(), BufferPool.getPageSize(), 4);
+        assertEquals(0, new BTreeFile(f, hf, 1, new int[] { 3 }).numPages());
+    }
+
+    /**
+     * Unit test that an IndexOnlyScan reads no page of the table: it runs to
+     * the end while another transaction holds write locks on all of them.
+     */
+    @Test public void readsNoTablePage() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, tuples, "f");
+        BTreeFile btree = TestUtil.addIndex(new BTreeFile(
+                TestUtil.indexFile(".btree"), hf, 0, new int[] { 2 }));
+
+        TransactionId writer = new TransactionId();
+        for (int i = 0; i < hf.numPages(); i++) {
+            Database.getBufferPool().getPage(writer, new HeapPageId(hf.getId(), i),
+                    Permissions.READ_WRITE);
+        }
+        TransactionId tid = new TransactionId();
+        int[] fields = new int[] { 0, 2 };
+        assertEquals(expected(tuples, 0, 0, 100, fields), scan(new IndexOnlyScan(tid,
+                btree.getId(), "t", null, null), fields));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().transactionComplete(writer);
+    }
+
+    /**
+     * Unit test that the planner answers a query that needs only fields an
+     * index carries with an IndexOnlyScan, and one that needs others by
+     * reading the table.
+     */
+    @Test public void plannerUsesIndexOnlyScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 20000, 20, null, tuples, "f");
+        TestUtil.addIndex(new BTreeFile(
+                TestUtil.indexFile(".btree"), hf, 1, new int[] { 2 }));
+        String name = Database.getCatalog().getTableName(hf.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.f1", Predicate.Op.EQUALS, "7");
+        lp.addProjectField("t.f2", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(TestUtil.contains(plan, IndexOnlyScan.class));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(1) == 7) {
+                expected.add(new ArrayList<Integer>(tuple.subList(2, 3)));
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.f1", Predicate.Op.EQUALS, "7");
+        lp.addProjectField("*", null);
+        assertFalse(TestUtil.contains(lp.physicalPlan(tid, stats, false),
+                IndexOnlyScan.class));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexOnlyScanTest.class);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class NumericAggregatorTest extends SimpleDbTestBase {
+
+    private static final long BIG = 10000000000L;
+
+    private static DbIterator longScan() {
+        return TestUtil.createTupleList(2, new Object[] {
+                1, new LongField(2 * BIG),
+                1, new LongField(4 * BIG),
+                1, new LongField(9 * BIG),
+                3, new LongField(-BIG) });
+    }
+
+    private static DbIterator doubleScan() {
+        return TestUtil.createTupleList(2, new Object[] {
+                1, new DoubleField(0.5),
+                1, new DoubleField(1.25),
+                3, new DoubleField(-2.0) });
+    }
+
+    private static DbIterator dateScan() throws Exception {
+        return TestUtil.createTupleList(2, new Object[] {
+                1, DateField.parse("2014-04-01"),
+                1, DateField.parse("2014-04-03"),
+                3, DateField.parse("2013-01-01") });
+    }
+
+    /**
+     * Merges all tuples of scan into a NumericAggregator grouped on field 0
+     * and returns its results, already open.
+     */
+    private static DbIterator aggregate(DbIterator scan, Aggregator.Op op)
+            throws Exception {
+        Type type = scan.getTupleDesc().getFieldType(1);
+        NumericAggregator agg = new NumericAggregator(0, Type.INT_TYPE, 1, type, op);
+        scan.open();
+        while (scan.hasNext()) {
+            agg.mergeTupleIntoGroup(scan.next());
+        }
+        DbIterator it = agg.iterator();
+        it.open();
+        return it;
+    }
+
+    /**
+     * Unit test for NumericAggregator over LONG fields, whose values don't
+     * fit in an int.
+     */
+    @Test public void longs() throws Exception {
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new Object[] {
+                1, new LongField(15 * BIG), 3, new LongField(-BIG) }),
+                aggregate(longScan(), Aggregator.Op.SUM));
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new Object[] {
+                1, new LongField(5 * BIG), 3, new LongField(-BIG) }),
+                aggregate(longScan(), Aggregator.Op.AVG));
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new Object[] {
+                1, new LongField(2 * BIG), 3, new LongField(-BIG) }),
+                aggregate(longScan(), Aggregator.Op.MIN));
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new Object[] {
+                1, new LongField(9 * BIG), 3, new LongField(-BIG) }),
+                aggregate(longScan(), Aggregator.Op.MAX));
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 1, 3, 3, 1 }),
+                aggregate(longScan(), Aggregator.Op.COUNT));
+    }
+
+    /**
+     * Unit test for NumericAggregator over DOUBLE fields.
+     */
+    @Test public void doubles() throws Exception {
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new Object[] {
+                1, new DoubleField(1.75), 3, new DoubleField(-2.0) }),
+                aggregate(doubleScan(), Aggregator.Op.SUM));
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new Object[] {
+                1, new DoubleField(0.875), 3, new DoubleField(-2.0) }),
+                aggregate(doubleScan(), Aggregator.Op.AVG));
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new Object[] {
+                1, new DoubleField(0.5), 3, new DoubleField(-2.0) }),
+                aggregate(doubleScan(), Aggregator.Op.MIN));
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new Object[] {
+                1, new DoubleField(1.25), 3, new DoubleField(-2.0) }),
+                aggregate(doubleScan(), Aggregator.Op.MAX));
+    }
+
+    /**
+     * Unit test for NumericAggregator over DATE fields, which can't be
+     * summed.
+     */
+    @Test public void dates() throws Exception {
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new Object[] {
+                1, DateField.parse("2014-04-02"), 3, DateField.parse("2013-01-01") }),
+                aggregate(dateScan(), Aggregator.Op.AVG));
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new Object[] {
+                1, DateField.parse("2014-04-01"), 3, DateField.parse("2013-01-01") }),
+                aggregate(dateScan(), Aggregator.Op.MIN));
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new Object[] {
+                1, DateField.parse("2014-04-03"), 3, DateField.parse("2013-01-01") }),
+                aggregate(dateScan(), Aggregator.Op.MAX));
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 1, 2, 3, 1 }),
+                aggregate(dateScan(), Aggregator.Op.COUNT));
+        try {
+            new NumericAggregator(0, Type.INT_TYPE, 1, Type.DATE_TYPE, Aggregator.Op.SUM);
+            fail("expected exception for a sum of dates");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Unit test that Aggregate computes aggregates of the new types with a
+     * NumericAggregator, and that its output has their types.
+     */
+    @Test public void aggregateOperator() throws Exception {
+        Aggregate agg = new Aggregate(longScan(), 1, Aggregator.NO_GROUPING,
+                Aggregator.Op.MAX);
+        assertEquals(Type.LONG_TYPE, agg.getTupleDesc().getFieldType(0));
+        agg.open();
+        assertEquals(new LongField(9 * BIG), agg.next().getField(0));
+        agg.close();
+
+        agg = new Aggregate(doubleScan(), 1, 0, Aggregator.Op.SUM);
+        assertEquals(Type.DOUBLE_TYPE, agg.getTupleDesc().getFieldType(1));
+        agg.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new Object[] {
+                1, new DoubleField(1.75), 3, new DoubleField(-2.0) }), agg);
+        agg.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(NumericAggregatorTest.class);
+    }
+}
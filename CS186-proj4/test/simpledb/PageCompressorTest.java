@@ -0,0 +1,122 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCompressorTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+            new String[] { "id", "name", "qty" });
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private byte[] createPage(int tuples) throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < tuples; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(1000000 + i));
+            t.setField(1, new StringField(i % 2 == 0 ? "even" : "odd", Type.STRING_LEN));
+            t.setField(2, new IntField(-i % 7));
+            page.insertTuple(t);
+        }
+        // leave a hole so that only used slots are encoded
+        page.deleteTuple(page.getTuple(1));
+        return page.getPageData();
+    }
+
+    /**
+     * Unit test that every combination of encodings decompresses to the page
+     * it was given.
+     */
+    @Test public void roundTrip() throws Exception {
+        byte[] page = createPage(20);
+        int[] encodings = { PageCompressor.NONE, PageCompressor.COLUMNS,
+                PageCompressor.DEFLATE,
+                PageCompressor.COLUMNS | PageCompressor.DEFLATE };
+        for (int encoding : encodings) {
+            PageCompressor compressor = new PageCompressor(TD, encoding);
+            byte[] blob = compressor.compress(page);
+            assertTrue(Arrays.equals(page, compressor.decompress(blob)));
+        }
+
+        byte[] empty = HeapPage.createEmptyPageData();
+        PageCompressor compressor = new PageCompressor(TD, PageCompressor.COLUMNS);
+        assertTrue(Arrays.equals(empty, compressor.decompress(compressor.compress(empty))));
+    }
+
+    /**
+     * Unit test that column encoding only stores the bits the values need.
+     */
+    @Test public void columnsSize() throws Exception {
+        byte[] page = createPage(HeapPage.getNumTuples(TD));
+        byte[] blob = new PageCompressor(TD, PageCompressor.COLUMNS).compress(page);
+        int slots = HeapPage.getNumTuples(TD);
+        // a header, ids in 5 bits, names in 1 bit and quantities in 3 bits,
+        // plus a few bytes of dictionary and frame of reference
+        assertTrue(blob.length < (slots + 7) / 8 + (slots * 9 + 7) / 8 + 40);
+    }
+
+    /**
+     * Unit test for a HeapFile that stores its pages compressed: the file is
+     * compressed when first opened, and inserts survive reopening it.
+     */
+    @Test public void compressedHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 3000, 100, null, tuples);
+        long plainLength = f.length();
+        new File(f.getPath() + ".pages").deleteOnExit();
+
+        TupleDesc td = Utility.getTupleDesc(2);
+        HeapFile hf = new HeapFile(f, td, false,
+                PageCompressor.COLUMNS | PageCompressor.DEFLATE);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertTrue(hf.isCompressed());
+        assertEquals(FileHeader.pages(plainLength), hf.numPages());
+        assertTrue(f.length() < plainLength / 2);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 600; i++) {
+            hf.insertTuple(tid, Utility.getHeapTuple(i, 2));
+            tuples.add(SystemTestUtil.tupleToList(Utility.getHeapTuple(i, 2)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        int pages = hf.numPages();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = new HeapFile(f, td, false,
+                PageCompressor.COLUMNS | PageCompressor.DEFLATE);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(pages, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCompressorTest.class);
+    }
+}
@@ -0,0 +1,180 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PartitionedFileTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = Utility.getTupleDesc(2, "f");
+
+    private static File createFile() throws Exception {
+        File f = File.createTempFile("partitioned", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static PartitionedFile createRange(int... bounds) throws Exception {
+        Field[] keys = new Field[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            keys[i] = new IntField(bounds[i]);
+        }
+        PartitionedFile pf = new PartitionedFile(createFile(), TD, 0, keys, false,
+                PageCompressor.NONE, -1);
+        for (int i = 0; i <= bounds.length; i++) {
+            pf.getPartitionFile(i).deleteOnExit();
+        }
+        Database.getCatalog().addTable(pf, SystemTestUtil.getUUID());
+        return pf;
+    }
+
+    /**
+     * Inserts rows with random keys below maxKey through the buffer pool and
+     * returns them.
+     */
+    private static ArrayList<ArrayList<Integer>> insert(PartitionedFile pf,
+            int rows, int maxKey) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(0);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { r.nextInt(maxKey), i });
+            Database.getBufferPool().insertTuple(tid, pf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    /**
+     * Returns the number of the partition of pf a tuple is stored in.
+     */
+    private static int partitionOf(PartitionedFile pf, Tuple t) {
+        HeapFile[] partitions = pf.getPartitions();
+        for (int i = 0; i < partitions.length; i++) {
+            if (partitions[i].getId() == t.getRecordId().getPageId().getTableId()) {
+                return i;
+            }
+        }
+        throw new AssertionError("tuple " + t + " is in no partition");
+    }
+
+    /**
+     * Unit test that inserts into a range-partitioned table go to the
+     * partition of their key, and that a key range only reads the partitions
+     * that overlap it.
+     */
+    @Test public void rangePartitions() throws Exception {
+        PartitionedFile pf = createRange(100, 200);
+        ArrayList<ArrayList<Integer>> tuples = insert(pf, 3000, 300);
+        SystemTestUtil.matchTuples(pf, tuples);
+
+        DbFileIterator it = pf.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            assertEquals(key / 100, partitionOf(pf, t));
+        }
+        it.close();
+
+        assertTrue(Arrays.equals(new boolean[] { false, true, true },
+                pf.partitionsFor(new IntField(100), null)));
+        assertTrue(Arrays.equals(new boolean[] { true, true, false },
+                pf.partitionsFor(new IntField(-5), new IntField(199))));
+        assertTrue(Arrays.equals(new boolean[] { false, false, false },
+                pf.partitionsFor(new IntField(150), new IntField(120))));
+
+        it = pf.iterator(new TransactionId(), new IntField(120), new IntField(150));
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(1, partitionOf(pf, it.next()));
+            count++;
+        }
+        it.close();
+        assertTrue(count > 0);
+    }
+
+    /**
+     * Unit test that a hash-partitioned table spreads its tuples over the
+     * partitions and only reads one partition for a single key.
+     */
+    @Test public void hashPartitions() throws Exception {
+        File f = createFile();
+        PartitionedFile pf = new PartitionedFile(f, TD, 0, 4, false,
+                PageCompressor.NONE, -1);
+        for (int i = 0; i < 4; i++) {
+            pf.getPartitionFile(i).deleteOnExit();
+        }
+        Database.getCatalog().addTable(pf, SystemTestUtil.getUUID());
+        ArrayList<ArrayList<Integer>> tuples = insert(pf, 2000, 1000);
+        SystemTestUtil.matchTuples(pf, tuples);
+        for (HeapFile partition : pf.getPartitions()) {
+            assertTrue(partition.numPages() > 0);
+        }
+
+        Field key = new IntField(tuples.get(0).get(0));
+        DbFileIterator it = pf.iterator(new TransactionId(), key, key);
+        it.open();
+        boolean found = false;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(pf.partitionFor(key), partitionOf(pf, t));
+            found |= t.getField(0).equals(key);
+        }
+        it.close();
+        assertTrue(found);
+    }
+
+    /**
+     * Unit test that the planner doesn't scan partitions a filter on the
+     * partitioning key rules out. A tuple put straight into the wrong
+     * partition shows whether that partition was read.
+     */
+    @Test public void plannerPrunesPartitions() throws Exception {
+        PartitionedFile pf = createRange(100, 200);
+        String name = Database.getCatalog().getTableName(pf.getId());
+        ArrayList<ArrayList<Integer>> tuples = insert(pf, 1000, 300);
+        TransactionId tid = new TransactionId();
+        pf.getPartitions()[2].insertTuple(tid, Utility.getHeapTuple(new int[] { 5, -1 }));
+        Database.getBufferPool().transactionComplete(tid);
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(pf.getId(), TableStats.IOCOSTPERPAGE));
+        tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(pf.getId(), "t");
+        lp.addFilter("t.f0", Predicate.Op.LESS_THAN, "50");
+        lp.addProjectField("*", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(0) < 50) {
+                expected.add(tuple);
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PartitionedFileTest.class);
+    }
+}
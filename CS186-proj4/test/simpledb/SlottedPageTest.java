@@ -0,0 +1,203 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.VARSTRING_TYPE },
+            new String[] { "id", "name" });
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new VarStringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Unit test for SlottedPage.insertTuple(): short strings only take the
+     * space they need, and the page round-trips through getPageData().
+     */
+    @Test public void insertTuple() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        assertEquals(0, countTuples(page));
+
+        int inserted = 0;
+        while (page.hasRoomFor(tuple(inserted, "abc"))) {
+            page.insertTuple(tuple(inserted, "abc"));
+            inserted++;
+        }
+        // 4 byte int + 4 byte length + 3 bytes + 4 byte slot entry
+        assertEquals((BufferPool.getPageSize() - SlottedPage.HEADER_SIZE) / 15, inserted);
+        assertEquals(0, page.getNumEmptySlots());
+        try {
+            page.insertTuple(tuple(0, "abc"));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < inserted; i++) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals("abc", ((StringField) t.getField(1)).getValue());
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for SlottedPage.deleteTuple(): the space of deleted tuples is
+     * reused by later inserts.
+     */
+    @Test public void deleteTuple() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        while (page.hasRoomFor(tuple(0, "a"))) {
+            page.insertTuple(tuple(0, "a"));
+        }
+        int full = countTuples(page);
+
+        // free every other slot, then fill them with longer strings
+        for (int i = 0; i < full; i += 2) {
+            page.deleteTuple(page.getTuple(i));
+        }
+        assertFalse(page.isSlotUsed(0));
+        assertTrue(page.isSlotUsed(1));
+        assertTrue(page.getNumEmptySlots() > 0);
+
+        Tuple longer = tuple(1, "bb");
+        page.insertTuple(longer);
+        assertEquals(new RecordId(pid, 0), longer.getRecordId());
+        while (page.hasRoomFor(tuple(1, "bb"))) {
+            page.insertTuple(tuple(1, "bb"));
+        }
+        assertTrue(countTuples(page) > full / 2);
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(countTuples(page), countTuples(copy));
+        assertEquals("a", ((StringField) copy.getTuple(1).getField(1)).getValue());
+        assertEquals("bb", ((StringField) copy.getTuple(0).getField(1)).getValue());
+    }
+
+    /**
+     * Unit test for the slotted path of HeapFileEncoder, read back through a
+     * HeapFile.
+     */
+    @Test public void heapFileEncoder() throws Exception {
+        File in = File.createTempFile("varstring", ".txt");
+        in.deleteOnExit();
+        File out = File.createTempFile("varstring", ".dat");
+        out.deleteOnExit();
+        int rows = 2000;
+        BufferedWriter bw = new BufferedWriter(new FileWriter(in));
+        for (int i = 0; i < rows; i++) {
+            bw.write(i + ",name" + i + "\n");
+        }
+        bw.close();
+
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.VARSTRING_TYPE });
+        HeapFile hf = new HeapFile(out, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        // a fixed-width string column would need over 60 pages
+        assertTrue(hf.numPages() < 15);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(count, ((IntField) t.getField(0)).getValue());
+            assertEquals("name" + count, ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(rows, count);
+
+        hf.insertTuple(tid, tuple(rows, "inserted"));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test that VARSTRING_TYPE fields keep their type through both of
+     * its on-disk formats and through a SlottedPage.
+     */
+    @Test public void varStringRoundTrip() throws Exception {
+        Field f = Type.VARSTRING_TYPE.parse("abc");
+        assertEquals(Type.VARSTRING_TYPE, f.getType());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        f.serialize(new DataOutputStream(bytes));
+        // 4 byte length + 3 bytes, without padding
+        assertEquals(7, bytes.size());
+        Field read = Type.VARSTRING_TYPE.parse(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(f, read);
+        assertEquals(Type.VARSTRING_TYPE, read.getType());
+
+        ByteBuffer buf = ByteBuffer.allocate(16);
+        Type.VARSTRING_TYPE.serialize(f, buf, 3);
+        read = Type.VARSTRING_TYPE.parse(buf, 3);
+        assertEquals(f, read);
+        assertEquals(Type.VARSTRING_TYPE, read.getType());
+
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "abc"));
+        Tuple t = new SlottedPage(pid, page.getPageData()).iterator().next();
+        assertEquals(TD.getFieldType(1), t.getField(1).getType());
+        assertEquals(f, t.getField(1));
+    }
+
+    private static int countTuples(TuplePage page) {
+        int count = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -43,7 +43,7 @@ public class TestUtil {
      *   provided in the constructor. This iterator is already open.
      * @param width the number of fields in each tuple
      * @param tupdata an array such that the ith element the jth tuple lives
-     *   in slot j * width + i.  Objects can be strings or ints;  tuples must all be of same type.
+     *   in slot j * width + i.  Objects can be strings, ints or Fields;  tuples must all be of same type.
      * @require tupdata.length % width == 0
      * @throws DbException if we encounter an error creating the
      *   TupleIterator
@@ -60,6 +60,9 @@ public class TestUtil {
             if (tupdata[j] instanceof Integer) {
                 types[j] = Type.INT_TYPE;
             }
+            if (tupdata[j] instanceof Field) {
+                types[j] = ((Field) tupdata[j]).getType();
+            }
         }
         td = new TupleDesc(types);
 
@@ -70,6 +73,8 @@ public class TestUtil {
                 Object t = tupdata[i++];
                 if (t instanceof String)
                     f = new StringField((String)t, Type.STRING_LEN); 
+                else if (t instanceof Field)
+                    f = (Field) t;
                 else
                     f = new IntField((Integer)t);
 
@@ -190,6 +195,56 @@ public class TestUtil {
         return buf;
     }
 
+    /**
+     * @return a temporary file with the given suffix to build an index in;
+     *   it doesn't exist yet, and is deleted when the VM exits
+     */
+    public static File indexFile(String suffix) throws IOException {
+        File f = File.createTempFile("index", suffix);
+        f.delete();
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Adds an index to the Catalog, which builds it.
+     * @return the index
+     */
+    public static <T extends IndexFile> T addIndex(T index) throws IOException {
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    /**
+     * @return the number of tuples with each value from 0 to maxKey - 1 in
+     *   the given field
+     */
+    public static int[] counts(ArrayList<ArrayList<Integer>> tuples, int field,
+            int maxKey) {
+        int[] counts = new int[maxKey];
+        for (ArrayList<Integer> tuple : tuples) {
+            counts[tuple.get(field)]++;
+        }
+        return counts;
+    }
+
+    /**
+     * @return true if plan or an operator below it is an instance of op
+     */
+    public static boolean contains(DbIterator plan, Class<?> op) {
+        if (op.isInstance(plan)) {
+            return true;
+        }
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && contains(child, op)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Stub DbFile class for unit testing.
      */
@@ -206,6 +261,10 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public List<Page> readPages(PageId first, int count) {
+            throw new RuntimeException("not implemented");
+        }
+
         public int numPages() {
             throw new RuntimeException("not implemented");
         }
@@ -232,6 +291,10 @@ public class TestUtil {
             return tableid;
         }
 
+        public boolean assignId(int id) {
+            return false;
+        }
+
         public DbFileIterator iterator(TransactionId tid) {
             throw new RuntimeException("not implemented");
         }
@@ -239,6 +302,9 @@ public class TestUtil {
 		public TupleDesc getTupleDesc() {			
 			return td;
 		}
+
+        public void close() {
+        }
     }
 
     /**
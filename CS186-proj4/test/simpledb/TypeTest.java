@@ -0,0 +1,128 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TypeTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.DATE_TYPE },
+            new String[] { "id", "big", "price", "day" });
+
+    /**
+     * Unit test for Type.parse() and Type.forName().
+     */
+    @Test public void parse() throws Exception {
+        assertEquals(new LongField(9000000000L), Type.LONG_TYPE.parse(" 9000000000 "));
+        assertEquals(new DoubleField(-2.5), Type.DOUBLE_TYPE.parse("-2.5"));
+        assertEquals(new IntField(3), Type.INT_TYPE.parse("3"));
+        assertEquals(Type.DATE_TYPE, Type.forName("date"));
+        assertEquals(Type.LONG_TYPE, Type.forName("long"));
+
+        String[][] bad = { { "long", "1.5" }, { "double", "x" }, { "date", "2014-13-01" } };
+        for (String[] b : bad) {
+            try {
+                Type.forName(b[0]).parse(b[1]);
+                throw new AssertionError("parsed " + b[1] + " as a " + b[0]);
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Unit test for DateField parsing, printing and comparison.
+     */
+    @Test public void dates() throws Exception {
+        DateField day = DateField.parse("2014-04-01");
+        DateField later = DateField.parse("2014-04-01 12:30:00");
+        assertEquals("2014-04-01", day.toString());
+        assertEquals("2014-04-01 12:30:00", later.toString());
+        assertEquals(day.getValue() + (12 * 60 + 30) * 60 * 1000L, later.getValue());
+        assertTrue(later.compare(Predicate.Op.GREATER_THAN, day));
+        assertTrue(day.compare(Predicate.Op.EQUALS, DateField.parse("2014-04-01 00:00:00")));
+    }
+
+    /**
+     * Unit test that the new types go through a HeapFile loaded by the
+     * BulkLoader and through compressed pages unchanged.
+     */
+    @Test public void loadAndCompress() throws Exception {
+        File in = File.createTempFile("types", ".txt");
+        in.deleteOnExit();
+        PrintWriter out = new PrintWriter(in);
+        for (int i = 0; i < 1000; i++) {
+            out.println(i + "," + (i * 10000000000L) + "," + (i / 4.0) + ",2014-02-"
+                    + (i % 18 + 10));
+        }
+        out.close();
+        File dat = File.createTempFile("types", ".dat");
+        dat.deleteOnExit();
+        assertEquals(1000, new BulkLoader(TD, ',', 2, 4096).convert(in, dat));
+
+        HeapFile hf = new HeapFile(dat, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals(new LongField(i * 10000000000L), t.getField(1));
+            assertEquals(new DoubleField(i / 4.0), t.getField(2));
+            assertEquals(DateField.parse("2014-02-" + (i % 18 + 10)), t.getField(3));
+            count++;
+        }
+        it.close();
+        assertEquals(1000, count);
+
+        byte[] page = hf.readPage(new HeapPageId(hf.getId(), 0)).getPageData();
+        PageCompressor compressor = new PageCompressor(TD, PageCompressor.COLUMNS);
+        byte[] blob = compressor.compress(page);
+        assertTrue(blob.length < page.length);
+        assertTrue(Arrays.equals(page, compressor.decompress(blob)));
+    }
+
+    /**
+     * Unit test that TableStats estimates predicates on LONG fields.
+     */
+    @Test public void longSelectivity() throws Exception {
+        File in = File.createTempFile("types", ".txt");
+        in.deleteOnExit();
+        PrintWriter out = new PrintWriter(in);
+        for (int i = 0; i < 1000; i++) {
+            out.println(i + "," + (i * 10000000000L) + ",0,2014-01-01");
+        }
+        out.close();
+        File dat = File.createTempFile("types", ".dat");
+        dat.deleteOnExit();
+        new BulkLoader(TD, ',').convert(in, dat);
+        HeapFile hf = new HeapFile(dat, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TableStats stats = new TableStats(hf.getId(), 1);
+        assertEquals(0.5, stats.estimateSelectivity(1, Predicate.Op.LESS_THAN,
+                new LongField(5000000000000L)), 0.05);
+        assertEquals(1.0, stats.estimateSelectivity(3, Predicate.Op.EQUALS,
+                DateField.parse("2014-01-01")), 0.001);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TypeTest.class);
+    }
+}
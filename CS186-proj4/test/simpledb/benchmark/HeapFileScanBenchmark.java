@@ -0,0 +1,86 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the throughput of reading every page of a table straight from
+ * disk (a scan with a cold buffer pool) using the old one-RandomAccessFile-
+ * per-page path, HeapFile's long-lived FileChannel, and vectored reads of
+ * runs of pages with HeapFile.readPages.
+ * <p>
+ * Usage: HeapFileScanBenchmark [pages] [rounds] [run pages]
+ */
+public class HeapFileScanBenchmark {
+
+    private static final int COLUMNS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int run = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1);
+        File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS,
+                pages * tuplesPerPage, 1 << 16, null, null);
+        HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+        System.out.println("table: " + hf.numPages() + " pages");
+
+        for (int r = 0; r < rounds; r++) {
+            long before = time(hf, true);
+            long after = time(hf, false);
+            long vectored = timeRuns(hf, run);
+            System.out.printf("round %d: per-page open %8.0f pages/s, "
+                    + "channel %8.0f pages/s, %d-page runs %8.0f pages/s%n", r,
+                    pagesPerSecond(hf.numPages(), before),
+                    pagesPerSecond(hf.numPages(), after), run,
+                    pagesPerSecond(hf.numPages(), vectored));
+        }
+        Database.getCatalog().clear();
+    }
+
+    private static long time(HeapFile hf, boolean reopenPerPage)
+            throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            if (reopenPerPage) {
+                readPageReopening(hf, pid);
+            } else {
+                hf.readPage(pid);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long timeRuns(HeapFile hf, int run) {
+        long start = System.nanoTime();
+        for (int i = 0; i < hf.numPages(); i += run) {
+            hf.readPages(new HeapPageId(hf.getId(), i), run);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** The page read HeapFile used before it kept its file open. */
+    private static Page readPageReopening(HeapFile hf, HeapPageId pid)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "r");
+        try {
+            int size = BufferPool.getPageSize();
+            raf.seek((long) (pid.pageNumber() + 1) * size);
+            byte[] data = new byte[size];
+            raf.read(data, 0, size);
+            return new HeapPage(pid, data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static double pagesPerSecond(int pages, long nanos) {
+        return pages / (nanos / 1e9);
+    }
+}
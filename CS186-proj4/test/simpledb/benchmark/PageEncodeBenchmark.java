@@ -0,0 +1,82 @@
+package simpledb.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import simpledb.*;
+import simpledb.TestUtil.SkeletonFile;
+
+/**
+ * Measures how many HeapPages are encoded per second, as on every flush of a
+ * dirty page and every commit. Three pages are encoded over and over: one as
+ * it was read, whose slots are all copied in bulk; one whose tuples have all
+ * been decoded and so are encoded field by field; and one with a single
+ * inserted tuple among bytes as read. Each is encoded both into a new array
+ * with getPageData and into a reused buffer with writePageData.
+ * <p>
+ * Usage: PageEncodeBenchmark [columns] [pages] [rounds]
+ */
+public class PageEncodeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int columns = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        int tableId = -1;
+        Database.getCatalog().addTable(new SkeletonFile(tableId,
+                Utility.getTupleDesc(columns)), "encode");
+        HeapPageId pid = new HeapPageId(tableId, 0);
+
+        HeapPage full = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; full.getNumEmptySlots() > 0; i++) {
+            full.insertTuple(Utility.getHeapTuple(i, columns));
+        }
+        byte[] data = full.getPageData();
+
+        HeapPage asRead = new HeapPage(pid, data);
+        HeapPage decoded = new HeapPage(pid, data);
+        Iterator<Tuple> it = decoded.iterator();
+        while (it.hasNext()) {
+            it.next();
+        }
+        HeapPage oneInsert = new HeapPage(pid, data);
+        it = oneInsert.iterator();
+        oneInsert.deleteTuple(it.next());
+        oneInsert.insertTuple(Utility.getHeapTuple(-1, columns));
+
+        HeapPage[] cases = { asRead, decoded, oneInsert };
+        String[] names = { "as read", "decoded", "one insert" };
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        for (int r = 0; r < rounds; r++) {
+            for (int c = 0; c < cases.length; c++) {
+                long arrays = time(cases[c], null, pages);
+                long reused = time(cases[c], buf, pages);
+                System.out.printf("round %d, %-10s: getPageData %9.0f pages/s, "
+                        + "writePageData %9.0f pages/s%n", r, names[c],
+                        pages / (arrays / 1e9), pages / (reused / 1e9));
+            }
+        }
+        Database.getCatalog().clear();
+    }
+
+    /** Encodes page n times, into buf or, if buf is null, new arrays. */
+    private static long time(HeapPage page, ByteBuffer buf, int n) {
+        long start = System.nanoTime();
+        int check = 0;
+        for (int i = 0; i < n; i++) {
+            if (buf == null) {
+                check += page.getPageData()[i % 64];
+            } else {
+                page.writePageData(buf);
+                check += buf.get(i % 64);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        // keeps the JIT from dropping the encoding
+        if (check == 42) {
+            System.out.print("");
+        }
+        return elapsed;
+    }
+}
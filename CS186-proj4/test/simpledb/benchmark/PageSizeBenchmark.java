@@ -0,0 +1,73 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.Random;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures how the page size of a database affects scans and point lookups.
+ * For each page size the same table is written, then scanned through a cold
+ * buffer pool, then probed by reading the single page that holds a random
+ * tuple, as a lookup through an index would.
+ * <p>
+ * Usage: PageSizeBenchmark [tuples] [lookups]
+ */
+public class PageSizeBenchmark {
+
+    private static final int COLUMNS = 2;
+    private static final int[] PAGE_SIZES = { 4096, 8192, 16384, 32768, 65536 };
+
+    public static void main(String[] args) throws Exception {
+        int tuples = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        for (int size : PAGE_SIZES) {
+            Database.getCatalog().clear();
+            BufferPool.setPageSize(size);
+            File f = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS,
+                    tuples, 1 << 16, null, null);
+            HeapFile hf = Utility.openHeapFile(COLUMNS, f);
+
+            long scan = timeScan(hf);
+            long lookup = timeLookups(hf, tuples, lookups);
+            System.out.printf("%6d-byte pages: %6d pages, scan %10.0f tuples/s, "
+                    + "lookup %8.0f lookups/s%n", size, hf.numPages(),
+                    tuples / (scan / 1e9), lookups / (lookup / 1e9));
+            f.delete();
+        }
+        Database.getCatalog().clear();
+        BufferPool.resetPageSize();
+    }
+
+    private static long timeScan(HeapFile hf) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        return elapsed;
+    }
+
+    /** Reads the page of each probed tuple straight from the file. */
+    private static long timeLookups(HeapFile hf, int tuples, int lookups)
+            throws Exception {
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1);
+        Random r = new Random(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            int row = r.nextInt(tuples);
+            HeapPage page = (HeapPage) hf.readPage(
+                    new HeapPageId(hf.getId(), row / tuplesPerPage));
+            page.getTuple(row % tuplesPerPage);
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -7,6 +7,7 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -80,10 +81,22 @@ public class ScanTest extends SimpleDbTestBase {
 
             @Override
             public Page readPage(PageId pid) throws NoSuchElementException {
-                readCount += 1;
+                // also called by the read-ahead thread
+                synchronized (this) {
+                    readCount += 1;
+                }
                 return super.readPage(pid);
             }
 
+            @Override
+            public List<Page> readPages(PageId first, int count) {
+                List<Page> pages = super.readPages(first, count);
+                synchronized (this) {
+                    readCount += pages.size();
+                }
+                return pages;
+            }
+
             public int readCount = 0;
         }
 